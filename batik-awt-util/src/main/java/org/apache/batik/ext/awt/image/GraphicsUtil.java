@@ -55,8 +55,10 @@ import org.apache.batik.ext.awt.image.rendered.Any2LsRGBRed;
 import org.apache.batik.ext.awt.image.rendered.Any2sRGBRed;
 import org.apache.batik.ext.awt.image.rendered.BufferedImageCachableRed;
 import org.apache.batik.ext.awt.image.rendered.CachableRed;
+import org.apache.batik.ext.awt.image.rendered.ColorSpaceLut;
 import org.apache.batik.ext.awt.image.rendered.FormatRed;
 import org.apache.batik.ext.awt.image.rendered.RenderedImageCachableRed;
+import org.apache.batik.ext.awt.image.rendered.Resampler;
 import org.apache.batik.ext.awt.image.rendered.TranslateRed;
 
 
@@ -149,8 +151,13 @@ public class GraphicsUtil {
             // There is a huge win if we can use the BI directly here.
             // This results in something like a 10x performance gain
             // for images, the best thing is this is the common case.
+            // Images reduced by half or more go through AffineRed,
+            // which filters them instead of skipping pixels.
             if (g2dCS.equals(srcCM.getColorSpace()) &&
-                drawCM.equals(srcCM)) {
+                drawCM.equals(srcCM) &&
+                !Resampler.isReduction
+                (at, g2d.getRenderingHint
+                 (RenderingHints.KEY_INTERPOLATION))) {
                 // System.err.println("Fast Case");
                 g2d.setTransform(at);
                 BufferedImageCachableRed bicr;
@@ -683,6 +690,16 @@ public class GraphicsUtil {
         if (cs == ColorSpace.getInstance(ColorSpace.CS_LINEAR_RGB))
             return src;
 
+        // Undo a conversion from linear sRGB instead of converting back.
+        if (src instanceof Any2sRGBRed) {
+            CachableRed cr = (CachableRed)src.getSources().get(0);
+            cm = cr.getColorModel();
+            if ((cm != null) &&
+                (cm.getColorSpace() ==
+                 ColorSpace.getInstance(ColorSpace.CS_LINEAR_RGB)))
+                return cr;
+        }
+
         return new Any2LsRGBRed(src);
     }
 
@@ -702,6 +719,16 @@ public class GraphicsUtil {
         if (cs == ColorSpace.getInstance(ColorSpace.CS_sRGB))
             return src;
 
+        // Undo a conversion from sRGB instead of converting back.
+        if (src instanceof Any2LsRGBRed) {
+            CachableRed cr = (CachableRed)src.getSources().get(0);
+            cm = cr.getColorModel();
+            if ((cm != null) &&
+                (cm.getColorSpace() ==
+                 ColorSpace.getInstance(ColorSpace.CS_sRGB)))
+                return cr;
+        }
+
         return new Any2sRGBRed(src);
     }
 
@@ -1018,6 +1045,47 @@ public class GraphicsUtil {
         return cm.coerceData(wr, newAlphaPreMult);
     }
 
+    /**
+     * Copies the data of <code>src</code> to <code>wr</code> and coerces
+     * it to match newAlphaPreMult.  When <code>src</code> converts
+     * integer packed data between sRGB and linear sRGB, the data of
+     * its source is converted and coerced in a single pass.
+     *
+     * @param src The image to copy the data of.
+     * @param wr The raster to copy to, compatible with the colormodel
+     *           of <code>src</code>.
+     * @param newAlphaPreMult The desired state of alpha Premult for raster.
+     * @return A new colormodel that matches newAlphaPreMult.
+     */
+    public static ColorModel copyCoercedData(CachableRed src,
+                                             WritableRaster wr,
+                                             boolean newAlphaPreMult) {
+        ColorModel cm = src.getColorModel();
+        boolean toLinear = src instanceof Any2LsRGBRed;
+        if ((toLinear || (src instanceof Any2sRGBRed)) &&
+            cm.hasAlpha() && (wr.getNumBands() == 4) &&
+            Any2sRGBRed.is_INT_PACK_COMP(wr.getSampleModel())) {
+            CachableRed cr = (CachableRed)src.getSources().get(0);
+            ColorModel srcCM = cr.getColorModel();
+            ColorSpace cs = ColorSpace.getInstance
+                (toLinear ? ColorSpace.CS_sRGB : ColorSpace.CS_LINEAR_RGB);
+            if ((srcCM != null) && srcCM.hasAlpha() &&
+                (srcCM.getColorSpace() == cs)) {
+                cr.copyData(wr);
+                if (toLinear)
+                    ColorSpaceLut.toLinear
+                        (wr, srcCM.isAlphaPremultiplied(), newAlphaPreMult);
+                else
+                    ColorSpaceLut.toSRGB
+                        (wr, srcCM.isAlphaPremultiplied(), newAlphaPreMult);
+                return coerceColorModel(cm, newAlphaPreMult);
+            }
+        }
+
+        src.copyData(wr);
+        return coerceData(wr, cm, newAlphaPreMult);
+    }
+
     /**
      * Coerces data within a bufferedImage to match newAlphaPreMult,
      * Note that this can not change the colormodel of bi so you
@@ -1061,9 +1061,7 @@ public class SVGComposite
                     int r = 0xFF & workTbl[(((srcP>>  8)&0xFF00)|((dstP>> 16)&0x00FF))];
                     int g = 0xFF & workTbl[(((srcP     )&0xFF00)|((dstP>>  8)&0x00FF))];
                     int b = 0xFF & workTbl[(((srcP<<  8)&0xFF00)|((dstP     )&0x00FF))];
-                    if (r>a) a = r;
-                    if (g>a) a = g;
-                    if (b>a) a = b;
+                    a = Math.max(a, Math.max(r, Math.max(g, b)));
                     dstOutPixels[dstOutSp++] = (a<<24)|(r<<16)|(g<<8)|(b);
                 }
                 srcSp    += srcAdjust;
@@ -1378,20 +1376,23 @@ public class SVGComposite
                     dstV = (dstP>> 16)&0xFF;
                     dstR = ((srcM*srcV + pt5)>>>24) + dstV;
                     tmp  = ((dstM*dstV + pt5)>>>24) + srcV;
-                    if (dstR > tmp) dstR = tmp;
+                    tmp -= dstR;
+                    dstR += tmp & (tmp>>31);          // min
 
                     srcV = (srcP>>  8)&0xFF;
                     dstV = (dstP>>  8)&0xFF;
                     dstG = ((srcM*srcV + pt5)>>>24) + dstV;
                     tmp  = ((dstM*dstV + pt5)>>>24) + srcV;
-                    if (dstG > tmp) dstG = tmp;
+                    tmp -= dstG;
+                    dstG += tmp & (tmp>>31);          // min
 
 
                     srcV = (srcP     )&0xFF;
                     dstV = (dstP     )&0xFF;
                     dstB = ((srcM*srcV + pt5)>>>24) + dstV;
                     tmp  = ((dstM*dstV + pt5)>>>24) + srcV;
-                    if (dstB > tmp) dstB = tmp;
+                    tmp -= dstB;
+                    dstB += tmp & (tmp>>31);          // min
 
                     dstA &= 0xFF; // trim to 8 bit
                     dstR &= 0xFF;
@@ -1503,20 +1504,23 @@ public class SVGComposite
                     dstV = (dstP>> 16)&0xFF;
                     dstR = ((srcM*srcV + pt5)>>>24) + dstV;
                     tmp  = ((dstM*dstV + pt5)>>>24) + srcV;
-                    if (dstR < tmp) dstR = tmp;
+                    tmp -= dstR;
+                    dstR += tmp & ~(tmp>>31);         // max
 
                     srcV = (srcP>>  8)&0xFF;
                     dstV = (dstP>>  8)&0xFF;
                     dstG = ((srcM*srcV + pt5)>>>24) + dstV;
                     tmp  = ((dstM*dstV + pt5)>>>24) + srcV;
-                    if (dstG < tmp) dstG = tmp;
+                    tmp -= dstG;
+                    dstG += tmp & ~(tmp>>31);         // max
 
 
                     srcV = (srcP     )&0xFF;
                     dstV = (dstP     )&0xFF;
                     dstB = ((srcM*srcV + pt5)>>>24) + dstV;
                     tmp  = ((dstM*dstV + pt5)>>>24) + srcV;
-                    if (dstB < tmp) dstB = tmp;
+                    tmp -= dstB;
+                    dstB += tmp & ~(tmp>>31);         // max
 
                     dstA &= 0xFF; // trim to 8 bit
                     dstR &= 0xFF;
@@ -197,7 +197,7 @@ public class ComponentTransferRable8Bit
     /**
      * Converts a ComponentTransferFunction to a TransferFunction
      */
-    private static TransferFunction getTransferFunction
+    static TransferFunction getTransferFunction
         (ComponentTransferFunction function){
 
         TransferFunction txfFunc = null;
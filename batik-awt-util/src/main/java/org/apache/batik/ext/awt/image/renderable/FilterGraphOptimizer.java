@@ -0,0 +1,461 @@
+/*
+
+   Licensed to the Apache Software Foundation (ASF) under one or more
+   contributor license agreements.  See the NOTICE file distributed with
+   this work for additional information regarding copyright ownership.
+   The ASF licenses this file to You under the Apache License, Version 2.0
+   (the "License"); you may not use this file except in compliance with
+   the License.  You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+ */
+package org.apache.batik.ext.awt.image.renderable;
+
+import java.awt.geom.AffineTransform;
+import java.awt.geom.Rectangle2D;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.batik.ext.awt.image.ComponentTransferFunction;
+import org.apache.batik.ext.awt.image.CompositeRule;
+import org.apache.batik.ext.awt.image.ConcreteComponentTransferFunction;
+import org.apache.batik.ext.awt.image.PadMode;
+
+/**
+ * Simplifies a filter graph before it is rendered.  The graphs built
+ * from SVG filter elements wrap every primitive in a zero padding to
+ * its primitive subregion, which makes chains of cheap per pixel
+ * operations walk the whole region once per primitive.  This pass:
+ * <ul>
+ *   <li>removes paddings that are already implied by an inner
+ *       padding to a larger or equal region,</li>
+ *   <li>drops identity color matrices, component transfers, affine
+ *       transforms and single input merges,</li>
+ *   <li>folds consecutive translations (feOffset) into a single
+ *       affine transform, so the image is resampled only once,</li>
+ *   <li>merges consecutive color matrices into one matrix, and
+ *       consecutive component transfers and diagonal color matrices
+ *       into one lookup table.</li>
+ * </ul>
+ *
+ * Only the sources of the known filter types are rewritten, and no
+ * existing node is changed in a way that alters its own result, so
+ * nodes shared with other consumers stay valid.  The pass can be
+ * turned off with {@link #setEnabled} to compare against the graph
+ * as it was built.
+ *
+ * @version $Id$
+ */
+public final class FilterGraphOptimizer {
+
+    private static volatile boolean enabled = true;
+
+    /**
+     * Turns the optimization of filter graphs on or off.  It is on by
+     * default.
+     */
+    public static void setEnabled(boolean b) {
+        enabled = b;
+    }
+
+    /**
+     * Returns true if filter graphs are optimized.
+     */
+    public static boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Returns a filter that renders like <code>f</code>, possibly
+     * with fewer primitives.  The sources of the nodes of the graph
+     * may be replaced by equivalent filters.
+     */
+    public static Filter optimize(Filter f) {
+        if (!enabled || f == null)
+            return f;
+        return new FilterGraphOptimizer().visit(f);
+    }
+
+    /**
+     * The optimized version of every node visited so far, so shared
+     * nodes are only rewritten once.
+     */
+    private final Map done = new IdentityHashMap();
+
+    private FilterGraphOptimizer() {
+    }
+
+    private Filter visit(Filter f) {
+        Filter r = (Filter)done.get(f);
+        if (r != null)
+            return r;
+        visitSources(f);
+        r = rewrite(f);
+        done.put(f, r);
+        return r;
+    }
+
+    /**
+     * Optimizes the sources of <code>f</code> and installs them, if
+     * <code>f</code> is of a type whose sources can be replaced.
+     */
+    private void visitSources(Filter f) {
+        if (f instanceof PadRable) {
+            PadRable p = (PadRable)f;
+            Filter s = visit(p.getSource());
+            if (s != p.getSource()) p.setSource(s);
+        } else if (f instanceof AffineRable) {
+            AffineRable p = (AffineRable)f;
+            Filter s = visit(p.getSource());
+            if (s != p.getSource()) p.setSource(s);
+        } else if (f instanceof ColorMatrixRable) {
+            ColorMatrixRable p = (ColorMatrixRable)f;
+            Filter s = visit(p.getSource());
+            if (s != p.getSource()) p.setSource(s);
+        } else if (f instanceof ComponentTransferRable) {
+            ComponentTransferRable p = (ComponentTransferRable)f;
+            Filter s = visit(p.getSource());
+            if (s != p.getSource()) p.setSource(s);
+        } else if (f instanceof GaussianBlurRable) {
+            GaussianBlurRable p = (GaussianBlurRable)f;
+            Filter s = visit(p.getSource());
+            if (s != p.getSource()) p.setSource(s);
+        } else if (f instanceof MorphologyRable) {
+            MorphologyRable p = (MorphologyRable)f;
+            Filter s = visit(p.getSource());
+            if (s != p.getSource()) p.setSource(s);
+        } else if (f instanceof ConvolveMatrixRable) {
+            ConvolveMatrixRable p = (ConvolveMatrixRable)f;
+            Filter s = visit(p.getSource());
+            if (s != p.getSource()) p.setSource(s);
+        } else if (f instanceof TileRable) {
+            TileRable p = (TileRable)f;
+            Filter s = visit(p.getSource());
+            if (s != p.getSource()) p.setSource(s);
+        } else if (f instanceof DiffuseLightingRable) {
+            DiffuseLightingRable p = (DiffuseLightingRable)f;
+            Filter s = visit(p.getSource());
+            if (s != p.getSource()) p.setSource(s);
+        } else if (f instanceof SpecularLightingRable) {
+            SpecularLightingRable p = (SpecularLightingRable)f;
+            Filter s = visit(p.getSource());
+            if (s != p.getSource()) p.setSource(s);
+        } else if (f instanceof CompositeRable) {
+            List srcs = visitAll(f.getSources());
+            if (srcs != null) ((CompositeRable)f).setSources(srcs);
+        } else if (f instanceof DisplacementMapRable) {
+            List srcs = visitAll(f.getSources());
+            if (srcs != null) ((DisplacementMapRable)f).setSources(srcs);
+        }
+    }
+
+    /**
+     * Optimizes a list of sources.  Returns the new list, or null if
+     * none of the sources changed.
+     */
+    private List visitAll(List srcs) {
+        if (srcs == null)
+            return null;
+        List ret = new ArrayList(srcs.size());
+        boolean changed = false;
+        Iterator i = srcs.iterator();
+        while (i.hasNext()) {
+            Filter s = (Filter)i.next();
+            Filter o = visit(s);
+            changed |= (o != s);
+            ret.add(o);
+        }
+        return changed ? ret : null;
+    }
+
+    /**
+     * Applies the rewriting rules to <code>f</code>, whose sources
+     * are already optimized, until none applies.
+     */
+    private Filter rewrite(Filter f) {
+        for (;;) {
+            Filter r;
+            if (f instanceof PadRable)
+                r = rewritePad((PadRable)f);
+            else if (f instanceof AffineRable)
+                r = rewriteAffine((AffineRable)f);
+            else
+                r = f;
+            if (r == f)
+                return f;
+            f = r;
+        }
+    }
+
+    private Filter rewritePad(PadRable pad) {
+        if (pad.getPadMode() != PadMode.ZERO_PAD)
+            return pad;
+        Rectangle2D r = pad.getPadRect();
+        Filter src = pad.getSource();
+
+        // Pad(Pad(x, r1), r) with r inside r1 is Pad(x, r).
+        PadRable in = asZeroPad(src);
+        if (in != null && in.getPadRect().contains(r))
+            return newPad(in.getSource(), r);
+
+        // Primitives that leave their input alone.
+        Filter s = identitySource(src);
+        if (s != null)
+            return newPad(s, r);
+
+        // Aff2(Pad(Aff1(y), r1)) with a translation Aff2 is
+        // Pad(Aff2(Aff1(y)), Aff2(r1)), where the affines fold.
+        if (src instanceof AffineRable) {
+            AffineRable aff = (AffineRable)src;
+            AffineTransform at = aff.getAffine();
+            in = asZeroPad(aff.getSource());
+            if (isTranslation(at) && in != null
+                && in.getSource() instanceof AffineRable) {
+                Filter moved = rewrite
+                    (new AffineRable8Bit(in.getSource(), at));
+                Rectangle2D r1 = at.createTransformedShape
+                    (in.getPadRect()).getBounds2D();
+                return newPad(newPad(moved, r1), r);
+            }
+        }
+
+        // Op2(Pad(Op1(x), r1)) with r inside r1: one pass over x.
+        if (isColorOp(src)) {
+            AbstractColorInterpolationRable op2
+                = (AbstractColorInterpolationRable)src;
+            in = asZeroPad((Filter)op2.getSources().get(0));
+            if (in != null && in.getPadRect().contains(r)
+                && isColorOp(in.getSource())) {
+                AbstractColorInterpolationRable op1
+                    = (AbstractColorInterpolationRable)in.getSource();
+                Filter m = merge(op1, op2);
+                if (m != null)
+                    return newPad(m, r);
+            }
+        }
+        return pad;
+    }
+
+    private Filter rewriteAffine(AffineRable aff) {
+        if (!(aff.getSource() instanceof AffineRable))
+            return aff;
+        AffineRable in = (AffineRable)aff.getSource();
+        AffineTransform at = aff.getAffine();
+        at.concatenate(in.getAffine());
+        if (at.isIdentity())
+            return in.getSource();
+        return new AffineRable8Bit(in.getSource(), at);
+    }
+
+    private static PadRable asZeroPad(Filter f) {
+        if (!(f instanceof PadRable))
+            return null;
+        PadRable p = (PadRable)f;
+        return (p.getPadMode() == PadMode.ZERO_PAD) ? p : null;
+    }
+
+    private static PadRable newPad(Filter src, Rectangle2D r) {
+        return new PadRable8Bit(src, r, PadMode.ZERO_PAD);
+    }
+
+    private static boolean isColorOp(Filter f) {
+        return (f instanceof ColorMatrixRable8Bit)
+            || (f instanceof ComponentTransferRable8Bit);
+    }
+
+    private static boolean isTranslation(AffineTransform at) {
+        return (at.getType() & ~AffineTransform.TYPE_TRANSLATION) == 0;
+    }
+
+    /**
+     * Returns the source of <code>f</code> if <code>f</code> passes
+     * it through unchanged (except for its color space), null
+     * otherwise.
+     */
+    private static Filter identitySource(Filter f) {
+        if (f instanceof ColorMatrixRable8Bit) {
+            ColorMatrixRable8Bit cm = (ColorMatrixRable8Bit)f;
+            if (isIdentity(cm.getMatrix()))
+                return cm.getSource();
+        } else if (f instanceof ComponentTransferRable8Bit) {
+            ComponentTransferRable8Bit ct = (ComponentTransferRable8Bit)f;
+            if (isIdentity(ct.getAlphaFunction())
+                && isIdentity(ct.getRedFunction())
+                && isIdentity(ct.getGreenFunction())
+                && isIdentity(ct.getBlueFunction()))
+                return ct.getSource();
+        } else if (f instanceof AffineRable) {
+            AffineRable aff = (AffineRable)f;
+            if (aff.getAffine().isIdentity())
+                return aff.getSource();
+        } else if (f instanceof CompositeRable8Bit) {
+            CompositeRable8Bit c = (CompositeRable8Bit)f;
+            List srcs = c.getSources();
+            if (srcs.size() == 1
+                && c.getCompositeRule() == CompositeRule.OVER)
+                return (Filter)srcs.get(0);
+        }
+        return null;
+    }
+
+    private static boolean isIdentity(float[][] m) {
+        for (int i = 0; i < 4; i++)
+            for (int j = 0; j < 5; j++)
+                if (m[i][j] != ((i == j) ? 1 : 0))
+                    return false;
+        return true;
+    }
+
+    private static boolean isIdentity(ComponentTransferFunction f) {
+        if (f == null)
+            return true;
+        switch (f.getType()) {
+        case ComponentTransferFunction.IDENTITY:
+            return true;
+        case ComponentTransferFunction.LINEAR:
+            return f.getSlope() == 1 && f.getIntercept() == 0;
+        default:
+            return false;
+        }
+    }
+
+    /**
+     * Returns a single filter equivalent to <code>op2</code> applied
+     * to the result of <code>op1</code>, or null if they can not be
+     * merged.
+     */
+    private static Filter merge(AbstractColorInterpolationRable op1,
+                                AbstractColorInterpolationRable op2) {
+        if (op1.isColorSpaceLinear() != op2.isColorSpaceLinear())
+            return null;
+        Filter src = (Filter)op1.getSources().get(0);
+        AbstractColorInterpolationRable ret = null;
+
+        byte[][] lut1 = getLookupTables(op1);
+        byte[][] lut2 = getLookupTables(op2);
+        if (lut1 != null && lut2 != null) {
+            // Both are per channel lookups, compose the tables.
+            ComponentTransferFunction[] fn
+                = new ComponentTransferFunction[4];
+            float[] table = new float[256];
+            for (int c = 0; c < 4; c++) {
+                for (int v = 0; v < 256; v++) {
+                    int t = lut2[c][lut1[c][v] & 0xff] & 0xff;
+                    // Centered so the conversion back is exact.
+                    table[v] = (t + 0.5f) / 255f;
+                }
+                fn[c] = ConcreteComponentTransferFunction
+                    .getDiscreteTransfer(table);
+            }
+            ret = new ComponentTransferRable8Bit
+                (src,
+                 fn[ComponentTransferRable8Bit.ALPHA],
+                 fn[ComponentTransferRable8Bit.RED],
+                 fn[ComponentTransferRable8Bit.GREEN],
+                 fn[ComponentTransferRable8Bit.BLUE]);
+        } else if (op1 instanceof ColorMatrixRable8Bit
+                   && op2 instanceof ColorMatrixRable8Bit) {
+            float[][] m1 = ((ColorMatrixRable8Bit)op1).getMatrix();
+            float[][] m2 = ((ColorMatrixRable8Bit)op2).getMatrix();
+            // The result of the first matrix is clamped, the product
+            // is only equivalent if that never happens.
+            if (!isClampFree(m1))
+                return null;
+            float[][] m = new float[4][5];
+            for (int i = 0; i < 4; i++) {
+                for (int j = 0; j < 5; j++) {
+                    float v = (j == 4) ? m2[i][4] : 0;
+                    for (int k = 0; k < 4; k++)
+                        v += m2[i][k] * m1[k][j];
+                    m[i][j] = v;
+                }
+            }
+            ret = (ColorMatrixRable8Bit)ColorMatrixRable8Bit.buildMatrix(m);
+            ((ColorMatrixRable8Bit)ret).setSource(src);
+        }
+        if (ret != null)
+            ret.setColorSpaceLinear(op1.isColorSpaceLinear());
+        return ret;
+    }
+
+    /**
+     * Returns the alpha, red, green and blue lookup tables applied by
+     * <code>f</code>, or null if it is not a per channel lookup.
+     */
+    private static byte[][] getLookupTables(Filter f) {
+        byte[][] ret = new byte[4][];
+        if (f instanceof ComponentTransferRable8Bit) {
+            ComponentTransferRable8Bit ct = (ComponentTransferRable8Bit)f;
+            ret[0] = getLookupTable(ct.getAlphaFunction());
+            ret[1] = getLookupTable(ct.getRedFunction());
+            ret[2] = getLookupTable(ct.getGreenFunction());
+            ret[3] = getLookupTable(ct.getBlueFunction());
+            return ret;
+        }
+        if (!(f instanceof ColorMatrixRable8Bit))
+            return null;
+        float[][] m = ((ColorMatrixRable8Bit)f).getMatrix();
+        for (int i = 0; i < 4; i++)
+            for (int j = 0; j < 4; j++)
+                if ((i != j) && (m[i][j] != 0))
+                    return null;
+        // Matrix rows are red, green, blue, alpha.
+        ret[0] = getLookupTable(m, 3);
+        ret[1] = getLookupTable(m, 0);
+        ret[2] = getLookupTable(m, 1);
+        ret[3] = getLookupTable(m, 2);
+        return ret;
+    }
+
+    private static byte[] getLookupTable(ComponentTransferFunction f) {
+        if (f == null)
+            f = ConcreteComponentTransferFunction.getIdentityTransfer();
+        return ComponentTransferRable8Bit.getTransferFunction(f)
+            .getLookupTable();
+    }
+
+    /**
+     * Returns the table for one channel of a diagonal color matrix,
+     * computed the way ColorMatrixRed does.
+     */
+    private static byte[] getLookupTable(float[][] m, int c) {
+        float a = m[c][c] / 255f;
+        float b = m[c][4] / 255f;
+        byte[] lut = new byte[256];
+        for (int v = 0; v < 256; v++) {
+            int d = (int)((a * v + b) * 255.0f);
+            if (d < 0)   d = 0;
+            if (d > 255) d = 255;
+            lut[v] = (byte)d;
+        }
+        return lut;
+    }
+
+    /**
+     * Returns true if no row of the matrix can leave the [0, 255]
+     * range for inputs in that range.
+     */
+    private static boolean isClampFree(float[][] m) {
+        for (int i = 0; i < 4; i++) {
+            double min = m[i][4], max = m[i][4];
+            for (int j = 0; j < 4; j++) {
+                double v = m[i][j] * 255.0;
+                if (v < 0) min += v;
+                else       max += v;
+            }
+            if (min < -1e-3 || max > 255 + 1e-3)
+                return false;
+        }
+        return true;
+    }
+}
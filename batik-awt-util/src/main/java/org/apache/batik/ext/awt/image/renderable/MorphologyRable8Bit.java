@@ -37,6 +37,7 @@ import org.apache.batik.ext.awt.image.rendered.CachableRed;
 import org.apache.batik.ext.awt.image.rendered.MorphologyOp;
 import org.apache.batik.ext.awt.image.rendered.PadRed;
 import org.apache.batik.ext.awt.image.rendered.RenderedImageCachableRed;
+import org.apache.batik.ext.awt.image.rendered.VanHerkMorphologyOp;
 
 /**
  * Implements a Morphology operation, where the kernel size is
@@ -180,7 +181,7 @@ public class MorphologyRable8Bit
 
         MorphologyOp op = null;
         if(radX > 0 && radY > 0){
-            op = new MorphologyOp(radX, radY, doDilation);
+            op = new VanHerkMorphologyOp(radX, radY, doDilation);
         }
 
         // This is the affine transform between our intermediate
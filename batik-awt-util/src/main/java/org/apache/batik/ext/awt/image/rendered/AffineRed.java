@@ -51,6 +51,11 @@ public class AffineRed extends AbstractRed {
     AffineTransform src2me;
     AffineTransform me2src;
 
+    /**
+     * Scales the source down when the transform allows it, or null.
+     */
+    Resampler resampler;
+
     public AffineTransform getTransform() {
         return (AffineTransform)src2me.clone();
     }
@@ -96,6 +101,12 @@ public class AffineRed extends AbstractRed {
         // Finish initializing our base class...
         init(src, myBounds, cm, sm,
              (int)pt.getX(), (int)pt.getY(), null);
+
+        // Filter images that are scaled down instead of interpolating
+        // them, which would skip source pixels.
+        if ((me2src != null) &&
+            Resampler.isSupported(src2me, hints, cm, sm))
+            resampler = new Resampler(src, src2me, hints, cm);
     }
 
     public WritableRaster copyData(WritableRaster wr) {
@@ -127,6 +138,12 @@ public class AffineRed extends AbstractRed {
         if (me2src == null)
             return;
 
+        if ((resampler != null) &&
+            GraphicsUtil.is_INT_PACK_Data(wr.getSampleModel(), true)) {
+            resampler.resample(wr);
+            return;
+        }
+
         Rectangle srcR
             = me2src.createTransformedShape(wr.getBounds()).getBounds();
 
@@ -107,6 +107,12 @@ public class Any2LsRGBRed extends AbstractRed {
         if (srcIssRGB &&
             Any2sRGBRed.is_INT_PACK_COMP(wr.getSampleModel())) {
             src.copyData(wr);
+            if (srcCM.hasAlpha() && (wr.getNumBands() == 4)) {
+                // Unpremultiply and convert in one pass.
+                ColorSpaceLut.toLinear
+                    (wr, srcCM.isAlphaPremultiplied(), false);
+                return wr;
+            }
             if (srcCM.hasAlpha())
                 GraphicsUtil.coerceData(wr, srcCM, false);
             Any2sRGBRed.applyLut_INT(wr, sRGBToLsRGBLut);
@@ -164,6 +164,11 @@ public class Any2sRGBRed extends AbstractRed {
         if (srcIsLsRGB &&
             is_INT_PACK_COMP(wr.getSampleModel())) {
             src.copyData(wr);
+            if (srcCM.hasAlpha() && (wr.getNumBands() == 4)) {
+                // Unpremultiply and convert in one pass.
+                ColorSpaceLut.toSRGB(wr, srcCM.isAlphaPremultiplied(), false);
+                return wr;
+            }
             if (srcCM.hasAlpha())
                 GraphicsUtil.coerceData(wr, srcCM, false);
             applyLut_INT(wr, linearToSRGBLut);
@@ -23,6 +23,7 @@ import java.awt.image.DataBufferInt;
 import java.awt.image.Raster;
 import java.awt.image.RenderedImage;
 import java.awt.image.SinglePixelPackedSampleModel;
+import java.util.Arrays;
 
 /**
  * Default BumpMap implementation.
@@ -79,19 +80,82 @@ public final class BumpMap {
          final int w, final int h)
     {
         final double[][][] N = new double[h][w][4];
+        final double[] normals = getNormals(x, y, w, h, null);
+        int i = 0;
+        for (int j = 0; j < h; j++) {
+            final double[][] NRow = N[j];
+            for (int k = 0; k < w; k++) {
+                final double[] n = NRow[k];
+                n[0] = normals[i++];
+                n[1] = normals[i++];
+                n[2] = normals[i++];
+                n[3] = normals[i++];
+            }
+        }
+        return N;
+    }
+
+    /**
+     * Computes the same normals as {@link #getNormalArray} into a single
+     * array, four values per pixel in row order: the x, y and z
+     * components of the normal followed by the elevation.
+     *
+     * @param x x-axis coordinate for which the normal is computed
+     * @param y y-axis coordinate for which the normal is computed
+     * @param normals array to store the normals to.  If null or too
+     *        small it will be allocated for you and returned.
+     */
+    public double[] getNormals
+        (final int x, final int y,
+         final int w, final int h,
+         final double[] normals)
+    {
+        return getNormals(getTextureData(x, y, w, h), x, y, w, h, normals);
+    }
 
+    /**
+     * Returns the part of the texture needed to compute the normals of
+     * the given area, or null if the area is away from the texture.
+     */
+    Raster getTextureData(final int x, final int y,
+                          final int w, final int h)
+    {
         Rectangle srcRect = new Rectangle(x-1, y-1, w+2, h+2);
         Rectangle srcBound = new Rectangle
             (texture.getMinX(), texture.getMinY(),
              texture.getWidth(), texture.getHeight());
 
         if ( ! srcRect.intersects(srcBound) )
-            return N;
+            return null;
 
         srcRect = srcRect.intersection(srcBound);
-        final Raster r = texture.getData(srcRect);
+        return texture.getData(srcRect);
+    }
+
+    /**
+     * Computes the normals of the given area from texture data returned
+     * by {@link #getTextureData} for this area, or for a larger area
+     * that contains it.
+     */
+    double[] getNormals
+        (final Raster r,
+         final int x, final int y,
+         final int w, final int h,
+         final double[] normals)
+    {
+        final int size = (w > 0 && h > 0) ? w*h*4 : 0;
+        final double[] N;
+        if (normals != null && normals.length >= size) {
+            N = normals;
+            Arrays.fill(N, 0, size, 0);
+        } else {
+            N = new double[size];
+        }
+
+        if (r == null)
+            return N;
 
-        srcRect = r.getBounds();
+        final Rectangle srcRect = r.getBounds();
 
         // System.out.println("SrcRect: " + srcRect);
         // System.out.println("rect: [" +
@@ -148,7 +212,7 @@ public final class BumpMap {
         if (yloc == srcRect.y) {
             if (yloc == yEnd) {
                 // Only one row of pixels...
-                final double [][] NRow = N[yloc-y];
+                final int nRow = (yloc-y)*w;
                 int xloc=x;
                 if (xloc < srcRect.x)
                     xloc = srcRect.x;
@@ -164,14 +228,14 @@ public final class BumpMap {
                     // Top left pixel, in src (0, 0);
                     crnc = (pixels[p+1] >>> 24)*pixelScale;
 
-                    final double [] n = NRow[xloc-x];
+                    final int n = (nRow + xloc-x)*4;
 
-                    n[0] = 2*surfaceScaleX*(crcc - crnc);
-                    invNorm = 1.0/Math.sqrt(n[0]*n[0] + 1);
-                    n[0] *= invNorm;
-                    n[1]  = 0;
-                    n[2]  = invNorm;
-                    n[3]  = crcc*surfaceScale;
+                    N[n] = 2*surfaceScaleX*(crcc - crnc);
+                    invNorm = 1.0/Math.sqrt(N[n]*N[n] + 1);
+                    N[n] *= invNorm;
+                    N[n+1]  = 0;
+                    N[n+2]  = invNorm;
+                    N[n+3]  = crcc*surfaceScale;
                     p++;
                     xloc++;
                     crpc = crcc;
@@ -184,14 +248,14 @@ public final class BumpMap {
                 for (; xloc<xEnd; xloc++) {
                     // Middle Top row...
                     crnc = (pixels[p+1] >>> 24)*pixelScale;
-                    final double [] n = NRow[xloc-x];
-
-                    n[0] = surfaceScaleX * (crpc - crnc );
-                    invNorm = 1.0/Math.sqrt(n[0]*n[0] + 1);
-                    n[0] *= invNorm;
-                    n[1]  = 0;
-                    n[2]  = invNorm;
-                    n[3]  = crcc*surfaceScale;
+                    final int n = (nRow + xloc-x)*4;
+
+                    N[n] = surfaceScaleX * (crpc - crnc );
+                    invNorm = 1.0/Math.sqrt(N[n]*N[n] + 1);
+                    N[n] *= invNorm;
+                    N[n+1]  = 0;
+                    N[n+2]  = invNorm;
+                    N[n+3]  = crcc*surfaceScale;
                     p++;
                     crpc = crcc;
                     crcc = crnc;
@@ -200,19 +264,19 @@ public final class BumpMap {
                 if ((xloc < x+w) &&
                     (xloc == srcRect.x+srcRect.width-1)) {
                     // Last pixel of top row
-                    final double [] n = NRow[xloc-x];
-
-                    n[0] = 2*surfaceScaleX*(crpc - crcc);
-                    invNorm = 1.0/Math.sqrt(n[0]*n[0] + n[1]*n[1] + 1);
-                    n[0] *= invNorm;
-                    n[1] *= invNorm;
-                    n[2]  = invNorm;
-                    n[3]  = crcc*surfaceScale;
+                    final int n = (nRow + xloc-x)*4;
+
+                    N[n] = 2*surfaceScaleX*(crpc - crcc);
+                    invNorm = 1.0/Math.sqrt(N[n]*N[n] + N[n+1]*N[n+1] + 1);
+                    N[n] *= invNorm;
+                    N[n+1] *= invNorm;
+                    N[n+2]  = invNorm;
+                    N[n+3]  = crcc*surfaceScale;
                 }
                 return N;
             }
 
-            final double [][] NRow = N[yloc-y];
+            final int nRow = (yloc-y)*w;
             int p  = offset + scanStride*(yloc-srcRect.y);
             int xloc=x;
             if (xloc < srcRect.x)
@@ -231,17 +295,17 @@ public final class BumpMap {
                 crnc = (pixels[p+1] >>> 24)*pixelScale;
                 nrnc = (pixels[p + scanStridePP] >>> 24)*pixelScale;
 
-                final double [] n = NRow[xloc-x];
+                final int n = (nRow + xloc-x)*4;
 
-                n[0] = - twoThirdSurfaceScaleX *
+                N[n] = - twoThirdSurfaceScaleX *
                     ((2*crnc + nrnc - 2*crcc - nrcc));
-                n[1] = - twoThirdSurfaceScaleY *
+                N[n+1] = - twoThirdSurfaceScaleY *
                     ((2*nrcc + nrnc - 2*crcc - crnc));
-                invNorm = 1.0/Math.sqrt(n[0]*n[0] + n[1]*n[1] + 1);
-                n[0] *= invNorm;
-                n[1] *= invNorm;
-                n[2]  = invNorm;
-                n[3]  = crcc*surfaceScale;
+                invNorm = 1.0/Math.sqrt(N[n]*N[n] + N[n+1]*N[n+1] + 1);
+                N[n] *= invNorm;
+                N[n+1] *= invNorm;
+                N[n+2]  = invNorm;
+                N[n+3]  = crcc*surfaceScale;
                 p++;
                 xloc++;
                 crpc = crcc;
@@ -259,18 +323,18 @@ public final class BumpMap {
                 crnc = (pixels[p+1] >>> 24)*pixelScale;
                 nrnc = (pixels[p + scanStridePP] >>> 24)*pixelScale;
 
-                final double [] n = NRow[xloc-x];
+                final int n = (nRow + xloc-x)*4;
 
-                n[0] = - thirdSurfaceScaleX * (( 2*crnc + nrnc)
+                N[n] = - thirdSurfaceScaleX * (( 2*crnc + nrnc)
                                                - (2*crpc + nrpc));
-                n[1] = - halfSurfaceScaleY *(( nrpc + 2*nrcc + nrnc)
+                N[n+1] = - halfSurfaceScaleY *(( nrpc + 2*nrcc + nrnc)
                                              - (crpc + 2*crcc + crnc));
 
-                invNorm = 1.0/Math.sqrt(n[0]*n[0] + n[1]*n[1] + 1);
-                n[0] *= invNorm;
-                n[1] *= invNorm;
-                n[2]  = invNorm;
-                n[3]  = crcc*surfaceScale;
+                invNorm = 1.0/Math.sqrt(N[n]*N[n] + N[n+1]*N[n+1] + 1);
+                N[n] *= invNorm;
+                N[n+1] *= invNorm;
+                N[n+2]  = invNorm;
+                N[n+3]  = crcc*surfaceScale;
                 p++;
                 crpc = crcc;
                 nrpc = nrcc;
@@ -281,24 +345,24 @@ public final class BumpMap {
             if ((xloc < x+w) &&
                 (xloc == srcRect.x+srcRect.width-1)) {
                 // Last pixel of top row
-                final double [] n = NRow[xloc-x];
+                final int n = (nRow + xloc-x)*4;
 
-                n[0] = - twoThirdSurfaceScaleX *(( 2*crcc + nrcc)
+                N[n] = - twoThirdSurfaceScaleX *(( 2*crcc + nrcc)
                                                  - (2*crpc + nrpc));
-                n[1] = - twoThirdSurfaceScaleY *(( 2*nrcc + nrpc)
+                N[n+1] = - twoThirdSurfaceScaleY *(( 2*nrcc + nrpc)
                                                  - (2*crcc + crpc));
 
-                invNorm = 1.0/Math.sqrt(n[0]*n[0] + n[1]*n[1] + 1);
-                n[0] *= invNorm;
-                n[1] *= invNorm;
-                n[2]  = invNorm;
-                n[3]  = crcc*surfaceScale;
+                invNorm = 1.0/Math.sqrt(N[n]*N[n] + N[n+1]*N[n+1] + 1);
+                N[n] *= invNorm;
+                N[n+1] *= invNorm;
+                N[n+2]  = invNorm;
+                N[n+3]  = crcc*surfaceScale;
             }
             yloc++;
         }
 
         for (; yloc<yEnd; yloc++) {
-            final double [][] NRow = N[yloc-y];
+            final int nRow = (yloc-y)*w;
             int p  = offset + scanStride*(yloc-srcRect.y);
 
             int xloc=x;
@@ -322,18 +386,18 @@ public final class BumpMap {
                 prnc = (pixels[p - scanStrideMM] >>> 24)*pixelScale;
                 nrnc = (pixels[p + scanStridePP] >>> 24)*pixelScale;
 
-                final double [] n = NRow[xloc-x];
+                final int n = (nRow + xloc-x)*4;
 
-                n[0] = - halfSurfaceScaleX *(( prnc + 2*crnc + nrnc)
+                N[n] = - halfSurfaceScaleX *(( prnc + 2*crnc + nrnc)
                                              - (prcc + 2*crcc + nrcc));
-                n[1] = - thirdSurfaceScaleY *(( 2*prcc + prnc)
+                N[n+1] = - thirdSurfaceScaleY *(( 2*prcc + prnc)
                                               - ( 2*crcc + crnc));
 
-                invNorm = 1.0/Math.sqrt(n[0]*n[0] + n[1]*n[1] + 1);
-                n[0] *= invNorm;
-                n[1] *= invNorm;
-                n[2]  = invNorm;
-                n[3]  = crcc*surfaceScale;
+                invNorm = 1.0/Math.sqrt(N[n]*N[n] + N[n+1]*N[n+1] + 1);
+                N[n] *= invNorm;
+                N[n+1] *= invNorm;
+                N[n+2]  = invNorm;
+                N[n+3]  = crcc*surfaceScale;
 
                 p++;
                 xloc++;
@@ -357,18 +421,18 @@ public final class BumpMap {
                 crnc = (pixels[p+1] >>> 24)*pixelScale;
                 nrnc = (pixels[p + scanStridePP] >>> 24)*pixelScale;
 
-                final double [] n = NRow[xloc-x];
+                final int n = (nRow + xloc-x)*4;
 
-                n[0] = - quarterSurfaceScaleX *(( prnc + 2*crnc + nrnc)
+                N[n] = - quarterSurfaceScaleX *(( prnc + 2*crnc + nrnc)
                                                 - (prpc + 2*crpc + nrpc));
-                n[1] = - quarterSurfaceScaleY *(( nrpc + 2*nrcc + nrnc)
+                N[n+1] = - quarterSurfaceScaleY *(( nrpc + 2*nrcc + nrnc)
                                                 - (prpc + 2*prcc + prnc));
 
-                invNorm = 1.0/Math.sqrt(n[0]*n[0] + n[1]*n[1] + 1);
-                n[0] *= invNorm;
-                n[1] *= invNorm;
-                n[2]  = invNorm;
-                n[3]  = crcc*surfaceScale;
+                invNorm = 1.0/Math.sqrt(N[n]*N[n] + N[n+1]*N[n+1] + 1);
+                N[n] *= invNorm;
+                N[n+1] *= invNorm;
+                N[n+2]  = invNorm;
+                N[n+3]  = crcc*surfaceScale;
 
                 p++;
                 prpc = prcc;
@@ -382,24 +446,24 @@ public final class BumpMap {
             if ((xloc < x+w) &&
                 (xloc == srcRect.x+srcRect.width-1)) {
                 // Now, proces right column, from (w-1, 1) to (w-1, h-1)
-                final double [] n = NRow[xloc-x];
+                final int n = (nRow + xloc-x)*4;
 
-                n[0] = - halfSurfaceScaleX *( (prcc + 2*crcc + nrcc)
+                N[n] = - halfSurfaceScaleX *( (prcc + 2*crcc + nrcc)
                                              -(prpc + 2*crpc + nrpc));
-                n[1] = - thirdSurfaceScaleY *(( nrpc + 2*nrcc)
+                N[n+1] = - thirdSurfaceScaleY *(( nrpc + 2*nrcc)
                                               - ( prpc + 2*prcc));
 
-                invNorm = 1.0/Math.sqrt(n[0]*n[0] + n[1]*n[1] + 1);
-                n[0] *= invNorm;
-                n[1] *= invNorm;
-                n[2]  = invNorm;
-                n[3]  = crcc*surfaceScale;
+                invNorm = 1.0/Math.sqrt(N[n]*N[n] + N[n+1]*N[n+1] + 1);
+                N[n] *= invNorm;
+                N[n+1] *= invNorm;
+                N[n+2]  = invNorm;
+                N[n+3]  = crcc*surfaceScale;
             }
         }
 
         if ((yloc < y+h) &&
             (yloc == srcRect.y+srcRect.height-1)) {
-            final double [][] NRow = N[yloc-y];
+            final int nRow = (yloc-y)*w;
             int p  = offset + scanStride*(yloc-srcRect.y);
             int xloc=x;
             if (xloc < srcRect.x)
@@ -419,15 +483,15 @@ public final class BumpMap {
                 crnc = (pixels[p + 1] >>> 24)*pixelScale;
                 prnc = (pixels[p - scanStrideMM] >>> 24)*pixelScale;
 
-                final double [] n = NRow[xloc-x];
+                final int n = (nRow + xloc-x)*4;
 
-                n[0] = - twoThirdSurfaceScaleX * ((2*crnc + prnc - 2*crcc - prcc));
-                n[1] = - twoThirdSurfaceScaleY * ((2*crcc + crnc - 2*prcc - prnc));
-                invNorm = 1.0/Math.sqrt(n[0]*n[0] + n[1]*n[1] + 1);
-                n[0] *= invNorm;
-                n[1] *= invNorm;
-                n[2]  = invNorm;
-                n[3]  = crcc*surfaceScale;
+                N[n] = - twoThirdSurfaceScaleX * ((2*crnc + prnc - 2*crcc - prcc));
+                N[n+1] = - twoThirdSurfaceScaleY * ((2*crcc + crnc - 2*prcc - prnc));
+                invNorm = 1.0/Math.sqrt(N[n]*N[n] + N[n+1]*N[n+1] + 1);
+                N[n] *= invNorm;
+                N[n+1] *= invNorm;
+                N[n+2]  = invNorm;
+                N[n+3]  = crcc*surfaceScale;
 
                 p++;
                 xloc++;
@@ -450,18 +514,18 @@ public final class BumpMap {
                 //                    prpc + "," + prcc + "," + prnc + "  " +
                 //                    crpc + "," + crcc + "," + crnc );
 
-                final double [] n = NRow[xloc-x];
+                final int n = (nRow + xloc-x)*4;
 
-                n[0] = - thirdSurfaceScaleX *(( 2*crnc + prnc)
+                N[n] = - thirdSurfaceScaleX *(( 2*crnc + prnc)
                                               - (2*crpc + prpc));
-                n[1] = - halfSurfaceScaleY *(( crpc + 2*crcc + crnc)
+                N[n+1] = - halfSurfaceScaleY *(( crpc + 2*crcc + crnc)
                                              - (prpc + 2*prcc + prnc));
 
-                invNorm = 1.0/Math.sqrt(n[0]*n[0] + n[1]*n[1] + 1);
-                n[0] *= invNorm;
-                n[1] *= invNorm;
-                n[2]  = invNorm;
-                n[3]  = crcc*surfaceScale;
+                invNorm = 1.0/Math.sqrt(N[n]*N[n] + N[n+1]*N[n+1] + 1);
+                N[n] *= invNorm;
+                N[n+1] *= invNorm;
+                N[n+2]  = invNorm;
+                N[n+3]  = crcc*surfaceScale;
 
                 p++;
                 crpc = crcc;
@@ -473,18 +537,18 @@ public final class BumpMap {
             if ((xloc < x+w) &&
                 (xloc == srcRect.x+srcRect.width-1)) {
                 // Bottom right corner
-                final double [] n = NRow[xloc-x];
+                final int n = (nRow + xloc-x)*4;
 
-                n[0] = - twoThirdSurfaceScaleX *(( 2*crcc + prcc)
+                N[n] = - twoThirdSurfaceScaleX *(( 2*crcc + prcc)
                                                  - (2*crpc + prpc));
-                n[1] = - twoThirdSurfaceScaleY *(( 2*crcc + crpc)
+                N[n+1] = - twoThirdSurfaceScaleY *(( 2*crcc + crpc)
                                                  - (2*prcc + prpc));
 
-                invNorm = 1.0/Math.sqrt(n[0]*n[0] + n[1]*n[1] + 1);
-                n[0] *= invNorm;
-                n[1] *= invNorm;
-                n[2]  = invNorm;
-                n[3]  = crcc*surfaceScale;
+                invNorm = 1.0/Math.sqrt(N[n]*N[n] + N[n+1]*N[n+1] + 1);
+                N[n] *= invNorm;
+                N[n+1] *= invNorm;
+                N[n+2]  = invNorm;
+                N[n+3]  = crcc*surfaceScale;
             }
         }
         return N;
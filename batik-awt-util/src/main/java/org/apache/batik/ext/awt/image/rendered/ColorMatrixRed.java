@@ -113,13 +113,9 @@ public class ColorMatrixRed extends AbstractRed{
         // System.out.println("Hello");
         // System.out.println("src class : " + src.getClass().getName());
         // System.out.println("this : " + this);
-        wr = src.copyData(wr);
-        // System.out.println("Hi");
-        //System.out.println("Source was : " + wr.getWidth() + "/" + wr.getHeight()+ "/" + wr.getMinX() + "/" + wr.getMinY());
-
-        // Unpremultiply data if required
-        ColorModel cm = src.getColorModel();
-        GraphicsUtil.coerceData(wr, cm, false);
+        // Copy and unpremultiply the data, which also converts it when
+        // src is a color space conversion.
+        GraphicsUtil.copyCoercedData(src, wr, false);
 
         //
         // Now, process pixel values
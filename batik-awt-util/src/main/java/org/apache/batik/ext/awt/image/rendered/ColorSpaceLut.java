@@ -0,0 +1,284 @@
+/*
+
+   Licensed to the Apache Software Foundation (ASF) under one or more
+   contributor license agreements.  See the NOTICE file distributed with
+   this work for additional information regarding copyright ownership.
+   The ASF licenses this file to You under the Apache License, Version 2.0
+   (the "License"); you may not use this file except in compliance with
+   the License.  You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+ */
+package org.apache.batik.ext.awt.image.rendered;
+
+import java.awt.image.DataBufferInt;
+import java.awt.image.SinglePixelPackedSampleModel;
+import java.awt.image.WritableRaster;
+
+/**
+ * Converts integer packed ARGB data between sRGB and linear sRGB in a
+ * single pass, changing the alpha premultiplied state at the same
+ * time.
+ *
+ * The conversion goes through 16 bit values: an 8 bit sRGB value is
+ * looked up as a 16 bit linear value, and a linear value is divided
+ * by alpha to 16 bits before being looked up as an 8 bit sRGB value.
+ * The result is only rounded once, when it is premultiplied (or not)
+ * and stored, instead of after each of the divide, lookup and
+ * multiply passes the separate operations would take.  Opaque pixels
+ * give the same values as the 8 bit tables of {@link Any2LsRGBRed}
+ * and {@link Any2sRGBRed}.
+ *
+ * @version $Id$
+ */
+public final class ColorSpaceLut {
+
+    /**
+     * The smallest number of rows in a band.
+     */
+    private static final int MIN_BAND_HEIGHT = 64;
+
+    /**
+     * The linear value, from 0 to 65535, of each 8 bit sRGB value.
+     */
+    static final int[] SRGB_TO_LINEAR = new int[256];
+
+    /**
+     * The 8 bit linear value of each 8 bit sRGB value.
+     */
+    static final int[] SRGB_TO_LINEAR_8 = new int[256];
+
+    /**
+     * The 8 bit sRGB value of each linear value from 0 to 65535.
+     */
+    static final byte[] LINEAR_TO_SRGB = new byte[65536];
+
+    /**
+     * The 8 bit sRGB value of each 8 bit linear value.
+     */
+    static final int[] LINEAR_8_TO_SRGB = new int[256];
+
+    /**
+     * 255 * 65536 divided by each alpha value, to unpremultiply 8 bit
+     * values with a multiply.
+     */
+    private static final int[] UNPREMULT_8 = new int[256];
+
+    /**
+     * 65535 * 65536 divided by each alpha value, to unpremultiply 8 bit
+     * values to 16 bits with a multiply.
+     */
+    private static final long[] UNPREMULT_16 = new long[256];
+
+    static {
+        for (int a = 1; a < 256; a++) {
+            UNPREMULT_8[a] = (255 * 65536 + (a >> 1)) / a;
+            UNPREMULT_16[a] = (65535L * 65536 + (a >> 1)) / a;
+        }
+        for (int i = 0; i < 256; i++) {
+            double v = Any2LsRGBRed.sRGBToLsRGB(i / 255.0);
+            SRGB_TO_LINEAR[i] = (int)Math.round(v * 65535);
+            SRGB_TO_LINEAR_8[i] = (int)Math.round(v * 255);
+            LINEAR_8_TO_SRGB[i] = (int)Math.round(lsRGBTosRGB(i / 255.0) * 255);
+        }
+        for (int i = 0; i < 65536; i++) {
+            LINEAR_TO_SRGB[i]
+                = (byte)Math.round(lsRGBTosRGB(i / 65535.0) * 255);
+        }
+    }
+
+    /**
+     * This class does not need to be instantiated.
+     */
+    private ColorSpaceLut() {
+    }
+
+    /**
+     * Converts a linear value from 0 to 1 to sRGB.
+     */
+    static double lsRGBTosRGB(double value) {
+        if (value <= 0.0031308)
+            return value * 12.92;
+        return 1.055 * Math.pow(value, 1.0 / 2.4) - 0.055;
+    }
+
+    /**
+     * Converts, in place, four band integer packed sRGB data to linear
+     * sRGB.
+     * @param wr the data to convert.
+     * @param srcPremult whether the data of wr is premultiplied.
+     * @param dstPremult whether the result is premultiplied.
+     */
+    public static void toLinear(WritableRaster wr, boolean srcPremult,
+                                boolean dstPremult) {
+        convert(wr, true, srcPremult, dstPremult);
+    }
+
+    /**
+     * Converts, in place, four band integer packed linear sRGB data to
+     * sRGB.
+     * @param wr the data to convert.
+     * @param srcPremult whether the data of wr is premultiplied.
+     * @param dstPremult whether the result is premultiplied.
+     */
+    public static void toSRGB(WritableRaster wr, boolean srcPremult,
+                              boolean dstPremult) {
+        convert(wr, false, srcPremult, dstPremult);
+    }
+
+    private static void convert(WritableRaster wr, final boolean toLinear,
+                                final boolean srcPremult,
+                                final boolean dstPremult) {
+        SinglePixelPackedSampleModel sppsm;
+        sppsm = (SinglePixelPackedSampleModel)wr.getSampleModel();
+        DataBufferInt db = (DataBufferInt)wr.getDataBuffer();
+        final int base = (db.getOffset() +
+                          sppsm.getOffset
+                          (wr.getMinX()-wr.getSampleModelTranslateX(),
+                           wr.getMinY()-wr.getSampleModelTranslateY()));
+        final int[] pixels = db.getBankData()[0];
+        final int width = wr.getWidth();
+        final int scanStride = sppsm.getScanlineStride();
+
+        ParallelTileExecutor.execute
+            (0, wr.getHeight(), MIN_BAND_HEIGHT,
+             new ParallelTileExecutor.BandTask() {
+                 public void run(int y0, int y1) {
+                     for (int y = y0; y < y1; y++) {
+                         int sp = base + y * scanStride;
+                         if (toLinear)
+                             toLinear(pixels, sp, width,
+                                      srcPremult, dstPremult);
+                         else
+                             toSRGB(pixels, sp, width,
+                                    srcPremult, dstPremult);
+                     }
+                 }
+             });
+    }
+
+    private static void toLinear(int[] pixels, int sp, int width,
+                                 boolean srcPremult, boolean dstPremult) {
+        final int end = sp + width;
+        for (; sp < end; sp++) {
+            int pixel = pixels[sp];
+            int a = pixel >>> 24;
+            if (a == 255) {
+                pixels[sp] = ((0xFF000000) |
+                              (SRGB_TO_LINEAR_8[(pixel >> 16) & 0xFF] << 16) |
+                              (SRGB_TO_LINEAR_8[(pixel >>  8) & 0xFF] <<  8) |
+                              (SRGB_TO_LINEAR_8[(pixel      ) & 0xFF]));
+            } else if (a == 0) {
+                // As GraphicsUtil.divideAlpha, transparent pixels are
+                // white when they are not premultiplied.
+                if (dstPremult)
+                    pixels[sp] = 0;
+                else if (srcPremult)
+                    pixels[sp] = 0x00FFFFFF;
+                else
+                    pixels[sp] =
+                        ((SRGB_TO_LINEAR_8[(pixel >> 16) & 0xFF] << 16) |
+                         (SRGB_TO_LINEAR_8[(pixel >>  8) & 0xFF] <<  8) |
+                         (SRGB_TO_LINEAR_8[(pixel      ) & 0xFF]));
+            } else {
+                int r = (pixel >> 16) & 0xFF;
+                int g = (pixel >>  8) & 0xFF;
+                int b = (pixel      ) & 0xFF;
+                if (srcPremult) {
+                    int f = UNPREMULT_8[a];
+                    r = unpremult(r, f);
+                    g = unpremult(g, f);
+                    b = unpremult(b, f);
+                }
+                // The 16 bit linear values are scaled to 8 bits times
+                // alpha (or 255) and rounded.
+                int m = dstPremult ? a : 255;
+                pixels[sp] = ((a << 24) |
+                              (scale(SRGB_TO_LINEAR[r], m) << 16) |
+                              (scale(SRGB_TO_LINEAR[g], m) <<  8) |
+                              (scale(SRGB_TO_LINEAR[b], m)));
+            }
+        }
+    }
+
+    private static void toSRGB(int[] pixels, int sp, int width,
+                               boolean srcPremult, boolean dstPremult) {
+        final int end = sp + width;
+        for (; sp < end; sp++) {
+            int pixel = pixels[sp];
+            int a = pixel >>> 24;
+            if (a == 255) {
+                pixels[sp] = ((0xFF000000) |
+                              (LINEAR_8_TO_SRGB[(pixel >> 16) & 0xFF] << 16) |
+                              (LINEAR_8_TO_SRGB[(pixel >>  8) & 0xFF] <<  8) |
+                              (LINEAR_8_TO_SRGB[(pixel      ) & 0xFF]));
+            } else if (a == 0) {
+                if (dstPremult)
+                    pixels[sp] = 0;
+                else if (srcPremult)
+                    pixels[sp] = 0x00FFFFFF;
+                else
+                    pixels[sp] =
+                        ((LINEAR_8_TO_SRGB[(pixel >> 16) & 0xFF] << 16) |
+                         (LINEAR_8_TO_SRGB[(pixel >>  8) & 0xFF] <<  8) |
+                         (LINEAR_8_TO_SRGB[(pixel      ) & 0xFF]));
+            } else {
+                // The color is divided by alpha to 16 bits.
+                long f = UNPREMULT_16[srcPremult ? a : 255];
+                int r = LINEAR_TO_SRGB[widen((pixel >> 16) & 0xFF, f)] & 0xFF;
+                int g = LINEAR_TO_SRGB[widen((pixel >>  8) & 0xFF, f)] & 0xFF;
+                int b = LINEAR_TO_SRGB[widen((pixel      ) & 0xFF, f)] & 0xFF;
+                if (dstPremult) {
+                    r = premult(r, a);
+                    g = premult(g, a);
+                    b = premult(b, a);
+                }
+                pixels[sp] = (a << 24) | (r << 16) | (g << 8) | b;
+            }
+        }
+    }
+
+    /**
+     * Returns the 8 bit value <code>c</code> divided by alpha, where
+     * <code>f</code> is the UNPREMULT_8 value of alpha, rounded.
+     */
+    private static int unpremult(int c, int f) {
+        int u = (c * f + 0x8000) >>> 16;
+        return (u > 255) ? 255 : u;
+    }
+
+    /**
+     * Returns the 8 bit value <code>c</code> divided by alpha as a 16
+     * bit value, where <code>f</code> is the UNPREMULT_16 value of
+     * alpha, rounded.
+     */
+    private static int widen(int c, long f) {
+        long w = (c * f + 0x8000) >>> 16;
+        return (w > 65535) ? 65535 : (int)w;
+    }
+
+    /**
+     * Returns the 16 bit value <code>v</code> times <code>m/65535</code>,
+     * rounded.
+     */
+    private static int scale(int v, int m) {
+        int x = v * m + 0x8000;
+        return (x + (x >>> 16)) >>> 16;
+    }
+
+    /**
+     * Returns the 8 bit value <code>c</code> times <code>a/255</code>,
+     * rounded.
+     */
+    private static int premult(int c, int a) {
+        int x = c * a + 0x80;
+        return (x + (x >> 8)) >> 8;
+    }
+}
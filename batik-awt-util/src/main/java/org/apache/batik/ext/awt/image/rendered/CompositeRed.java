@@ -49,6 +49,11 @@ import org.apache.batik.ext.awt.image.SVGComposite;
  */
 public class CompositeRed extends AbstractRed {
 
+    /**
+     * Minimum number of rows handed to each parallel band.
+     */
+    private static final int MIN_BAND_HEIGHT = 32;
+
     CompositeRule rule;
     CompositeContext [] contexts;
 
@@ -176,10 +181,7 @@ public class CompositeRed extends AbstractRed {
                     emptyRect(wr);
 
                 // Fill in initial image...
-                cr.copyData(wr);
-
-                if ( ! cr.getColorModel().isAlphaPremultiplied() )
-                    GraphicsUtil.coerceData(wr, cr.getColorModel(), true);
+                GraphicsUtil.copyCoercedData(cr, wr, true);
                 first = false;
             } else {
                 Rectangle crR = cr.getBounds();
@@ -190,7 +192,7 @@ public class CompositeRed extends AbstractRed {
                         (smR.x, smR.y, smR.width, smR.height,
                          smR.x, smR.y, null);
 
-                    contexts[idx].compose(ras, smWR, smWR);
+                    compose(contexts[idx], ras, smWR);
                 }
             }
 
@@ -200,6 +202,40 @@ public class CompositeRed extends AbstractRed {
         // System.out.println("Other: " + (endTime-startTime));
     }
 
+    /**
+     * Composites <code>src</code> onto <code>dst</code> (in place).
+     * Large areas are split into horizontal bands that are composited
+     * concurrently by {@link ParallelTileExecutor}, each band with its
+     * own child rasters.  The composite contexts keep no per call
+     * state so they can be shared between bands.
+     */
+    protected void compose(final CompositeContext ctx,
+                           final Raster src, final WritableRaster dst) {
+        final int x = dst.getMinX();
+        final int w = dst.getWidth();
+        ParallelTileExecutor.execute
+            (dst.getMinY(), dst.getHeight(), MIN_BAND_HEIGHT,
+             new ParallelTileExecutor.BandTask() {
+                 public void run(int y0, int y1) {
+                     if ((y0 == dst.getMinY()) &&
+                         (y1 == dst.getMinY()+dst.getHeight())) {
+                         ctx.compose(src, dst, dst);
+                         return;
+                     }
+                     int h = y1-y0;
+                     Raster srcBand;
+                     if (src instanceof WritableRaster)
+                         srcBand = ((WritableRaster)src).createWritableChild
+                             (x, y0, w, h, x, y0, null);
+                     else
+                         srcBand = src.createChild(x, y0, w, h, x, y0, null);
+                     WritableRaster dstBand = dst.createWritableChild
+                         (x, y0, w, h, x, y0, null);
+                     ctx.compose(srcBand, dstBand, dstBand);
+                 }
+             });
+    }
+
     // This is an alternate Implementation that uses drawImage.
     // In testing this was not significantly faster and it had some
     // problems with alpha premultiplied.
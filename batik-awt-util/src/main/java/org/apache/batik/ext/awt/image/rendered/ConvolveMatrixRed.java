@@ -0,0 +1,479 @@
+/*
+
+   Licensed to the Apache Software Foundation (ASF) under one or more
+   contributor license agreements.  See the NOTICE file distributed with
+   this work for additional information regarding copyright ownership.
+   The ASF licenses this file to You under the Apache License, Version 2.0
+   (the "License"); you may not use this file except in compliance with
+   the License.  You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+ */
+package org.apache.batik.ext.awt.image.rendered;
+
+import java.awt.Point;
+import java.awt.Rectangle;
+import java.awt.color.ColorSpace;
+import java.awt.image.ColorModel;
+import java.awt.image.DataBuffer;
+import java.awt.image.DataBufferInt;
+import java.awt.image.DirectColorModel;
+import java.awt.image.Kernel;
+import java.awt.image.Raster;
+import java.awt.image.SampleModel;
+import java.awt.image.SinglePixelPackedSampleModel;
+import java.awt.image.WritableRaster;
+import java.util.Arrays;
+
+import org.apache.batik.ext.awt.image.GraphicsUtil;
+import org.apache.batik.ext.awt.image.PadMode;
+
+/**
+ * Convolves an image with the kernel of an feConvolveMatrix filter.
+ *
+ * As in the SVG specification, the result at (x, y) is the sum of the
+ * source pixels at <code>(x - targetX + i, y - targetY + j)</code>
+ * times the kernel value at <code>(orderX - i - 1, orderY - j - 1)</code>.
+ * The source pixels outside of the source bounds are found according
+ * to the edge mode: the nearest edge pixel for
+ * <code>PadMode.REPLICATE</code>, the pixel on the opposite side of
+ * the source for <code>PadMode.WRAP</code> and transparent black for
+ * <code>PadMode.ZERO_PAD</code>.  This is done by mapping the
+ * coordinates, so the source is never padded.
+ *
+ * Rows of the source are unpacked once to floats and kept in a ring
+ * buffer of the kernel height.  When the kernel is the product of a
+ * column and a row (like box and Gaussian kernels) the rows are
+ * filtered horizontally when they are unpacked and the ring buffer is
+ * then filtered vertically, which takes <code>orderX + orderY</code>
+ * instead of <code>orderX * orderY</code> multiplications per band of
+ * a pixel.  The rows of a tile are split into bands computed through
+ * {@link ParallelTileExecutor}.
+ *
+ * Without preserveAlpha the four bands are convolved premultiplied
+ * and, where negative kernel values leave a color band above alpha,
+ * alpha is raised to it.  With preserveAlpha the color bands are
+ * convolved unpremultiplied and alpha is copied from the source.
+ * Bias is not supported.
+ *
+ * @version $Id$
+ */
+public class ConvolveMatrixRed extends AbstractRed {
+
+    /**
+     * The smallest number of rows in a band.
+     */
+    private static final int MIN_BAND_HEIGHT = 16;
+
+    /**
+     * The largest difference, relative to the largest kernel value,
+     * between a kernel value and the product of its column and row
+     * factors for the kernel to be considered separable.
+     */
+    private static final float SEPARABLE_TOLERANCE = 1e-6f;
+
+    private final int kw;
+    private final int kh;
+    private final int targetX;
+    private final int targetY;
+
+    /**
+     * The kernel rotated by 180 degrees, so <code>kernel[j*kw+i]</code>
+     * is the weight of the source pixel at
+     * <code>(x - targetX + i, y - targetY + j)</code>.
+     */
+    private final float[] kernel;
+
+    /**
+     * The column and row factors of <code>kernel</code>, or null when
+     * it is not separable.
+     */
+    private final float[] colKernel;
+    private final float[] rowKernel;
+
+    private final PadMode edgeMode;
+    private final boolean preserveAlpha;
+
+    /**
+     * @param src the image to convolve.
+     * @param bounds the area to compute.
+     * @param kernel the kernel, in the order of the kernelMatrix
+     *        attribute (its origin is ignored).
+     * @param target the position of the target pixel in the kernel.
+     * @param edgeMode how to extend the source past its bounds.
+     * @param preserveAlpha whether alpha is copied from the source.
+     */
+    public ConvolveMatrixRed(CachableRed src, Rectangle bounds,
+                             Kernel kernel, Point target,
+                             PadMode edgeMode, boolean preserveAlpha) {
+        this.kw = kernel.getWidth();
+        this.kh = kernel.getHeight();
+        this.targetX = target.x;
+        this.targetY = target.y;
+        this.edgeMode = edgeMode;
+        this.preserveAlpha = preserveAlpha;
+
+        float[] data = kernel.getKernelData(null);
+        this.kernel = new float[data.length];
+        for (int i = 0; i < data.length; i++)
+            this.kernel[i] = data[data.length - 1 - i];
+
+        float[][] factors = null;
+        if ((kw > 1) && (kh > 1))
+            factors = separate(this.kernel, kw, kh);
+        if (factors != null) {
+            colKernel = factors[0];
+            rowKernel = factors[1];
+        } else {
+            colKernel = null;
+            rowKernel = null;
+        }
+
+        ColorSpace cs = src.getColorModel().getColorSpace();
+        ColorModel cm = new DirectColorModel
+            (cs, 32, 0x00FF0000, 0x0000FF00, 0x000000FF, 0xFF000000,
+             !preserveAlpha, DataBuffer.TYPE_INT);
+
+        // The source is read as four band integer packed data.
+        SampleModel srcSM = src.getSampleModel();
+        if (!GraphicsUtil.is_INT_PACK_Data(srcSM, true))
+            src = new FormatRed(src, cm);
+
+        int tw = srcSM.getWidth();
+        int th = srcSM.getHeight();
+        if (tw > bounds.width)  tw = bounds.width;
+        if (th > bounds.height) th = bounds.height;
+        if (tw < 1) tw = 1;
+        if (th < 1) th = 1;
+        SampleModel sm = cm.createCompatibleSampleModel(tw, th);
+
+        init(src, bounds, cm, sm,
+             src.getTileGridXOffset(), src.getTileGridYOffset(), null);
+    }
+
+    /**
+     * Tells whether the kernel is convolved as a column and a row.
+     */
+    public boolean isSeparable() {
+        return colKernel != null;
+    }
+
+    /**
+     * Returns the column and row factors of the <code>w</code> by
+     * <code>h</code> kernel <code>k</code>, such that
+     * <code>k[j*w+i]</code> is <code>col[j]*row[i]</code>, or null
+     * if there are none.  The factors are taken from the row and the
+     * column of the largest value, which is the most accurate choice.
+     */
+    static float[][] separate(float[] k, int w, int h) {
+        int pivot = 0;
+        float max = 0;
+        for (int i = 0; i < k.length; i++) {
+            float v = Math.abs(k[i]);
+            if (v > max) {
+                max = v;
+                pivot = i;
+            }
+        }
+        if (max == 0)
+            return null;
+
+        int pi = pivot % w;
+        int pj = pivot / w;
+        float[] col = new float[h];
+        float[] row = new float[w];
+        for (int j = 0; j < h; j++)
+            col[j] = k[j * w + pi];
+        for (int i = 0; i < w; i++)
+            row[i] = k[pj * w + i] / k[pivot];
+
+        float tolerance = max * SEPARABLE_TOLERANCE;
+        for (int j = 0; j < h; j++) {
+            for (int i = 0; i < w; i++) {
+                if (Math.abs(k[j * w + i] - col[j] * row[i]) > tolerance)
+                    return null;
+            }
+        }
+        return new float[][] { col, row };
+    }
+
+    public WritableRaster copyData(WritableRaster wr) {
+        final CachableRed src = (CachableRed)getSources().get(0);
+        final Rectangle r = wr.getBounds().intersection(getBounds());
+        if ((r.width <= 0) || (r.height <= 0))
+            return wr;
+
+        // Source columns and rows read by the kernel, relative to the
+        // source bounds, or -1 for transparent black.
+        final int ew = r.width + kw - 1;
+        final int eh = r.height + kh - 1;
+        Rectangle srcR = src.getBounds();
+        int[] xmap = edgeMap(r.x - targetX, ew, srcR.x, srcR.width);
+        int[] ymap = edgeMap(r.y - targetY, eh, srcR.y, srcR.height);
+
+        // Fetch only the source rectangle the maps refer to.
+        int[] xrange = range(xmap);
+        int[] yrange = range(ymap);
+        if ((xrange == null) || (yrange == null)) {
+            clear(wr, r);
+            return wr;
+        }
+        for (int i = 0; i < ew; i++)
+            if (xmap[i] >= 0) xmap[i] -= xrange[0];
+        for (int j = 0; j < eh; j++)
+            if (ymap[j] >= 0) ymap[j] -= yrange[0];
+
+        ColorModel srcCM = src.getColorModel();
+        SampleModel srcSM = src.getSampleModel().createCompatibleSampleModel
+            (xrange[1] - xrange[0] + 1, yrange[1] - yrange[0] + 1);
+        WritableRaster srcWR = Raster.createWritableRaster
+            (srcSM, new Point(srcR.x + xrange[0], srcR.y + yrange[0]));
+        src.copyData(srcWR);
+        if (srcCM.hasAlpha())
+            GraphicsUtil.coerceData(srcWR, srcCM, !preserveAlpha);
+
+        final int[] srcPixels = getPixels(srcWR);
+        final int srcOff = getOffset(srcWR);
+        final int srcScanStride = getScanlineStride(srcWR);
+        final int[] dstPixels = getPixels(wr);
+        final int dstOff = getOffset(wr) +
+            (r.y - wr.getMinY()) * getScanlineStride(wr) +
+            (r.x - wr.getMinX());
+        final int dstScanStride = getScanlineStride(wr);
+        final int[] fxmap = xmap;
+        final int[] fymap = ymap;
+        final int w = r.width;
+
+        ParallelTileExecutor.execute
+            (0, r.height, MIN_BAND_HEIGHT, new ParallelTileExecutor.BandTask() {
+                    public void run(int y0, int y1) {
+                        convolve(srcPixels, srcOff, srcScanStride,
+                                 fxmap, fymap, w, y0, y1,
+                                 dstPixels, dstOff, dstScanStride);
+                    }
+                });
+        return wr;
+    }
+
+    /**
+     * Computes rows <code>[y0, y1)</code> of the destination.
+     */
+    void convolve(int[] srcPixels, int srcOff, int srcScanStride,
+                  int[] xmap, int[] ymap, int w, int y0, int y1,
+                  int[] dstPixels, int dstOff, int dstScanStride) {
+        boolean separable = colKernel != null;
+        int ew = w + kw - 1;
+        int len = 4 * w;
+        float[] line = new float[4 * ew];
+        float[][] ring = new float[kh][separable ? len : line.length];
+        float[] acc = new float[len];
+
+        // The next row of ymap to put in the ring buffer.
+        int next = y0;
+        for (int y = y0; y < y1; y++) {
+            for (; next < y + kh; next++) {
+                // Transparent rows are skipped, not stored.
+                int sy = ymap[next];
+                if (sy < 0)
+                    continue;
+                float[] row = ring[next % kh];
+                int sp = srcOff + sy * srcScanStride;
+                if (separable) {
+                    unpack(srcPixels, sp, xmap, line);
+                    Arrays.fill(row, 0);
+                    taps(rowKernel, 0, line, row, len);
+                } else {
+                    unpack(srcPixels, sp, xmap, row);
+                }
+            }
+
+            Arrays.fill(acc, 0);
+            for (int j = 0; j < kh; j++) {
+                if (ymap[y + j] < 0)
+                    continue;
+                float[] row = ring[(y + j) % kh];
+                if (separable) {
+                    axpy(colKernel[j], row, 0, acc, len);
+                } else {
+                    taps(kernel, j * kw, row, acc, len);
+                }
+            }
+
+            int dp = dstOff + y * dstScanStride;
+            if (preserveAlpha) {
+                int sy = ymap[y + targetY];
+                int sp = srcOff + sy * srcScanStride;
+                for (int x = 0, n = 0; x < w; x++, n += 4) {
+                    int sx = xmap[x + targetX];
+                    int a = 0;
+                    if ((sy >= 0) && (sx >= 0))
+                        a = srcPixels[sp + sx] >>> 24;
+                    dstPixels[dp + x] = ((a << 24) |
+                                         (clamp(acc[n + 2]) << 16) |
+                                         (clamp(acc[n + 1]) << 8) |
+                                         clamp(acc[n]));
+                }
+            } else {
+                for (int x = 0, n = 0; x < w; x++, n += 4) {
+                    int a = clamp(acc[n + 3]);
+                    int red = clamp(acc[n + 2]);
+                    int grn = clamp(acc[n + 1]);
+                    int blu = clamp(acc[n]);
+                    // Negative kernel values can leave colors above
+                    // alpha, which is raised to keep the data valid.
+                    if (red > a) a = red;
+                    if (grn > a) a = grn;
+                    if (blu > a) a = blu;
+                    dstPixels[dp + x] = (a << 24) | (red << 16) |
+                        (grn << 8) | blu;
+                }
+            }
+        }
+    }
+
+    /**
+     * Adds to <code>dst</code> the <code>kw</code> weights of
+     * <code>k</code> from <code>off</code> times <code>src</code>
+     * shifted by their pixel.  The weights are applied four at a time,
+     * so <code>dst</code> is read and written once per four weights.
+     */
+    private void taps(float[] k, int off, float[] src,
+                      float[] dst, int len) {
+        int i = 0;
+        for (; i + 4 <= kw; i += 4) {
+            float k0 = k[off + i];
+            float k1 = k[off + i + 1];
+            float k2 = k[off + i + 2];
+            float k3 = k[off + i + 3];
+            int s = 4 * i;
+            for (int n = 0; n < len; n++, s++) {
+                dst[n] += (k0 * src[s] + k1 * src[s + 4] +
+                           k2 * src[s + 8] + k3 * src[s + 12]);
+            }
+        }
+        for (; i < kw; i++)
+            axpy(k[off + i], src, 4 * i, dst, len);
+    }
+
+    /**
+     * Adds <code>k</code> times <code>len</code> values of
+     * <code>src</code> from <code>off</code> to <code>dst</code>.
+     */
+    private static void axpy(float k, float[] src, int off,
+                             float[] dst, int len) {
+        if (k == 0)
+            return;
+        for (int n = 0; n < len; n++)
+            dst[n] += k * src[off + n];
+    }
+
+    /**
+     * Unpacks the pixels of a row in the order of <code>xmap</code>,
+     * blue first.
+     */
+    private static void unpack(int[] pixels, int off, int[] xmap,
+                               float[] line) {
+        for (int i = 0, n = 0; i < xmap.length; i++, n += 4) {
+            int sx = xmap[i];
+            if (sx < 0) {
+                line[n] = line[n + 1] = line[n + 2] = line[n + 3] = 0;
+            } else {
+                int p = pixels[off + sx];
+                line[n]     = p & 0xFF;
+                line[n + 1] = (p >>> 8) & 0xFF;
+                line[n + 2] = (p >>> 16) & 0xFF;
+                line[n + 3] = p >>> 24;
+            }
+        }
+    }
+
+    private static int clamp(float v) {
+        int i = (int)(v + 0.5f);
+        if (i < 0) return 0;
+        if (i > 255) return 255;
+        return i;
+    }
+
+    /**
+     * Returns, for the <code>len</code> coordinates from
+     * <code>start</code>, the coordinate relative to <code>min</code>
+     * of the source pixel to use according to the edge mode, or -1
+     * for transparent black.
+     */
+    int[] edgeMap(int start, int len, int min, int size) {
+        int[] map = new int[len];
+        for (int i = 0; i < len; i++) {
+            int v = start + i - min;
+            if ((v < 0) || (v >= size)) {
+                if (size <= 0) {
+                    v = -1;
+                } else if (edgeMode == PadMode.REPLICATE) {
+                    v = (v < 0) ? 0 : size - 1;
+                } else if (edgeMode == PadMode.WRAP) {
+                    v %= size;
+                    if (v < 0) v += size;
+                } else {
+                    v = -1;
+                }
+            }
+            map[i] = v;
+        }
+        return map;
+    }
+
+    /**
+     * Returns the smallest and largest non negative values of the
+     * map, or null if there are none.
+     */
+    private static int[] range(int[] map) {
+        int lo = Integer.MAX_VALUE;
+        int hi = -1;
+        for (int i = 0; i < map.length; i++) {
+            int v = map[i];
+            if (v < 0) continue;
+            if (v < lo) lo = v;
+            if (v > hi) hi = v;
+        }
+        if (hi < 0)
+            return null;
+        return new int[] { lo, hi };
+    }
+
+    private static void clear(WritableRaster wr, Rectangle r) {
+        int[] pixels = getPixels(wr);
+        int off = getOffset(wr) +
+            (r.y - wr.getMinY()) * getScanlineStride(wr) +
+            (r.x - wr.getMinX());
+        for (int y = 0; y < r.height; y++) {
+            int p = off + y * getScanlineStride(wr);
+            Arrays.fill(pixels, p, p + r.width, 0);
+        }
+    }
+
+    private static int[] getPixels(Raster r) {
+        return ((DataBufferInt)r.getDataBuffer()).getBankData()[0];
+    }
+
+    /**
+     * Returns the index of the first pixel of the raster.
+     */
+    private static int getOffset(Raster r) {
+        SinglePixelPackedSampleModel sppsm;
+        sppsm = (SinglePixelPackedSampleModel)r.getSampleModel();
+        return r.getDataBuffer().getOffset() +
+            sppsm.getOffset(r.getMinX() - r.getSampleModelTranslateX(),
+                            r.getMinY() - r.getSampleModelTranslateY());
+    }
+
+    private static int getScanlineStride(Raster r) {
+        return ((SinglePixelPackedSampleModel)r.getSampleModel())
+            .getScanlineStride();
+    }
+}
@@ -65,6 +65,11 @@ public class DiffuseLightingRed extends AbstractRed{
      */
     private boolean linear;
 
+    /**
+     * Engine used for the lights it supports, null for the others
+     */
+    private LightingEngine engine;
+
 
     public DiffuseLightingRed(double kd,
                               Light light,
@@ -79,6 +84,8 @@ public class DiffuseLightingRed extends AbstractRed{
         this.scaleX = scaleX;
         this.scaleY = scaleY;
         this.linear = linear;
+        if (LightingEngine.isSupported(light))
+            engine = new LightingEngine(light, bumpMap, scaleX, scaleY);
 
         ColorModel cm;
         if (linear)
@@ -96,7 +103,11 @@ public class DiffuseLightingRed extends AbstractRed{
 
     public WritableRaster copyData(WritableRaster wr){
         final double[] lightColor = light.getColor(linear);
-        
+        if (engine != null) {
+            engine.diffuse(kd, lightColor, wr);
+            return wr;
+        }
+
         final int w = wr.getWidth();
         final int h = wr.getHeight();
         final int minX = wr.getMinX();
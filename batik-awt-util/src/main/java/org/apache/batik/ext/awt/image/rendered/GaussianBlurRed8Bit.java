@@ -229,10 +229,8 @@ public class GaussianBlurRed8Bit extends AbstractRed {
         {
             WritableRaster fill;
             fill = tmpR1.createWritableTranslatedChild(r.x, r.y);
-            src.copyData(fill);
+            GraphicsUtil.copyCoercedData(src, fill, true);
         }
-        if (srcCM.hasAlpha() && !srcCM.isAlphaPremultiplied())
-            GraphicsUtil.coerceData(tmpR1, srcCM, true);
 
         // For the blur box approx we can use dest as our intermediate
         // otherwise we let it default to null which means we create a new
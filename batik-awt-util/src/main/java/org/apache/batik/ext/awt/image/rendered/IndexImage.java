@@ -769,7 +769,24 @@ public class IndexImage{
         g2d.drawImage(bi, 0, 0, null);
         g2d.dispose();
 
+        return reduceBitDepth(indexed, nCubes, rgbTbl);
+    }
 
+    /**
+     * Copies an 8 bit palette image that only uses the first
+     * <code>nCubes</code> entries of its palette to an image with the
+     * lowest bit depth PNG supports for that many colors.
+     * @param indexed the 8 bit palette image.
+     * @param nCubes number of colors used in the palette.
+     * @param rgbTbl the palette, arranged as [ r|g|b ][ 0..nCubes-1 ],
+     *        or as [ r|g|b|a ][ 0..nCubes-1 ] for a palette with alpha.
+     * @return <code>indexed</code> if 8 bits are needed, a new image
+     *         otherwise.
+     */
+    static BufferedImage reduceBitDepth(BufferedImage indexed, int nCubes,
+                                        byte[][] rgbTbl) {
+        int w = indexed.getWidth();
+        int h = indexed.getHeight();
         int bits;
         for (bits=1; bits <=8; bits++) {
             if ((1<<bits) >= nCubes) break;
@@ -783,14 +800,19 @@ public class IndexImage{
 
         // Create our low bit depth image...
         if (bits ==3) bits = 4;
-        ColorModel cm = new IndexColorModel(bits,nCubes, 
-                                            rgbTbl[0], rgbTbl[1], rgbTbl[2] );
+        ColorModel cm;
+        if (rgbTbl.length > 3)
+            cm = new IndexColorModel(bits, nCubes, rgbTbl[0], rgbTbl[1],
+                                     rgbTbl[2], rgbTbl[3]);
+        else
+            cm = new IndexColorModel(bits,nCubes, 
+                                     rgbTbl[0], rgbTbl[1], rgbTbl[2] );
         SampleModel sm;
         sm = new MultiPixelPackedSampleModel(DataBuffer.TYPE_BYTE, w, h, bits);
         WritableRaster ras = Raster.createWritableRaster( sm, new Point(0,0));
 
         // Copy the data to the low bitdepth image.
-        bi = indexed;
+        BufferedImage bi = indexed;
         indexed = new BufferedImage(cm, ras, bi.isAlphaPremultiplied(), null);
         GraphicsUtil.copyData(bi, indexed);
         return indexed;
@@ -0,0 +1,457 @@
+/*
+
+   Licensed to the Apache Software Foundation (ASF) under one or more
+   contributor license agreements.  See the NOTICE file distributed with
+   this work for additional information regarding copyright ownership.
+   The ASF licenses this file to You under the Apache License, Version 2.0
+   (the "License"); you may not use this file except in compliance with
+   the License.  You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+ */
+package org.apache.batik.ext.awt.image.rendered;
+
+import java.awt.image.DataBufferInt;
+import java.awt.image.Raster;
+import java.awt.image.SinglePixelPackedSampleModel;
+import java.awt.image.WritableRaster;
+
+import org.apache.batik.ext.awt.image.DistantLight;
+import org.apache.batik.ext.awt.image.Light;
+import org.apache.batik.ext.awt.image.PointLight;
+import org.apache.batik.ext.awt.image.SpotLight;
+
+/**
+ * Computes the diffuse and specular lighting of a raster for the
+ * lights of the SVG specification.
+ *
+ * The normals of a band of rows are computed once into a single
+ * reusable array, and each light type has its own loop with the light
+ * vector computed inline, so there are no per pixel allocations or
+ * virtual calls.  The arithmetic is the one of {@link Light}, so the
+ * result is the same as with <code>getLightRow</code>.  The rows are
+ * split into bands computed through {@link ParallelTileExecutor}.
+ *
+ * The specular exponent can optionally be applied through a lookup
+ * table instead of <code>Math.pow</code>, which is faster for large
+ * areas but not exact.  It is off by default and can be turned on
+ * with the <code>org.apache.batik.ext.awt.image.rendered.powTable</code>
+ * system property or {@link #setPowTableEnabled}.
+ *
+ * @version $Id$
+ */
+public final class LightingEngine {
+
+    /**
+     * The system property that turns the specular lookup table on.
+     */
+    public static final String POW_TABLE_PROPERTY
+        = "org.apache.batik.ext.awt.image.rendered.powTable";
+
+    /**
+     * The number of intervals of the specular lookup table.
+     */
+    static final int POW_TABLE_SIZE = 4096;
+
+    /**
+     * The smallest number of rows in a band.
+     */
+    private static final int MIN_BAND = 8;
+
+    // The light types.
+    private static final int DISTANT  = 0;
+    private static final int POINT    = 1;
+    private static final int SPOT     = 2;
+
+    private static volatile boolean powTableEnabled;
+
+    static {
+        try {
+            powTableEnabled = Boolean.getBoolean(POW_TABLE_PROPERTY);
+        } catch (SecurityException se) {
+        }
+    }
+
+    /**
+     * Turns the specular lookup table on or off.
+     */
+    public static void setPowTableEnabled(boolean b) {
+        powTableEnabled = b;
+    }
+
+    /**
+     * Returns true if the specular lookup table is used.
+     */
+    public static boolean isPowTableEnabled() {
+        return powTableEnabled;
+    }
+
+    /**
+     * Returns true if the given light can be handled, that is if it is
+     * a <code>DistantLight</code>, a <code>PointLight</code> or a
+     * <code>SpotLight</code>, and not an instance of a subclass.
+     */
+    public static boolean isSupported(Light light) {
+        Class c = light.getClass();
+        return c == DistantLight.class || c == PointLight.class ||
+            c == SpotLight.class;
+    }
+
+    private final BumpMap bumpMap;
+    private final int type;
+    private final double scaleX, scaleY;
+
+    /**
+     * The light vector of a distant light, or the position of the
+     * other lights.
+     */
+    private double lx, ly, lz;
+
+    /**
+     * The direction of a spot light.
+     */
+    private double sx, sy, sz;
+
+    private double limitingCos, spotExponent;
+
+    /**
+     * The specular lookup table, built on demand.
+     */
+    private double[] powTable;
+    private double powTableExponent;
+
+    /**
+     * @param light the light, which must be supported
+     * @param bumpMap the surface
+     * @param scaleX the device space to user space scale on the x axis
+     * @param scaleY the device space to user space scale on the y axis
+     */
+    public LightingEngine(Light light, BumpMap bumpMap,
+                          double scaleX, double scaleY) {
+        if (!isSupported(light))
+            throw new IllegalArgumentException
+                ("Unsupported light: " + light.getClass().getName());
+        this.bumpMap = bumpMap;
+        this.scaleX = scaleX;
+        this.scaleY = scaleY;
+        if (light instanceof SpotLight) {
+            SpotLight sl = (SpotLight)light;
+            type = SPOT;
+            lx = sl.getLightX();
+            ly = sl.getLightY();
+            lz = sl.getLightZ();
+            // As in the SpotLight constructor.
+            sx = sl.getPointAtX() - lx;
+            sy = sl.getPointAtY() - ly;
+            sz = sl.getPointAtZ() - lz;
+            double invNorm = 1/Math.sqrt(sx*sx + sy*sy + sz*sz);
+            sx *= invNorm;
+            sy *= invNorm;
+            sz *= invNorm;
+            limitingCos = Math.cos(Math.toRadians
+                                   (sl.getLimitingConeAngle()));
+            spotExponent = sl.getSpecularExponent();
+        } else if (light instanceof DistantLight) {
+            type = DISTANT;
+            double[] L = new double[3];
+            light.getLight(0, 0, 0, L);
+            lx = L[0];
+            ly = L[1];
+            lz = L[2];
+        } else {
+            PointLight pl = (PointLight)light;
+            type = POINT;
+            lx = pl.getLightX();
+            ly = pl.getLightY();
+            lz = pl.getLightZ();
+        }
+    }
+
+    /**
+     * Computes the diffuse lighting of <code>wr</code>, as opaque
+     * premultiplied pixels.
+     * @param kd the diffuse constant
+     * @param lightColor the light color
+     */
+    public void diffuse(final double kd, final double[] lightColor,
+                        WritableRaster wr) {
+        run(wr, new Kernel() {
+                public void run(double[] N, int w, int y0, int y1,
+                                double x, double y,
+                                int[] pixels, int offset, int scanStride) {
+                    diffuseRows(N, w, y0, y1, x, y, pixels, offset,
+                                scanStride, 255.*kd, lightColor);
+                }
+            });
+    }
+
+    /**
+     * Computes the specular lighting of <code>wr</code>, as
+     * unpremultiplied pixels of the given color.
+     * @param mult the alpha scale factor
+     * @param specularExponent the specular exponent
+     * @param pixel the color of the pixels, without alpha
+     */
+    public void specular(final double mult, final double specularExponent,
+                         final int pixel, WritableRaster wr) {
+        final double[] table = powTableEnabled
+            ? getPowTable(specularExponent) : null;
+        run(wr, new Kernel() {
+                public void run(double[] N, int w, int y0, int y1,
+                                double x, double y,
+                                int[] pixels, int offset, int scanStride) {
+                    specularRows(N, w, y0, y1, x, y, pixels, offset,
+                                 scanStride, mult, specularExponent,
+                                 table, pixel);
+                }
+            });
+    }
+
+    /**
+     * The per band part of a lighting computation.
+     */
+    private interface Kernel {
+        /**
+         * Computes rows <code>y0</code> to <code>y1</code> (exclusive)
+         * of the raster, relative to its top.
+         * @param N the normals of these rows
+         * @param x the user space x coordinate of the raster
+         * @param y the user space y coordinate of the raster
+         * @param offset the index of the first pixel of the raster
+         */
+        void run(double[] N, int w, int y0, int y1, double x, double y,
+                 int[] pixels, int offset, int scanStride);
+    }
+
+    private void run(WritableRaster wr, final Kernel kernel) {
+        final int w = wr.getWidth();
+        final int h = wr.getHeight();
+        final int minX = wr.getMinX();
+        final int minY = wr.getMinY();
+
+        final DataBufferInt db = (DataBufferInt)wr.getDataBuffer();
+        final int[] pixels = db.getBankData()[0];
+        final SinglePixelPackedSampleModel sppsm;
+        sppsm = (SinglePixelPackedSampleModel)wr.getSampleModel();
+        final int offset =
+            (db.getOffset() +
+             sppsm.getOffset(minX-wr.getSampleModelTranslateX(),
+                             minY-wr.getSampleModelTranslateY()));
+        final int scanStride = sppsm.getScanlineStride();
+
+        final double x = scaleX*minX;
+        final double y = scaleY*minY;
+
+        // The texture is read on this thread, the bands only read the
+        // resulting raster.
+        final Raster texture = bumpMap.getTextureData(minX, minY, w, h);
+
+        ParallelTileExecutor.execute
+            (0, h, MIN_BAND, new ParallelTileExecutor.BandTask() {
+                    public void run(int y0, int y1) {
+                        double[] N = bumpMap.getNormals
+                            (texture, minX, minY + y0, w, y1 - y0, null);
+                        kernel.run(N, w, y0, y1, x, y,
+                                   pixels, offset, scanStride);
+                    }
+                });
+    }
+
+    private void diffuseRows(double[] N, int w, int y0, int y1,
+                             double x, double y,
+                             int[] pixels, int offset, int scanStride,
+                             double k, double[] lightColor) {
+        final double cr = lightColor[0];
+        final double cg = lightColor[1];
+        final double cb = lightColor[2];
+        final double dx = scaleX;
+        int n = 0;
+        for (int i = y0; i < y1; i++) {
+            int p = offset + i*scanStride;
+            final double ty = y + i*scaleY;
+            double tx = x;
+            for (int j = 0; j < w; j++, n += 4, tx += dx) {
+                final double N0 = N[n];
+                final double N1 = N[n+1];
+                final double N2 = N[n+2];
+                double L0, L1, L2;
+                switch (type) {
+                case DISTANT:
+                    L0 = lx;
+                    L1 = ly;
+                    L2 = lz;
+                    break;
+                case POINT: {
+                    L0 = lx - tx;
+                    L1 = ly - ty;
+                    L2 = lz - N[n+3];
+                    final double norm = Math.sqrt(L0*L0 + L1*L1 + L2*L2);
+                    if (norm > 0) {
+                        final double invNorm = 1.0/norm;
+                        L0 *= invNorm;
+                        L1 *= invNorm;
+                        L2 *= invNorm;
+                    }
+                    break;
+                }
+                default: {
+                    L0 = lx - tx;
+                    L1 = ly - ty;
+                    L2 = lz - N[n+3];
+                    final double invNorm = 1.0/Math.sqrt(L0*L0 + L1*L1 + L2*L2);
+                    L0 *= invNorm;
+                    L1 *= invNorm;
+                    L2 *= invNorm;
+                    final double s = spotIntensity(L0, L1, L2);
+                    L0 *= s;
+                    L1 *= s;
+                    L2 *= s;
+                }
+                }
+
+                final double NL = k*(N0*L0 + N1*L1 + N2*L2);
+                int r = (int)(NL*cr);
+                int g = (int)(NL*cg);
+                int b = (int)(NL*cb);
+
+                if ((r & 0xFFFFFF00) != 0)
+                    r = ((r & 0x80000000) != 0)?0:255;
+                if ((g & 0xFFFFFF00) != 0)
+                    g = ((g & 0x80000000) != 0)?0:255;
+                if ((b & 0xFFFFFF00) != 0)
+                    b = ((b & 0x80000000) != 0)?0:255;
+
+                pixels[p++] = (0xff000000 | r << 16 | g << 8 | b);
+            }
+        }
+    }
+
+    private void specularRows(double[] N, int w, int y0, int y1,
+                              double x, double y,
+                              int[] pixels, int offset, int scanStride,
+                              double mult, double specularExponent,
+                              double[] table, int pixel) {
+        final double dx = scaleX;
+        int n = 0;
+        if (type == DISTANT) {
+            // Half-way vector.
+            double L0 = lx;
+            double L1 = ly;
+            double L2 = lz + 1;
+            final double norm = Math.sqrt(L0*L0 + L1*L1 + L2*L2);
+            if (norm > 0) {
+                L0 /= norm;
+                L1 /= norm;
+                L2 /= norm;
+            }
+            for (int i = y0; i < y1; i++) {
+                int p = offset + i*scanStride;
+                for (int j = 0; j < w; j++, n += 4) {
+                    final double dot = N[n]*L0 + N[n+1]*L1 + N[n+2]*L2;
+                    int a = (int)(mult*pow(dot, specularExponent, table)
+                                  + 0.5);
+                    if ((a & 0xFFFFFF00) != 0)
+                        a = ((a & 0x80000000) != 0)?0:255;
+                    pixels[p++] = (a << 24 | pixel);
+                }
+            }
+            return;
+        }
+
+        for (int i = y0; i < y1; i++) {
+            int p = offset + i*scanStride;
+            final double ty = y + i*scaleY;
+            double tx = x;
+            for (int j = 0; j < w; j++, n += 4, tx += dx) {
+                double L0 = lx - tx;
+                double L1 = ly - ty;
+                double L2 = lz - N[n+3];
+                double vs;
+                if (type == POINT) {
+                    final double norm = Math.sqrt(L0*L0 + L1*L1 + L2*L2);
+                    if (norm > 0) {
+                        final double invNorm = 1.0/norm;
+                        L0 *= invNorm;
+                        L1 *= invNorm;
+                        L2 *= invNorm;
+                    }
+                    vs = 1;
+                } else {
+                    final double invNorm = 1.0/Math.sqrt(L0*L0 + L1*L1 + L2*L2);
+                    L0 *= invNorm;
+                    L1 *= invNorm;
+                    L2 *= invNorm;
+                    vs = spotIntensity(L0, L1, L2);
+                }
+
+                int a;
+                if (vs == 0) {
+                    a = 0;
+                } else {
+                    // Half-way vector.
+                    L2 += 1;
+                    final double norm = Math.sqrt(L0*L0 + L1*L1 + L2*L2);
+                    final double dot = N[n]*L0 + N[n+1]*L1 + N[n+2]*L2;
+                    final double s = pow(dot/norm, specularExponent, table);
+                    a = (int)(mult*(type == POINT ? s : vs*s) + 0.5);
+                    if ((a & 0xFFFFFF00) != 0)
+                        a = ((a & 0x80000000) != 0)?0:255;
+                }
+                pixels[p++] = (a << 24 | pixel);
+            }
+        }
+    }
+
+    /**
+     * Returns the intensity of the spot light for a normalized light
+     * vector, as SpotLight.getLightBase does.
+     */
+    private double spotIntensity(double L0, double L1, double L2) {
+        final double LS = -(L0*sx + L1*sy + L2*sz);
+        if (LS <= limitingCos)
+            return 0;
+        double Iatt = limitingCos/LS;
+        Iatt *= Iatt;
+        Iatt *= Iatt;
+        Iatt *= Iatt;
+        Iatt *= Iatt;
+        Iatt *= Iatt;
+        Iatt *= Iatt; // akin Math.pow(Iatt, 64)
+        Iatt = 1 - Iatt;
+        return Iatt*Math.pow(LS, spotExponent);
+    }
+
+    /**
+     * Returns <code>v</code> to the power <code>e</code>, interpolated
+     * in <code>table</code> when there is one and <code>v</code> is in
+     * [0, 1].
+     */
+    static double pow(double v, double e, double[] table) {
+        if (table == null || !(v >= 0 && v <= 1))
+            return Math.pow(v, e);
+        final double t = v*POW_TABLE_SIZE;
+        int i = (int)t;
+        if (i == POW_TABLE_SIZE)
+            i--;
+        final double v0 = table[i];
+        return v0 + (t - i)*(table[i+1] - v0);
+    }
+
+    private synchronized double[] getPowTable(double e) {
+        if (powTable == null || powTableExponent != e) {
+            double[] table = new double[POW_TABLE_SIZE + 1];
+            for (int i = 0; i <= POW_TABLE_SIZE; i++)
+                table[i] = Math.pow(i/(double)POW_TABLE_SIZE, e);
+            powTable = table;
+            powTableExponent = e;
+        }
+        return powTable;
+    }
+}
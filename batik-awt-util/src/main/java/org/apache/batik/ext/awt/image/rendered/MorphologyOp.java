@@ -178,7 +178,7 @@ public class MorphologyOp implements BufferedImageOp, RasterOp {
         return true;
     }
 
-    private void checkCompatible(SampleModel model){
+    protected void checkCompatible(SampleModel model){
         // Check model is ok: should be SinglePixelPackedSampleModel
         if(!(model instanceof SinglePixelPackedSampleModel))
             throw new IllegalArgumentException
@@ -0,0 +1,861 @@
+/*
+
+   Licensed to the Apache Software Foundation (ASF) under one or more
+   contributor license agreements.  See the NOTICE file distributed with
+   this work for additional information regarding copyright ownership.
+   The ASF licenses this file to You under the Apache License, Version 2.0
+   (the "License"); you may not use this file except in compliance with
+   the License.  You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+ */
+package org.apache.batik.ext.awt.image.rendered;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferByte;
+import java.awt.image.DataBufferInt;
+import java.awt.image.IndexColorModel;
+import java.awt.image.Raster;
+import java.awt.image.SinglePixelPackedSampleModel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * An adaptive palette generator that is faster and uses less memory
+ * than {@link IndexImage} on large images.
+ *
+ * Images with no more than <code>nColors</code> distinct colors are
+ * converted exactly.  Otherwise colors are counted in a histogram
+ * made of primitive arrays, with <code>4</code> to <code>6</code>
+ * bits per component depending on the quality setting.  Bands of rows
+ * are histogrammed in parallel (see {@link ParallelTileExecutor}),
+ * as many as fit in <code>MAX_HISTOGRAM_CELLS</code>, and the band
+ * histograms are then merged.  The palette is seeded by a median cut
+ * over the non empty histogram cells and refined with a few weighted
+ * k-means iterations.  Pixels are mapped through a cell to palette
+ * index table, either directly (in parallel) or with Floyd-Steinberg
+ * error diffusion.
+ *
+ * Unlike IndexImage the alpha channel is kept: images with
+ * translucent pixels are quantized on alpha premultiplied components,
+ * with 8 levels of alpha and at most 5 bits per color component in the
+ * histogram, and the palette of the result has an alpha table.  Fully
+ * transparent pixels are left out of the histogram and get a palette
+ * entry of their own.
+ *
+ * @version $Id$
+ */
+public class PaletteQuantizer {
+
+    /**
+     * The lowest quality, fastest setting.
+     */
+    public static final int MIN_QUALITY = 0;
+
+    /**
+     * The highest quality, slowest setting.
+     */
+    public static final int MAX_QUALITY = 10;
+
+    /**
+     * The default quality setting.
+     */
+    public static final int DEFAULT_QUALITY = 5;
+
+    /**
+     * Minimum number of rows histogrammed or mapped by each band.
+     */
+    private static final int MIN_BAND_HEIGHT = 32;
+
+    /**
+     * Maximum number of histogram cells allocated at once, over all
+     * the bands (36 bytes per cell).  At 6 bits per component a single
+     * histogram has this many cells, so the rows are then histogrammed
+     * in one band.
+     */
+    private static final int MAX_HISTOGRAM_CELLS = 1 << 18;
+
+    /**
+     * Bits of alpha in the histogram of images with translucent
+     * pixels: seven levels of translucent values and one level for the
+     * opaque pixels, which are never mixed with translucent ones.
+     */
+    private static final int ALPHA_BITS = 3;
+
+    /**
+     * Number of colors in the palette.
+     */
+    protected int nColors;
+
+    /**
+     * True if error diffusion should be used.
+     */
+    protected boolean dither;
+
+    /**
+     * Quality/speed trade-off, from MIN_QUALITY to MAX_QUALITY.
+     */
+    protected int quality = DEFAULT_QUALITY;
+
+    /**
+     * @param nColors the maximum number of colors in the palette,
+     *        from 2 to 256.
+     */
+    public PaletteQuantizer(int nColors) {
+        if ((nColors < 2) || (nColors > 256))
+            throw new IllegalArgumentException
+                ("Palette size must be between 2 and 256: " + nColors);
+        this.nColors = nColors;
+    }
+
+    /**
+     * Returns true if Floyd-Steinberg dithering is used.
+     */
+    public boolean isDither() {
+        return dither;
+    }
+
+    /**
+     * Turns Floyd-Steinberg dithering on or off (the default).
+     */
+    public void setDither(boolean dither) {
+        this.dither = dither;
+    }
+
+    /**
+     * Returns the quality/speed setting.
+     */
+    public int getQuality() {
+        return quality;
+    }
+
+    /**
+     * Sets the quality/speed trade-off.  Higher values use a finer
+     * histogram (from 4 bits per component below 4, to 6 bits per
+     * component from 8) and more k-means iterations (one per quality
+     * level).
+     */
+    public void setQuality(int quality) {
+        if (quality < MIN_QUALITY) quality = MIN_QUALITY;
+        if (quality > MAX_QUALITY) quality = MAX_QUALITY;
+        this.quality = quality;
+    }
+
+    /**
+     * Histogram of one band of rows.
+     */
+    static final class Histogram {
+        final int[]  count;
+        final long[] sumR, sumG, sumB, sumA;
+        long transparent;
+
+        Histogram(int nCells) {
+            count = new int [nCells];
+            sumR  = new long[nCells];
+            sumG  = new long[nCells];
+            sumB  = new long[nCells];
+            sumA  = new long[nCells];
+        }
+
+        void add(Histogram h) {
+            transparent += h.transparent;
+            for (int i=0; i<count.length; i++) {
+                if (h.count[i] == 0) continue;
+                count[i] += h.count[i];
+                sumR [i] += h.sumR [i];
+                sumG [i] += h.sumG [i];
+                sumB [i] += h.sumB [i];
+                sumA [i] += h.sumA [i];
+            }
+        }
+    }
+
+    /**
+     * Open addressing table of up to 256 ARGB colors, each with its
+     * index in the order the colors were added.
+     */
+    static final class ColorTable {
+        final int[] keys = new int[1024];
+        // Index of each color plus one, 0 for empty slots.
+        final int[] slots = new int[1024];
+        final int[] colors = new int[257];
+        int size;
+
+        /**
+         * Adds <code>argb</code> if it is not in the table yet.  At
+         * most 257 colors can be added.
+         */
+        void add(int argb) {
+            int i = (argb * 0x9E3779B9) >>> 22;
+            while (slots[i] != 0) {
+                if (keys[i] == argb) return;
+                i = (i+1) & 1023;
+            }
+            keys[i] = argb;
+            colors[size++] = argb;
+            slots[i] = size;
+        }
+
+        /**
+         * Returns the index of <code>argb</code>, which must have been
+         * added to the table.
+         */
+        int get(int argb) {
+            int i = (argb * 0x9E3779B9) >>> 22;
+            while (keys[i] != argb) i = (i+1) & 1023;
+            return slots[i]-1;
+        }
+    }
+
+    /**
+     * Converts the input image to an indexed image with an adaptive
+     * palette of at most <code>nColors</code> colors.  The result has
+     * the same layout as the images returned by
+     * {@link IndexImage#getIndexedImage}: 8 bits per pixel for more
+     * than 16 colors, 1, 2 or 4 bits per pixel otherwise.  Its palette
+     * has an alpha table if <code>bi</code> has an alpha channel.
+     * @param bi the image to be processed.
+     */
+    public BufferedImage getIndexedImage(final BufferedImage bi) {
+        final int w = bi.getWidth();
+        final int h = bi.getHeight();
+        final boolean hasAlpha = bi.getColorModel().hasAlpha();
+
+        // Step 0: images with few enough colors are converted exactly.
+        ColorTable exact = getColors(bi, hasAlpha);
+        if (exact.size <= nColors)
+            return getExactImage(bi, exact, hasAlpha);
+        exact = null;
+
+        final boolean alpha = hasAlpha && isTranslucent(bi);
+        int bits = (quality < 4) ? 4 : ((quality < 8) ? 5 : 6);
+        if (alpha && (bits > 5)) bits = 5;
+        final int cBits = bits;
+        final int shift = 8 - cBits;
+        final int nCells = 1 << (3*cBits + (alpha ? ALPHA_BITS : 0));
+
+        // Step 1: histogram bands of rows in parallel, then merge.
+        // Each band has its own histogram, so the number of bands is
+        // limited to keep their total size bounded.
+        int maxBands = Math.max(1, MAX_HISTOGRAM_CELLS / nCells);
+        int bandHeight = Math.max(MIN_BAND_HEIGHT,
+                                  (h + maxBands - 1) / maxBands);
+        final List hists = new ArrayList();
+        ParallelTileExecutor.execute
+            (0, h, bandHeight, new ParallelTileExecutor.BandTask() {
+                    public void run(int y0, int y1) {
+                        Histogram hist = new Histogram(nCells);
+                        int[] row = new int[w];
+                        for (int y=y0; y<y1; y++) {
+                            int[] px = getRow(bi, y, row);
+                            int off = (px == row) ? 0 : rowOffset(bi, y);
+                            for (int x=0; x<w; x++) {
+                                int argb = px[off+x];
+                                int a = alpha ? (argb>>>24) : 255;
+                                if (a == 0) {
+                                    hist.transparent++;
+                                    continue;
+                                }
+                                int r = premultiply((argb>>16)&0xFF, a);
+                                int g = premultiply((argb>> 8)&0xFF, a);
+                                int b = premultiply((argb    )&0xFF, a);
+                                int c = cell(r, g, b, a, alpha, cBits, shift);
+                                hist.count[c]++;
+                                hist.sumR [c] += r;
+                                hist.sumG [c] += g;
+                                hist.sumB [c] += b;
+                                hist.sumA [c] += a;
+                            }
+                        }
+                        synchronized (hists) {
+                            hists.add(hist);
+                        }
+                    }
+                });
+        Histogram hist = (Histogram)hists.get(0);
+        for (int i=1; i<hists.size(); i++)
+            hist.add((Histogram)hists.get(i));
+        hists.clear();
+        boolean transparent = (hist.transparent != 0);
+
+        // Step 2: compact the non empty cells.
+        int nb = 0;
+        for (int i=0; i<nCells; i++)
+            if (hist.count[i] != 0) nb++;
+
+        final int[]   cellIdx = new int[nb];
+        final int[]   weight  = new int[nb];
+        final float[] cr = new float[nb];
+        final float[] cg = new float[nb];
+        final float[] cb = new float[nb];
+        final float[] ca = new float[nb];
+        nb = 0;
+        for (int i=0; i<nCells; i++) {
+            int n = hist.count[i];
+            if (n == 0) continue;
+            cellIdx[nb] = i;
+            weight [nb] = n;
+            cr[nb] = hist.sumR[i]/(float)n;
+            cg[nb] = hist.sumG[i]/(float)n;
+            cb[nb] = hist.sumB[i]/(float)n;
+            ca[nb] = hist.sumA[i]/(float)n;
+            nb++;
+        }
+        hist = null;
+
+        // The opaque cells, at the top alpha level, come last.
+        int split = 0;
+        if (alpha) {
+            int opaque = alphaLevel(255)<<(3*cBits);
+            while ((split < nb) && (cellIdx[split] < opaque)) split++;
+        }
+
+        // Step 3: seed the palette with a median cut over the cells.
+        int maxBoxes = transparent ? nColors-1 : nColors;
+        float[][] pal = medianCut(maxBoxes, split, nb, weight,
+                                  cr, cg, cb, ca);
+        // Opaque entries are means of opaque cells only, so their
+        // alpha is exactly 255, and they come last.
+        int nT = 0;
+        while ((nT < pal[0].length) && (pal[3][nT] != 255)) nT++;
+
+        // Step 4: refine it with weighted k-means.
+        int[] assign = new int[nb];
+        kMeans(nb, split, nT, weight, cr, cg, cb, ca, pal, assign, quality);
+
+        // The palette is premultiplied, the color model is not.
+        // The transparent entry, all zeros, comes after the others.
+        int nPal = pal[0].length;
+        final int tIdx = transparent ? nPal++ : -1;
+        byte[][] rgbTbl = new byte[alpha ? 4 : 3][nPal];
+        final int[][] ipal = new int[4][nPal];
+        for (int i=0; i<pal[0].length; i++) {
+            int a = clamp(Math.round(pal[3][i]));
+            int r = 0, g = 0, b = 0;
+            if (a != 0) {
+                r = clamp(Math.round(pal[0][i]*255/pal[3][i]));
+                g = clamp(Math.round(pal[1][i]*255/pal[3][i]));
+                b = clamp(Math.round(pal[2][i]*255/pal[3][i]));
+            }
+            rgbTbl[0][i] = (byte)r;
+            rgbTbl[1][i] = (byte)g;
+            rgbTbl[2][i] = (byte)b;
+            if (alpha) rgbTbl[3][i] = (byte)a;
+            ipal[0][i] = premultiply(r, a);
+            ipal[1][i] = premultiply(g, a);
+            ipal[2][i] = premultiply(b, a);
+            ipal[3][i] = a;
+        }
+
+        // Cell to palette index table, -1 for cells not seen yet.
+        final int[] lut = new int[nCells];
+        Arrays.fill(lut, -1);
+        for (int i=0; i<nb; i++)
+            lut[cellIdx[i]] = assign[i];
+
+        // Step 5: map the pixels.
+        BufferedImage indexed = createIndexed(w, h, nPal, rgbTbl);
+        final byte[] dst =
+            ((DataBufferByte)indexed.getRaster().getDataBuffer()).getData();
+
+        if (dither) {
+            mapDithered(bi, alpha, dst, lut, ipal, nT, pal[0].length, tIdx,
+                        cBits, shift);
+        } else {
+            ParallelTileExecutor.execute
+                (0, h, MIN_BAND_HEIGHT, new ParallelTileExecutor.BandTask() {
+                        public void run(int y0, int y1) {
+                            int[] row = new int[w];
+                            int dp = y0*w;
+                            for (int y=y0; y<y1; y++) {
+                                int[] px = getRow(bi, y, row);
+                                int off = (px == row) ? 0 : rowOffset(bi, y);
+                                for (int x=0; x<w; x++) {
+                                    int argb = px[off+x];
+                                    int a = alpha ? (argb>>>24) : 255;
+                                    if (a == 0) {
+                                        dst[dp++] = (byte)tIdx;
+                                        continue;
+                                    }
+                                    int c = cell
+                                        (premultiply((argb>>16)&0xFF, a),
+                                         premultiply((argb>> 8)&0xFF, a),
+                                         premultiply((argb    )&0xFF, a),
+                                         a, alpha, cBits, shift);
+                                    dst[dp++] = (byte)lut[c];
+                                }
+                            }
+                        }
+                    });
+        }
+
+        return IndexImage.reduceBitDepth(indexed, nPal, rgbTbl);
+    }
+
+    /**
+     * Collects the distinct colors of <code>bi</code>, stopping as
+     * soon as there are more than <code>nColors</code> of them.
+     */
+    ColorTable getColors(BufferedImage bi, boolean hasAlpha) {
+        int w = bi.getWidth();
+        int h = bi.getHeight();
+        int opaque = hasAlpha ? 0 : 0xFF000000;
+        ColorTable colors = new ColorTable();
+        int[] row = new int[w];
+        for (int y=0; y<h; y++) {
+            int[] px = getRow(bi, y, row);
+            int off = (px == row) ? 0 : rowOffset(bi, y);
+            for (int x=0; x<w; x++) {
+                colors.add(px[off+x] | opaque);
+                if (colors.size > nColors) return colors;
+            }
+        }
+        return colors;
+    }
+
+    /**
+     * Returns true if <code>bi</code> has a pixel that is not opaque.
+     */
+    static boolean isTranslucent(BufferedImage bi) {
+        int w = bi.getWidth();
+        int h = bi.getHeight();
+        int[] row = new int[w];
+        for (int y=0; y<h; y++) {
+            int[] px = getRow(bi, y, row);
+            int off = (px == row) ? 0 : rowOffset(bi, y);
+            for (int x=0; x<w; x++)
+                if ((px[off+x]>>>24) != 255) return true;
+        }
+        return false;
+    }
+
+    /**
+     * Converts <code>bi</code> to an indexed image whose palette holds
+     * exactly the colors in <code>colors</code>.
+     */
+    static BufferedImage getExactImage(final BufferedImage bi,
+                                       final ColorTable colors,
+                                       boolean hasAlpha) {
+        final int w = bi.getWidth();
+        final int h = bi.getHeight();
+        // Two entries at least, as IndexImage always returns.
+        int nPal = Math.max(colors.size, 2);
+        byte[][] rgbTbl = new byte[hasAlpha ? 4 : 3][nPal];
+        for (int i=0; i<colors.size; i++) {
+            int argb = colors.colors[i];
+            rgbTbl[0][i] = (byte)(argb>>16);
+            rgbTbl[1][i] = (byte)(argb>> 8);
+            rgbTbl[2][i] = (byte)(argb    );
+            if (hasAlpha) rgbTbl[3][i] = (byte)(argb>>>24);
+        }
+
+        BufferedImage indexed = createIndexed(w, h, nPal, rgbTbl);
+        final byte[] dst =
+            ((DataBufferByte)indexed.getRaster().getDataBuffer()).getData();
+        final int opaque = hasAlpha ? 0 : 0xFF000000;
+        ParallelTileExecutor.execute
+            (0, h, MIN_BAND_HEIGHT, new ParallelTileExecutor.BandTask() {
+                    public void run(int y0, int y1) {
+                        int[] row = new int[w];
+                        int dp = y0*w;
+                        for (int y=y0; y<y1; y++) {
+                            int[] px = getRow(bi, y, row);
+                            int off = (px == row) ? 0 : rowOffset(bi, y);
+                            for (int x=0; x<w; x++)
+                                dst[dp++] = (byte)colors.get(px[off+x] | opaque);
+                        }
+                    }
+                });
+        return IndexImage.reduceBitDepth(indexed, nPal, rgbTbl);
+    }
+
+    /**
+     * Creates an 8 bit palette image, with an alpha table if
+     * <code>rgbTbl</code> has a fourth row.
+     */
+    static BufferedImage createIndexed(int w, int h, int nPal,
+                                       byte[][] rgbTbl) {
+        IndexColorModel icm;
+        if (rgbTbl.length > 3)
+            icm = new IndexColorModel(8, nPal, rgbTbl[0], rgbTbl[1],
+                                      rgbTbl[2], rgbTbl[3]);
+        else
+            icm = new IndexColorModel(8, nPal, rgbTbl[0], rgbTbl[1],
+                                      rgbTbl[2]);
+        return new BufferedImage(w, h, BufferedImage.TYPE_BYTE_INDEXED, icm);
+    }
+
+    static int cell(int r, int g, int b, int a, boolean alpha,
+                    int cBits, int shift) {
+        int c = (((r>>shift)<<(2*cBits)) | ((g>>shift)<<cBits) | (b>>shift));
+        if (alpha) c |= alphaLevel(a)<<(3*cBits);
+        return c;
+    }
+
+    /**
+     * Returns the histogram level of <code>a</code>: 7 for opaque
+     * pixels, 0 to 6 for the others.
+     */
+    static int alphaLevel(int a) {
+        return (a == 255) ? 7 : ((a*7)>>8);
+    }
+
+    /**
+     * Returns the center of the alpha values of a histogram level.
+     */
+    static float alphaCenter(int level) {
+        if (level == 7) return 255;
+        int lo = (level*256 + 6)/7;
+        int hi = Math.min(((level+1)*256 + 6)/7 - 1, 254);
+        return (lo + hi)/2f;
+    }
+
+    static int premultiply(int c, int a) {
+        return (c*a + 127)/255;
+    }
+
+    static int clamp(int v) {
+        if ((v & 0xFFFFFF00) == 0) return v;
+        return ((v & 0x80000000) != 0) ? 0 : 255;
+    }
+
+    /**
+     * Returns true if the pixels of <code>bi</code> can be read
+     * directly from its int array.
+     */
+    static boolean isIntRGB(BufferedImage bi) {
+        int type = bi.getType();
+        return (((type == BufferedImage.TYPE_INT_RGB) ||
+                 (type == BufferedImage.TYPE_INT_ARGB)) &&
+                (bi.getRaster().getDataBuffer() instanceof DataBufferInt) &&
+                (bi.getSampleModel() instanceof SinglePixelPackedSampleModel));
+    }
+
+    /**
+     * Returns an array holding row <code>y</code> of <code>bi</code>
+     * in the default RGB format.  For int RGB images this is the
+     * image's own data array (see {@link #rowOffset}), otherwise the
+     * row is copied into <code>row</code>.  The alpha byte of int RGB
+     * images without alpha is not meaningful.
+     */
+    static int[] getRow(BufferedImage bi, int y, int[] row) {
+        if (isIntRGB(bi))
+            return ((DataBufferInt)bi.getRaster().getDataBuffer()).getData();
+        return bi.getRGB(0, y, bi.getWidth(), 1, row, 0, bi.getWidth());
+    }
+
+    /**
+     * Offset of the first pixel of row <code>y</code> in the array
+     * returned by getRow for int RGB images.
+     */
+    static int rowOffset(BufferedImage bi, int y) {
+        Raster r = bi.getRaster();
+        SinglePixelPackedSampleModel sppsm
+            = (SinglePixelPackedSampleModel)r.getSampleModel();
+        return (r.getDataBuffer().getOffset() +
+                sppsm.getOffset(-r.getSampleModelTranslateX(),
+                                y-r.getSampleModelTranslateY()));
+    }
+
+    /**
+     * Splits the cells in up to maxBoxes boxes, always splitting the
+     * box with the largest weighted extent at its weighted median
+     * along its longest axis.  The cells before and from
+     * <code>split</code> start in separate boxes, if both are present
+     * and maxBoxes is at least 2.
+     * @return the weighted mean color of each box as
+     *         [ r|g|b|a ][ box ], the boxes of the cells before
+     *         <code>split</code> first.
+     */
+    static float[][] medianCut(int maxBoxes, int split, int nb,
+                               int[] weight, float[] cr, float[] cg,
+                               float[] cb, float[] ca) {
+        int[] order = new int[nb];
+        for (int i=0; i<nb; i++) order[i] = i;
+
+        int[] boxStart = new int[maxBoxes];
+        int[] boxEnd   = new int[maxBoxes];
+        int nBoxes = 1;
+        boxStart[0] = 0;
+        boxEnd  [0] = nb;
+        if ((split > 0) && (split < nb) && (maxBoxes > 1)) {
+            boxEnd  [0] = split;
+            boxStart[1] = split;
+            boxEnd  [1] = nb;
+            nBoxes = 2;
+        }
+        long[] keys = new long[nb];
+        float[][] axes = { cr, cg, cb, ca };
+
+        while (nBoxes < maxBoxes) {
+            int best = -1, bestAxis = 0;
+            double bestScore = 0;
+            for (int bx=0; bx<nBoxes; bx++) {
+                int s = boxStart[bx], e = boxEnd[bx];
+                if (e - s < 2) continue;
+                long wSum = 0;
+                float[] min = { 255, 255, 255, 255 };
+                float[] max = { 0, 0, 0, 0 };
+                for (int i=s; i<e; i++) {
+                    int c = order[i];
+                    wSum += weight[c];
+                    for (int a=0; a<4; a++) {
+                        float v = axes[a][c];
+                        if (v < min[a]) min[a] = v;
+                        if (v > max[a]) max[a] = v;
+                    }
+                }
+                int axis = 0;
+                for (int a=1; a<4; a++)
+                    if (max[a]-min[a] > max[axis]-min[axis]) axis = a;
+                double score = wSum * (double)(max[axis]-min[axis]);
+                if (score > bestScore) {
+                    bestScore = score;
+                    best = bx;
+                    bestAxis = axis;
+                }
+            }
+            if (best < 0) break; // every box is a single cell.
+
+            int s = boxStart[best], e = boxEnd[best];
+            float[] axis = axes[bestAxis];
+            long wSum = 0;
+            for (int i=s; i<e; i++) {
+                int c = order[i];
+                // Sort on the component (fixed point), keep the cell.
+                keys[i] = (((long)(axis[c]*256)) << 32) | c;
+                wSum += weight[c];
+            }
+            Arrays.sort(keys, s, e);
+            long half = wSum/2, acc = 0;
+            int m = s;
+            for (int i=s; i<e; i++) {
+                order[i] = (int)keys[i];
+                if (acc < half) {
+                    acc += weight[order[i]];
+                    m = i+1;
+                }
+            }
+            if (m <= s) m = s+1;
+            if (m >= e) m = e-1;
+
+            boxEnd  [best]   = m;
+            boxStart[nBoxes] = m;
+            boxEnd  [nBoxes] = e;
+            nBoxes++;
+        }
+
+        // Boxes never straddle split, so sorting them on their start
+        // puts the ones before split first.
+        long[] boxes = new long[nBoxes];
+        for (int bx=0; bx<nBoxes; bx++)
+            boxes[bx] = (((long)boxStart[bx]) << 32) | boxEnd[bx];
+        Arrays.sort(boxes);
+
+        float[][] pal = new float[4][nBoxes];
+        for (int bx=0; bx<nBoxes; bx++) {
+            double r=0, g=0, b=0, a=0, wSum=0;
+            int s = (int)(boxes[bx] >>> 32), e = (int)boxes[bx];
+            for (int i=s; i<e; i++) {
+                int c = order[i];
+                r += cr[c]*(double)weight[c];
+                g += cg[c]*(double)weight[c];
+                b += cb[c]*(double)weight[c];
+                a += ca[c]*(double)weight[c];
+                wSum += weight[c];
+            }
+            if (wSum == 0) wSum = 1;
+            pal[0][bx] = (float)(r/wSum);
+            pal[1][bx] = (float)(g/wSum);
+            pal[2][bx] = (float)(b/wSum);
+            pal[3][bx] = (float)(a/wSum);
+        }
+        return pal;
+    }
+
+    /**
+     * Runs up to <code>iterations</code> weighted k-means iterations
+     * over the cells, updating <code>pal</code> in place.  On return
+     * <code>assign</code> holds the palette index nearest to each cell.
+     * The cells before <code>split</code> are only assigned to the
+     * entries before <code>nT</code> and the other cells to the other
+     * entries, unless there are none.
+     */
+    static void kMeans(final int nb, final int split, final int nT,
+                       final int[] weight,
+                       final float[] cr, final float[] cg, final float[] cb,
+                       final float[] ca, final float[][] pal,
+                       final int[] assign, int iterations) {
+        final int k = pal[0].length;
+        double[] sr = new double[k];
+        double[] sg = new double[k];
+        double[] sb = new double[k];
+        double[] sa = new double[k];
+        double[] sw = new double[k];
+
+        for (int it=0; ; it++) {
+            final float[] pr = pal[0], pg = pal[1], pb = pal[2], pa = pal[3];
+            ParallelTileExecutor.execute
+                (0, nb, 1024, new ParallelTileExecutor.BandTask() {
+                        public void run(int c0, int c1) {
+                            for (int c=c0; c<c1; c++) {
+                                boolean before = (c < split);
+                                assign[c] = nearest(cr[c], cg[c], cb[c], ca[c],
+                                                    pr, pg, pb, pa,
+                                                    before ? 0 : nT,
+                                                    before ? nT : k);
+                            }
+                        }
+                    });
+            if (it >= iterations) break;
+
+            Arrays.fill(sr, 0);
+            Arrays.fill(sg, 0);
+            Arrays.fill(sb, 0);
+            Arrays.fill(sa, 0);
+            Arrays.fill(sw, 0);
+            for (int c=0; c<nb; c++) {
+                int p = assign[c];
+                double wt = weight[c];
+                sr[p] += cr[c]*wt;
+                sg[p] += cg[c]*wt;
+                sb[p] += cb[c]*wt;
+                sa[p] += ca[c]*wt;
+                sw[p] += wt;
+            }
+            boolean moved = false;
+            for (int p=0; p<k; p++) {
+                if (sw[p] == 0) continue; // keep empty clusters in place.
+                float r = (float)(sr[p]/sw[p]);
+                float g = (float)(sg[p]/sw[p]);
+                float b = (float)(sb[p]/sw[p]);
+                float a = (float)(sa[p]/sw[p]);
+                if ((Math.abs(r-pr[p]) > 0.25f) ||
+                    (Math.abs(g-pg[p]) > 0.25f) ||
+                    (Math.abs(b-pb[p]) > 0.25f) ||
+                    (Math.abs(a-pa[p]) > 0.25f))
+                    moved = true;
+                pr[p] = r;
+                pg[p] = g;
+                pb[p] = b;
+                pa[p] = a;
+            }
+            if (!moved) iterations = it+1; // converged, final assignment.
+        }
+    }
+
+    /**
+     * Returns the entry from <code>p0</code> to <code>p1</code>
+     * (excluded) nearest to the given color, or the nearest from
+     * <code>0</code> to <code>pr.length</code> if the range is empty.
+     */
+    static int nearest(float r, float g, float b, float a,
+                       float[] pr, float[] pg, float[] pb, float[] pa,
+                       int p0, int p1) {
+        if (p0 == p1) {
+            p0 = 0;
+            p1 = pr.length;
+        }
+        int best = p0;
+        float bestD = Float.MAX_VALUE;
+        for (int p=p0; p<p1; p++) {
+            float dr = r-pr[p], dg = g-pg[p], db = b-pb[p], da = a-pa[p];
+            float d = dr*dr + dg*dg + db*db + da*da;
+            if (d < bestD) {
+                bestD = d;
+                best = p;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Maps the pixels with Floyd-Steinberg error diffusion of the
+     * premultiplied components.  Cells that did not occur in the image
+     * are resolved on demand to the palette entry nearest to the
+     * cell's center.
+     * Fully transparent pixels are mapped to <code>tIdx</code> and
+     * neither take nor spread any error, opaque pixels stay opaque.
+     * @param ipal the premultiplied palette as [ r|g|b|a ][ entry ].
+     * @param nT the number of translucent entries, which come first.
+     * @param k the number of entries other than the transparent one.
+     */
+    static void mapDithered(BufferedImage bi, boolean alpha, byte[] dst,
+                            int[] lut, int[][] ipal, int nT, int k,
+                            int tIdx, int cBits, int shift) {
+        int w = bi.getWidth();
+        int h = bi.getHeight();
+        float[][] fpal = new float[4][k];
+        for (int i=0; i<k; i++)
+            for (int j=0; j<4; j++)
+                fpal[j][i] = ipal[j][i];
+        float half = (1<<shift)/2f;
+
+        // Error rows, one pixel of padding on each side.
+        int[] errCur  = new int[(w+2)*4];
+        int[] errNext = new int[(w+2)*4];
+        int[] row = new int[w];
+        int dp = 0;
+        for (int y=0; y<h; y++) {
+            int[] px = getRow(bi, y, row);
+            int off = (px == row) ? 0 : rowOffset(bi, y);
+            Arrays.fill(errNext, 0);
+            for (int x=0; x<w; x++) {
+                int argb = px[off+x];
+                int e = (x+1)*4;
+                int a0 = alpha ? (argb>>>24) : 255;
+                if (a0 == 0) {
+                    dst[dp++] = (byte)tIdx;
+                    continue;
+                }
+                // Errors are kept in 1/16 units.
+                int a = (a0 == 255) ? 255 : clamp(a0 + ((errCur[e+3]+8)>>4));
+                int r = clamp(premultiply((argb>>16)&0xFF, a0) +
+                              ((errCur[e  ]+8)>>4));
+                int g = clamp(premultiply((argb>> 8)&0xFF, a0) +
+                              ((errCur[e+1]+8)>>4));
+                int b = clamp(premultiply((argb    )&0xFF, a0) +
+                              ((errCur[e+2]+8)>>4));
+                // Premultiplied components can not exceed alpha.
+                if (r > a) r = a;
+                if (g > a) g = a;
+                if (b > a) b = a;
+                int c = cell(r, g, b, a, alpha, cBits, shift);
+                int idx = lut[c];
+                if (idx < 0) {
+                    float ca = alpha ? alphaCenter(alphaLevel(a)) : 255;
+                    boolean opaque = (a == 255);
+                    idx = nearest(((r>>shift)<<shift) + half,
+                                  ((g>>shift)<<shift) + half,
+                                  ((b>>shift)<<shift) + half,
+                                  ca, fpal[0], fpal[1], fpal[2], fpal[3],
+                                  opaque ? nT : 0, opaque ? k : nT);
+                    lut[c] = idx;
+                }
+                dst[dp++] = (byte)idx;
+
+                int er = r - ipal[0][idx];
+                int eg = g - ipal[1][idx];
+                int eb = b - ipal[2][idx];
+                int ea = a - ipal[3][idx];
+                errCur [e+4] += er*7; errCur [e+5] += eg*7;
+                errCur [e+6] += eb*7; errCur [e+7] += ea*7;
+                errNext[e-4] += er*3; errNext[e-3] += eg*3;
+                errNext[e-2] += eb*3; errNext[e-1] += ea*3;
+                errNext[e  ] += er*5; errNext[e+1] += eg*5;
+                errNext[e+2] += eb*5; errNext[e+3] += ea*5;
+                errNext[e+4] += er;   errNext[e+5] += eg;
+                errNext[e+6] += eb;   errNext[e+7] += ea;
+            }
+            int[] t = errCur; errCur = errNext; errNext = t;
+        }
+    }
+}
@@ -0,0 +1,203 @@
+/*
+
+   Licensed to the Apache Software Foundation (ASF) under one or more
+   contributor license agreements.  See the NOTICE file distributed with
+   this work for additional information regarding copyright ownership.
+   The ASF licenses this file to You under the Apache License, Version 2.0
+   (the "License"); you may not use this file except in compliance with
+   the License.  You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+ */
+package org.apache.batik.ext.awt.image.rendered;
+
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Splits the rows of a raster operation into horizontal bands and
+ * computes them concurrently on a shared pool of daemon threads.
+ *
+ * The calling thread always computes the first band itself, so a
+ * pool of <code>n-1</code> workers gives <code>n</code> way
+ * parallelism.  Calls made from a worker thread (an operation that
+ * pulls its source from another parallel operation) run serially to
+ * avoid starving the pool.
+ *
+ * The degree of parallelism defaults to the number of available
+ * processors and can be set with the
+ * <code>org.apache.batik.ext.awt.image.rendered.parallelism</code>
+ * system property or {@link #setParallelism}.  A value of one or less
+ * turns parallel execution off.
+ *
+ * @version $Id$
+ */
+public final class ParallelTileExecutor {
+
+    /**
+     * The system property that holds the default parallelism.
+     */
+    public static final String PARALLELISM_PROPERTY
+        = "org.apache.batik.ext.awt.image.rendered.parallelism";
+
+    /**
+     * Unit of work handed to the executor.  Implementations must only
+     * write rows in <code>[y0, y1)</code> so bands can be computed
+     * concurrently.
+     */
+    public interface BandTask {
+        /**
+         * Computes rows <code>y0</code> (inclusive) to
+         * <code>y1</code> (exclusive).
+         */
+        void run(int y0, int y1);
+    }
+
+    private static int parallelism;
+    private static ExecutorService pool;
+
+    static {
+        int n = Runtime.getRuntime().availableProcessors();
+        try {
+            String s = System.getProperty(PARALLELISM_PROPERTY);
+            if (s != null)
+                n = Integer.parseInt(s.trim());
+        } catch (SecurityException se) {
+        } catch (NumberFormatException nfe) {
+        }
+        parallelism = n;
+    }
+
+    private ParallelTileExecutor() {
+    }
+
+    /**
+     * Returns the number of bands an operation may be split into.
+     */
+    public static synchronized int getParallelism() {
+        return parallelism;
+    }
+
+    /**
+     * Sets the number of bands an operation may be split into.
+     * Values of one or less compute everything on the calling thread.
+     */
+    public static synchronized void setParallelism(int n) {
+        if (n == parallelism)
+            return;
+        parallelism = n;
+        if (pool != null) {
+            pool.shutdown();
+            pool = null;
+        }
+    }
+
+    private static synchronized ExecutorService getPool() {
+        if (pool == null) {
+            int n = Math.max(parallelism - 1, 1);
+            pool = Executors.newFixedThreadPool(n, new ThreadFactory() {
+                    private int count;
+                    public Thread newThread(Runnable r) {
+                        Thread t = new WorkerThread
+                            (r, "Batik Raster Worker " + (++count));
+                        t.setDaemon(true);
+                        return t;
+                    }
+                });
+        }
+        return pool;
+    }
+
+    /**
+     * Runs <code>task</code> over rows <code>[y, y+h)</code>,
+     * splitting them into at most <code>getParallelism()</code> bands
+     * of at least <code>minBandHeight</code> rows.  Returns once every
+     * band has completed.  Runtime exceptions thrown by a band are
+     * rethrown on the calling thread.  If the calling thread is
+     * interrupted while waiting, the pending bands are cancelled and
+     * the interrupt status is restored.
+     */
+    public static void execute(int y, int h, int minBandHeight,
+                               BandTask task) {
+        int n;
+        synchronized (ParallelTileExecutor.class) {
+            n = parallelism;
+        }
+        if (minBandHeight < 1) minBandHeight = 1;
+        if (n > h / minBandHeight)
+            n = h / minBandHeight;
+
+        if ((n <= 1) ||
+            (Thread.currentThread() instanceof WorkerThread)) {
+            task.run(y, y + h);
+            return;
+        }
+
+        ExecutorService exec = getPool();
+        Future[] futures = new Future[n - 1];
+        int y1 = y + h / n;
+        for (int i = 1; i < n; i++) {
+            final int by0 = y + (int)(((long)h * i) / n);
+            final int by1 = y + (int)(((long)h * (i + 1)) / n);
+            final BandTask t = task;
+            FutureTask ft = new FutureTask(new Runnable() {
+                    public void run() {
+                        t.run(by0, by1);
+                    }
+                }, null);
+            futures[i - 1] = ft;
+            try {
+                exec.execute(ft);
+            } catch (RejectedExecutionException ree) {
+                // The pool was shut down by setParallelism.
+                ft.run();
+            }
+        }
+
+        try {
+            task.run(y, y1);
+            for (int i = 0; i < futures.length; i++)
+                futures[i].get();
+        } catch (InterruptedException ie) {
+            cancel(futures);
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException ee) {
+            cancel(futures);
+            Throwable cause = ee.getCause();
+            if (cause instanceof RuntimeException)
+                throw (RuntimeException)cause;
+            if (cause instanceof Error)
+                throw (Error)cause;
+            throw new RuntimeException(cause);
+        } catch (RuntimeException re) {
+            cancel(futures);
+            throw re;
+        }
+    }
+
+    private static void cancel(Future[] futures) {
+        for (int i = 0; i < futures.length; i++)
+            futures[i].cancel(true);
+    }
+
+    /**
+     * Marker class for the pool threads.
+     */
+    static final class WorkerThread extends Thread {
+        WorkerThread(Runnable r, String name) {
+            super(r, name);
+        }
+    }
+}
@@ -0,0 +1,713 @@
+/*
+
+   Licensed to the Apache Software Foundation (ASF) under one or more
+   contributor license agreements.  See the NOTICE file distributed with
+   this work for additional information regarding copyright ownership.
+   The ASF licenses this file to You under the Apache License, Version 2.0
+   (the "License"); you may not use this file except in compliance with
+   the License.  You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+ */
+package org.apache.batik.ext.awt.image.rendered;
+
+import java.awt.Rectangle;
+import java.awt.RenderingHints;
+import java.awt.geom.AffineTransform;
+import java.awt.image.ColorModel;
+import java.awt.image.DataBufferInt;
+import java.awt.image.SampleModel;
+import java.awt.image.SinglePixelPackedSampleModel;
+import java.awt.image.WritableRaster;
+import java.lang.ref.WeakReference;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.apache.batik.ext.awt.image.GraphicsUtil;
+
+/**
+ * Scales integer packed, premultiplied ARGB images down with a
+ * separable filter, for {@link AffineRed}.
+ *
+ * The source is first reduced by powers of two with a box filter
+ * (a mipmap pyramid) until the remaining scale is between 1/2 and 1,
+ * then filtered with a Catmull-Rom cubic, or a Lanczos 3 filter for
+ * the bicubic interpolation hint, widened to the output pixel size.
+ * Every source pixel contributes to the result, so details finer
+ * than an output pixel are averaged instead of dropped.
+ *
+ * The levels of the pyramid built for a
+ * {@link BufferedImageCachableRed}, typically a decoded image, are
+ * kept in a cache bounded in bytes, so an image drawn at the same
+ * scale again only needs the final filter.  The rows of each tile
+ * are filtered in parallel with {@link ParallelTileExecutor}.
+ *
+ * @version $Id$
+ */
+public class Resampler {
+
+    /**
+     * The default maximum number of bytes held by the level cache.
+     */
+    public static final long DEFAULT_CACHE_SIZE = 64L * 1024 * 1024;
+
+    /**
+     * The smallest number of rows in a band.
+     */
+    private static final int MIN_BAND_HEIGHT = 16;
+
+    /**
+     * The number of output rows filtered together.
+     */
+    private static final int CHUNK_HEIGHT = 32;
+
+    /**
+     * The pyramid levels, from LevelKey to int[].
+     */
+    private static final LinkedHashMap levels
+        = new LinkedHashMap(16, 0.75f, true);
+
+    private static long maxCacheSize = DEFAULT_CACHE_SIZE;
+
+    private static long cacheSize;
+
+    /**
+     * The source, as integer ARGB.
+     */
+    protected CachableRed src;
+
+    /**
+     * The image the levels are cached for, or null.
+     */
+    protected BufferedImageCachableRed cached;
+
+    /**
+     * The color model of the source data.
+     */
+    protected ColorModel cm;
+
+    /**
+     * The bounds of the source.
+     */
+    protected Rectangle srcBounds;
+
+    /**
+     * The pyramid level filtered: each of its pixels averages
+     * <code>2^level</code> by <code>2^level</code> source pixels.
+     */
+    protected int level;
+
+    /**
+     * The width and height of the level.
+     */
+    protected int levelWidth, levelHeight;
+
+    /**
+     * The horizontal and vertical filters, from the level to the
+     * output.
+     */
+    protected Axis xAxis, yAxis;
+
+    /**
+     * Whether the filter is Lanczos 3 rather than Catmull-Rom.
+     */
+    protected boolean lanczos;
+
+    /**
+     * Returns true if a Resampler can transform <code>src</code> with
+     * <code>src2me</code> into data of the given sample and color
+     * model.  The transform must be a reduction, as defined by
+     * {@link #isReduction}, and the data premultiplied integer ARGB.
+     */
+    public static boolean isSupported(AffineTransform src2me,
+                                      RenderingHints hints,
+                                      ColorModel cm, SampleModel sm) {
+        Object interpolation = null;
+        if (hints != null)
+            interpolation = hints.get(RenderingHints.KEY_INTERPOLATION);
+        return (isReduction(src2me, interpolation) &&
+                cm.isAlphaPremultiplied() &&
+                GraphicsUtil.is_INT_PACK_Data(sm, true));
+    }
+
+    /**
+     * Returns true if drawing an image with <code>at</code> and the
+     * given interpolation hint reduces it by half or more, so that
+     * interpolating it would skip source pixels.  The transform must
+     * not rotate or flip the image, and the interpolation must not be
+     * nearest neighbor.
+     */
+    public static boolean isReduction(AffineTransform at,
+                                      Object interpolation) {
+        if ((at.getShearX() != 0) || (at.getShearY() != 0))
+            return false;
+        double sx = at.getScaleX();
+        double sy = at.getScaleY();
+        return ((sx > 0) && (sy > 0) && ((sx <= 0.5) || (sy <= 0.5)) &&
+                (interpolation !=
+                 RenderingHints.VALUE_INTERPOLATION_NEAREST_NEIGHBOR));
+    }
+
+    /**
+     * Creates a Resampler.  Call {@link #isSupported} first.
+     * @param src the image to scale.
+     * @param src2me the transform from the source to the output.
+     * @param hints the rendering hints.
+     * @param cm the premultiplied integer ARGB color model of the
+     *        output.
+     */
+    public Resampler(CachableRed src, AffineTransform src2me,
+                     RenderingHints hints, ColorModel cm) {
+        this.cm = cm;
+        this.srcBounds = src.getBounds();
+        if (src instanceof BufferedImageCachableRed)
+            cached = (BufferedImageCachableRed)src;
+        // Integer ARGB data only needs to be premultiplied.
+        if (GraphicsUtil.is_INT_PACK_Data(src.getSampleModel(), true))
+            this.src = src;
+        else
+            this.src = FormatRed.construct(src, cm);
+        this.lanczos = (hints != null) &&
+            (hints.get(RenderingHints.KEY_INTERPOLATION) ==
+             RenderingHints.VALUE_INTERPOLATION_BICUBIC);
+
+        double sx = src2me.getScaleX();
+        double sy = src2me.getScaleY();
+        double s = Math.max(sx, sy);
+        level = 0;
+        while ((s * 2 <= 1) && (srcBounds.width  >> (level + 1) > 0)
+                            && (srcBounds.height >> (level + 1) > 0)) {
+            s *= 2;
+            level++;
+        }
+        int size = 1 << level;
+        levelWidth  = (srcBounds.width  + size - 1) >> level;
+        levelHeight = (srcBounds.height + size - 1) >> level;
+
+        // The level pixel q has its center at q + 0.5 and maps to the
+        // output at q * scale * size + (translate + scale * origin).
+        xAxis = new Axis(sx * size,
+                         src2me.getTranslateX() + sx * srcBounds.x,
+                         levelWidth, srcBounds.width / (double)size);
+        yAxis = new Axis(sy * size,
+                         src2me.getTranslateY() + sy * srcBounds.y,
+                         levelHeight, srcBounds.height / (double)size);
+    }
+
+    /**
+     * Returns the pyramid level filtered.
+     */
+    public int getLevel() {
+        return level;
+    }
+
+    /**
+     * Fills the pixels of <code>wr</code> whose center is in the
+     * source, and leaves the other pixels as they are.
+     */
+    public void resample(WritableRaster wr) {
+        final int x0 = Math.max(wr.getMinX(), xAxis.getFirstPixel());
+        final int x1 = Math.min(wr.getMinX() + wr.getWidth(),
+                                xAxis.getEndPixel());
+        final int y0 = Math.max(wr.getMinY(), yAxis.getFirstPixel());
+        final int y1 = Math.min(wr.getMinY() + wr.getHeight(),
+                                yAxis.getEndPixel());
+        if ((x0 >= x1) || (y0 >= y1))
+            return;
+
+        final Filter fx = xAxis.createFilter(x0, x1, lanczos);
+        final Filter fy = yAxis.createFilter(y0, y1, lanczos);
+
+        Rectangle r = new Rectangle(fx.min, fy.min,
+                                    fx.max - fx.min + 1,
+                                    fy.max - fy.min + 1);
+        final Level data = getLevelData(r);
+
+        SinglePixelPackedSampleModel sppsm;
+        sppsm = (SinglePixelPackedSampleModel)wr.getSampleModel();
+        DataBufferInt db = (DataBufferInt)wr.getDataBuffer();
+        final int base = (db.getOffset() +
+                          sppsm.getOffset
+                          (x0 - wr.getSampleModelTranslateX(),
+                           y0 - wr.getSampleModelTranslateY()));
+        final int[] pixels = db.getBankData()[0];
+        final int scanStride = sppsm.getScanlineStride();
+        final int w = x1 - x0;
+        ParallelTileExecutor.execute
+            (0, y1 - y0, MIN_BAND_HEIGHT,
+             new ParallelTileExecutor.BandTask() {
+                 public void run(int j0, int j1) {
+                     float[] line = new float[(fx.max - fx.min + 1) * 4];
+                     float[] sum = new float[w * 4];
+                     float[][] rows = new float[0][];
+                     // The output rows are computed in chunks, from the
+                     // level rows they need filtered horizontally...
+                     for (int c0 = j0; c0 < j1; c0 += CHUNK_HEIGHT) {
+                         int c1 = Math.min(j1, c0 + CHUNK_HEIGHT);
+                         int min = fy.first[c0];
+                         int max = min;
+                         for (int j = c0; j < c1; j++)
+                             max = Math.max(max, fy.first[j] + fy.count[j]);
+                         if (rows.length < max - min) {
+                             rows = new float[max - min][];
+                             for (int k = 0; k < rows.length; k++)
+                                 rows[k] = new float[w * 4];
+                         }
+                         for (int y = min; y < max; y++) {
+                             unpack(data, y, fx.min, line);
+                             filterRow(line, fx, rows[y - min]);
+                         }
+                         // ...then vertically, into wr.
+                         for (int j = c0; j < c1; j++) {
+                             filterColumns(rows, min, fy, j, sum);
+                             store(sum, pixels, base + j * scanStride, w);
+                         }
+                     }
+                 }
+             });
+    }
+
+    /**
+     * Converts the pixels of row y of the level, from the column x,
+     * to floats.
+     */
+    static void unpack(Level data, int y, int x, float[] line) {
+        int[] pixels = data.pixels;
+        int sp = (y - data.y) * data.stride + x - data.x;
+        for (int dp = 0; dp < line.length; sp++) {
+            int pixel = pixels[sp];
+            line[dp++] = pixel >>> 24;
+            line[dp++] = (pixel >> 16) & 0xFF;
+            line[dp++] = (pixel >>  8) & 0xFF;
+            line[dp++] = (pixel      ) & 0xFF;
+        }
+    }
+
+    /**
+     * Applies the horizontal filter to a row converted by unpack.
+     */
+    static void filterRow(float[] line, Filter f, float[] row) {
+        int n = f.first.length;
+        int taps = f.taps;
+        float[] weights = f.weights;
+        for (int i = 0, wp = 0, dp = 0; i < n; i++, wp += taps) {
+            float a = 0, r = 0, g = 0, b = 0;
+            int p = (f.first[i] - f.min) * 4;
+            int end = wp + f.count[i];
+            for (int k = wp; k < end; k++) {
+                float wt = weights[k];
+                a += wt * line[p++];
+                r += wt * line[p++];
+                g += wt * line[p++];
+                b += wt * line[p++];
+            }
+            row[dp++] = a;
+            row[dp++] = r;
+            row[dp++] = g;
+            row[dp++] = b;
+        }
+    }
+
+    /**
+     * Applies the vertical filter of the output row j to the filtered
+     * rows, the first of which is the level row min.
+     */
+    static void filterColumns(float[][] rows, int min, Filter f, int j,
+                              float[] sum) {
+        int wp = j * f.taps;
+        int first = f.first[j] - min;
+        int count = f.count[j];
+        float[] row = rows[first];
+        float wt = f.weights[wp];
+        for (int i = 0; i < sum.length; i++)
+            sum[i] = wt * row[i];
+        for (int k = 1; k < count; k++) {
+            row = rows[first + k];
+            wt = f.weights[wp + k];
+            for (int i = 0; i < sum.length; i++)
+                sum[i] += wt * row[i];
+        }
+    }
+
+    /**
+     * Rounds the filtered values to premultiplied pixels.  The negative
+     * lobes of the filters can overshoot, so the values are clamped to
+     * 0 and the colors to the alpha.
+     */
+    static void store(float[] sum, int[] pixels, int dp, int w) {
+        for (int i = 0, sp = 0; i < w; i++) {
+            int a = clamp(sum[sp++], 255);
+            int r = clamp(sum[sp++], a);
+            int g = clamp(sum[sp++], a);
+            int b = clamp(sum[sp++], a);
+            pixels[dp++] = (a << 24) | (r << 16) | (g << 8) | b;
+        }
+    }
+
+    private static int clamp(float v, int max) {
+        int i = (int)(v + 0.5f);
+        if (i < 0) return 0;
+        return (i > max) ? max : i;
+    }
+
+    /**
+     * Returns the pixels of the level in <code>r</code>, in level
+     * coordinates.
+     */
+    protected Level getLevelData(Rectangle r) {
+        if (level == 0)
+            return new Level(getSourceData(r), r.x, r.y, r.width);
+
+        if (cached != null) {
+            int[] pixels = getCachedLevel(level);
+            return new Level(pixels, 0, 0, levelWidth);
+        }
+
+        // Reduce the source pixels under r, which starts on a level
+        // pixel so it is reduced as the whole image would be.
+        int size = 1 << level;
+        Rectangle sr = new Rectangle(srcBounds.x + r.x * size,
+                                     srcBounds.y + r.y * size,
+                                     r.width * size, r.height * size);
+        sr = sr.intersection(srcBounds);
+        sr.translate(-srcBounds.x, -srcBounds.y);
+        int[] pixels = getSourceData(sr);
+        int w = sr.width;
+        int h = sr.height;
+        for (int l = 0; l < level; l++) {
+            pixels = halve(pixels, w, h);
+            w = (w + 1) >> 1;
+            h = (h + 1) >> 1;
+        }
+        return new Level(pixels, r.x, r.y, w);
+    }
+
+    /**
+     * Returns the source pixels in <code>r</code>, relative to the
+     * source origin, as premultiplied ARGB values.
+     */
+    protected int[] getSourceData(Rectangle r) {
+        WritableRaster wr = cm.createCompatibleWritableRaster
+            (r.width, r.height);
+        GraphicsUtil.copyCoercedData
+            (src, wr.createWritableTranslatedChild
+             (srcBounds.x + r.x, srcBounds.y + r.y), true);
+        return ((DataBufferInt)wr.getDataBuffer()).getBankData()[0];
+    }
+
+    /**
+     * Returns the whole level <code>l</code> of the cached image,
+     * building and caching it, and the levels below it, if needed.
+     */
+    protected int[] getCachedLevel(int l) {
+        LevelKey key = new LevelKey(cached, l);
+        int[] pixels;
+        synchronized (Resampler.class) {
+            pixels = (int[])levels.get(key);
+        }
+        if (pixels != null)
+            return pixels;
+
+        int size = 1 << (l - 1);
+        int w = (srcBounds.width  + size - 1) >> (l - 1);
+        int h = (srcBounds.height + size - 1) >> (l - 1);
+        int[] below;
+        if (l == 1)
+            below = getSourceData(new Rectangle(0, 0, w, h));
+        else
+            below = getCachedLevel(l - 1);
+        pixels = halve(below, w, h);
+
+        synchronized (Resampler.class) {
+            int[] old = (int[])levels.put(key, pixels);
+            if (old != null)
+                cacheSize -= old.length * 4L;
+            cacheSize += pixels.length * 4L;
+            trimCache();
+        }
+        return pixels;
+    }
+
+    /**
+     * Averages each 2x2 block of the w x h premultiplied pixels.  The
+     * blocks of the last column and row are cut when w or h are odd.
+     */
+    static int[] halve(int[] pixels, int w, int h) {
+        int hw = (w + 1) >> 1;
+        int hh = (h + 1) >> 1;
+        int[] ret = new int[hw * hh];
+        for (int y = 0, dp = 0; y < hh; y++) {
+            int sp0 = 2 * y * w;
+            int sp1 = (2 * y + 1 < h) ? sp0 + w : sp0;
+            for (int x = 0; x < hw; x++, dp++) {
+                int sx = 2 * x;
+                int dx = (sx + 1 < w) ? 1 : 0;
+                ret[dp] = average(pixels[sp0 + sx], pixels[sp0 + sx + dx],
+                                  pixels[sp1 + sx], pixels[sp1 + sx + dx]);
+            }
+        }
+        return ret;
+    }
+
+    private static int average(int p0, int p1, int p2, int p3) {
+        int ag = (((p0 >>> 8) & 0xFF00FF) + ((p1 >>> 8) & 0xFF00FF) +
+                  ((p2 >>> 8) & 0xFF00FF) + ((p3 >>> 8) & 0xFF00FF) +
+                  0x20002);
+        int rb = ((p0 & 0xFF00FF) + (p1 & 0xFF00FF) +
+                  (p2 & 0xFF00FF) + (p3 & 0xFF00FF) + 0x20002);
+        return (((ag << 6) & 0xFF00FF00) | ((rb >>> 2) & 0xFF00FF));
+    }
+
+    /**
+     * Returns the maximum number of bytes held by the level cache.
+     */
+    public static synchronized long getMaxCacheSize() {
+        return maxCacheSize;
+    }
+
+    /**
+     * Sets the maximum number of bytes held by the level cache.  The
+     * least recently used levels are discarded to fit.
+     */
+    public static synchronized void setMaxCacheSize(long n) {
+        maxCacheSize = n;
+        trimCache();
+    }
+
+    /**
+     * Returns the number of bytes currently held by the level cache.
+     */
+    public static synchronized long getCacheSize() {
+        return cacheSize;
+    }
+
+    /**
+     * Discards every cached level.
+     */
+    public static synchronized void flushCache() {
+        levels.clear();
+        cacheSize = 0;
+    }
+
+    /**
+     * Discards the levels of discarded images, then the least recently
+     * used levels until the cache fits.  Must be called with the class
+     * lock held.
+     */
+    private static void trimCache() {
+        Iterator it = levels.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry e = (Map.Entry)it.next();
+            if (((LevelKey)e.getKey()).get() == null) {
+                cacheSize -= ((int[])e.getValue()).length * 4L;
+                it.remove();
+            }
+        }
+        it = levels.entrySet().iterator();
+        while ((cacheSize > maxCacheSize) && it.hasNext()) {
+            Map.Entry e = (Map.Entry)it.next();
+            cacheSize -= ((int[])e.getValue()).length * 4L;
+            it.remove();
+        }
+    }
+
+    /**
+     * Identifies a level of an image.  The image is only weakly
+     * referenced.
+     */
+    static class LevelKey extends WeakReference {
+        final int hash;
+        final int level;
+
+        LevelKey(Object image, int level) {
+            super(image);
+            this.hash = System.identityHashCode(image) * 31 + level;
+            this.level = level;
+        }
+
+        public int hashCode() {
+            return hash;
+        }
+
+        public boolean equals(Object o) {
+            if (o == this)
+                return true;
+            if (!(o instanceof LevelKey))
+                return false;
+            LevelKey k = (LevelKey)o;
+            Object image = get();
+            return (image != null) && (image == k.get()) &&
+                (level == k.level);
+        }
+    }
+
+    /**
+     * Pixels of a pyramid level.
+     */
+    static class Level {
+        final int[] pixels;
+        final int x, y, stride;
+
+        Level(int[] pixels, int x, int y, int stride) {
+            this.pixels = pixels;
+            this.x = x;
+            this.y = y;
+            this.stride = stride;
+        }
+    }
+
+    /**
+     * The filter weights of a range of output pixels: the output pixel
+     * i is the sum of the <code>count[i]</code> level pixels from
+     * <code>first[i]</code>, weighted by
+     * <code>weights[i*taps]...</code>.
+     */
+    static class Filter {
+        int[] first;
+        int[] count;
+        float[] weights;
+        int taps;
+
+        /**
+         * The range of level pixels used.
+         */
+        int min, max;
+    }
+
+    /**
+     * Maps one axis of the level to the output.
+     */
+    static class Axis {
+        final double scale;
+        final double translate;
+
+        /**
+         * The number of level pixels.
+         */
+        final int size;
+
+        /**
+         * The size of the source in level pixels, which is smaller
+         * than <code>size</code> when the last level pixel is cut.
+         */
+        final double extent;
+
+        Axis(double scale, double translate, int size, double extent) {
+            this.scale = scale;
+            this.translate = translate;
+            this.size = size;
+            this.extent = extent;
+        }
+
+        /**
+         * Returns the level coordinate of the center of the output
+         * pixel d.
+         */
+        double toLevel(int d) {
+            return (d + 0.5 - translate) / scale;
+        }
+
+        /**
+         * Returns the first output pixel whose center is in the source.
+         */
+        int getFirstPixel() {
+            return (int)Math.ceil(translate - 0.5);
+        }
+
+        /**
+         * Returns the output pixel after the last one whose center is
+         * in the source.
+         */
+        int getEndPixel() {
+            return (int)Math.ceil(translate + extent * scale - 0.5);
+        }
+
+        /**
+         * Computes the filter of the output pixels d0 to d1 (exclusive).
+         * The filter is widened by <code>1/scale</code> when scaling
+         * down, so it averages the level pixels under each output
+         * pixel.  Taps outside the level are clamped to its edges.
+         */
+        Filter createFilter(int d0, int d1, boolean lanczos) {
+            double radius = lanczos ? 3 : 2;
+            double stretch = Math.min(scale, 1);
+            double support = radius / stretch;
+            int taps = (int)Math.ceil(2 * support) + 1;
+
+            int n = d1 - d0;
+            Filter f = new Filter();
+            f.taps = taps;
+            f.first = new int[n];
+            f.count = new int[n];
+            f.weights = new float[n * taps];
+            f.min = Integer.MAX_VALUE;
+            f.max = Integer.MIN_VALUE;
+            double[] w = new double[taps];
+            for (int i = 0; i < n; i++) {
+                double c = toLevel(d0 + i);
+                int q0 = (int)Math.floor(c - 0.5 - support) + 1;
+                int q1 = (int)Math.floor(c - 0.5 + support);
+                if (q1 - q0 + 1 > taps)
+                    q1 = q0 + taps - 1;
+                int first = Math.max(0, Math.min(q0, size - 1));
+                int last  = Math.max(0, Math.min(q1, size - 1));
+                for (int k = 0; k <= last - first; k++)
+                    w[k] = 0;
+                double total = 0;
+                for (int q = q0; q <= q1; q++) {
+                    double t = (q + 0.5 - c) * stretch;
+                    double v = lanczos ? lanczos3(t) : cubic(t);
+                    int k = Math.max(first, Math.min(q, last)) - first;
+                    w[k] += v;
+                    total += v;
+                }
+                // Drop the zero weights at the ends.
+                while ((first < last) && (w[0] == 0)) {
+                    System.arraycopy(w, 1, w, 0, last - first);
+                    first++;
+                }
+                while ((last > first) && (w[last - first] == 0))
+                    last--;
+                f.first[i] = first;
+                f.count[i] = last - first + 1;
+                for (int k = 0; k <= last - first; k++)
+                    f.weights[i * taps + k] = (float)(w[k] / total);
+                if (first < f.min) f.min = first;
+                if (last  > f.max) f.max = last;
+            }
+            return f;
+        }
+    }
+
+    /**
+     * The Catmull-Rom cubic.
+     */
+    static double cubic(double t) {
+        t = Math.abs(t);
+        if (t < 1)
+            return (1.5 * t - 2.5) * t * t + 1;
+        if (t < 2)
+            return ((-0.5 * t + 2.5) * t - 4) * t + 2;
+        return 0;
+    }
+
+    /**
+     * The Lanczos filter with three lobes.
+     */
+    static double lanczos3(double t) {
+        if (t == 0)
+            return 1;
+        if ((t <= -3) || (t >= 3))
+            return 0;
+        double pt = Math.PI * t;
+        return 3 * Math.sin(pt) * Math.sin(pt / 3) / (pt * pt);
+    }
+}
@@ -70,7 +70,12 @@ public class SpecularLightingRed extends AbstractTiledRed{
      * true if calculations should be performed in linear sRGB
      */
     private boolean linear;
-     
+
+    /**
+     * Engine used for the lights it supports, null for the others
+     */
+    private LightingEngine engine;
+
 
     public SpecularLightingRed(double ks,
                                double specularExponent,
@@ -87,6 +92,8 @@ public class SpecularLightingRed extends AbstractTiledRed{
         this.scaleX = scaleX;
         this.scaleY = scaleY;
         this.linear = linear;
+        if (LightingEngine.isSupported(light))
+            engine = new LightingEngine(light, bumpMap, scaleX, scaleY);
 
         ColorModel cm;
         if (linear)
@@ -157,6 +164,11 @@ public class SpecularLightingRed extends AbstractTiledRed{
 
         mult*=255*ks;
 
+        if (engine != null) {
+            engine.specular(mult, specularExponent, pixel, wr);
+            return;
+        }
+
         // System.out.println("Pixel: 0x" + Integer.toHexString(pixel));
 
         final double[][][] NA = bumpMap.getNormalArray(minX, minY, w, h);
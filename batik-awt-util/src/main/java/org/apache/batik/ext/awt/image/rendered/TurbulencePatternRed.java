@@ -29,6 +29,9 @@ import java.awt.image.DataBufferInt;
 import java.awt.image.DirectColorModel;
 import java.awt.image.SinglePixelPackedSampleModel;
 import java.awt.image.WritableRaster;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
 /**
  * This class creates a RenderedImage in conformance to the one
  * defined for the feTurbulence filter of the SVG specification.  What
@@ -58,6 +61,20 @@ import java.awt.image.WritableRaster;
  * The S curve function get's it's name because it looks a bit like as
  * 'S' from 0-&gt;1.
  *
+ * The lattice only depends on the seed so it is built once per seed
+ * and shared between instances.  When four channels are generated
+ * without stitching (the case for every feTurbulence rendered by
+ * TurbulenceRable8Bit with stitchTiles="noStitch") each scan line is
+ * computed one octave at a time over arrays of coordinates and sums,
+ * which keeps the inner loop free of calls and data dependent
+ * branches.  The operations are performed in the same order as the
+ * per pixel code, so the output is bit-identical to it.  Large
+ * requests are split into bands that are computed in parallel by
+ * {@link ParallelTileExecutor}; the starting point of each row is
+ * computed from the first pixel and the row step rather than
+ * accumulated over the rows above, so each band finds its own rows
+ * and the output does not depend on how the rows are split.
+ *
  * @author     <a href="mailto:vincent.hardy@eng.sun.com">Vincent Hardy</a>
  * @author     <a href="mailto:DeWeese@apache.org">Thomas DeWeese</a>
  * @version $Id$ */
@@ -210,8 +227,35 @@ public final class TurbulencePatternRed extends AbstractRed {
     private static final int BSize = 0x100;
     private static final int BM = 0xff;
     private static final double PerlinN = 0x1000;
-    private final int[] latticeSelector = new int[BSize + 1];
-    private final double[] gradient = new double[(BSize+1)*8];
+    private int[] latticeSelector;
+    private double[] gradient;
+
+    /**
+     * Number of lattices kept in the per seed cache.
+     */
+    private static final int LATTICE_CACHE_SIZE = 16;
+
+    /**
+     * Cache of the lattices built so far, keyed by seed, in least
+     * recently used order.  Cached arrays are never modified.
+     */
+    private static final Map latticeCache
+        = new LinkedHashMap(LATTICE_CACHE_SIZE, .75f, true) {
+                protected boolean removeEldestEntry(Map.Entry eldest) {
+                    return size() > LATTICE_CACHE_SIZE;
+                }
+            };
+
+    /**
+     * Minimum number of rows handed to each parallel band.
+     */
+    private static final int MIN_BAND_HEIGHT = 16;
+
+    /**
+     * If true four channel, non stitched noise is generated a scan
+     * line at a time.
+     */
+    private boolean rowBatched = true;
 
     public double getBaseFrequencyX(){
         return baseFrequencyX;
@@ -237,6 +281,22 @@ public final class TurbulencePatternRed extends AbstractRed {
         return isFractalNoise;
     }
 
+    /**
+     * Returns true if four channel noise is generated a scan line at
+     * a time rather than one pixel at a time.
+     */
+    public boolean isRowBatched(){
+        return rowBatched;
+    }
+
+    /**
+     * Selects the scan line generator (the default) or the per pixel
+     * generator.  Both produce identical output.
+     */
+    public void setRowBatched(boolean rowBatched){
+        this.rowBatched = rowBatched;
+    }
+
     public boolean[] getChannels(){
         boolean[] channels = new boolean[4];
         for (int channel : this.channels) channels[channel] = true;
@@ -256,7 +316,31 @@ public final class TurbulencePatternRed extends AbstractRed {
         return result;
     }
 
+    /**
+     * Looks up the lattice for <code>seed</code> in the cache, building
+     * it if needed.
+     */
     private void initLattice(int seed) {
+        Integer key = Integer.valueOf(setupSeed(seed));
+        Object[] lattice;
+        synchronized (latticeCache) {
+            lattice = (Object[])latticeCache.get(key);
+        }
+        if (lattice == null) {
+            int[] ls = new int[BSize + 1];
+            double[] g = new double[(BSize+1)*8];
+            buildLattice(seed, ls, g);
+            lattice = new Object[] { ls, g };
+            synchronized (latticeCache) {
+                latticeCache.put(key, lattice);
+            }
+        }
+        latticeSelector = (int[])lattice[0];
+        gradient = (double[])lattice[1];
+    }
+
+    private void buildLattice(int seed, final int[] latticeSelector,
+                              final double[] gradient) {
         double u, v, s;
         int i, j, k, s1, s2;
         seed = setupSeed(seed);
@@ -1038,6 +1122,141 @@ public final class TurbulencePatternRed extends AbstractRed {
         }
     }
 
+    /**
+     * Computes one scan line of four channel noise, one octave at a
+     * time.  This performs exactly the same operations as
+     * turbulence_4 and turbulenceFractal_4 for each pixel.
+     * @param destPixels the destination pixel array.
+     * @param dp offset of the first pixel of the row in destPixels.
+     * @param w number of pixels in the row.
+     * @param point_0 x coordinate of the first pixel of the row.
+     * @param point_1 y coordinate of the first pixel of the row.
+     * @param tx0 x step between two pixels of the row.
+     * @param tx1 y step between two pixels of the row.
+     * @param px scratch array of at least w elements.
+     * @param py scratch array of at least w elements.
+     * @param fSum scratch arrays, four arrays of at least w elements.
+     */
+    private final void turbulenceRow_4(final int[] destPixels, int dp,
+                                       final int w,
+                                       double point_0, double point_1,
+                                       final double tx0, final double tx1,
+                                       final double[] px, final double[] py,
+                                       final double[][] fSum) {
+        final int[] latticeSelector = this.latticeSelector;
+        final double[] gradient = this.gradient;
+        final double[] s0 = fSum[0];
+        final double[] s1 = fSum[1];
+        final double[] s2 = fSum[2];
+        final double[] s3 = fSum[3];
+        final boolean fractal = isFractalNoise;
+        final double bfx = baseFrequencyX;
+        final double bfy = baseFrequencyY;
+        final double init = fractal ? 127.5 : 0;
+        int k;
+
+        for (k = 0; k < w; k++) {
+            px[k] = point_0 * bfx;
+            py[k] = point_1 * bfy;
+            s0[k] = s1[k] = s2[k] = s3[k] = init;
+            point_0 += tx0;
+            point_1 += tx1;
+        }
+
+        double ratio = fractal ? 127.5 : 255;
+        for (int nOctave = numOctaves; nOctave > 0; nOctave--) {
+            for (k = 0; k < w; k++) {
+                int i, j, b0, b1;
+                double x, y, rx0, rx1, ry0, ry1, sx, sy, n0, n1, n2, n3;
+
+                x  = px[k] + PerlinN;
+                b0 = ((int)x)&BM;
+                i  = latticeSelector[b0 ];
+                j  = latticeSelector[b0+1];
+
+                rx0 = x - (int)x;
+                rx1 = rx0 - 1.0;
+                sx  = s_curve(rx0);
+
+                y  = py[k] + PerlinN;
+                b0 = ((int)y) & BM;
+
+                b1 = ((j + b0)&BM)<<3;
+                b0 = ((i + b0)&BM)<<3;
+
+                ry0 = y - (int)y;
+                ry1 = ry0 - 1.0;
+                sy  = s_curve(ry0);
+
+                n0 = lerp(sy,
+                          lerp(sx,
+                               rx0*gradient[b0+0] + ry0*gradient[b0+1],
+                               rx1*gradient[b1+0] + ry0*gradient[b1+1]),
+                          lerp(sx,
+                               rx0*gradient[b0+8+0] + ry1*gradient[b0+8+1],
+                               rx1*gradient[b1+8+0] + ry1*gradient[b1+8+1]));
+                n1 = lerp(sy,
+                          lerp(sx,
+                               rx0*gradient[b0+2] + ry0*gradient[b0+3],
+                               rx1*gradient[b1+2] + ry0*gradient[b1+3]),
+                          lerp(sx,
+                               rx0*gradient[b0+8+2] + ry1*gradient[b0+8+3],
+                               rx1*gradient[b1+8+2] + ry1*gradient[b1+8+3]));
+                n2 = lerp(sy,
+                          lerp(sx,
+                               rx0*gradient[b0+4] + ry0*gradient[b0+5],
+                               rx1*gradient[b1+4] + ry0*gradient[b1+5]),
+                          lerp(sx,
+                               rx0*gradient[b0+8+4] + ry1*gradient[b0+8+5],
+                               rx1*gradient[b1+8+4] + ry1*gradient[b1+8+5]));
+                n3 = lerp(sy,
+                          lerp(sx,
+                               rx0*gradient[b0+6] + ry0*gradient[b0+7],
+                               rx1*gradient[b1+6] + ry0*gradient[b1+7]),
+                          lerp(sx,
+                               rx0*gradient[b0+8+6] + ry1*gradient[b0+8+7],
+                               rx1*gradient[b1+8+6] + ry1*gradient[b1+8+7]));
+
+                if (!fractal) {
+                    // |n|*ratio is exactly what the per pixel code
+                    // adds or subtracts depending on the sign of n.
+                    n0 = Math.abs(n0);
+                    n1 = Math.abs(n1);
+                    n2 = Math.abs(n2);
+                    n3 = Math.abs(n3);
+                }
+                s0[k] += n0 * ratio;
+                s1[k] += n1 * ratio;
+                s2[k] += n2 * ratio;
+                s3[k] += n3 * ratio;
+
+                px[k] *= 2;
+                py[k] *= 2;
+            }
+            ratio *= .5;
+        }
+
+        for (k = 0; k < w; k++, dp++) {
+            int i, j;
+            i = (int)s0[k];
+            if ((i & 0xFFFFFF00) == 0) j  = i<<16;
+            else                       j  = ((i & 0x80000000) != 0)?0:0xFF0000;
+
+            i = (int)s1[k];
+            if ((i & 0xFFFFFF00) == 0) j |= i<<8;
+            else                       j |= ((i & 0x80000000) != 0)?0:0xFF00;
+
+            i = (int)s2[k];
+            if ((i & 0xFFFFFF00) == 0) j |= i;
+            else                       j |= ((i & 0x80000000) != 0)?0:0xFF;
+
+            i = (int)s3[k];
+            if ((i & 0xFFFFFF00) == 0) j |= i<<24;
+            else                       j |= ((i & 0x80000000) != 0)?0:0xFF000000;
+            destPixels[dp] = j;
+        }
+    }
+
     /**
      * Generates a Perlin noise pattern into dest Raster.
      * @param dest Raster to fill with the pattern.
@@ -1051,8 +1270,8 @@ public final class TurbulencePatternRed extends AbstractRed {
                 ("Cannot generate a noise pattern into a null raster");
 
 
-        int w = dest.getWidth();
-        int h = dest.getHeight();
+        final int w = dest.getWidth();
+        final int h = dest.getHeight();
 
         // Access the integer buffer for the destination Raster
         DataBufferInt dstDB = (DataBufferInt)dest.getDataBuffer();
@@ -1060,48 +1279,89 @@ public final class TurbulencePatternRed extends AbstractRed {
         int minX = dest.getMinX();
         int minY = dest.getMinY();
         sppsm = (SinglePixelPackedSampleModel)dest.getSampleModel();
-        int dstOff = dstDB.getOffset() +
+        final int dstOff = dstDB.getOffset() +
             sppsm.getOffset(minX - dest.getSampleModelTranslateX(),
                             minY - dest.getSampleModelTranslateY());
 
         final int[] destPixels = dstDB.getBankData()[0];
-        int dstAdjust = sppsm.getScanlineStride() - w;
-
-        // Generate pixel pattern now
-        int i, end, dp=dstOff;
-        final int[] rgb = new int[4];
-        final double[] fSum = {0, 0, 0, 0};
-        final double[] noise = {0, 0, 0, 0};
+        final int scanStride = sppsm.getScanlineStride();
 
-        final double tx0, tx1, ty0, ty1;
-        tx0 = tx[0];
-        tx1 = tx[1];
-        // Update for y step, (note we substract all the stuff we
-        // added while going across the scan line).
-        ty0 = ty[0]-(w*tx0);
-        ty1 = ty[1]-(w*tx1);
+        final double tx0 = tx[0];
+        final double tx1 = tx[1];
 
         double[] p = {minX, minY};
         txf.transform(p, 0, p, 0, 1);
-        double point_0 = p[0];
-        double point_1 = p[1];
+        final double startX = p[0];
+        final double startY = p[1];
+
+        ParallelTileExecutor.execute
+            (0, h, MIN_BAND_HEIGHT, new ParallelTileExecutor.BandTask() {
+                    public void run(int y0, int y1) {
+                        generate(destPixels, dstOff + y0*scanStride,
+                                 scanStride, w, y0, y1,
+                                 startX, startY, tx0, tx1);
+                    }
+                });
+
+        return dest;
+    }
+
+    /**
+     * Generates rows y0 to y1 (exclusive) of the pattern.
+     * @param destPixels the destination pixel array.
+     * @param dp offset of the first pixel of row y0 in destPixels.
+     * @param scanStride distance between two rows in destPixels.
+     * @param w number of pixels in each row.
+     * @param startX x coordinate of the first pixel of row 0.
+     * @param startY y coordinate of the first pixel of row 0.
+     * @param tx0 x step between two pixels of a row.
+     * @param tx1 y step between two pixels of a row.
+     */
+    private void generate(final int[] destPixels, int dp,
+                          final int scanStride, final int w,
+                          final int y0, final int y1,
+                          final double startX, final double startY,
+                          final double tx0, final double tx1) {
+        int i, end;
+        final int dstAdjust = scanStride - w;
+        final int[] rgb = new int[4];
+        final double[] fSum = {0, 0, 0, 0};
+        final double[] noise = {0, 0, 0, 0};
+        final double ty0 = ty[0];
+        final double ty1 = ty[1];
+        double point_0, point_1;
+
+        if (rowBatched && (stitchInfo == null) && (channels.length == 4)) {
+            final double[] px = new double[w];
+            final double[] py = new double[w];
+            final double[][] sums = new double[4][w];
+            for(i=y0; i<y1; i++){
+                turbulenceRow_4(destPixels, dp, w,
+                                startX + i*ty0, startY + i*ty1,
+                                tx0, tx1, px, py, sums);
+                dp += scanStride;
+            }
+            return;
+        }
 
         if(isFractalNoise){
             if(stitchInfo == null){
                 if (channels.length == 4) {
-                    for(i=0; i<h; i++){
+                    for(i=y0; i<y1; i++){
+                        point_0 = startX + i*ty0;
+                        point_1 = startY + i*ty1;
                         for(end=dp+w; dp<end; dp++) {
                             destPixels[dp] = turbulenceFractal_4
                                 (point_0, point_1, fSum);
                             point_0 += tx0;
                             point_1 += tx1;
                         }
-                        point_0 += ty0;
-                        point_1 += ty1;
                         dp += dstAdjust;
                     }
                 } else {
-                    for(i=0; i<h; i++){
+                    for(i=y0; i<y1; i++){
+                        point_0 = startX + i*ty0;
+                        point_1 = startY + i*ty1;
                         for(end=dp+w; dp<end; dp++){
                             turbulenceFractal(rgb, point_0, point_1, fSum, noise);
 
@@ -1113,15 +1373,15 @@ public final class TurbulencePatternRed extends AbstractRed {
                             point_0 += tx0;
                             point_1 += tx1;
                         }
-                        point_0 += ty0;
-                        point_1 += ty1;
                         dp += dstAdjust;
                     }
                 }
             }
             else{
                 StitchInfo si = new StitchInfo();
-                for(i=0; i<h; i++){
+                for(i=y0; i<y1; i++){
+                    point_0 = startX + i*ty0;
+                    point_1 = startY + i*ty1;
                     for(end=dp+w; dp<end; dp++){
                         si.assign(this.stitchInfo);
                         turbulenceFractalStitch(rgb, point_0, point_1,
@@ -1135,8 +1395,6 @@ public final class TurbulencePatternRed extends AbstractRed {
                         point_0 += tx0;
                         point_1 += tx1;
                     }
-                    point_0 += ty0;
-                    point_1 += ty1;
                     dp += dstAdjust;
                 }
             }
@@ -1144,7 +1402,9 @@ public final class TurbulencePatternRed extends AbstractRed {
         else{ // Loop for turbulence noise
             if(stitchInfo == null){
                 if (channels.length == 4) {
-                    for(i=0; i<h; i++){
+                    for(i=y0; i<y1; i++){
+                        point_0 = startX + i*ty0;
+                        point_1 = startY + i*ty1;
                         for(end=dp+w; dp<end; dp++){
                             destPixels[dp] = turbulence_4
                                 (point_0, point_1, fSum);
@@ -1152,12 +1412,12 @@ public final class TurbulencePatternRed extends AbstractRed {
                             point_0 += tx0;
                             point_1 += tx1;
                         }
-                        point_0 += ty0;
-                        point_1 += ty1;
                         dp += dstAdjust;
                     }
                 } else {
-                    for(i=0; i<h; i++){
+                    for(i=y0; i<y1; i++){
+                        point_0 = startX + i*ty0;
+                        point_1 = startY + i*ty1;
                         for(end=dp+w; dp<end; dp++){
                             turbulence(rgb, point_0, point_1, fSum, noise);
 
@@ -1169,15 +1429,15 @@ public final class TurbulencePatternRed extends AbstractRed {
                             point_0 += tx0;
                             point_1 += tx1;
                         }
-                        point_0 += ty0;
-                        point_1 += ty1;
                         dp += dstAdjust;
                     }
                 }
             }
             else{
                 StitchInfo si = new StitchInfo();
-                for(i=0; i<h; i++){
+                for(i=y0; i<y1; i++){
+                    point_0 = startX + i*ty0;
+                    point_1 = startY + i*ty1;
                     for(end=dp+w; dp<end; dp++){
                         si.assign(this.stitchInfo);
                         turbulenceStitch(rgb, point_0, point_1,
@@ -1191,14 +1451,10 @@ public final class TurbulencePatternRed extends AbstractRed {
                         point_0 += tx0;
                         point_1 += tx1;
                     }
-                    point_0 += ty0;
-                    point_1 += ty1;
                     dp += dstAdjust;
                 }
             }
         }
-
-        return dest;
     }
 
     /**
@@ -0,0 +1,266 @@
+/*
+
+   Licensed to the Apache Software Foundation (ASF) under one or more
+   contributor license agreements.  See the NOTICE file distributed with
+   this work for additional information regarding copyright ownership.
+   The ASF licenses this file to You under the Apache License, Version 2.0
+   (the "License"); you may not use this file except in compliance with
+   the License.  You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+ */
+package org.apache.batik.ext.awt.image.rendered;
+
+import java.awt.image.DataBufferInt;
+import java.awt.image.Raster;
+import java.awt.image.SinglePixelPackedSampleModel;
+import java.awt.image.WritableRaster;
+
+/**
+ * A {@link MorphologyOp} that uses the van Herk/Gil-Werman algorithm,
+ * so the work per pixel does not depend on the radius.
+ *
+ * Each pass splits the line into blocks of the kernel size and
+ * computes, for every position, the running max from the start of its
+ * block and from the end of its block.  The max over any window is
+ * then the max of two of these values.  The four 8 bit bands of a
+ * pixel are spread over the 16 bit lanes of a <code>long</code> so
+ * they are compared at once, erosion being a dilation of the inverted
+ * bands.
+ *
+ * As in <code>MorphologyOp</code>, the kernel is clipped to the raster
+ * bounds.  Rows and then column strips are split into bands computed
+ * through {@link ParallelTileExecutor}.
+ *
+ * @version $Id$
+ */
+public class VanHerkMorphologyOp extends MorphologyOp {
+
+    /**
+     * The number of columns processed together by the vertical pass.
+     */
+    private static final int STRIP_WIDTH = 16;
+
+    /**
+     * The smallest number of rows (or column strips) in a band.
+     */
+    private static final int MIN_BAND = 16;
+
+    /**
+     * Bit 8 of each 16 bit lane.
+     */
+    private static final long GUARD = 0x0100010001000100L;
+
+    /**
+     * The low 8 bits of each 16 bit lane.
+     */
+    private static final long LANES = 0x00ff00ff00ff00ffL;
+
+    private final int radiusX;
+    private final int radiusY;
+    private final boolean doDilation;
+
+    /**
+     * @param radiusX defines the radius of filter operation on X-axis.
+     * @param radiusY defines the radius of filter operation on Y-axis.
+     * @param doDilation defines whether to do dilation or erosion
+     *        operation.
+     * @see MorphologyOp#MorphologyOp(int, int, boolean)
+     */
+    public VanHerkMorphologyOp(int radiusX, int radiusY,
+                               boolean doDilation) {
+        super(radiusX, radiusY, doDilation);
+        this.radiusX = radiusX;
+        this.radiusY = radiusY;
+        this.doDilation = doDilation;
+    }
+
+    /**
+     * Filters src and writes the result to dest.  src and dest may be
+     * the same Raster.
+     * @see MorphologyOp#filter(Raster, WritableRaster)
+     */
+    public WritableRaster filter(Raster src, WritableRaster dest) {
+        if (dest != null) checkCompatible(dest.getSampleModel());
+        else {
+            if (src == null)
+                throw new IllegalArgumentException
+                    ("src should not be null when dest is null");
+            else dest = createCompatibleDestRaster(src);
+        }
+
+        final int w = src.getWidth();
+        final int h = src.getHeight();
+        if (w == 0 || h == 0)
+            return dest;
+
+        final DataBufferInt srcDB = (DataBufferInt)src.getDataBuffer();
+        final DataBufferInt dstDB = (DataBufferInt)dest.getDataBuffer();
+        SinglePixelPackedSampleModel sppsm;
+        sppsm = (SinglePixelPackedSampleModel)src.getSampleModel();
+        final int srcOff = srcDB.getOffset() +
+            sppsm.getOffset(src.getMinX() - src.getSampleModelTranslateX(),
+                            src.getMinY() - src.getSampleModelTranslateY());
+        final int srcScanStride = sppsm.getScanlineStride();
+        sppsm = (SinglePixelPackedSampleModel)dest.getSampleModel();
+        final int dstOff = dstDB.getOffset() +
+            sppsm.getOffset(dest.getMinX() - dest.getSampleModelTranslateX(),
+                            dest.getMinY() - dest.getSampleModelTranslateY());
+        final int dstScanStride = sppsm.getScanlineStride();
+        final int[] srcPixels = srcDB.getBankData()[0];
+        final int[] dstPixels = dstDB.getBankData()[0];
+
+        // A window larger than the raster covers all of it.
+        final int rx = Math.min(radiusX, w - 1);
+        final int ry = Math.min(radiusY, h - 1);
+        final long invert = doDilation ? 0 : LANES;
+
+        // First pass: rows, from src to dest.
+        ParallelTileExecutor.execute
+            (0, h, MIN_BAND, new ParallelTileExecutor.BandTask() {
+                    public void run(int y0, int y1) {
+                        long[] line = new long[w];
+                        long[] g = new long[w];
+                        long[] hb = new long[w];
+                        for (int y = y0; y < y1; y++) {
+                            int sp = srcOff + y * srcScanStride;
+                            for (int x = 0; x < w; x++) {
+                                line[x] = spread(srcPixels[sp + x]) ^ invert;
+                            }
+                            int last = maxFilter(line, g, hb, w, 1, rx);
+                            int dp = dstOff + y * dstScanStride;
+                            for (int x = 0; x < w; x++) {
+                                dstPixels[dp + x] = pack
+                                    (window(g, hb, x, w, 1, 0, rx, last)
+                                     ^ invert);
+                            }
+                        }
+                    }
+                });
+
+        // Second pass: strips of columns, in place in dest.
+        final int strips = (w + STRIP_WIDTH - 1) / STRIP_WIDTH;
+        ParallelTileExecutor.execute
+            (0, strips, MIN_BAND / 4, new ParallelTileExecutor.BandTask() {
+                    public void run(int s0, int s1) {
+                        int size = h * STRIP_WIDTH;
+                        long[] line = new long[size];
+                        long[] g = new long[size];
+                        long[] hb = new long[size];
+                        for (int s = s0; s < s1; s++) {
+                            int x0 = s * STRIP_WIDTH;
+                            int sw = Math.min(STRIP_WIDTH, w - x0);
+                            for (int y = 0; y < h; y++) {
+                                int dp = dstOff + y * dstScanStride + x0;
+                                int lp = y * STRIP_WIDTH;
+                                for (int x = 0; x < sw; x++) {
+                                    line[lp + x] = spread(dstPixels[dp + x])
+                                        ^ invert;
+                                }
+                            }
+                            int last = maxFilter(line, g, hb, h,
+                                                 STRIP_WIDTH, ry);
+                            for (int y = 0; y < h; y++) {
+                                int dp = dstOff + y * dstScanStride + x0;
+                                for (int x = 0; x < sw; x++) {
+                                    dstPixels[dp + x] = pack
+                                        (window(g, hb, y, h, STRIP_WIDTH,
+                                                x, ry, last) ^ invert);
+                                }
+                            }
+                        }
+                    }
+                });
+
+        return dest;
+    }
+
+    /**
+     * Computes the block prefix (<code>g</code>) and suffix
+     * (<code>h</code>) maxima of the <code>len</code> positions of
+     * <code>line</code>, each made of <code>stride</code> interleaved
+     * values.  The first block holds positions <code>[0, r]</code>
+     * and the next ones <code>2r+1</code> positions, as if the line was
+     * padded with <code>r</code> positions on both sides.  Returns the
+     * first position of the last block.
+     */
+    static int maxFilter(long[] line, long[] g, long[] h,
+                         int len, int stride, int r) {
+        int end = len * stride;
+        int k = (2 * r + 1) * stride;
+        int b = 0;
+        int e = Math.min((r + 1) * stride, end);
+        while (true) {
+            for (int i = b; i < b + stride; i++)
+                g[i] = line[i];
+            for (int i = b + stride; i < e; i++)
+                g[i] = max(g[i - stride], line[i]);
+            for (int i = e - stride; i < e; i++)
+                h[i] = line[i];
+            for (int i = e - stride - 1; i >= b; i--)
+                h[i] = max(h[i + stride], line[i]);
+            if (e == end)
+                return b / stride;
+            b = e;
+            e = Math.min(b + k, end);
+        }
+    }
+
+    /**
+     * Returns the max over the window of radius <code>r</code> centered
+     * on position <code>i</code>, clipped to <code>[0, len)</code>, of
+     * the values at offset <code>off</code> of the positions.
+     * @param last the first position of the last block.
+     */
+    static long window(long[] g, long[] h, int i, int len, int stride,
+                       int off, int r, int last) {
+        int lo = i - r;
+        if (lo < 0) lo = 0;
+        int hi = i + r;
+        if (hi < len)
+            return max(h[lo * stride + off], g[hi * stride + off]);
+        // The window ends with the line.
+        if (lo >= last)
+            return h[lo * stride + off];
+        return max(h[lo * stride + off], g[(len - 1) * stride + off]);
+    }
+
+    /**
+     * Spreads the four bands of an ARGB pixel over the low bytes of
+     * the four 16 bit lanes of a long.
+     */
+    static long spread(int p) {
+        return (p & 0xffL)
+            | ((p & 0xff00L) << 8)
+            | ((p & 0xff0000L) << 16)
+            | ((p & 0xff000000L) << 24);
+    }
+
+    /**
+     * Inverse of {@link #spread}.
+     */
+    static int pack(long v) {
+        return (int)((v & 0xffL)
+                     | ((v >>> 8) & 0xff00L)
+                     | ((v >>> 16) & 0xff0000L)
+                     | ((v >>> 24) & 0xff000000L));
+    }
+
+    /**
+     * Lane by lane max of two spread pixels.  Each lane of
+     * <code>(x|GUARD)-y</code> keeps bit 8 set when the lane of x is
+     * not smaller than the lane of y, and never borrows from the next
+     * lane.
+     */
+    static long max(long x, long y) {
+        long m = ((((x | GUARD) - y) & GUARD) >>> 8) * 0xff;
+        return (x & m) | (y & ~m);
+    }
+}
@@ -233,6 +233,72 @@ public abstract class AbstractGraphicsNodeBridge extends AnimatableSVGBridge
 
     // BridgeUpdateHandler implementation //////////////////////////////////
 
+    /**
+     * Update of the transform of the graphics node.
+     */
+    protected static final int UPDATE_TRANSFORM = 1;
+
+    /**
+     * Update of the geometry of the graphics node.
+     */
+    protected static final int UPDATE_GEOMETRY = 2;
+
+    /**
+     * Update of the painting of the graphics node.
+     */
+    protected static final int UPDATE_PAINT = 4;
+
+    /**
+     * The UPDATE_* flags of the updates deferred until the next
+     * repaint.
+     */
+    protected int pendingUpdates;
+
+    /**
+     * Updates the graphics node, now or, if the bridge context batches
+     * updates, at the next repaint.
+     * @param updates a combination of the UPDATE_* flags.
+     */
+    protected void scheduleUpdate(int updates) {
+        if (!isSVG12 && ctx.isUpdateBatching()) {
+            // SVG 1.2 fires shapechange events synchronously.
+            if (pendingUpdates == 0) {
+                ctx.addPendingUpdate(this);
+            }
+            pendingUpdates |= updates;
+        } else {
+            applyUpdates(updates);
+        }
+    }
+
+    /**
+     * Applies the deferred updates, if any.
+     */
+    void flushPendingUpdates() {
+        int updates = pendingUpdates;
+        pendingUpdates = 0;
+        if (updates != 0) {
+            try {
+                applyUpdates(updates);
+            } catch (RuntimeException ex) {
+                ctx.getUserAgent().displayError(ex);
+            }
+        }
+    }
+
+    /**
+     * Updates the graphics node.
+     * @param updates a combination of the UPDATE_* flags.
+     */
+    protected void applyUpdates(int updates) {
+        if ((updates & UPDATE_TRANSFORM) != 0) {
+            setTransform(node, e, ctx);
+        }
+        if ((updates & (UPDATE_TRANSFORM | UPDATE_GEOMETRY)) != 0) {
+            handleGeometryChanged();
+        }
+    }
+
     /**
      * Invoked when an MutationEvent of type 'DOMAttrModified' is fired.
      */
@@ -319,6 +385,7 @@ public abstract class AbstractGraphicsNodeBridge extends AnimatableSVGBridge
         ctx.unbind(e);
 
         bboxShape = null;
+        pendingUpdates = 0;
     }
 
     /**
@@ -407,8 +474,7 @@ public abstract class AbstractGraphicsNodeBridge extends AnimatableSVGBridge
             (AnimatedLiveAttributeValue alav) {
         if (alav.getNamespaceURI() == null
                 && alav.getLocalName().equals(SVG_TRANSFORM_ATTRIBUTE)) {
-            setTransform(node, e, ctx);
-            handleGeometryChanged();
+            scheduleUpdate(UPDATE_TRANSFORM);
         }
     }
 
@@ -417,8 +483,7 @@ public abstract class AbstractGraphicsNodeBridge extends AnimatableSVGBridge
      */
     public void handleOtherAnimationChanged(String type) {
         if (type.equals("motion")) {
-            setTransform(node, e, ctx);
-            handleGeometryChanged();
+            scheduleUpdate(UPDATE_TRANSFORM);
         }
     }
 
@@ -487,6 +552,7 @@ public abstract class AbstractGraphicsNodeBridge extends AnimatableSVGBridge
      * stroke-width and filter effects).
      */
     public Rectangle2D getBBox() {
+        ctx.flushPendingUpdates();
         if (node == null) {
             return null;
         }
@@ -509,6 +575,7 @@ public abstract class AbstractGraphicsNodeBridge extends AnimatableSVGBridge
      * the viewport coordinate system for the nearestViewportElement.
      */
     public AffineTransform getCTM() {
+        ctx.flushPendingUpdates();
         GraphicsNode gn = node;
         AffineTransform ctm = new AffineTransform();
         Element elt = e;
@@ -555,6 +622,7 @@ public abstract class AbstractGraphicsNodeBridge extends AnimatableSVGBridge
      * element to the root.
      */
     public AffineTransform getGlobalTransform() {
+        ctx.flushPendingUpdates();
         return node.getGlobalTransform();
     }
 
@@ -28,6 +28,7 @@ import java.net.MalformedURLException;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashSet;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.ListIterator;
@@ -239,6 +240,18 @@ public class BridgeContext implements ErrorConstants, CSSContext {
      */
     protected UpdateManager updateManager;
 
+    /**
+     * Whether the updates of the graphics nodes caused by document
+     * changes are deferred to the next repaint of the update manager.
+     */
+    protected boolean updateBatching = true;
+
+    /**
+     * The bridges with deferred updates, in the order they were
+     * first changed.
+     */
+    protected Set pendingUpdates = new LinkedHashSet();
+
     /**
      * The XBL manager.
      */
@@ -681,6 +694,52 @@ public class BridgeContext implements ErrorConstants, CSSContext {
         updateManager = um;
     }
 
+    /**
+     * Returns true if the bridges should defer the updates of their
+     * graphics nodes until the next repaint, so that a burst of changes
+     * to an element rebuilds its graphics node only once.  This is only
+     * the case while an update manager is running.
+     */
+    public boolean isUpdateBatching() {
+        return updateBatching
+            && updateManager != null
+            && updateManager.running;
+    }
+
+    /**
+     * Sets whether the bridges may defer the updates of their graphics
+     * nodes.  It is on by default.
+     */
+    public void setUpdateBatching(boolean b) {
+        updateBatching = b;
+        if (!b) {
+            flushPendingUpdates();
+        }
+    }
+
+    /**
+     * Records a bridge whose graphics node has deferred updates.
+     */
+    void addPendingUpdate(AbstractGraphicsNodeBridge b) {
+        pendingUpdates.add(b);
+    }
+
+    /**
+     * Applies the deferred updates to the GVT tree.  The update manager
+     * calls this before each repaint; code running in the update thread
+     * that changes the document and then reads the GVT tree directly
+     * should call it first.
+     */
+    public void flushPendingUpdates() {
+        while (!pendingUpdates.isEmpty()) {
+            Object[] bridges = pendingUpdates.toArray();
+            pendingUpdates.clear();
+            for (int i = 0; i < bridges.length; i++) {
+                ((AbstractGraphicsNodeBridge)bridges[i]).flushPendingUpdates();
+            }
+        }
+    }
+
     /**
      * Sets the update manager on the given BridgeContext.
      */
@@ -1424,6 +1483,7 @@ public class BridgeContext implements ErrorConstants, CSSContext {
      */
     public void dispose() {
         clearChildContexts();
+        pendingUpdates.clear();
 
         synchronized (eventListenerSet) {
             // remove all listeners added by Bridges
@@ -0,0 +1,165 @@
+/*
+
+   Licensed to the Apache Software Foundation (ASF) under one or more
+   contributor license agreements.  See the NOTICE file distributed with
+   this work for additional information regarding copyright ownership.
+   The ASF licenses this file to You under the Apache License, Version 2.0
+   (the "License"); you may not use this file except in compliance with
+   the License.  You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+ */
+package org.apache.batik.bridge;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.mozilla.javascript.Script;
+
+/**
+ * A bounded, least recently used cache of compiled Rhino scripts
+ * shared by all the {@link RhinoInterpreter}s of the process.
+ *
+ * A compiled script carries the protection domain of the class loader
+ * it was compiled with, so scripts are only shared between
+ * interpreters with the same security domain: the same document URL,
+ * the same parent class loader and the same optimization mode.
+ * <code>Script</code> objects hold no reference to the scope they are
+ * run in, so one can be executed concurrently in several documents.
+ *
+ * @version $Id$
+ */
+final class CompiledScriptCache {
+
+    /**
+     * The default maximum number of cached scripts.
+     */
+    static final int DEFAULT_MAX_SIZE = 256;
+
+    private int maxSize;
+
+    private final LinkedHashMap map;
+
+    /**
+     * Creates a new cache holding at most <code>maxSize</code> scripts.
+     */
+    CompiledScriptCache(int maxSize) {
+        this.maxSize = maxSize;
+        map = new LinkedHashMap(16, 0.75f, true) {
+                protected boolean removeEldestEntry(Map.Entry eldest) {
+                    return size() > CompiledScriptCache.this.maxSize;
+                }
+            };
+    }
+
+    /**
+     * Returns the cached script for the given key, or null.  A hit
+     * makes the entry the most recently used one.
+     */
+    synchronized Script get(Key key) {
+        return (Script)map.get(key);
+    }
+
+    /**
+     * Stores a compiled script, evicting the least recently used
+     * entry if the cache is full.
+     */
+    synchronized void put(Key key, Script script) {
+        if (maxSize > 0)
+            map.put(key, script);
+    }
+
+    /**
+     * Returns the number of cached scripts.
+     */
+    synchronized int size() {
+        return map.size();
+    }
+
+    /**
+     * Returns the maximum number of cached scripts.
+     */
+    synchronized int getMaxSize() {
+        return maxSize;
+    }
+
+    /**
+     * Sets the maximum number of cached scripts, evicting the least
+     * recently used entries if needed.  Zero disables caching.
+     */
+    synchronized void setMaxSize(int n) {
+        maxSize = Math.max(n, 0);
+        Iterator it = map.keySet().iterator();
+        while (map.size() > maxSize) {
+            it.next();
+            it.remove();
+        }
+    }
+
+    /**
+     * Removes all the cached scripts.
+     */
+    synchronized void clear() {
+        map.clear();
+    }
+
+    /**
+     * The key of a cached script: its source text together with the
+     * security domain it was compiled in.
+     */
+    static final class Key {
+
+        final String source;
+        final String domain;
+        final ClassLoader loader;
+        final boolean compiled;
+        final int hash;
+
+        /**
+         * @param source the script source.
+         * @param domain the document URL the scripts are associated
+         *        with, or null.
+         * @param loader the parent of the script class loader.
+         * @param compiled whether scripts are compiled to Java classes
+         *        or interpreted.
+         */
+        Key(String source, String domain, ClassLoader loader,
+            boolean compiled) {
+            this.source = source;
+            this.domain = domain;
+            this.loader = loader;
+            this.compiled = compiled;
+            int h = source.hashCode();
+            if (domain != null)
+                h = h * 31 + domain.hashCode();
+            h = h * 31 + System.identityHashCode(loader);
+            this.hash = compiled ? h : ~h;
+        }
+
+        public int hashCode() {
+            return hash;
+        }
+
+        public boolean equals(Object o) {
+            if (o == this)
+                return true;
+            if (!(o instanceof Key))
+                return false;
+            Key k = (Key)o;
+            return hash == k.hash
+                && compiled == k.compiled
+                && loader == k.loader
+                && (domain == null ? k.domain == null
+                                   : domain.equals(k.domain))
+                && source.equals(k.source);
+        }
+    }
+}
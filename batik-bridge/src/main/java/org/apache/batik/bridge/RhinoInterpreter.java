@@ -63,9 +63,10 @@ import org.w3c.dom.events.EventTarget;
 public class RhinoInterpreter implements Interpreter {
 
     /**
-     * The number of cached compiled scripts to store.
+     * Compiled scripts, shared by all the interpreters.
      */
-    private static final int MAX_CACHED_SCRIPTS = 32;
+    static final CompiledScriptCache sharedCompiledScripts
+        = new CompiledScriptCache(CompiledScriptCache.DEFAULT_MAX_SIZE);
 
     /**
      * Constant used to describe an SVG source
@@ -95,7 +96,10 @@ public class RhinoInterpreter implements Interpreter {
 
     /**
      * List of cached compiled scripts.
+     * @deprecated compiled scripts are kept in a cache shared by all
+     *             the interpreters; this list is no longer used.
      */
+    @Deprecated
     protected LinkedList compiledScripts = new LinkedList();
 
     /**
@@ -115,6 +119,12 @@ public class RhinoInterpreter implements Interpreter {
      */
     protected RhinoClassLoader rhinoClassLoader;
 
+    /**
+     * The document URL, identifying the security domain of the
+     * compiled scripts in the shared cache.
+     */
+    private String scriptDomain;
+
     /**
      * The SecurityController implementation for Batik,
      * which ensures scripts have access to the
@@ -164,6 +174,8 @@ public class RhinoInterpreter implements Interpreter {
     protected void init(URL documentURL,
                         final ImportInfo imports)
     {
+        if (documentURL != null)
+            scriptDomain = documentURL.toExternalForm();
         try {
             rhinoClassLoader = new RhinoClassLoader
                 (documentURL, getClass().getClassLoader());
@@ -206,6 +218,29 @@ public class RhinoInterpreter implements Interpreter {
         contextFactory.call(initAction);
     }
 
+    /**
+     * Returns the maximum number of compiled scripts kept in the cache
+     * shared by all the interpreters.
+     */
+    public static int getCompiledScriptCacheSize() {
+        return sharedCompiledScripts.getMaxSize();
+    }
+
+    /**
+     * Sets the maximum number of compiled scripts kept in the cache
+     * shared by all the interpreters.  Zero disables the cache.
+     */
+    public static void setCompiledScriptCacheSize(int n) {
+        sharedCompiledScripts.setMaxSize(n);
+    }
+
+    /**
+     * Removes all the scripts from the shared compiled script cache.
+     */
+    public static void clearCompiledScriptCache() {
+        sharedCompiledScripts.clear();
+    }
+
     /**
      * Returns the content types of the scripting languages this interpreter
      * handles.
@@ -324,7 +359,8 @@ public class RhinoInterpreter implements Interpreter {
      * This method evaluates a piece of ECMA script.
      * The first time a String is passed, it is compiled and evaluated.
      * At next call, the piece of script will only be evaluated to
-     * prevent from recompiling it.
+     * prevent from recompiling it.  Compiled scripts are shared with
+     * the other interpreters for documents with the same URL.
      * @param scriptStr the piece of script
      * @return if no exception is thrown during the call, should return the
      * value of the last expression evaluated in the script.
@@ -333,21 +369,11 @@ public class RhinoInterpreter implements Interpreter {
 
         ContextAction evalAction = new ContextAction() {
             public Object run(final Context cx) {
-                Script script = null;
-                Entry entry = null;
-                Iterator it = compiledScripts.iterator();
-                // between nlog(n) and log(n) because it is
-                // an AbstractSequentialList
-                while (it.hasNext()) {
-                    if ((entry = (Entry) it.next()).str.equals(scriptStr)) {
-                        // if it is not at the end, remove it because
-                        // it will change from place (it is faster
-                        // to remove it now)
-                        script = entry.script;
-                        it.remove();
-                        break;
-                    }
-                }
+                CompiledScriptCache.Key key = new CompiledScriptCache.Key
+                    (scriptStr, scriptDomain,
+                     RhinoInterpreter.this.getClass().getClassLoader(),
+                     rhinoClassLoader != null);
+                Script script = sharedCompiledScripts.get(key);
 
                 if (script == null) {
                     // this script has not been compiled yet or has been
@@ -367,19 +393,7 @@ public class RhinoInterpreter implements Interpreter {
                         }
                     };
                     script = (Script)AccessController.doPrivileged(compile);
-
-                    if (compiledScripts.size() + 1 > MAX_CACHED_SCRIPTS) {
-                        // too many cached items - we should delete the
-                        // oldest entry.  all of this is very fast on
-                        // linkedlist
-                        compiledScripts.removeFirst();
-                    }
-                    // storing is done here:
-                    compiledScripts.addLast(new Entry(scriptStr, script));
-                } else {
-                    // this script has been compiled before,
-                    // just update its index so it won't get deleted soon.
-                    compiledScripts.addLast(entry);
+                    sharedCompiledScripts.put(key, script);
                 }
 
                 return script.exec(cx, globalObject);
@@ -562,7 +576,10 @@ public class RhinoInterpreter implements Interpreter {
 
     /**
      * Class to store cached compiled scripts.
+     * @deprecated compiled scripts are kept in a cache shared by all
+     *             the interpreters; this class is no longer used.
      */
+    @Deprecated
     protected static class Entry {
 
         /**
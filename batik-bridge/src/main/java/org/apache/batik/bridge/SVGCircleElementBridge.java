@@ -106,8 +106,7 @@ public class SVGCircleElementBridge extends SVGShapeElementBridge {
             if (ln.equals(SVG_CX_ATTRIBUTE)
                     || ln.equals(SVG_CY_ATTRIBUTE)
                     || ln.equals(SVG_R_ATTRIBUTE)) {
-                buildShape(ctx, e, (ShapeNode)node);
-                handleGeometryChanged();
+                scheduleUpdate(UPDATE_GEOMETRY);
                 return;
             }
         }
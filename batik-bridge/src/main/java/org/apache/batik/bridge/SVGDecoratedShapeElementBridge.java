@@ -110,8 +110,7 @@ public abstract class SVGDecoratedShapeElementBridge
         case SVGCSSEngine.MARKER_END_INDEX:
             if (!hasNewShapePainter) {
                 hasNewShapePainter = true;
-                ShapeNode shapeNode = (ShapeNode)node;
-                shapeNode.setShapePainter(createShapePainter(ctx, e, shapeNode));
+                scheduleUpdate(UPDATE_PAINT);
             }
             break;
         default:
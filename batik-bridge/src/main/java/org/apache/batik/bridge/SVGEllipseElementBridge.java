@@ -110,8 +110,7 @@ public class SVGEllipseElementBridge extends SVGShapeElementBridge {
                     || ln.equals(SVG_CY_ATTRIBUTE)
                     || ln.equals(SVG_RX_ATTRIBUTE)
                     || ln.equals(SVG_RY_ATTRIBUTE)) {
-                buildShape(ctx, e, (ShapeNode)node);
-                handleGeometryChanged();
+                scheduleUpdate(UPDATE_GEOMETRY);
                 return;
             }
         }
@@ -31,6 +31,7 @@ import org.apache.batik.ext.awt.image.PadMode;
 import org.apache.batik.ext.awt.image.renderable.Filter;
 import org.apache.batik.ext.awt.image.renderable.FilterChainRable;
 import org.apache.batik.ext.awt.image.renderable.FilterChainRable8Bit;
+import org.apache.batik.ext.awt.image.renderable.FilterGraphOptimizer;
 import org.apache.batik.ext.awt.image.renderable.FloodRable8Bit;
 import org.apache.batik.ext.awt.image.renderable.PadRable8Bit;
 import org.apache.batik.gvt.GraphicsNode;
@@ -120,7 +121,7 @@ public class SVGFilterElementBridge extends AnimatableGenericSVGBridge
             in = createEmptyFilter(filterElement, filterRegion, filteredElement,
                                    filteredNode, ctx);
         }
-        filterChain.setSource(in);
+        filterChain.setSource(FilterGraphOptimizer.optimize(in));
         return filterChain;
     }
 
@@ -134,8 +134,7 @@ public class SVGLineElementBridge extends SVGDecoratedShapeElementBridge {
                     || ln.equals(SVG_Y1_ATTRIBUTE)
                     || ln.equals(SVG_X2_ATTRIBUTE)
                     || ln.equals(SVG_Y2_ATTRIBUTE)) {
-                buildShape(ctx, e, (ShapeNode)node);
-                handleGeometryChanged();
+                scheduleUpdate(UPDATE_GEOMETRY);
                 return;
             }
         }
@@ -106,8 +106,7 @@ public class SVGPathElementBridge extends SVGDecoratedShapeElementBridge
             (AnimatedLiveAttributeValue alav) {
         if (alav.getNamespaceURI() == null &&
                 alav.getLocalName().equals(SVG_D_ATTRIBUTE)) {
-            buildShape(ctx, e, (ShapeNode) node);
-            handleGeometryChanged();
+            scheduleUpdate(UPDATE_GEOMETRY);
         } else {
             super.handleAnimatedAttributeChanged(alav);
         }
@@ -116,8 +115,7 @@ public class SVGPathElementBridge extends SVGDecoratedShapeElementBridge
     protected void handleCSSPropertyChanged(int property) {
         switch(property) {
         case SVGCSSEngine.FILL_RULE_INDEX:
-            buildShape(ctx, e, (ShapeNode) node);
-            handleGeometryChanged();
+            scheduleUpdate(UPDATE_GEOMETRY);
             break;
         default:
             super.handleCSSPropertyChanged(property);
@@ -140,6 +138,7 @@ public class SVGPathElementBridge extends SVGDecoratedShapeElementBridge
      * Returns the PathLength object that tracks the length of the path.
      */
     protected PathLength getPathLengthObj() {
+        ctx.flushPendingUpdates();
         Shape s = ((ShapeNode)node).getShape();
         if (pathLengthShape != s) {
             pathLength = new PathLength(s);
@@ -23,8 +23,13 @@ import java.awt.Paint;
 import java.awt.Shape;
 import java.awt.geom.AffineTransform;
 import java.awt.geom.Rectangle2D;
+import java.lang.ref.WeakReference;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
 
 import org.apache.batik.anim.dom.SVGOMDocument;
 import org.apache.batik.dom.util.XLinkSupport;
@@ -35,6 +40,8 @@ import org.apache.batik.gvt.AbstractGraphicsNode;
 import org.apache.batik.gvt.RootGraphicsNode;
 import org.apache.batik.gvt.GraphicsNode;
 import org.apache.batik.gvt.PatternPaint;
+import org.apache.batik.gvt.event.GraphicsNodeChangeAdapter;
+import org.apache.batik.gvt.event.GraphicsNodeChangeEvent;
 import org.apache.batik.util.ParsedURL;
 import org.w3c.dom.Element;
 import org.w3c.dom.Node;
@@ -48,6 +55,23 @@ import org.w3c.dom.Node;
 public class SVGPatternElementBridge extends AnimatableGenericSVGBridge
         implements PaintBridge, ErrorConstants {
 
+    /**
+     * The number of paints kept for each pattern content.  Tiles that
+     * depend on the bounding box of the painted element, or that are
+     * animated, give a new paint for most uses, so only the most
+     * recently used ones are kept.
+     */
+    protected static final int MAX_SHARED_PAINTS = 16;
+
+    /**
+     * The paints created for each pattern content, held through weak
+     * references.  The elements painted with the same tile share a
+     * paint, so that the tile is rendered once for all of them.  The
+     * paints refer to their pattern content, so they are only kept
+     * alive by a listener of the content and are released with it.
+     */
+    protected Map patternPaints = new WeakHashMap();
+
     /**
      * Constructs a new SVGPatternElementBridge.
      */
@@ -196,6 +220,19 @@ public class SVGPatternElementBridge extends AnimatableGenericSVGBridge
             }
         }
 
+        boolean overflow = !overflowIsHidden;
+        Map paints = getPatternPaints(patternContentNode);
+        SharedPaint key = new SharedPaint(patternRegion,
+                                          patternContentTransform,
+                                          patternTransform, opacity,
+                                          overflow);
+        synchronized (paints) {
+            PatternPaint paint = (PatternPaint)paints.get(key);
+            if (paint != null) {
+                return paint;
+            }
+        }
+
         //
         // Apply transform
         //
@@ -220,11 +257,91 @@ public class SVGPatternElementBridge extends AnimatableGenericSVGBridge
 
         
 
-        return new PatternPaint(gn,
-                                patternRegion,
-                                !overflowIsHidden,
-                                patternTransform);
+        PatternPaint paint = new PatternPaint(gn,
+                                              patternRegion,
+                                              overflow,
+                                              patternTransform);
+        synchronized (paints) {
+            paints.put(key, paint);
+        }
+        return paint;
+    }
 
+    /**
+     * Returns the paints created for the given pattern content, by
+     * {@link SharedPaint}.  At most {@link #MAX_SHARED_PAINTS} are kept,
+     * and they are discarded when the pattern content changes.
+     */
+    protected Map getPatternPaints(RootGraphicsNode patternContentNode) {
+        WeakReference ref =
+            (WeakReference)patternPaints.get(patternContentNode);
+        Map paints = (ref == null) ? null : (Map)ref.get();
+        if (paints == null) {
+            final Map m = new LinkedHashMap(MAX_SHARED_PAINTS, 0.75f, true) {
+                    protected boolean removeEldestEntry(Map.Entry e) {
+                        return size() > MAX_SHARED_PAINTS;
+                    }
+                };
+            patternContentNode.addTreeGraphicsNodeChangeListener
+                (new GraphicsNodeChangeAdapter() {
+                    public void changeCompleted(GraphicsNodeChangeEvent e) {
+                        synchronized (m) {
+                            Iterator it = m.values().iterator();
+                            while (it.hasNext()) {
+                                ((PatternPaint)it.next()).clearCache();
+                            }
+                            m.clear();
+                        }
+                    }
+                });
+            patternPaints.put(patternContentNode, new WeakReference(m));
+            paints = m;
+        }
+        return paints;
+    }
+
+    /**
+     * The values a pattern tile is built from, identifying the paints
+     * that can be shared.
+     */
+    protected static class SharedPaint {
+        Rectangle2D patternRegion;
+        AffineTransform contentTransform;
+        AffineTransform patternTransform;
+        float opacity;
+        boolean overflow;
+
+        SharedPaint(Rectangle2D patternRegion,
+                    AffineTransform contentTransform,
+                    AffineTransform patternTransform,
+                    float opacity,
+                    boolean overflow) {
+            this.patternRegion = patternRegion;
+            this.contentTransform = contentTransform;
+            this.patternTransform = patternTransform;
+            this.opacity = opacity;
+            this.overflow = overflow;
+        }
+
+        public boolean equals(Object o) {
+            if (!(o instanceof SharedPaint)) {
+                return false;
+            }
+            SharedPaint sp = (SharedPaint)o;
+            return opacity == sp.opacity
+                && overflow == sp.overflow
+                && patternRegion.equals(sp.patternRegion)
+                && contentTransform.equals(sp.contentTransform)
+                && patternTransform.equals(sp.patternTransform);
+        }
+
+        public int hashCode() {
+            int h = patternRegion.hashCode();
+            h = h * 31 + contentTransform.hashCode();
+            h = h * 31 + patternTransform.hashCode();
+            h = h * 31 + Float.floatToIntBits(opacity);
+            return overflow ? ~h : h;
+        }
     }
 
     /**
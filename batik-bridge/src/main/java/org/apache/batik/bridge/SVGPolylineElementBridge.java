@@ -111,8 +111,7 @@ public class SVGPolylineElementBridge extends SVGDecoratedShapeElementBridge {
         if (alav.getNamespaceURI() == null) {
             String ln = alav.getLocalName();
             if (ln.equals(SVG_POINTS_ATTRIBUTE)) {
-                buildShape(ctx, e, (ShapeNode)node);
-                handleGeometryChanged();
+                scheduleUpdate(UPDATE_GEOMETRY);
                 return;
             }
         }
@@ -122,8 +121,7 @@ public class SVGPolylineElementBridge extends SVGDecoratedShapeElementBridge {
     protected void handleCSSPropertyChanged(int property) {
         switch(property) {
         case SVGCSSEngine.FILL_RULE_INDEX:
-            buildShape(ctx, e, (ShapeNode) node);
-            handleGeometryChanged();
+            scheduleUpdate(UPDATE_GEOMETRY);
             break;
         default:
             super.handleCSSPropertyChanged(property);
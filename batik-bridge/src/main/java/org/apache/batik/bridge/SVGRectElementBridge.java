@@ -135,8 +135,7 @@ public class SVGRectElementBridge extends SVGShapeElementBridge {
                     || ln.equals(SVG_HEIGHT_ATTRIBUTE)
                     || ln.equals(SVG_RX_ATTRIBUTE)
                     || ln.equals(SVG_RY_ATTRIBUTE)) {
-                buildShape(ctx, e, (ShapeNode)node);
-                handleGeometryChanged();
+                scheduleUpdate(UPDATE_GEOMETRY);
                 return;
             }
         }
@@ -138,6 +138,22 @@ public abstract class SVGShapeElementBridge extends AbstractGraphicsNodeBridge {
 
     // BridgeUpdateHandler implementation //////////////////////////////////
 
+    /**
+     * Updates the graphics node.
+     */
+    protected void applyUpdates(int updates) {
+        if ((updates & UPDATE_GEOMETRY) != 0) {
+            buildShape(ctx, e, (ShapeNode)node);
+        }
+        if ((updates & (UPDATE_TRANSFORM | UPDATE_GEOMETRY)) != 0) {
+            // Also creates the new shape painter.
+            super.applyUpdates(updates);
+        } else if ((updates & UPDATE_PAINT) != 0) {
+            ShapeNode shapeNode = (ShapeNode)node;
+            shapeNode.setShapePainter(createShapePainter(ctx, e, shapeNode));
+        }
+    }
+
     /**
      * Invoked when the geometry of an graphical element has changed.
      */
@@ -181,8 +197,7 @@ public abstract class SVGShapeElementBridge extends AbstractGraphicsNodeBridge {
         case SVGCSSEngine.STROKE_DASHOFFSET_INDEX: {
             if (!hasNewShapePainter) {
                 hasNewShapePainter = true;
-                ShapeNode shapeNode = (ShapeNode)node;
-                shapeNode.setShapePainter(createShapePainter(ctx, e, shapeNode));
+                scheduleUpdate(UPDATE_PAINT);
             }
             break;
         }
@@ -815,12 +815,9 @@ public class ScriptingEnvironment extends BaseScriptingEnvironment {
                         return;
                     eir.count++;
                 }
-                synchronized (updateRunnableQueue.getIteratorLock()) {
-                    if (updateRunnableQueue.getThread() == null) {
-                        cancel();
-                        return;
-                    }
-                    updateRunnableQueue.invokeLater(eir);
+                if (!updateRunnableQueue.tryInvokeLater(eir)) {
+                    cancel();
+                    return;
                 }
                 synchronized (eir) {
                     if (eir.error)
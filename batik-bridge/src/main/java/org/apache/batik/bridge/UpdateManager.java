@@ -502,6 +502,7 @@ public class UpdateManager  {
     protected void updateRendering(List areas,
                                    boolean clearPaintingTransform) {
         try {
+            bridgeContext.flushPendingUpdates();
             UpdateManagerEvent ev = new UpdateManagerEvent
                 (this, repaintManager.getOffScreen(), null);
             fireEvent(updateStartedDispatcher, ev);
@@ -535,6 +536,8 @@ public class UpdateManager  {
      * Repaints the dirty areas, if needed.
      */
     protected void repaint() {
+        // Rebuild the graphics nodes changed since the last runnable.
+        bridgeContext.flushPendingUpdates();
         if (!updateTracker.hasChanged()) {
             // No changes, nothing to repaint.
             outOfDateTime = 0;
@@ -553,17 +556,15 @@ public class UpdateManager  {
 
         if (ctime-outOfDateTime < minRepaintTime) {
             // We very recently did a repaint check if other
-            // repaint runnables are pending.
-            synchronized (updateRunnableQueue.getIteratorLock()) {
-                Iterator i = updateRunnableQueue.iterator();
-                while (i.hasNext())
-                    if (!(i.next() instanceof NoRepaintRunnable))
-                        // have a pending repaint runnable so we
-                        // will skip this repaint and we will let
-                        // the next one pick it up.
-                        return;
-
-            }
+            // repaint runnables are pending.  This runs in the queue
+            // thread, so the runnables found can not start meanwhile.
+            Iterator i = updateRunnableQueue.getPendingRunnables().iterator();
+            while (i.hasNext())
+                if (!(i.next() instanceof NoRepaintRunnable))
+                    // have a pending repaint runnable so we
+                    // will skip this repaint and we will let
+                    // the next one pick it up.
+                    return;
         }
 
         List dirtyAreas = updateTracker.getDirtyAreas();
@@ -588,6 +589,7 @@ public class UpdateManager  {
      * 'SVGSVGElement.forceRedraw()' method.
      */
     public void forceRepaint() {
+        bridgeContext.flushPendingUpdates();
         if (!updateTracker.hasChanged()) {
             // No changes, nothing to repaint.
             outOfDateTime = 0;
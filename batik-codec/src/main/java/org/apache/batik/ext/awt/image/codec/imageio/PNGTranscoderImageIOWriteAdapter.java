@@ -22,7 +22,6 @@ import java.awt.image.BufferedImage;
 import java.io.IOException;
 import java.io.OutputStream;
 
-import org.apache.batik.ext.awt.image.rendered.IndexImage;
 import org.apache.batik.ext.awt.image.spi.ImageWriter;
 import org.apache.batik.ext.awt.image.spi.ImageWriterParams;
 import org.apache.batik.ext.awt.image.spi.ImageWriterRegistry;
@@ -56,7 +55,7 @@ public class PNGTranscoderImageIOWriteAdapter implements
             n= (Integer) hints.get(PNGTranscoder.KEY_INDEXED);
             if (n==1||n==2||n==4||n==8) 
                 //PNGEncodeParam.Palette can handle these numbers only.
-                img = IndexImage.getIndexedImage(img, 1<<n);
+                img = transcoder.getIndexedImage(img, 1<<n);
         }
 
         ImageWriter writer = ImageWriterRegistry.getInstance()
@@ -18,6 +18,8 @@
  */
 package org.apache.batik.ext.awt.image.codec.png;
 
+import java.awt.Rectangle;
+
 import org.apache.batik.ext.awt.image.codec.util.ImageDecodeParam;
 import org.apache.batik.ext.awt.image.codec.util.PropertyUtil;
 
@@ -308,6 +310,63 @@ public class PNGDecodeParam implements ImageDecodeParam {
         this.expandGrayAlpha = expandGrayAlpha;
     }
 
+    private Rectangle sourceRegion = null;
+
+    /**
+     * Returns the region of the image to decode, or <code>null</code>
+     * if all of the image is decoded.
+     */
+    public Rectangle getSourceRegion() {
+        return (sourceRegion == null) ? null : new Rectangle(sourceRegion);
+    }
+
+    /**
+     * Sets the region of the image to decode, in the pixel coordinates
+     * of the image.  The rows below the region are not decompressed
+     * and the pixels around it are not processed.  The output image
+     * has the bounds of the region, reduced by the subsampling factor,
+     * intersected with the image.
+     *
+     * <p> The region is ignored for interlaced images.  By default, or
+     * if <code>null</code> is given, all of the image is decoded.
+     */
+    public void setSourceRegion(Rectangle sourceRegion) {
+        this.sourceRegion = (sourceRegion == null) ? null
+            : new Rectangle(sourceRegion);
+    }
+
+    private int subsampling = 1;
+
+    /**
+     * Returns the subsampling factor.  By default, the subsampling
+     * factor is 1.
+     */
+    public int getSubsampling() {
+        return subsampling;
+    }
+
+    /**
+     * Sets the factor by which the image is reduced as it is decoded.
+     * Each output pixel is the average of a square of
+     * <code>subsampling</code> by <code>subsampling</code> image
+     * pixels, weighted by their alpha.  The source region is extended
+     * to a multiple of the factor, and output pixel <code>(x, y)</code>
+     * covers image pixels <code>(x*subsampling, y*subsampling)</code>
+     * and following.
+     *
+     * <p> Subsampling is ignored for interlaced images and for images
+     * decoded to an <code>IndexColorModel</code>.
+     *
+     * @throws IllegalArgumentException if <code>subsampling</code> is
+     * less than 1.
+     */
+    public void setSubsampling(int subsampling) {
+        if (subsampling < 1) {
+            throw new IllegalArgumentException(PropertyUtil.getString("PNGDecodeParam2"));
+        }
+        this.subsampling = subsampling;
+    }
+
     private boolean generateEncodeParam = false;
 
     private PNGEncodeParam encodeParam = null;
@@ -587,6 +587,26 @@ public abstract class PNGEncodeParam implements ImageEncodeParam {
         return useInterlacing;
     }
 
+    private boolean useParallelCompression = false;
+
+    /**
+     * Turns parallel compression of the image data on or off.  When
+     * on, the filtered image data is split into blocks that are
+     * deflated concurrently; the output is a standard zlib stream,
+     * usually a fraction of a percent larger.
+     */
+    public void setParallelCompression(boolean useParallelCompression) {
+        this.useParallelCompression = useParallelCompression;
+    }
+
+    /**
+     * Returns <code>true</code> if the image data will be compressed
+     * in parallel.
+     */
+    public boolean getParallelCompression() {
+        return useParallelCompression;
+    }
+
     // bKGD chunk - delegate to subclasses
 
     // In JAI 1.0, 'backgroundSet' was private.  The JDK 1.2 compiler
@@ -447,8 +447,13 @@ public class PNGImageEncoder extends ImageEncoderImpl {
 
     private void writeIDAT() throws IOException {
         IDATOutputStream ios = new IDATOutputStream(dataOutput, 8192);
-        DeflaterOutputStream dos =
-            new DeflaterOutputStream(ios, new Deflater(9));
+        OutputStream dos;
+        if (param.getParallelCompression() &&
+            ParallelDeflaterOutputStream.isSupported()) {
+            dos = new ParallelDeflaterOutputStream(ios, 9);
+        } else {
+            dos = new DeflaterOutputStream(ios, new Deflater(9));
+        }
 
         // Future work - don't convert entire image to a Raster It
         // might seem that you could just call image.getData() but
@@ -503,7 +508,6 @@ public class PNGImageEncoder extends ImageEncoderImpl {
             encodePass(dos, ras, 0, 0, 1, 1);
         }
 
-        dos.finish();
         dos.close();
         ios.flush();
         ios.close();
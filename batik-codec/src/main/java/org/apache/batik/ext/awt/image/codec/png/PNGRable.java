@@ -0,0 +1,265 @@
+/*
+
+   Licensed to the Apache Software Foundation (ASF) under one or more
+   contributor license agreements.  See the NOTICE file distributed with
+   this work for additional information regarding copyright ownership.
+   The ASF licenses this file to You under the Apache License, Version 2.0
+   (the "License"); you may not use this file except in compliance with
+   the License.  You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+ */
+package org.apache.batik.ext.awt.image.codec.png;
+
+import java.awt.Rectangle;
+import java.awt.RenderingHints;
+import java.awt.Shape;
+import java.awt.geom.AffineTransform;
+import java.awt.geom.Rectangle2D;
+import java.awt.image.BufferedImage;
+import java.awt.image.ColorModel;
+import java.awt.image.RenderedImage;
+import java.awt.image.WritableRaster;
+import java.awt.image.renderable.RenderContext;
+import java.io.ByteArrayInputStream;
+import java.lang.ref.Reference;
+import java.lang.ref.SoftReference;
+
+import org.apache.batik.ext.awt.RenderingHintsKeyExt;
+import org.apache.batik.ext.awt.image.GraphicsUtil;
+import org.apache.batik.ext.awt.image.PadMode;
+import org.apache.batik.ext.awt.image.renderable.AbstractRable;
+import org.apache.batik.ext.awt.image.renderable.AffineRable8Bit;
+import org.apache.batik.ext.awt.image.renderable.Filter;
+import org.apache.batik.ext.awt.image.renderable.PadRable8Bit;
+import org.apache.batik.ext.awt.image.renderable.RedRable;
+import org.apache.batik.ext.awt.image.rendered.Any2sRGBRed;
+import org.apache.batik.ext.awt.image.rendered.BufferedImageCachableRed;
+import org.apache.batik.ext.awt.image.rendered.CachableRed;
+import org.apache.batik.ext.awt.image.rendered.FormatRed;
+import org.apache.batik.ext.awt.image.spi.ErrorConstants;
+import org.apache.batik.ext.awt.image.spi.ImageTagRegistry;
+
+/**
+ * A Filter that holds an encoded PNG image and only decodes it when
+ * it is rendered, at the resolution it is rendered at.
+ *
+ * <p>When an image is drawn into a Batik raster destination at less
+ * than half its size, only the part of it that is drawn is decoded,
+ * each pixel of the decoded image averaging a power of two square of
+ * pixels of the PNG (see {@link PNGDecodeParam#setSubsampling}).  The
+ * reduced images are only softly held.  The full resolution image,
+ * used for any other rendering, is decoded once and then replaces the
+ * encoded data.</p>
+ *
+ * @version $Id$
+ */
+public class PNGRable extends AbstractRable {
+
+    /**
+     * The number of destination pixels the area decoded extends past
+     * the area of interest, for the interpolation of the image.
+     */
+    static final int MARGIN = 2;
+
+    /**
+     * The encoded image, null once the full image is decoded.
+     */
+    protected byte[] data;
+
+    /**
+     * The size of the image.
+     */
+    protected int width, height;
+
+    /**
+     * Whether to leave out the color correction the image specifies.
+     */
+    protected boolean raw;
+
+    /**
+     * The full resolution image, once decoded.
+     */
+    protected Filter full;
+
+    /**
+     * A soft reference to the last reduced image decoded.
+     */
+    protected Reference reduced;
+
+    /**
+     * The subsampling of the last reduced image decoded, 0 if none.
+     */
+    protected int lastSubsampling;
+
+    /**
+     * A reduced image and the part of the PNG it covers.
+     */
+    protected static class Reduced {
+        Filter filter;
+        int subsampling;
+        Rectangle region;
+
+        Reduced(Filter filter, int subsampling, Rectangle region) {
+            this.filter = filter;
+            this.subsampling = subsampling;
+            this.region = region;
+        }
+    }
+
+    /**
+     * Creates a filter for a PNG image.
+     *
+     * @param data The encoded image, a non interlaced PNG.
+     * @param width The width of the image.
+     * @param height The height of the image.
+     * @param raw If true the color correction the image may specify
+     *            is not applied.
+     */
+    public PNGRable(byte[] data, int width, int height, boolean raw) {
+        super();
+        this.data = data;
+        this.width = width;
+        this.height = height;
+        this.raw = raw;
+    }
+
+    public Rectangle2D getBounds2D() {
+        return new Rectangle2D.Double(0, 0, width, height);
+    }
+
+    public RenderedImage createRendering(RenderContext rc) {
+        return getImage(rc).createRendering(rc);
+    }
+
+    /**
+     * Returns the image to render for <code>rc</code>.
+     */
+    protected synchronized Filter getImage(RenderContext rc) {
+        if (full != null)
+            return full;
+
+        int sub = getSubsampling(rc);
+        if (sub == 1) {
+            full = decode(null, 1);
+            data = null;
+            reduced = null;
+            return full;
+        }
+
+        Rectangle region = getBounds2D().getBounds();
+        Shape aoi = rc.getAreaOfInterest();
+        if (aoi != null) {
+            double scale = getScale(rc.getTransform());
+            int margin = (int)Math.ceil(MARGIN / scale) + sub;
+            Rectangle r = aoi.getBounds();
+            r.grow(margin, margin);
+            region = region.intersection(r);
+        }
+
+        Reduced red = null;
+        if (reduced != null)
+            red = (Reduced)reduced.get();
+        if ((red != null) && (red.subsampling <= sub)
+            && (region.isEmpty() || red.region.contains(region)))
+            return red.filter;
+
+        if (sub == lastSubsampling) {
+            // The image was already decoded at this size, for another
+            // area: decode all of it rather than one area after the
+            // other.
+            region = getBounds2D().getBounds();
+        }
+        Filter filter = decode(region, sub);
+        reduced = new SoftReference(new Reduced(filter, sub, region));
+        lastSubsampling = sub;
+        return filter;
+    }
+
+    /**
+     * Returns the subsampling to decode the image with for
+     * <code>rc</code>: the largest power of two not larger than the
+     * inverse of the scale the image is rendered at, and 1 unless the
+     * rendering is for a Batik raster destination.
+     */
+    protected int getSubsampling(RenderContext rc) {
+        RenderingHints rh = rc.getRenderingHints();
+        if ((rh == null)
+            || (rh.get(RenderingHintsKeyExt.KEY_BUFFERED_IMAGE) == null))
+            return 1;
+
+        double scale = getScale(rc.getTransform());
+        int sub = 1;
+        while ((sub < (1 << 16)) && (sub * 2 * scale <= 1))
+            sub *= 2;
+        return sub;
+    }
+
+    /**
+     * Returns the largest factor by which <code>at</code> scales a
+     * length.
+     */
+    protected static double getScale(AffineTransform at) {
+        return Math.max(Math.hypot(at.getScaleX(), at.getShearY()),
+                        Math.hypot(at.getShearX(), at.getScaleY()));
+    }
+
+    /**
+     * Decodes <code>region</code> of the image (all of it if null)
+     * with <code>sub</code> subsampling.
+     */
+    protected Filter decode(Rectangle region, int sub) {
+        try {
+            PNGDecodeParam param = new PNGDecodeParam();
+            param.setExpandPalette(true);
+            if (raw)
+                param.setPerformGammaCorrection(false);
+            else {
+                param.setPerformGammaCorrection(true);
+                param.setDisplayExponent(2.2f); // sRGB gamma
+            }
+            param.setSourceRegion(region);
+            param.setSubsampling(sub);
+
+            PNGRed png = new PNGRed(new ByteArrayInputStream(data), param);
+            sub = png.getSubsampling();
+            Rectangle bounds = png.getBounds();
+
+            CachableRed cr = new Any2sRGBRed(png);
+            cr = new FormatRed(cr, GraphicsUtil.sRGB_Unpre);
+            WritableRaster wr = (WritableRaster)cr.getData();
+            wr = wr.createWritableTranslatedChild(0, 0);
+            ColorModel cm = cr.getColorModel();
+            BufferedImage image = new BufferedImage
+                (cm, wr, cm.isAlphaPremultiplied(), null);
+            cr = new BufferedImageCachableRed(image, bounds.x, bounds.y);
+            Filter filt = new RedRable(cr);
+            if ((sub == 1) && (region == null))
+                return filt;
+
+            filt = new AffineRable8Bit
+                (filt, AffineTransform.getScaleInstance(sub, sub));
+            return new PadRable8Bit(filt, getBounds2D(), PadMode.ZERO_PAD);
+        } catch (ThreadDeath td) {
+            throw td;
+        } catch (Throwable t) {
+            return getBrokenLinkImage();
+        }
+    }
+
+    /**
+     * Returns the image to render if the PNG cannot be decoded.
+     */
+    protected Filter getBrokenLinkImage() {
+        return ImageTagRegistry.getBrokenLinkImage
+            (this, ErrorConstants.ERR_STREAM_FORMAT_UNREADABLE,
+             new Object[] {"PNG"});
+    }
+}
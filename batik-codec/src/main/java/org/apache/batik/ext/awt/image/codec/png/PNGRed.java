@@ -37,9 +37,9 @@ import java.awt.image.WritableRaster;
 import java.io.BufferedInputStream;
 import java.io.ByteArrayInputStream;
 import java.io.DataInputStream;
+import java.io.EOFException;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.SequenceInputStream;
 import java.util.Date;
 import java.util.GregorianCalendar;
 import java.util.TimeZone;
@@ -47,8 +47,6 @@ import java.util.List;
 import java.util.ArrayList;
 import java.util.Map;
 import java.util.HashMap;
-import java.util.Collections;
-import java.util.zip.Inflater;
 import java.util.zip.InflaterInputStream;
 
 import org.apache.batik.ext.awt.image.GraphicsUtil;
@@ -278,7 +276,6 @@ public class PNGRed extends AbstractRed {
     private static final int POST_ADD_GRAY_TRANS_EXP =
         POST_ADD_GRAY_TRANS | POST_EXP_MASK;
 
-    private List streamVec = new ArrayList();
     private DataInputStream dataStream;
 
     private int bytesPerPixel; // number of bytes per input pixel
@@ -297,6 +294,9 @@ public class PNGRed extends AbstractRed {
     private WritableRaster theTile;
     private Rectangle bounds;
 
+    // The subsampling factor the image was decoded with
+    private int subsampling = 1;
+
     /** A Hashtable containing the image properties. */
     private Map properties = new HashMap();
 
@@ -404,8 +404,15 @@ public class PNGRed extends AbstractRed {
                     chunk = readChunk(distream);
                     parse_PLTE_chunk(chunk);
                 } else if (chunkType.equals("IDAT")) {
-                    chunk = readChunk(distream);
-                    streamVec.add(new ByteArrayInputStream(chunk.getData()));
+                    if (theTile == null) {
+                        // Decode the image data as it is read.
+                        IDATInputStream idat = new IDATInputStream(distream);
+                        decodeImageData(idat);
+                        idat.finish();
+                    } else {
+                        // The IDAT chunks should be consecutive.
+                        readChunk(distream);
+                    }
                 } else if (chunkType.equals("IEND")) {
                     chunk = readChunk(distream);
                     parse_IEND_chunk(chunk);
@@ -483,6 +490,98 @@ public class PNGRed extends AbstractRed {
         stream.close();
     }
 
+    /**
+     * Reads the data of consecutive IDAT chunks, as the image is
+     * decoded, rather than holding all of it first.  The underlying
+     * stream is left after the last IDAT chunk read.
+     */
+    private static class IDATInputStream extends InputStream {
+
+        private DataInputStream distream;
+
+        // The number of bytes left in the current chunk
+        private int remaining;
+
+        // Whether the last IDAT chunk has been read
+        private boolean done;
+
+        IDATInputStream(DataInputStream distream) throws IOException {
+            this.distream = distream;
+            nextChunk();
+        }
+
+        /**
+         * Starts reading the next chunk, if it is an IDAT chunk.
+         */
+        private void nextChunk() throws IOException {
+            if ("IDAT".equals(getChunkType(distream))) {
+                remaining = distream.readInt();
+                distream.readInt(); // The chunk type
+            } else {
+                done = true;
+            }
+        }
+
+        /**
+         * Returns false once all the IDAT chunks have been read.
+         */
+        private boolean ensureData() throws IOException {
+            while (remaining == 0) {
+                if (done)
+                    return false;
+                distream.readInt(); // The CRC of the previous chunk
+                nextChunk();
+            }
+            return true;
+        }
+
+        public int read() throws IOException {
+            if (!ensureData())
+                return -1;
+            int c = distream.read();
+            if (c == -1) {
+                throw new EOFException();
+            }
+            remaining--;
+            return c;
+        }
+
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0)
+                return 0;
+            if (!ensureData())
+                return -1;
+            int n = distream.read(b, off, Math.min(len, remaining));
+            if (n == -1) {
+                throw new EOFException();
+            }
+            remaining -= n;
+            return n;
+        }
+
+        /**
+         * Skips the image data that was not read.
+         */
+        void finish() throws IOException {
+            while (!done) {
+                while (remaining > 0) {
+                    int n = distream.skipBytes(remaining);
+                    if (n == 0) {
+                        if (distream.read() == -1)
+                            throw new EOFException();
+                        n = 1;
+                    }
+                    remaining -= n;
+                }
+                ensureData();
+            }
+        }
+
+        public void close() {
+            // The underlying stream is still used for the next chunks.
+        }
+    }
+
     private static String getChunkType(DataInputStream distream) {
         try {
             distream.mark(8);
@@ -748,49 +847,10 @@ public class PNGRed extends AbstractRed {
             encodeParam.setCompressedText(ztextArray);
         }
 
-        // Parse prior IDAT chunks
-        InputStream seqStream =
-            new SequenceInputStream( Collections.enumeration( streamVec ));
-        InputStream infStream =
-            new InflaterInputStream(seqStream, new Inflater());
-        dataStream = new DataInputStream(infStream);
-
-        // Create an empty WritableRaster
-        int depth = bitDepth;
-        if ((colorType == PNG_COLOR_GRAY) &&
-            (bitDepth < 8) && output8BitGray) {
-            depth = 8;
-        }
-        if ((colorType == PNG_COLOR_PALETTE) && expandPalette) {
-            depth = 8;
-        }
-        int width  = bounds.width;
-        int height = bounds.height;
-
-        int bytesPerRow = (outputBands*width*depth + 7)/8;
-        int scanlineStride =
-            (depth == 16) ? (bytesPerRow/2) : bytesPerRow;
-
-        theTile = createRaster(width, height, outputBands,
-                               scanlineStride,
-                               depth);
-
-        if (performGammaCorrection && (gammaLut == null)) {
-            initGammaLut(bitDepth);
+        if (theTile == null) {
+            // There was no image data.
+            decodeImageData(new ByteArrayInputStream(new byte[0]));
         }
-        if ((postProcess == POST_GRAY_LUT) ||
-            (postProcess == POST_GRAY_LUT_ADD_TRANS) ||
-            (postProcess == POST_GRAY_LUT_ADD_TRANS_EXP)) {
-            initGrayLut(bitDepth);
-        }
-
-        decodeImage(interlaceMethod == 1);
-
-        // Free resources associated with compressed data.
-        dataStream.close();
-        infStream.close();
-        seqStream.close();
-        streamVec = null;
 
         SampleModel sm = theTile.getSampleModel();
         ColorModel  cm;
@@ -823,7 +883,98 @@ public class PNGRed extends AbstractRed {
                 createComponentColorModel(sm);
         }
 
-        init((CachableRed)null, bounds, cm, sm, 0, 0, properties);
+        init((CachableRed)null, bounds, cm, sm, bounds.x, bounds.y,
+             properties);
+    }
+
+    /**
+     * Returns true if the image is decoded to a ComponentColorModel.
+     */
+    private boolean isComponentOutput() {
+        if ((colorType == PNG_COLOR_PALETTE) && !expandPalette)
+            return false;
+        if ((colorType == PNG_COLOR_GRAY) && (bitDepth < 8) &&
+            !output8BitGray)
+            return false;
+        return true;
+    }
+
+    /**
+     * Decodes the compressed image data into <code>theTile</code>,
+     * reduced to the source region and subsampling factor of the
+     * decode parameters if they apply.
+     */
+    private void decodeImageData(InputStream compressed) throws IOException {
+        InputStream infStream = new InflaterInputStream(compressed);
+        dataStream = new DataInputStream(infStream);
+
+        // Create an empty WritableRaster
+        int depth = bitDepth;
+        if ((colorType == PNG_COLOR_GRAY) &&
+            (bitDepth < 8) && output8BitGray) {
+            depth = 8;
+        }
+        if ((colorType == PNG_COLOR_PALETTE) && expandPalette) {
+            depth = 8;
+        }
+        int width  = bounds.width;
+        int height = bounds.height;
+
+        // The region to decode, aligned to the subsampling factor.
+        Rectangle region = new Rectangle(0, 0, width, height);
+        int sub = 1;
+        if (interlaceMethod == 0) {
+            Rectangle r = decodeParam.getSourceRegion();
+            if (r != null) {
+                region = r.intersection(region);
+                if (region.isEmpty()) {
+                    region.setBounds
+                        (Math.max(0, Math.min(r.x, width - 1)),
+                         Math.max(0, Math.min(r.y, height - 1)), 1, 1);
+                }
+            }
+            if (isComponentOutput())
+                sub = decodeParam.getSubsampling();
+        }
+        int x0 = region.x / sub * sub;
+        int y0 = region.y / sub * sub;
+        int x1 = Math.min((region.x + region.width + sub - 1) / sub * sub,
+                          width);
+        int y1 = Math.min((region.y + region.height + sub - 1) / sub * sub,
+                          height);
+        subsampling = sub;
+        bounds = new Rectangle(x0 / sub, y0 / sub,
+                               (x1 - x0 + sub - 1) / sub,
+                               (y1 - y0 + sub - 1) / sub);
+
+        int bytesPerRow = (outputBands*bounds.width*depth + 7)/8;
+        int scanlineStride =
+            (depth == 16) ? (bytesPerRow/2) : bytesPerRow;
+
+        theTile = createRaster(bounds.width, bounds.height, outputBands,
+                               scanlineStride,
+                               depth);
+        theTile = theTile.createWritableTranslatedChild(bounds.x, bounds.y);
+
+        if (performGammaCorrection && (gammaLut == null)) {
+            initGammaLut(bitDepth);
+        }
+        if ((postProcess == POST_GRAY_LUT) ||
+            (postProcess == POST_GRAY_LUT_ADD_TRANS) ||
+            (postProcess == POST_GRAY_LUT_ADD_TRANS_EXP)) {
+            initGrayLut(bitDepth);
+        }
+
+        if ((interlaceMethod == 0) &&
+            ((sub != 1) || (x1 - x0 != width) || (y1 - y0 != height))) {
+            decodeRegion(width, x0, y0, x1, y1, sub, depth);
+        } else {
+            decodeImage(interlaceMethod == 1, width, height);
+        }
+
+        // Free resources associated with compressed data.
+        dataStream.close();
+        dataStream = null;
     }
 
     private static final int[] GrayBits8 = { 8 };
@@ -1497,8 +1648,8 @@ public class PNGRed extends AbstractRed {
         int srcX, dstX;
 
         // Create an array suitable for holding one pixel
-        int[] ps = src.getPixel(0, 0, (int[])null);
-        int[] pd = dst.getPixel(0, 0, (int[])null);
+        int[] ps = new int[src.getNumBands()];
+        int[] pd = new int[dst.getNumBands()];
 
         dstX = xOffset;
         switch (process) {
@@ -1784,51 +1935,131 @@ public class PNGRed extends AbstractRed {
         for (srcY = 0, dstY = yOffset;
              srcY < passHeight;
              srcY++, dstY += yStep) {
-            // Read the filter type byte and a row of data
-            int filter = 0;
-            try {
-                filter = dataStream.read();
-                dataStream.readFully(curr, 0, bytesPerRow);
-            } catch (Exception e) {
-                e.printStackTrace();
-            }
+            readRow(curr, prior, bytesPerRow);
+            copyRow(curr, byteData, shortData, bytesPerRow, eltsPerRow);
 
-            switch (filter) {
-            case PNG_FILTER_NONE:
-                break;
-            case PNG_FILTER_SUB:
-                decodeSubFilter(curr, bytesPerRow, bytesPerPixel);
-                break;
-            case PNG_FILTER_UP:
-                decodeUpFilter(curr, prior, bytesPerRow);
-                break;
-            case PNG_FILTER_AVERAGE:
-                decodeAverageFilter(curr, prior, bytesPerRow, bytesPerPixel);
-                break;
-            case PNG_FILTER_PAETH:
-                decodePaethFilter(curr, prior, bytesPerRow, bytesPerPixel);
-                break;
-            default:
-                // Error -- unknown filter type
-                String msg = PropertyUtil.getString("PNGImageDecoder16");
-                throw new RuntimeException(msg);
+            processPixels(postProcess,
+                          passRow, imRas, xOffset, xStep, dstY, passWidth);
+
+            // Swap curr and prior
+            byte[] tmp = prior;
+            prior = curr;
+            curr = tmp;
+        }
+    }
+
+    /**
+     * Reads the filter type byte and a row of data, and removes the
+     * filter.
+     */
+    private void readRow(byte[] curr, byte[] prior, int bytesPerRow) {
+        int filter = 0;
+        try {
+            filter = dataStream.read();
+            dataStream.readFully(curr, 0, bytesPerRow);
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+
+        switch (filter) {
+        case PNG_FILTER_NONE:
+            break;
+        case PNG_FILTER_SUB:
+            decodeSubFilter(curr, bytesPerRow, bytesPerPixel);
+            break;
+        case PNG_FILTER_UP:
+            decodeUpFilter(curr, prior, bytesPerRow);
+            break;
+        case PNG_FILTER_AVERAGE:
+            decodeAverageFilter(curr, prior, bytesPerRow, bytesPerPixel);
+            break;
+        case PNG_FILTER_PAETH:
+            decodePaethFilter(curr, prior, bytesPerRow, bytesPerPixel);
+            break;
+        default:
+            // Error -- unknown filter type
+            String msg = PropertyUtil.getString("PNGImageDecoder16");
+            throw new RuntimeException(msg);
+        }
+    }
+
+    /**
+     * Copies a row of data into the data of a row Raster.
+     */
+    private void copyRow(byte[] curr, byte[] byteData, short[] shortData,
+                         int bytesPerRow, int eltsPerRow) {
+        if (bitDepth < 16) {
+            System.arraycopy(curr, 0, byteData, 0, bytesPerRow);
+        } else {
+            int idx = 0;
+            for (int j = 0; j < eltsPerRow; j++) {
+                shortData[j] =
+                    (short)((curr[idx] << 8) | (curr[idx + 1] & 0xff));
+                idx += 2;
             }
+        }
+    }
 
-            // Copy data into passRow byte by byte
-            if (bitDepth < 16) {
-                System.arraycopy(curr, 0, byteData, 0, bytesPerRow);
-            } else {
-                int idx = 0;
-                for (int j = 0; j < eltsPerRow; j++) {
-                    shortData[j] =
-                        (short)((curr[idx] << 8) | (curr[idx + 1] & 0xff));
-                    idx += 2;
+    /**
+     * Decodes the rows <code>y0</code> to <code>y1</code> and columns
+     * <code>x0</code> to <code>x1</code> of a non interlaced image,
+     * averaging squares of <code>sub</code> pixels.  The rows above
+     * the region are only decompressed and unfiltered, the rows below
+     * it are not read.
+     */
+    private void decodeRegion(int width, int x0, int y0, int x1, int y1,
+                              int sub, int depth) {
+        int bytesPerRow = (inputBands*width*bitDepth + 7)/8;
+        int eltsPerRow = (bitDepth == 16) ? bytesPerRow/2 : bytesPerRow;
+        byte[] curr = new byte[bytesPerRow];
+        byte[] prior = new byte[bytesPerRow];
+
+        WritableRaster passRow =
+            createRaster(width, 1, inputBands, eltsPerRow, bitDepth);
+        DataBuffer dataBuffer = passRow.getDataBuffer();
+        byte[] byteData = null;
+        short[] shortData = null;
+        if (dataBuffer.getDataType() == DataBuffer.TYPE_BYTE) {
+            byteData = ((DataBufferByte)dataBuffer).getData();
+        } else {
+            shortData = ((DataBufferUShort)dataBuffer).getData();
+        }
+        int rw = x1 - x0;
+        Raster src = passRow.createChild(x0, 0, rw, 1, 0, 0, null);
+
+        // The processed pixels of a row and the sums of each output
+        // pixel, when subsampling.
+        WritableRaster procRow = null;
+        int[] samples = null;
+        long[] sums = null;
+        int outWidth = bounds.width;
+        int bands = outputBands;
+        boolean hasAlpha = (bands & 1) == 0;
+        if (sub != 1) {
+            int procStride = (depth == 16) ? bands*rw : (bands*rw*depth + 7)/8;
+            procRow = createRaster(rw, 1, bands, procStride, depth);
+            samples = new int[bands*rw];
+            sums = new long[bands*outWidth];
+        }
+
+        for (int y = 0; y < y1; y++) {
+            readRow(curr, prior, bytesPerRow);
+            if (y >= y0) {
+                copyRow(curr, byteData, shortData, bytesPerRow, eltsPerRow);
+                if (sub == 1) {
+                    processPixels(postProcess, src, theTile, x0, 1, y, rw);
+                } else {
+                    processPixels(postProcess, src, procRow, 0, 1, 0, rw);
+                    procRow.getPixels(0, 0, rw, 1, samples);
+                    accumulate(samples, sums, rw, sub, hasAlpha);
+                    if (((y + 1) % sub == 0) || (y == y1 - 1)) {
+                        int rows = y - Math.max(y0, y / sub * sub) + 1;
+                        storeAverages(sums, rw, rows, sub, y / sub,
+                                      hasAlpha);
+                    }
                 }
             }
 
-            processPixels(postProcess,
-                          passRow, imRas, xOffset, xStep, dstY, passWidth);
-
             // Swap curr and prior
             byte[] tmp = prior;
             prior = curr;
@@ -1836,10 +2067,60 @@ public class PNGRed extends AbstractRed {
         }
     }
 
-    private void decodeImage(boolean useInterlacing) {
-        int width = bounds.width;
-        int height = bounds.height;
+    /**
+     * Adds the samples of a row to the sums of the output pixels,
+     * weighting the color samples by alpha.
+     */
+    private void accumulate(int[] samples, long[] sums, int rw, int sub,
+                            boolean hasAlpha) {
+        int bands = outputBands;
+        int colors = hasAlpha ? bands - 1 : bands;
+        for (int x = 0; x < rw; x++) {
+            int s = x * bands;
+            int d = (x / sub) * bands;
+            if (hasAlpha) {
+                long a = samples[s + colors];
+                for (int b = 0; b < colors; b++)
+                    sums[d + b] += samples[s + b] * a;
+                sums[d + colors] += a;
+            } else {
+                for (int b = 0; b < bands; b++)
+                    sums[d + b] += samples[s + b];
+            }
+        }
+    }
 
+    /**
+     * Stores the averages of the sums in output row <code>oy</code>
+     * and clears the sums.
+     */
+    private void storeAverages(long[] sums, int rw, int rows, int sub,
+                               int oy, boolean hasAlpha) {
+        int bands = outputBands;
+        int colors = hasAlpha ? bands - 1 : bands;
+        int outWidth = bounds.width;
+        int[] row = new int[bands * outWidth];
+        for (int ox = 0; ox < outWidth; ox++) {
+            int d = ox * bands;
+            long count = (long)Math.min(sub, rw - ox * sub) * rows;
+            if (hasAlpha) {
+                long a = sums[d + colors];
+                if (a != 0) {
+                    for (int b = 0; b < colors; b++)
+                        row[d + b] = (int)((sums[d + b] + a / 2) / a);
+                }
+                row[d + colors] = (int)((a + count / 2) / count);
+            } else {
+                for (int b = 0; b < bands; b++)
+                    row[d + b] = (int)((sums[d + b] + count / 2) / count);
+            }
+        }
+        theTile.setPixels(bounds.x, oy, outWidth, 1, row);
+        for (int i = 0; i < sums.length; i++)
+            sums[i] = 0;
+    }
+
+    private void decodeImage(boolean useInterlacing, int width, int height) {
         if (!useInterlacing) {
             decodePass(theTile, 0, 0, 1, 1, width, height);
         } else {
@@ -1853,6 +2134,17 @@ public class PNGRed extends AbstractRed {
         }
     }
 
+    /**
+     * Returns the factor by which the image was subsampled: pixel
+     * <code>(x, y)</code> of this image covers pixel
+     * <code>(x*factor, y*factor)</code> of the PNG image and following.
+     * This is 1 if the decode parameters did not ask for subsampling or
+     * if it did not apply to the image.
+     */
+    public int getSubsampling() {
+        return subsampling;
+    }
+
     public WritableRaster copyData(WritableRaster wr) {
         GraphicsUtil.copyData(theTile, wr);
         return wr;
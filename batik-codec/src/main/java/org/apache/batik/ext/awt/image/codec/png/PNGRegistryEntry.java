@@ -22,6 +22,8 @@ import java.awt.geom.Rectangle2D;
 import java.awt.image.BufferedImage;
 import java.awt.image.ColorModel;
 import java.awt.image.WritableRaster;
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 
@@ -46,6 +48,19 @@ public class PNGRegistryEntry
 
     static final byte [] signature = {(byte)0x89, 80, 78, 71, 13, 10, 26, 10};
 
+    /**
+     * The number of pixels from which non interlaced images are only
+     * decoded when rendered, at the resolution they are rendered at
+     * (see {@link PNGRable}).
+     */
+    static final int LAZY_DECODE_PIXELS = 2048 * 2048;
+
+    /**
+     * The length of the signature and IHDR chunk, up to the interlace
+     * method.
+     */
+    static final int HEADER_LENGTH = 33;
+
     public PNGRegistryEntry() {
         super("PNG", "png", "image/png", 0, signature);
     }
@@ -64,7 +79,8 @@ public class PNGRegistryEntry
                                boolean needRawData) {
 
         final DeferRable  dr  = new DeferRable();
-        final InputStream is  = inIS;
+        final InputStream is  = inIS.markSupported()
+            ? inIS : new BufferedInputStream(inIS);
         final boolean     raw = needRawData;
         final String      errCode;
         final Object []   errParam;
@@ -80,6 +96,24 @@ public class PNGRegistryEntry
                 public void run() {
                     Filter filt;
                     try {
+                        // Only large images decoded lazily are kept
+                        // in memory as a whole.
+                        byte[] header = readHeader(is);
+                        if (isLazyDecoded(header)) {
+                            int w = getInt(header, 16);
+                            int h = getInt(header, 20);
+                            byte[] data = readAll(is);
+                            dr.setBounds(new Rectangle2D.Double(0, 0, w, h));
+                            dr.setSource(new PNGRable(data, w, h, raw) {
+                                    protected Filter getBrokenLinkImage() {
+                                        return ImageTagRegistry.getBrokenLinkImage
+                                            (PNGRegistryEntry.this,
+                                             errCode, errParam);
+                                    }
+                                });
+                            return;
+                        }
+
                         PNGDecodeParam param = new PNGDecodeParam();
                         param.setExpandPalette(true);
 
@@ -121,4 +155,63 @@ public class PNGRegistryEntry
         t.start();
         return dr;
     }
+
+    /**
+     * Reads the first {@link #HEADER_LENGTH} bytes of <code>is</code>,
+     * or less if it is shorter, and resets it to its beginning.
+     * @param is a stream supporting mark and reset.
+     */
+    static byte[] readHeader(InputStream is) throws IOException {
+        byte[] buf = new byte[HEADER_LENGTH];
+        int n = 0;
+        is.mark(HEADER_LENGTH);
+        while (n < HEADER_LENGTH) {
+            int len = is.read(buf, n, HEADER_LENGTH - n);
+            if (len == -1)
+                break;
+            n += len;
+        }
+        is.reset();
+        if (n == HEADER_LENGTH)
+            return buf;
+        byte[] ret = new byte[n];
+        System.arraycopy(buf, 0, ret, 0, n);
+        return ret;
+    }
+
+    /**
+     * Reads all of <code>is</code>.
+     */
+    static byte[] readAll(InputStream is) throws IOException {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        byte[] buf = new byte[8192];
+        int len;
+        while ((len = is.read(buf)) != -1)
+            bos.write(buf, 0, len);
+        return bos.toByteArray();
+    }
+
+    /**
+     * Returns whether the PNG image in <code>data</code> is large
+     * enough, and not interlaced, to only be decoded when rendered.
+     * @param data the image, or at least its first
+     *        {@link #HEADER_LENGTH} bytes.
+     */
+    static boolean isLazyDecoded(byte[] data) {
+        // The signature, then the IHDR chunk: length, type, width,
+        // height, bit depth, color type, compression, filter and
+        // interlace method.
+        if ((data.length < HEADER_LENGTH) || (data[12] != 'I') || (data[13] != 'H')
+            || (data[14] != 'D') || (data[15] != 'R'))
+            return false;
+        long w = getInt(data, 16);
+        long h = getInt(data, 20);
+        return (w > 0) && (h > 0) && (w * h >= LAZY_DECODE_PIXELS)
+            && (data[28] == 0);
+    }
+
+    private static int getInt(byte[] data, int off) {
+        return (((data[off] & 0xff) << 24) | ((data[off + 1] & 0xff) << 16) |
+                ((data[off + 2] & 0xff) << 8) | (data[off + 3] & 0xff));
+    }
 }
@@ -22,7 +22,6 @@ import java.awt.image.BufferedImage;
 import java.io.IOException;
 import java.io.OutputStream;
 
-import org.apache.batik.ext.awt.image.rendered.IndexImage;
 import org.apache.batik.transcoder.TranscoderException;
 import org.apache.batik.transcoder.TranscoderOutput;
 import org.apache.batik.transcoder.TranscodingHints;
@@ -52,7 +51,7 @@ public class PNGTranscoderInternalCodecWriteAdapter implements
             n= (Integer) hints.get(PNGTranscoder.KEY_INDEXED);
             if (n==1||n==2||n==4||n==8)
                 //PNGEncodeParam.Palette can handle these numbers only.
-                img = IndexImage.getIndexedImage(img,1<<n);
+                img = transcoder.getIndexedImage(img, 1<<n);
         }
 
         PNGEncodeParam params = PNGEncodeParam.getDefaultEncodeParam(img);
@@ -83,6 +82,11 @@ public class PNGTranscoderInternalCodecWriteAdapter implements
         int numPix      = (int)((1000/PixSzMM)+0.5);
         params.setPhysicalDimension(numPix, numPix, 1); // 1 means 'pix/meter'
 
+        if (hints.containsKey(PNGTranscoder.KEY_PARALLEL_COMPRESSION)) {
+            params.setParallelCompression
+                ((Boolean) hints.get(PNGTranscoder.KEY_PARALLEL_COMPRESSION));
+        }
+
         try {
             OutputStream ostream = output.getOutputStream();
             PNGImageEncoder pngEncoder = new PNGImageEncoder(ostream, params);
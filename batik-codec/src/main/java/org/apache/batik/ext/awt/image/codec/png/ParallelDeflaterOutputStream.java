@@ -0,0 +1,288 @@
+/*
+
+   Licensed to the Apache Software Foundation (ASF) under one or more
+   contributor license agreements.  See the NOTICE file distributed with
+   this work for additional information regarding copyright ownership.
+   The ASF licenses this file to You under the Apache License, Version 2.0
+   (the "License"); you may not use this file except in compliance with
+   the License.  You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+ */
+package org.apache.batik.ext.awt.image.codec.png;
+
+import java.io.ByteArrayOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.Adler32;
+import java.util.zip.Deflater;
+
+import org.apache.batik.ext.awt.image.rendered.ParallelTileExecutor;
+
+/**
+ * An output stream that produces a single zlib stream, like
+ * <code>DeflaterOutputStream</code>, but compresses fixed size blocks
+ * of input concurrently (the approach taken by pigz).
+ *
+ * Each block is compressed by its own raw <code>Deflater</code>
+ * primed with the last 32K of the previous block as a preset
+ * dictionary, so matches can still reach back across block
+ * boundaries.  Every block but the last ends with a sync flush so
+ * the compressed blocks are byte aligned and can simply be
+ * concatenated.  The Adler-32 checksum of the whole input is computed
+ * as the data is written.
+ *
+ * Up to <code>ParallelTileExecutor.getParallelism()</code> blocks are
+ * buffered and compressed together, which bounds the memory used.
+ * Sync flushing needs a Java 7 <code>Deflater</code>; callers should
+ * check {@link #isSupported} first.
+ *
+ * @version $Id$
+ */
+class ParallelDeflaterOutputStream extends FilterOutputStream {
+
+    /**
+     * Default size of the blocks compressed independently.
+     */
+    static final int DEFAULT_BLOCK_SIZE = 128*1024;
+
+    /**
+     * Size of the deflate window, the amount of the previous block
+     * used as dictionary.
+     */
+    static final int DICT_SIZE = 32*1024;
+
+    private static final boolean supported;
+
+    static {
+        boolean b;
+        try {
+            Deflater.class.getMethod("deflate", new Class[] {
+                byte[].class, int.class, int.class, int.class });
+            b = true;
+        } catch (NoSuchMethodException nsme) {
+            b = false;
+        } catch (SecurityException se) {
+            b = false;
+        }
+        supported = b;
+    }
+
+    /**
+     * Returns true if the running Java's <code>Deflater</code> can sync
+     * flush, which this stream requires.
+     */
+    static boolean isSupported() {
+        return supported;
+    }
+
+    private final int level;
+    private final int blockSize;
+    private final Adler32 adler = new Adler32();
+
+    /**
+     * Input blocks waiting to be compressed.
+     */
+    private byte[][] blocks;
+    private int[] blockLen;
+    private int nBlocks;
+
+    /**
+     * The tail of the last block compressed so far.
+     */
+    private byte[] dict = new byte[DICT_SIZE];
+    private int dictLen;
+
+    private boolean headerWritten;
+    private boolean finished;
+
+    /**
+     * @param out the stream the zlib data is written to.
+     * @param level the compression level (0-9).
+     * @param blockSize the number of input bytes compressed by each
+     *        task, at least 32K.
+     */
+    ParallelDeflaterOutputStream(OutputStream out, int level, int blockSize) {
+        super(out);
+        this.level = level;
+        this.blockSize = Math.max(blockSize, DICT_SIZE);
+        int n = Math.max(ParallelTileExecutor.getParallelism(), 1);
+        blocks   = new byte[n][];
+        blockLen = new int[n];
+    }
+
+    ParallelDeflaterOutputStream(OutputStream out, int level) {
+        this(out, level, DEFAULT_BLOCK_SIZE);
+    }
+
+    public void write(int b) throws IOException {
+        write(new byte[] { (byte)b }, 0, 1);
+    }
+
+    public void write(byte[] b, int off, int len) throws IOException {
+        if (finished)
+            throw new IOException("write beyond end of stream");
+        adler.update(b, off, len);
+        while (len > 0) {
+            if ((nBlocks == 0) || (blockLen[nBlocks-1] == blockSize)) {
+                if (nBlocks == blocks.length)
+                    compressBlocks(false);
+                if (blocks[nBlocks] == null)
+                    blocks[nBlocks] = new byte[blockSize];
+                blockLen[nBlocks++] = 0;
+            }
+            int cur = nBlocks-1;
+            int n = Math.min(blockSize - blockLen[cur], len);
+            System.arraycopy(b, off, blocks[cur], blockLen[cur], n);
+            blockLen[cur] += n;
+            off += n;
+            len -= n;
+        }
+    }
+
+    /**
+     * Compresses all the buffered blocks and writes them out.
+     * @param last true if the last block holds the end of the input.
+     */
+    private void compressBlocks(final boolean last) throws IOException {
+        if (!headerWritten) {
+            writeHeader();
+            headerWritten = true;
+        }
+
+        final int n = nBlocks;
+        final byte[][] results = new byte[n][];
+        final byte[] firstDict = dict;
+        final int firstDictLen = dictLen;
+        ParallelTileExecutor.execute
+            (0, n, 1, new ParallelTileExecutor.BandTask() {
+                    public void run(int b0, int b1) {
+                        for (int b = b0; b < b1; b++) {
+                            byte[] d;
+                            int dOff, dLen;
+                            if (b == 0) {
+                                d = firstDict;
+                                dOff = 0;
+                                dLen = firstDictLen;
+                            } else {
+                                d = blocks[b-1];
+                                dLen = Math.min(blockLen[b-1], DICT_SIZE);
+                                dOff = blockLen[b-1] - dLen;
+                            }
+                            results[b] = deflate(blocks[b], blockLen[b],
+                                                 d, dOff, dLen,
+                                                 last && (b == n-1));
+                        }
+                    }
+                });
+        for (int b = 0; b < n; b++) {
+            if (results[b] == null)
+                // The executor was interrupted before this block ran.
+                throw new IOException("compression interrupted");
+            out.write(results[b]);
+        }
+
+        // Remember the tail of the last block for the next batch.
+        int len = blockLen[n-1];
+        if (len >= DICT_SIZE) {
+            System.arraycopy(blocks[n-1], len-DICT_SIZE, dict, 0, DICT_SIZE);
+            dictLen = DICT_SIZE;
+        } else {
+            // Only possible for the final block.
+            byte[] d = new byte[DICT_SIZE];
+            int keep = Math.min(dictLen, DICT_SIZE-len);
+            System.arraycopy(dict, dictLen-keep, d, 0, keep);
+            System.arraycopy(blocks[n-1], 0, d, keep, len);
+            dict = d;
+            dictLen = keep+len;
+        }
+        nBlocks = 0;
+    }
+
+    /**
+     * Compresses one block as raw deflate data.
+     */
+    byte[] deflate(byte[] data, int len, byte[] d, int dOff, int dLen,
+                   boolean last) {
+        Deflater def = new Deflater(level, true);
+        try {
+            if (dLen > 0)
+                def.setDictionary(d, dOff, dLen);
+            def.setInput(data, 0, len);
+            if (last)
+                def.finish();
+            ByteArrayOutputStream bos
+                = new ByteArrayOutputStream(len/2 + 64);
+            byte[] buf = new byte[16*1024];
+            if (last) {
+                while (!def.finished()) {
+                    int c = def.deflate(buf, 0, buf.length);
+                    bos.write(buf, 0, c);
+                }
+            } else {
+                while (true) {
+                    int c = def.deflate(buf, 0, buf.length,
+                                        Deflater.SYNC_FLUSH);
+                    bos.write(buf, 0, c);
+                    if (c < buf.length) break;
+                }
+            }
+            return bos.toByteArray();
+        } finally {
+            def.end();
+        }
+    }
+
+    /**
+     * Writes the two byte zlib header.
+     */
+    private void writeHeader() throws IOException {
+        int cmf = 0x78; // deflate, 32K window
+        int flevel;
+        if (level < 2)       flevel = 0;
+        else if (level < 6)  flevel = 1;
+        else if (level == 6) flevel = 2;
+        else                 flevel = 3;
+        int flg = flevel << 6;
+        flg += 31 - ((cmf*256 + flg) % 31);
+        out.write(cmf);
+        out.write(flg);
+    }
+
+    /**
+     * Compresses any remaining data and writes the checksum.  Does not
+     * close the underlying stream.
+     */
+    public void finish() throws IOException {
+        if (finished)
+            return;
+        if (nBlocks == 0) {
+            // Always emit a final (possibly empty) block.
+            if (blocks[0] == null)
+                blocks[0] = new byte[blockSize];
+            blockLen[0] = 0;
+            nBlocks = 1;
+        }
+        compressBlocks(true);
+        long v = adler.getValue();
+        out.write((int)(v >>> 24) & 0xff);
+        out.write((int)(v >>> 16) & 0xff);
+        out.write((int)(v >>>  8) & 0xff);
+        out.write((int)(v       ) & 0xff);
+        finished = true;
+        blocks = null;
+    }
+
+    public void close() throws IOException {
+        finish();
+        out.close();
+    }
+}
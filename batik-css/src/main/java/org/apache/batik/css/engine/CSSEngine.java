@@ -21,6 +21,7 @@ package org.apache.batik.css.engine;
 import java.io.IOException;
 import java.io.StringReader;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashSet;
 import java.util.LinkedList;
@@ -36,14 +37,21 @@ import org.apache.batik.css.engine.value.ShorthandManager;
 import org.apache.batik.css.engine.value.Value;
 import org.apache.batik.css.engine.value.ValueManager;
 import org.apache.batik.css.parser.ExtendedParser;
+import org.apache.batik.constants.XMLConstants;
 import org.apache.batik.util.CSSConstants;
 import org.apache.batik.util.ParsedURL;
 
 import org.w3c.css.sac.CSSException;
+import org.w3c.css.sac.CombinatorCondition;
+import org.w3c.css.sac.Condition;
+import org.w3c.css.sac.ConditionalSelector;
+import org.w3c.css.sac.DescendantSelector;
 import org.w3c.css.sac.DocumentHandler;
 import org.w3c.css.sac.InputSource;
 import org.w3c.css.sac.LexicalUnit;
+import org.w3c.css.sac.NegativeCondition;
 import org.w3c.css.sac.SACMediaList;
+import org.w3c.css.sac.Selector;
 import org.w3c.css.sac.SelectorList;
 import org.w3c.dom.Attr;
 import org.w3c.dom.DOMException;
@@ -343,6 +351,37 @@ public abstract class CSSEngine {
      */
     protected CSSConditionFactory cssConditionFactory;
 
+    /**
+     * The number of entries of the style sharing cache.
+     */
+    protected static final int STYLE_SHARING_CACHE_SIZE = 16;
+
+    /**
+     * The style sharing cache: the CSS parent, cascade key and an
+     * unmodified cascaded style of recently cascaded elements.
+     */
+    protected Node[] sharingParents = new Node[STYLE_SHARING_CACHE_SIZE];
+    protected String[] sharingKeys = new String[STYLE_SHARING_CACHE_SIZE];
+    protected StyleMap[] sharingStyles
+        = new StyleMap[STYLE_SHARING_CACHE_SIZE];
+
+    /**
+     * The next entry of the style sharing cache to replace.
+     */
+    protected int sharingNext;
+
+    /**
+     * Whether the style sheets allow style sharing, null if not
+     * computed yet.
+     */
+    protected Boolean styleSharingAllowed;
+
+    /**
+     * The attributes found in the selectors of all the style sheets,
+     * including the user agent and user ones.
+     */
+    protected Set sharingAttributes;
+
     /**
      * Creates a new CSSEngine.
      * @param doc The associated document.
@@ -510,6 +549,7 @@ public abstract class CSSEngine {
      */
     public void dispose() {
         setCSSEngineUserAgent(null);
+        clearStyleSharingCache();
         disposeStyleMaps(document.getDocumentElement());
         if (document instanceof EventTarget) {
             // Detach the mutation events listeners.
@@ -609,6 +649,7 @@ public abstract class CSSEngine {
      */
     public void setUserAgentStyleSheet(StyleSheet ss) {
         userAgentStyleSheet = ss;
+        styleSheetsChanged();
     }
 
     /**
@@ -616,6 +657,7 @@ public abstract class CSSEngine {
      */
     public void setUserStyleSheet(StyleSheet ss) {
         userStyleSheet = ss;
+        styleSheetsChanged();
     }
 
     /**
@@ -653,6 +695,7 @@ public abstract class CSSEngine {
                 ("media.error", new Object[] { str, m });
             throw new DOMException(DOMException.SYNTAX_ERR, s);
         }
+        clearStyleSharingCache();
     }
 
     /**
@@ -660,6 +703,7 @@ public abstract class CSSEngine {
      */
     public void setAlternateStyleSheet(String str) {
         alternateStyleSheet = str;
+        clearStyleSharingCache();
     }
 
     /**
@@ -712,6 +756,22 @@ public abstract class CSSEngine {
      */
     public StyleMap getCascadedStyleMap(CSSStylableElement elt,
                                         String pseudo) {
+        // Look for a recently cascaded element with the same inputs.
+        String shareKey = null;
+        Node shareParent = null;
+        if ((pseudo == null) && isStyleSharingAllowed()) {
+            shareKey = getStyleSharingKey(elt);
+            if (shareKey != null) {
+                shareParent = getCSSParentNode(elt);
+                for (int i = 0; i < STYLE_SHARING_CACHE_SIZE; i++) {
+                    if ((sharingParents[i] == shareParent) &&
+                        shareKey.equals(sharingKeys[i])) {
+                        return new StyleMap(sharingStyles[i]);
+                    }
+                }
+            }
+        }
+
         int props = getNumberOfProperties();
         final StyleMap result = new StyleMap(props);
 
@@ -852,9 +912,212 @@ public abstract class CSSEngine {
             cssBaseURI = null;
         }
 
+        if (shareKey != null) {
+            int i = sharingNext;
+            sharingNext = (i + 1) % STYLE_SHARING_CACHE_SIZE;
+            sharingParents[i] = shareParent;
+            sharingKeys[i] = shareKey;
+            sharingStyles[i] = new StyleMap(result);
+        }
         return result;
     }
 
+    /**
+     * Returns a string that identifies everything the cascade of the
+     * given element depends on, besides its CSS parent, or null if the
+     * style of this element must not be shared.  Elements with an id or
+     * a style attribute are not shared: these are usually unique to the
+     * element, so an entry for them would only evict useful ones.
+     */
+    protected String getStyleSharingKey(CSSStylableElement elt) {
+        if (cssContext.getCSSEngineForElement(elt) != this) {
+            return null;
+        }
+        String id = elt.getXMLId();
+        if (id != null && id.length() > 0) {
+            return null;
+        }
+        StyleDeclarationProvider p = elt.getOverrideStyleDeclarationProvider();
+        if (p != null) {
+            StyleDeclaration over = p.getStyleDeclaration();
+            if (over != null && over.size() > 0) {
+                return null;
+            }
+        }
+
+        // The attributes that can change the cascade: presentation
+        // attributes, attributes used in selectors and xml:base which
+        // changes the resolution of URIs.
+        NamedNodeMap attrs = elt.getAttributes();
+        int len = attrs.getLength();
+        String[] relevant = new String[len];
+        int n = 0;
+        for (int i = 0; i < len; i++) {
+            Node attr = attrs.item(i);
+            String an = attr.getNodeName();
+            String ln = attr.getLocalName();
+            if (ln == null) {
+                ln = an;
+            }
+            if (ln.equals(styleLocalName)) {
+                return null;
+            }
+            if ((nonCSSPresentationalHints != null &&
+                 nonCSSPresentationalHints.contains(an)) ||
+                sharingAttributes.contains(ln) ||
+                XMLConstants.XML_NAMESPACE_URI.equals
+                    (attr.getNamespaceURI())) {
+                relevant[n++] = an + '=' + attr.getNodeValue();
+            }
+        }
+        Arrays.sort(relevant, 0, n);
+
+        StringBuffer sb = new StringBuffer(64);
+        sb.append(elt.getNamespaceURI());
+        sb.append(' ');
+        sb.append(elt.getLocalName());
+        String cls = elt.getCSSClass();
+        if (cls != null) {
+            sb.append(" .");
+            sb.append(cls);
+        }
+        for (int i = 0; i < n; i++) {
+            sb.append('\u0000');
+            sb.append(relevant[i]);
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Tells whether elements may share their cascaded style.  This is
+     * not the case when a style sheet has sibling selectors or
+     * pseudo-classes, which depend on more than an element's
+     * attributes and ancestors.
+     */
+    protected boolean isStyleSharingAllowed() {
+        if (styleSharingAllowed == null) {
+            boolean allowed = true;
+            Set attrs = new HashSet();
+            List sheets = new ArrayList();
+            if (userAgentStyleSheet != null) {
+                sheets.add(userAgentStyleSheet);
+            }
+            if (userStyleSheet != null) {
+                sheets.add(userStyleSheet);
+            }
+            for (Object o : getStyleSheetNodes()) {
+                StyleSheet ss = ((CSSStyleSheetNode) o).getCSSStyleSheet();
+                if (ss != null) {
+                    sheets.add(ss);
+                }
+            }
+            for (Object o : sheets) {
+                StyleSheet ss = (StyleSheet) o;
+                allowed = allowed && !hasContextualSelectors(ss);
+                findSelectorAttributes(attrs, ss);
+            }
+            sharingAttributes = attrs;
+            styleSharingAllowed = allowed ? Boolean.TRUE : Boolean.FALSE;
+        }
+        return styleSharingAllowed.booleanValue();
+    }
+
+    /**
+     * Tells whether the given style sheet has selectors that depend on
+     * the siblings or the state of the elements.
+     */
+    protected boolean hasContextualSelectors(StyleSheet ss) {
+        int len = ss.getSize();
+        for (int i = 0; i < len; i++) {
+            Rule r = ss.getRule(i);
+            switch (r.getType()) {
+            case StyleRule.TYPE:
+                SelectorList sl = ((StyleRule)r).getSelectorList();
+                int slen = sl.getLength();
+                for (int j = 0; j < slen; j++) {
+                    if (isContextual(sl.item(j))) {
+                        return true;
+                    }
+                }
+                break;
+
+            case MediaRule.TYPE:
+            case ImportRule.TYPE:
+                if (hasContextualSelectors((MediaRule)r)) {
+                    return true;
+                }
+                break;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Tells whether the given selector depends on something else than
+     * the element's attributes and ancestors.
+     */
+    protected static boolean isContextual(Selector s) {
+        switch (s.getSelectorType()) {
+        case Selector.SAC_CONDITIONAL_SELECTOR:
+            ConditionalSelector cs = (ConditionalSelector)s;
+            return isContextual(cs.getSimpleSelector()) ||
+                isContextual(cs.getCondition());
+        case Selector.SAC_DESCENDANT_SELECTOR:
+        case Selector.SAC_CHILD_SELECTOR:
+            DescendantSelector ds = (DescendantSelector)s;
+            return isContextual(ds.getAncestorSelector()) ||
+                isContextual(ds.getSimpleSelector());
+        case Selector.SAC_DIRECT_ADJACENT_SELECTOR:
+            return true;
+        default:
+            return false;
+        }
+    }
+
+    /**
+     * Tells whether the given condition depends on something else than
+     * the element's attributes.
+     */
+    protected static boolean isContextual(Condition c) {
+        switch (c.getConditionType()) {
+        case Condition.SAC_AND_CONDITION:
+        case Condition.SAC_OR_CONDITION:
+            CombinatorCondition cc = (CombinatorCondition)c;
+            return isContextual(cc.getFirstCondition()) ||
+                isContextual(cc.getSecondCondition());
+        case Condition.SAC_NEGATIVE_CONDITION:
+            return isContextual(((NegativeCondition)c).getCondition());
+        case Condition.SAC_PSEUDO_CLASS_CONDITION:
+        case Condition.SAC_LANG_CONDITION:
+        case Condition.SAC_POSITIONAL_CONDITION:
+        case Condition.SAC_ONLY_CHILD_CONDITION:
+        case Condition.SAC_ONLY_TYPE_CONDITION:
+            return true;
+        default:
+            return false;
+        }
+    }
+
+    /**
+     * Empties the style sharing cache.  Called when the document is
+     * modified, since the cached styles may depend on the old state
+     * of the elements' ancestors.
+     */
+    protected void clearStyleSharingCache() {
+        Arrays.fill(sharingParents, null);
+        Arrays.fill(sharingKeys, null);
+        Arrays.fill(sharingStyles, null);
+    }
+
+    /**
+     * Called when the set of style sheets or their rules change.
+     */
+    protected void styleSheetsChanged() {
+        styleSharingAllowed = null;
+        sharingAttributes = null;
+        clearStyleSharingCache();
+    }
+
     /**
      * Returns the computed style of the given element/pseudo for the
      * property corresponding to the given index.
@@ -2296,6 +2559,7 @@ public abstract class CSSEngine {
                                       short attrChange,
                                       String prevValue,
                                       String newValue) {
+        clearStyleSharingCache();
         if (!(e instanceof CSSStylableElement)) {
             // Not a stylable element.
             return;
@@ -2353,9 +2617,11 @@ public abstract class CSSEngine {
      * Handles a node insertion in the document.
      */
     protected void handleNodeInserted(Node n) {
+        clearStyleSharingCache();
         if (hasStyleSheetNode(n)) {
             // Invalidate all the CSSStylableElements in the document.
             styleSheetNodes = null;
+            styleSheetsChanged();
             invalidateProperties(document.getDocumentElement(),
                                  null, null, true);
         } else if (n instanceof CSSStylableElement) {
@@ -2373,6 +2639,7 @@ public abstract class CSSEngine {
      * Handles a node removal from the document.
      */
     protected void handleNodeRemoved(Node n) {
+        clearStyleSharingCache();
         if (hasStyleSheetNode(n)) {
             // Wait for the DOMSubtreeModified to do the invalidations
             // because at this time the node is in the tree.
@@ -2392,10 +2659,12 @@ public abstract class CSSEngine {
      *     but it seems caller-sites assume that it is used - is this done right??
      */
     protected void handleSubtreeModified(Node ignored) {
+        clearStyleSharingCache();
         if (styleSheetRemoved) {
             // Invalidate all the CSSStylableElements in the document.
             styleSheetRemoved = false;
             styleSheetNodes = null;
+            styleSheetsChanged();
             invalidateProperties(document.getDocumentElement(),
                                  null, null, true);
         } else if (removedStylableElementSibling != null) {
@@ -2415,9 +2684,11 @@ public abstract class CSSEngine {
      * Handles a character data modification in the document.
      */
     protected void handleCharacterDataModified(Node n) {
+        clearStyleSharingCache();
         if (getCSSParentNode(n) instanceof CSSStyleSheetNode) {
             // Invalidate all the CSSStylableElements in the document.
             styleSheetNodes = null;
+            styleSheetsChanged();
             invalidateProperties(document.getDocumentElement(),
                                  null, null, true);
         }
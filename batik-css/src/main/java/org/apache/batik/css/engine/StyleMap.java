@@ -72,6 +72,12 @@ public class StyleMap {
      */
     protected boolean fixedCascadedValues;
 
+    /**
+     * Whether the values and masks arrays are shared with another
+     * map and must be copied before being modified.
+     */
+    protected boolean shared;
+
     /**
      * Creates a new StyleMap.
      */
@@ -80,6 +86,28 @@ public class StyleMap {
         masks = new short[size];
     }
 
+    /**
+     * Creates a new StyleMap holding the same values as the given one.
+     * The two maps share their storage until one of them is modified.
+     */
+    public StyleMap(StyleMap sm) {
+        values = sm.values;
+        masks = sm.masks;
+        fixedCascadedValues = sm.fixedCascadedValues;
+        shared = true;
+        sm.shared = true;
+    }
+
+    /**
+     * Gives this map its own copy of the values and masks, if they
+     * are shared.
+     */
+    protected void unshare() {
+        values = values.clone();
+        masks = masks.clone();
+        shared = false;
+    }
+
     /**
      * Whether this map has fixed cascaded value.
      */
@@ -195,6 +223,7 @@ public class StyleMap {
      * @param v The property value.
      */
     public void putValue(int i, Value v) {
+        if (shared) unshare();
         values[i] = v;
     }
 
@@ -204,6 +233,7 @@ public class StyleMap {
      * @param m The property mask.
      */
     public void putMask(int i, short m) {
+        if (shared) unshare();
         masks[i] = m;
     }
 
@@ -211,6 +241,7 @@ public class StyleMap {
      * Sets the priority of a property value.
      */
     public void putImportant(int i, boolean b) {
+        if (shared) unshare();
         if (b) masks[i] |=  IMPORTANT_MASK;
         else   masks[i] &= ~IMPORTANT_MASK;
     }
@@ -219,6 +250,7 @@ public class StyleMap {
      * Sets the origin of the given value.
      */
     public void putOrigin(int i, short val) {
+        if (shared) unshare();
         masks[i] &= ~ORIGIN_MASK;
         masks[i] |= (short)(val & ORIGIN_MASK);
     }
@@ -227,6 +259,7 @@ public class StyleMap {
      * Sets the computed flag of a property value.
      */
     public void putComputed(int i, boolean b) {
+        if (shared) unshare();
         if (b) masks[i] |=  COMPUTED_MASK;
         else   masks[i] &= ~COMPUTED_MASK;
     }
@@ -235,6 +268,7 @@ public class StyleMap {
      * Sets the null-cascaded flag of a property value.
      */
     public void putNullCascaded(int i, boolean b) {
+        if (shared) unshare();
         if (b) masks[i] |=  NULL_CASCADED_MASK;
         else   masks[i] &= ~NULL_CASCADED_MASK;
     }
@@ -244,6 +278,7 @@ public class StyleMap {
      * If true this computed value was inherited from it's parent.
      */
     public void putInherited(int i, boolean b) {
+        if (shared) unshare();
         if (b) masks[i] |=  INHERITED_MASK;
         else   masks[i] &= ~INHERITED_MASK;
     }
@@ -252,6 +287,7 @@ public class StyleMap {
      * Sets the color-relative flag of a property value.
      */
     public void putColorRelative(int i, boolean b) {
+        if (shared) unshare();
         if (b) masks[i] |=  COLOR_RELATIVE_MASK;
         else   masks[i] &= ~COLOR_RELATIVE_MASK;
     }
@@ -260,6 +296,7 @@ public class StyleMap {
      * Sets the parent-relative flag of a property value.
      */
     public void putParentRelative(int i, boolean b) {
+        if (shared) unshare();
         if (b) masks[i] |=  PARENT_RELATIVE_MASK;
         else   masks[i] &= ~PARENT_RELATIVE_MASK;
     }
@@ -268,6 +305,7 @@ public class StyleMap {
      * Sets the line-height-relative flag of a property value.
      */
     public void putLineHeightRelative(int i, boolean b) {
+        if (shared) unshare();
         if (b) masks[i] |=  LINE_HEIGHT_RELATIVE_MASK;
         else   masks[i] &= ~LINE_HEIGHT_RELATIVE_MASK;
     }
@@ -276,6 +314,7 @@ public class StyleMap {
      * Sets the font-size-relative flag of a property value.
      */
     public void putFontSizeRelative(int i, boolean b) {
+        if (shared) unshare();
         if (b) masks[i] |=  FONT_SIZE_RELATIVE_MASK;
         else   masks[i] &= ~FONT_SIZE_RELATIVE_MASK;
     }
@@ -284,6 +323,7 @@ public class StyleMap {
      * Sets the block-width-relative flag of a property value.
      */
     public void putBlockWidthRelative(int i, boolean b) {
+        if (shared) unshare();
         if (b) masks[i] |=  BLOCK_WIDTH_RELATIVE_MASK;
         else   masks[i] &= ~BLOCK_WIDTH_RELATIVE_MASK;
     }
@@ -292,6 +332,7 @@ public class StyleMap {
      * Sets the block-height-relative flag of a property value.
      */
     public void putBlockHeightRelative(int i, boolean b) {
+        if (shared) unshare();
         if (b) masks[i] |=  BLOCK_HEIGHT_RELATIVE_MASK;
         else   masks[i] &= ~BLOCK_HEIGHT_RELATIVE_MASK;
     }
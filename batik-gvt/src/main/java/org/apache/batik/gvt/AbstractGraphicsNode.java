@@ -21,24 +21,39 @@ package org.apache.batik.gvt;
 import java.awt.AlphaComposite;
 import java.awt.Composite;
 import java.awt.Graphics2D;
+import java.awt.Point;
+import java.awt.Rectangle;
 import java.awt.RenderingHints;
 import java.awt.Shape;
 import java.awt.geom.AffineTransform;
 import java.awt.geom.NoninvertibleTransformException;
 import java.awt.geom.Point2D;
 import java.awt.geom.Rectangle2D;
+import java.awt.image.BufferedImage;
+import java.awt.image.ColorModel;
+import java.awt.image.Raster;
+import java.awt.image.RenderedImage;
+import java.awt.image.WritableRaster;
+import java.awt.image.renderable.RenderContext;
+import java.lang.ref.SoftReference;
 import java.lang.ref.WeakReference;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.Vector;
 
 import javax.swing.event.EventListenerList;
 
 import org.apache.batik.ext.awt.RenderingHintsKeyExt;
+import org.apache.batik.ext.awt.image.GraphicsUtil;
+import org.apache.batik.ext.awt.image.SVGComposite;
 import org.apache.batik.ext.awt.image.renderable.ClipRable;
 import org.apache.batik.ext.awt.image.renderable.Filter;
+import org.apache.batik.ext.awt.image.rendered.BufferedImageCachableRed;
+import org.apache.batik.ext.awt.image.rendered.CachableRed;
 import org.apache.batik.gvt.event.GraphicsNodeChangeEvent;
 import org.apache.batik.gvt.event.GraphicsNodeChangeListener;
+import org.apache.batik.gvt.filter.BackgroundRable8Bit;
 import org.apache.batik.gvt.filter.GraphicsNodeRable;
 import org.apache.batik.gvt.filter.GraphicsNodeRable8Bit;
 import org.apache.batik.gvt.filter.Mask;
@@ -54,6 +69,12 @@ import org.apache.batik.util.HaltingThread;
  */
 public abstract class AbstractGraphicsNode implements GraphicsNode {
 
+    /**
+     * Whether the offscreen renderings of nodes are kept between
+     * paints.
+     */
+    private static volatile boolean filterResultCaching = true;
+
     /**
      * The listeners list.
      */
@@ -137,6 +158,12 @@ public abstract class AbstractGraphicsNode implements GraphicsNode {
      */
     private Rectangle2D bounds;
 
+    /**
+     * Internal Cache: soft reference to the last offscreen rendering
+     * of this node (a <code>FilterResult</code>).
+     */
+    private SoftReference filterResult;
+
 
     protected GraphicsNodeChangeEvent changeStartedEvent   = null;
     protected GraphicsNodeChangeEvent changeCompletedEvent = null;
@@ -146,6 +173,22 @@ public abstract class AbstractGraphicsNode implements GraphicsNode {
      */
     protected AbstractGraphicsNode() {}
 
+    /**
+     * Sets whether the offscreen renderings of filtered, masked and
+     * clipped nodes are kept so they can be repainted with a single
+     * image copy until the node or one of its descendants changes.
+     */
+    public static void setFilterResultCaching(boolean b) {
+        filterResultCaching = b;
+    }
+
+    /**
+     * Returns true if offscreen renderings are kept between paints.
+     */
+    public static boolean getFilterResultCaching() {
+        return filterResultCaching;
+    }
+
     /**
      * Returns a canonical WeakReference to this GraphicsNode.
      * This is suitable for use as a key value in a hash map
@@ -177,7 +220,12 @@ public abstract class AbstractGraphicsNode implements GraphicsNode {
      * VISIBLE | PAINTED | FILL | STROKE | ALL | NONE
      */
     public void setPointerEventType(int pointerEventType) {
+        if (pointerEventType == this.pointerEventType)
+            return;
         this.pointerEventType = pointerEventType;
+        // Our sensitive bounds may have changed.
+        if (parent != null)
+            parent.invalidateGeometryCache();
     }
 
     /**
@@ -546,8 +594,7 @@ public abstract class AbstractGraphicsNode implements GraphicsNode {
                 Rectangle2D filterBounds = filteredImage.getBounds2D();
                 g2d.clip(filterBounds);
 
-                org.apache.batik.ext.awt.image.GraphicsUtil.drawImage
-                    (g2d, filteredImage);
+                drawFilteredImage(g2d, filteredImage);
 
                 g2d.dispose();
                 g2d = baseG2d;
@@ -569,6 +616,236 @@ public abstract class AbstractGraphicsNode implements GraphicsNode {
         }
     }
 
+    /**
+     * Draws the offscreen rendering of this node.  When the tree is
+     * being watched for changes and is painted into an image, the part
+     * of the rendering covered by the clip is kept, and later paints
+     * with the same filter chain, hints and device transform (up to an
+     * integer translation) that fall within it are drawn with a single
+     * image copy.  The kept rendering is dropped as soon as this node
+     * or one of its descendants fires a change event.
+     *
+     * @param g2d the Graphics2D to use, clipped to the filter bounds
+     * @param filteredImage the filter chain to draw
+     */
+    protected void drawFilteredImage(Graphics2D g2d, Filter filteredImage) {
+        if (!isFilterResultCacheable(g2d, filteredImage)) {
+            filterResult = null;
+            GraphicsUtil.drawImage(g2d, filteredImage);
+            return;
+        }
+
+        AffineTransform at = g2d.getTransform();
+        Shape clip = g2d.getClip();
+        Rectangle devR = at.createTransformedShape(clip).getBounds();
+        RenderingHints rh = g2d.getRenderingHints();
+        RenderingHints key = (RenderingHints)rh.clone();
+        key.remove(RenderingHintsKeyExt.KEY_AREA_OF_INTEREST);
+        key.remove(RenderingHintsKeyExt.KEY_BUFFERED_IMAGE);
+
+        boolean over = SVGComposite.OVER.equals(g2d.getComposite());
+
+        FilterResult fr = null;
+        Point delta = null;
+        if (filterResult != null)
+            fr = (FilterResult)filterResult.get();
+        if (fr != null)
+            delta = fr.lookup(filteredImage, at, key, devR, over);
+
+        if (delta == null) {
+            filterResult = null;
+            Rectangle bounds, r;
+            BufferedImage bi;
+            if (over) {
+                // Let the chain paint itself, as it would have painted
+                // into g2d, into an image in the destination's space.
+                bounds = at.createTransformedShape
+                    (filteredImage.getBounds2D()).getBounds();
+                r = bounds.intersection(devR);
+                if (r.isEmpty())
+                    return;
+                ColorModel cm = GraphicsUtil.getDestinationColorModel(g2d);
+                if ((cm == null) || !cm.hasAlpha())
+                    cm = GraphicsUtil.sRGB_Unpre;
+                bi = new BufferedImage
+                    (cm, cm.createCompatibleWritableRaster(r.width, r.height),
+                     cm.isAlphaPremultiplied(), null);
+                Graphics2D g = GraphicsUtil.createGraphics(bi, rh);
+                g.translate(-r.x, -r.y);
+                g.transform(at);
+                g.clip(clip);
+                GraphicsUtil.drawImage(g, filteredImage);
+                g.dispose();
+            } else {
+                RenderedImage ri = filteredImage.createRendering
+                    (new RenderContext(at, clip, rh));
+                if (ri == null)
+                    return;
+                CachableRed src = GraphicsUtil.wrap(ri);
+                bounds = src.getBounds();
+                r = bounds.intersection(devR);
+                if (r.isEmpty())
+                    return;
+                ColorModel cm = src.getColorModel();
+                WritableRaster wr = Raster.createWritableRaster
+                    (src.getSampleModel().createCompatibleSampleModel
+                     (r.width, r.height), new Point(0, 0));
+                src.copyData(wr.createWritableTranslatedChild(r.x, r.y));
+                bi = new BufferedImage
+                    (cm, wr, cm.isAlphaPremultiplied(), null);
+            }
+            fr = new FilterResult(filteredImage, at, key, bounds,
+                                  bi, r.x, r.y, over);
+            delta = new Point(0, 0);
+
+            // An interrupted rendering may be incomplete.
+            if (!HaltingThread.hasBeenHalted())
+                filterResult = new SoftReference(fr);
+        }
+
+        g2d.setTransform(new AffineTransform());
+        fr.draw(g2d, delta.x, delta.y);
+        g2d.setTransform(at);
+    }
+
+    /**
+     * Returns true if the rendering of the given filter chain may be
+     * kept.  Only trees with change listeners are repainted in parts,
+     * so other trees gain nothing from it.  The destination must be an
+     * image rather than a printer or vector output, and the chain must
+     * not depend on anything but this node's subtree (such as the
+     * background image).
+     */
+    protected boolean isFilterResultCacheable(Graphics2D g2d,
+                                              Filter filteredImage) {
+        if (!filterResultCaching)
+            return false;
+        RootGraphicsNode rootGN = getRoot();
+        if ((rootGN == null) ||
+            rootGN.getTreeGraphicsNodeChangeListeners().isEmpty())
+            return false;
+        if (g2d.getRenderingHint
+            (RenderingHintsKeyExt.KEY_BUFFERED_IMAGE) == null)
+            return false;
+        Object t = g2d.getRenderingHint(RenderingHintsKeyExt.KEY_TRANSCODING);
+        if (RenderingHintsKeyExt.VALUE_TRANSCODING_PRINTING.equals(t) ||
+            RenderingHintsKeyExt.VALUE_TRANSCODING_VECTOR.equals(t))
+            return false;
+        if (g2d.getClip() == null)
+            return false;
+        return !isDynamicFilter(filteredImage);
+    }
+
+    /**
+     * Returns true if the filter chain may render differently for the
+     * same arguments, or reads the background image.
+     */
+    private static boolean isDynamicFilter(Filter f) {
+        if (f.isDynamic() || (f instanceof BackgroundRable8Bit))
+            return true;
+        Vector srcs = f.getSources();
+        if (srcs == null)
+            return false;
+        for (int i = 0; i < srcs.size(); i++) {
+            Object o = srcs.get(i);
+            if ((o instanceof Filter) && isDynamicFilter((Filter)o))
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * Drops the kept offscreen rendering of this node and of all its
+     * ancestors, whose renderings include this node.
+     */
+    protected void invalidateFilterResults() {
+        for (AbstractGraphicsNode n = this; n != null; n = n.parent)
+            n.filterResult = null;
+    }
+
+    /**
+     * The kept offscreen rendering of a node.
+     */
+    private static final class FilterResult {
+
+        final Filter filter;
+        final AffineTransform at;
+        final RenderingHints hints;
+
+        /**
+         * The bounds of the whole rendering, in device space.
+         */
+        final Rectangle bounds;
+
+        /**
+         * The rendered part of it, located at (x, y) in device space.
+         */
+        final BufferedImage image;
+        final int x, y;
+
+        /**
+         * Whether the image was painted for a SrcOver composite.
+         */
+        final boolean over;
+
+        FilterResult(Filter filter, AffineTransform at, RenderingHints hints,
+                     Rectangle bounds, BufferedImage image, int x, int y,
+                     boolean over) {
+            this.filter = filter;
+            this.at = at;
+            this.hints = hints;
+            this.bounds = bounds;
+            this.image = image;
+            this.x = x;
+            this.y = y;
+            this.over = over;
+        }
+
+        /**
+         * Returns the device space offset of the kept rendering for
+         * the given transform, or null if it can't be used to draw the
+         * given device area.
+         */
+        Point lookup(Filter f, AffineTransform usr2dev, RenderingHints rh,
+                     Rectangle devR, boolean over) {
+            if ((f != filter)                                  ||
+                (over != this.over)                            ||
+                (usr2dev.getScaleX() != at.getScaleX())        ||
+                (usr2dev.getScaleY() != at.getScaleY())        ||
+                (usr2dev.getShearX() != at.getShearX())        ||
+                (usr2dev.getShearY() != at.getShearY())        ||
+                !hints.equals(rh))
+                return null;
+
+            // Only an integer translation in device space.
+            double deltaX = usr2dev.getTranslateX() - at.getTranslateX();
+            double deltaY = usr2dev.getTranslateY() - at.getTranslateY();
+            int dx = (int)Math.round(deltaX);
+            int dy = (int)Math.round(deltaY);
+            if ((Math.abs(deltaX - dx) > 1e-6) ||
+                (Math.abs(deltaY - dy) > 1e-6))
+                return null;
+
+            Rectangle r = new Rectangle(devR.x - dx, devR.y - dy,
+                                        devR.width, devR.height);
+            r = r.intersection(bounds);
+            if (!r.isEmpty() &&
+                !new Rectangle(x, y, image.getWidth(),
+                               image.getHeight()).contains(r))
+                return null;
+            return new Point(dx, dy);
+        }
+
+        /**
+         * Draws the kept rendering, offset by (dx, dy), into a
+         * Graphics2D with an identity transform.
+         */
+        void draw(Graphics2D g2d, int dx, int dy) {
+            GraphicsUtil.drawImage
+                (g2d, new BufferedImageCachableRed(image, x + dx, y + dy));
+        }
+    }
+
     /**
      * DEBUG: Trace filter chain
      */
@@ -657,6 +934,8 @@ public abstract class AbstractGraphicsNode implements GraphicsNode {
 
     public void fireGraphicsNodeChangeStarted
         (GraphicsNodeChangeEvent changeStartedEvent) {
+        invalidateFilterResults();
+
         // If we had per node listeners we would fire them here...
 
         RootGraphicsNode rootGN = getRoot();
@@ -751,6 +1030,7 @@ public abstract class AbstractGraphicsNode implements GraphicsNode {
             parent.invalidateGeometryCache();
         }
         bounds = null;
+        filterResult = null;
     }
 
     /**
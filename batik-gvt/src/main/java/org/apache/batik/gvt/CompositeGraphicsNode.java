@@ -90,6 +90,36 @@ public class CompositeGraphicsNode extends AbstractGraphicsNode
      */
     private Shape outline;
 
+    /**
+     * Minimum number of children for which painting and hit testing
+     * go through a spatial index.
+     */
+    private static volatile int spatialIndexThreshold = 256;
+
+    /**
+     * Internal Cache: spatial index over the children's bounds.
+     */
+    private volatile SpatialIndex paintIndex;
+
+    /**
+     * Internal Cache: spatial index over the children's sensitive bounds.
+     */
+    private volatile SpatialIndex hitIndex;
+
+    /**
+     * Incremented each time the geometry cache is invalidated, so an
+     * index built concurrently with a change is not kept.
+     */
+    private volatile int geometryStamp;
+
+    /**
+     * Number of index lookups since the geometry cache was last
+     * invalidated.  An index is only built once the geometry has
+     * stayed unchanged between two lookups, so animated content does
+     * not rebuild it on every frame.
+     */
+    private int indexRequests;
+
     /**
      * Constructs a new empty <code>CompositeGraphicsNode</code>.
      */
@@ -106,6 +136,23 @@ public class CompositeGraphicsNode extends AbstractGraphicsNode
         return this;
     }
 
+    /**
+     * Sets the minimum number of children a composite must have
+     * before its children are painted and hit tested through a spatial
+     * index.  Zero or less turns the index off.
+     */
+    public static void setSpatialIndexThreshold(int n) {
+        spatialIndexThreshold = n;
+    }
+
+    /**
+     * Returns the minimum number of children for which a spatial
+     * index is used.
+     */
+    public static int getSpatialIndexThreshold() {
+        return spatialIndexThreshold;
+    }
+
     /**
      * Sets the enable background property to the specified rectangle.
      *
@@ -150,18 +197,48 @@ public class CompositeGraphicsNode extends AbstractGraphicsNode
             return;
         }
 
+        // Only visit the children that overlap the clip, if we can.
+        int[] visible = null;
+        Shape clip = g2d.getClip();
+        if (clip != null) {
+            SpatialIndex idx = getPaintIndex();
+            if (idx != null) {
+                Rectangle2D cb = clip.getBounds2D();
+                visible = idx.query(cb.getMinX(), cb.getMinY(),
+                                    cb.getMaxX(), cb.getMaxY());
+            }
+        }
+
         // Thread.currentThread() is potentially expensive, so reuse my instance in hasBeenHalted()
         Thread currentThread = Thread.currentThread();
 
+        // Solid pixel aligned rectangles are written straight into the
+        // destination, set up on the first shape child.
+        FastRectanglePainter fastPainter = null;
+        boolean fastChecked = false;
+
         // Paint children
-        for (int i=0; i < count; ++i) {
+        int n = (visible == null) ? count : visible.length;
+        for (int j=0; j < n; ++j) {
             if (HaltingThread.hasBeenHalted( currentThread ))
                 return;
 
+            int i = (visible == null) ? j : visible[j];
+            if (i >= count)
+                break; // children removed since the lookup
             GraphicsNode node = children[i];
             if (node == null) {
                 continue;
             }
+            if (node instanceof ShapeNode) {
+                if (!fastChecked) {
+                    fastPainter = FastRectanglePainter.create(g2d, clip);
+                    fastChecked = true;
+                }
+                if ((fastPainter != null)
+                    && fastPainter.paint((ShapeNode)node))
+                    continue;
+            }
             node.paint(g2d);
 
         }
@@ -187,6 +264,96 @@ public class CompositeGraphicsNode extends AbstractGraphicsNode
         primitiveBounds = null;
         sensitiveBounds = null;
         outline = null;
+        paintIndex = null;
+        hitIndex = null;
+        geometryStamp++;
+        indexRequests = 0;
+    }
+
+    /**
+     * Returns the spatial index over the children's bounds in this
+     * node's user space, or null if the children should be visited
+     * linearly.
+     */
+    private SpatialIndex getPaintIndex() {
+        SpatialIndex idx = paintIndex;
+        if ((idx != null) || !useSpatialIndex())
+            return idx;
+
+        int stamp = geometryStamp;
+        int n = count;
+        GraphicsNode[] c = children;
+        Rectangle2D[] bounds = new Rectangle2D[n];
+        Thread currentThread = Thread.currentThread();
+        for (int i = 0; i < n; i++) {
+            if (c[i] != null)
+                bounds[i] = c[i].getTransformedBounds(IDENTITY);
+            if (((i & 0x0F) == 0) && HaltingThread.hasBeenHalted(currentThread))
+                return null;
+        }
+        idx = new SpatialIndex(bounds, n);
+        if (stamp == geometryStamp)
+            paintIndex = idx;
+        return idx;
+    }
+
+    /**
+     * Returns the spatial index over the children's sensitive bounds
+     * in this node's user space, or null if the children should be
+     * visited linearly.  Children are only looked up where their
+     * sensitive bounds contain the point, which every node's
+     * <code>contains</code> method requires.
+     */
+    private SpatialIndex getHitIndex() {
+        SpatialIndex idx = hitIndex;
+        if ((idx != null) || !useSpatialIndex())
+            return idx;
+
+        int stamp = geometryStamp;
+        int n = count;
+        GraphicsNode[] c = children;
+        Rectangle2D[] bounds = new Rectangle2D[n];
+        for (int i = 0; i < n; i++) {
+            if (c[i] == null)
+                continue;
+            AffineTransform t = c[i].getTransform();
+            if ((t != null) && (t.getDeterminant() == 0)) {
+                // Hit testing such a child does not follow its
+                // bounds, always look at it.
+                bounds[i] = new Rectangle2D.Double
+                    (-Double.MAX_VALUE / 2, -Double.MAX_VALUE / 2,
+                     Double.MAX_VALUE, Double.MAX_VALUE);
+            } else {
+                bounds[i] = c[i].getTransformedSensitiveBounds(IDENTITY);
+            }
+        }
+        idx = new SpatialIndex(bounds, n);
+        if (stamp == geometryStamp)
+            hitIndex = idx;
+        return idx;
+    }
+
+    /**
+     * Returns true if an index should be built for this node now.
+     */
+    private boolean useSpatialIndex() {
+        int threshold = spatialIndexThreshold;
+        if ((threshold <= 0) || (count < threshold))
+            return false;
+        return ++indexRequests > 1;
+    }
+
+    /**
+     * Returns the children whose sensitive bounds may contain p, in
+     * increasing order, or null if all the children must be checked.
+     */
+    private int[] hitCandidates(Point2D p) {
+        SpatialIndex idx = getHitIndex();
+        if (idx == null)
+            return null;
+        double x = p.getX();
+        double y = p.getY();
+        return idx.query(x - EPSILON, y - EPSILON, x + EPSILON, y + EPSILON);
     }
 
     /**
@@ -460,9 +627,14 @@ public class CompositeGraphicsNode extends AbstractGraphicsNode
     public boolean contains(Point2D p) {
         Rectangle2D bounds = getSensitiveBounds();
         if (count > 0 && bounds != null && bounds.contains(p)) {
+            int[] hits = hitCandidates(p);
+            int n = (hits == null) ? count : hits.length;
             Point2D pt = null;
             Point2D cp = null; // Propagated to children
-            for (int i=0; i < count; ++i) {
+            for (int j=0; j < n; ++j) {
+                int i = (hits == null) ? j : hits[j];
+                if (i >= count)
+                    break;
                 AffineTransform t = children[i].getInverseTransform();
                 if(t != null){
                     pt = t.transform(p, pt);
@@ -489,10 +661,15 @@ public class CompositeGraphicsNode extends AbstractGraphicsNode
     public GraphicsNode nodeHitAt(Point2D p) {
         Rectangle2D bounds = getSensitiveBounds();
         if (count > 0 && bounds != null && bounds.contains(p)) {
+            int[] hits = hitCandidates(p);
+            int n = (hits == null) ? count : hits.length;
             // Go backward because the children are in rendering order
             Point2D pt = null;
             Point2D cp = null; // Propagated to children
-            for (int i=count-1; i >= 0; --i) {
+            for (int j=n-1; j >= 0; --j) {
+                int i = (hits == null) ? j : hits[j];
+                if (i >= count)
+                    continue;
                 AffineTransform t = children[i].getInverseTransform();
                 if(t != null){
                     pt = t.transform(p, pt);
@@ -0,0 +1,478 @@
+/*
+
+   Licensed to the Apache Software Foundation (ASF) under one or more
+   contributor license agreements.  See the NOTICE file distributed with
+   this work for additional information regarding copyright ownership.
+   The ASF licenses this file to You under the Apache License, Version 2.0
+   (the "License"); you may not use this file except in compliance with
+   the License.  You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+ */
+package org.apache.batik.gvt;
+
+import java.awt.AlphaComposite;
+import java.awt.BasicStroke;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.Paint;
+import java.awt.RenderingHints;
+import java.awt.Shape;
+import java.awt.Stroke;
+import java.awt.geom.AffineTransform;
+import java.awt.geom.Line2D;
+import java.awt.geom.PathIterator;
+import java.awt.geom.Rectangle2D;
+import java.awt.image.BufferedImage;
+import java.awt.image.ColorModel;
+import java.awt.image.DataBuffer;
+import java.awt.image.DataBufferInt;
+import java.awt.image.DirectColorModel;
+import java.awt.image.SinglePixelPackedSampleModel;
+import java.awt.image.WritableRaster;
+import java.lang.ref.Reference;
+import java.util.Arrays;
+
+import org.apache.batik.ext.awt.RenderingHintsKeyExt;
+import org.apache.batik.ext.awt.image.GraphicsUtil;
+
+/**
+ * Paints <code>ShapeNode</code>s that fill rectangles or stroke
+ * horizontal and vertical lines with a solid color, straight into the
+ * pixels of the INT_PACK sRGB image a Graphics2D draws into, when their
+ * edges fall on pixel boundaries.
+ *
+ * <p>Such rectangles cover whole pixels, so writing them directly gives
+ * what Java2D would, without setting up its pipeline for each shape.
+ * One instance is made for a run of siblings and shares the destination,
+ * transform and clip lookups between them.  Anything else is left to
+ * Java2D: {@link #paint} then returns false and paints nothing.</p>
+ *
+ * @version $Id$
+ */
+final class FastRectanglePainter {
+
+    /**
+     * How far from a pixel boundary an edge can be and still be
+     * considered on it.
+     */
+    static final double EPSILON = 1e-4;
+
+    /**
+     * The pixels of the destination, the index of pixel (0, 0) and the
+     * scanline stride.
+     */
+    private final int[] pixels;
+    private final int base;
+    private final int scanStride;
+
+    /**
+     * How the destination stores alpha.
+     */
+    private final boolean hasAlpha;
+    private final boolean premultiplied;
+
+    /**
+     * The device clip, as pixel bounds.
+     */
+    private final int clipX0, clipY0, clipX1, clipY1;
+
+    /**
+     * The user to device transform, which only scales and translates.
+     */
+    private final double sx, sy, tx, ty;
+
+    /**
+     * The antialiasing and stroke control hints of the Graphics2D.
+     */
+    private final Object antialiasing;
+    private final Object strokeControl;
+
+    /**
+     * The device rectangles (x0, y0, x1, y1) and colors of the node
+     * being painted.
+     */
+    private int[] rects = new int[8];
+    private int[] colors = new int[2];
+
+    private FastRectanglePainter(int[] pixels, int base, int scanStride,
+                                 boolean hasAlpha, boolean premultiplied,
+                                 Rectangle2D clip, AffineTransform at,
+                                 Object antialiasing, Object strokeControl) {
+        this.pixels = pixels;
+        this.base = base;
+        this.scanStride = scanStride;
+        this.hasAlpha = hasAlpha;
+        this.premultiplied = premultiplied;
+        this.clipX0 = (int)clip.getMinX();
+        this.clipY0 = (int)clip.getMinY();
+        this.clipX1 = (int)clip.getMaxX();
+        this.clipY1 = (int)clip.getMaxY();
+        this.sx = at.getScaleX();
+        this.sy = at.getScaleY();
+        this.tx = at.getTranslateX();
+        this.ty = at.getTranslateY();
+        this.antialiasing = antialiasing;
+        this.strokeControl = strokeControl;
+    }
+
+    /**
+     * Returns a painter for <code>g2d</code>, or null if what it draws
+     * into cannot be written directly.
+     *
+     * @param g2d the Graphics2D the nodes are painted with
+     * @param clip the clip of <code>g2d</code>, in user space
+     */
+    static FastRectanglePainter create(Graphics2D g2d, Shape clip) {
+        if (!AlphaComposite.SrcOver.equals(g2d.getComposite()))
+            return null;
+        AffineTransform at = g2d.getTransform();
+        if ((at.getShearX() != 0) || (at.getShearY() != 0))
+            return null;
+
+        // Read the hint rather than call GraphicsUtil.getDestination,
+        // which complains about Graphics2Ds that lack it.
+        Object o = g2d.getRenderingHint
+            (RenderingHintsKeyExt.KEY_BUFFERED_IMAGE);
+        if (!(o instanceof Reference))
+            return null;
+        BufferedImage bi = (BufferedImage)((Reference)o).get();
+        if (bi == null)
+            return null;
+
+        ColorModel cm = bi.getColorModel();
+        if (!(cm instanceof DirectColorModel)
+            || !cm.getColorSpace().isCS_sRGB())
+            return null;
+        WritableRaster wr = bi.getRaster();
+        if (!GraphicsUtil.is_INT_PACK_Data(wr.getSampleModel(), false))
+            return null;
+        DataBuffer db = wr.getDataBuffer();
+        if (!(db instanceof DataBufferInt) || (db.getNumBanks() != 1))
+            return null;
+
+        Rectangle2D devClip = new Rectangle2D.Double
+            (0, 0, bi.getWidth(), bi.getHeight());
+        if (clip != null) {
+            Rectangle2D r = getDeviceRectangle(clip, at);
+            if (r == null)
+                return null;
+            Rectangle2D.intersect(devClip, r, devClip);
+        }
+        if (devClip.isEmpty())
+            return null;
+
+        SinglePixelPackedSampleModel sppsm =
+            (SinglePixelPackedSampleModel)wr.getSampleModel();
+        int scanStride = sppsm.getScanlineStride();
+        int base = (db.getOffset() +
+                    sppsm.getOffset(-wr.getSampleModelTranslateX(),
+                                    -wr.getSampleModelTranslateY()));
+        return new FastRectanglePainter
+            (((DataBufferInt)db).getBankData()[0], base, scanStride,
+             cm.hasAlpha(), cm.isAlphaPremultiplied(), devClip, at,
+             g2d.getRenderingHint(RenderingHints.KEY_ANTIALIASING),
+             g2d.getRenderingHint(RenderingHints.KEY_STROKE_CONTROL));
+    }
+
+    /**
+     * Returns the device space bounds of <code>clip</code> if it is a
+     * rectangle with its edges on pixel boundaries, or null.
+     */
+    private static Rectangle2D getDeviceRectangle(Shape clip,
+                                                  AffineTransform at) {
+        double x0, y0, x1, y1;
+        if (clip instanceof Rectangle2D) {
+            Rectangle2D r = (Rectangle2D)clip;
+            x0 = at.getScaleX() * r.getMinX() + at.getTranslateX();
+            x1 = at.getScaleX() * r.getMaxX() + at.getTranslateX();
+            y0 = at.getScaleY() * r.getMinY() + at.getTranslateY();
+            y1 = at.getScaleY() * r.getMaxY() + at.getTranslateY();
+        } else {
+            // A rectangle comes back from Graphics2D.getClip as a path
+            // once the transform scales.
+            double[] pts = new double[10];
+            double[] coords = new double[6];
+            int n = 0;
+            PathIterator pi = clip.getPathIterator(at);
+            for (; !pi.isDone(); pi.next()) {
+                int seg = pi.currentSegment(coords);
+                if (seg == PathIterator.SEG_CLOSE)
+                    continue;
+                if ((seg != PathIterator.SEG_LINETO)
+                    && ((seg != PathIterator.SEG_MOVETO) || (n != 0)))
+                    return null;
+                if (n == 10)
+                    return null;
+                pts[n++] = coords[0];
+                pts[n++] = coords[1];
+            }
+            if ((n == 10) && (pts[8] == pts[0]) && (pts[9] == pts[1]))
+                n = 8;
+            if (n != 8)
+                return null;
+            for (int i = 0; i < 8; i += 2) {
+                int j = (i + 2) % 8;
+                if ((pts[i] != pts[j]) && (pts[i + 1] != pts[j + 1]))
+                    return null;
+            }
+            x0 = Math.min(pts[0], pts[4]);
+            x1 = Math.max(pts[0], pts[4]);
+            y0 = Math.min(pts[1], pts[5]);
+            y1 = Math.max(pts[1], pts[5]);
+        }
+        double ix0 = Math.rint(x0), ix1 = Math.rint(x1);
+        double iy0 = Math.rint(y0), iy1 = Math.rint(y1);
+        if ((Math.abs(x0 - ix0) > EPSILON) || (Math.abs(x1 - ix1) > EPSILON)
+            || (Math.abs(y0 - iy0) > EPSILON)
+            || (Math.abs(y1 - iy1) > EPSILON))
+            return null;
+        Rectangle2D r = new Rectangle2D.Double();
+        r.setFrameFromDiagonal(ix0, iy0, ix1, iy1);
+        return r;
+    }
+
+    /**
+     * Paints <code>node</code> if it can be written directly.
+     *
+     * @return false if nothing was painted and <code>node</code> must be
+     *         painted the usual way
+     */
+    boolean paint(ShapeNode node) {
+        if (node.getClass() != ShapeNode.class)
+            return false;
+        if (!node.isVisible)
+            return true;
+        if ((node.filter != null) || (node.mask != null)
+            || (node.clip != null))
+            return false;
+        if ((node.composite != null)
+            && !AlphaComposite.SrcOver.equals(node.composite))
+            return false;
+
+        double nsx = sx, nsy = sy, ntx = tx, nty = ty;
+        AffineTransform t = node.transform;
+        if (t != null) {
+            if ((t.getShearX() != 0) || (t.getShearY() != 0))
+                return false;
+            nsx = sx * t.getScaleX();
+            nsy = sy * t.getScaleY();
+            ntx = sx * t.getTranslateX() + tx;
+            nty = sy * t.getTranslateY() + ty;
+        }
+
+        ShapePainter painter = node.getShapePainter();
+        if (painter == null)
+            return true;
+
+        int n = 0;
+        if (painter.getClass() == CompositeShapePainter.class) {
+            CompositeShapePainter csp = (CompositeShapePainter)painter;
+            int count = csp.getShapePainterCount();
+            if (rects.length < count * 4) {
+                rects = new int[count * 4];
+                colors = new int[count];
+            }
+            for (int i = 0; i < count; i++) {
+                int r = addRectangle(node, csp.getShapePainter(i), n,
+                                     nsx, nsy, ntx, nty);
+                if (r < 0)
+                    return false;
+                n += r;
+            }
+        } else {
+            int r = addRectangle(node, painter, 0, nsx, nsy, ntx, nty);
+            if (r < 0)
+                return false;
+            n = r;
+        }
+
+        for (int i = 0; i < n; i++) {
+            fill(rects[i * 4],     rects[i * 4 + 1],
+                 rects[i * 4 + 2], rects[i * 4 + 3], colors[i]);
+        }
+        return true;
+    }
+
+    /**
+     * Stores the device rectangle <code>painter</code> paints as the
+     * <code>i</code>th one.
+     *
+     * @return the number of rectangles stored, 0 or 1, or -1 if
+     *         <code>painter</code> does not paint a solid rectangle
+     */
+    private int addRectangle(ShapeNode node, ShapePainter painter, int i,
+                             double nsx, double nsy,
+                             double ntx, double nty) {
+        Class c = painter.getClass();
+        double x0, y0, x1, y1;
+        Paint paint;
+        if (c == FillShapePainter.class) {
+            FillShapePainter fsp = (FillShapePainter)painter;
+            paint = fsp.getPaint();
+            if (paint == null)
+                return 0;
+            Shape s = fsp.getShape();
+            if (!(s instanceof Rectangle2D))
+                return -1;
+            Rectangle2D r = (Rectangle2D)s;
+            if (r.isEmpty())
+                return 0;
+            x0 = r.getMinX(); y0 = r.getMinY();
+            x1 = r.getMaxX(); y1 = r.getMaxY();
+        } else if (c == StrokeShapePainter.class) {
+            StrokeShapePainter ssp = (StrokeShapePainter)painter;
+            paint = ssp.getPaint();
+            Stroke stroke = ssp.getStroke();
+            if ((paint == null) || (stroke == null))
+                return 0;
+            if (stroke.getClass() != BasicStroke.class)
+                return -1;
+            BasicStroke bs = (BasicStroke)stroke;
+            float w = bs.getLineWidth();
+            int cap = bs.getEndCap();
+            Shape s = ssp.getShape();
+            if ((w <= 0) || (bs.getDashArray() != null)
+                || (cap == BasicStroke.CAP_ROUND)
+                || !(s instanceof Line2D))
+                return -1;
+            Line2D l = (Line2D)s;
+            double lx0 = Math.min(l.getX1(), l.getX2());
+            double lx1 = Math.max(l.getX1(), l.getX2());
+            double ly0 = Math.min(l.getY1(), l.getY2());
+            double ly1 = Math.max(l.getY1(), l.getY2());
+            double hw = w / 2;
+            double ext = (cap == BasicStroke.CAP_SQUARE) ? hw : 0;
+            if ((ly0 == ly1) && (lx0 != lx1)) {
+                x0 = lx0 - ext; x1 = lx1 + ext;
+                y0 = ly0 - hw;  y1 = ly0 + hw;
+            } else if ((lx0 == lx1) && (ly0 != ly1)) {
+                x0 = lx0 - hw;  x1 = lx0 + hw;
+                y0 = ly0 - ext; y1 = ly1 + ext;
+            } else {
+                return -1;
+            }
+            // Antialiased strokes are normalized to pixel centers unless
+            // asked not to be: leave the line alone only if it is on them.
+            if (isStrokeNormalized(node)
+                && (!isOnPixelCenter(nsx * lx0 + ntx)
+                    || !isOnPixelCenter(nsx * lx1 + ntx)
+                    || !isOnPixelCenter(nsy * ly0 + nty)
+                    || !isOnPixelCenter(nsy * ly1 + nty)))
+                return -1;
+        } else {
+            return -1;
+        }
+        if (!(paint instanceof Color))
+            return -1;
+
+        double dx0 = nsx * x0 + ntx, dx1 = nsx * x1 + ntx;
+        double dy0 = nsy * y0 + nty, dy1 = nsy * y1 + nty;
+        double ix0 = Math.rint(dx0), ix1 = Math.rint(dx1);
+        double iy0 = Math.rint(dy0), iy1 = Math.rint(dy1);
+        if ((Math.abs(dx0 - ix0) > EPSILON) || (Math.abs(dx1 - ix1) > EPSILON)
+            || (Math.abs(dy0 - iy0) > EPSILON)
+            || (Math.abs(dy1 - iy1) > EPSILON))
+            return -1;
+
+        int j = i * 4;
+        rects[j]     = (int)Math.min(ix0, ix1);
+        rects[j + 1] = (int)Math.min(iy0, iy1);
+        rects[j + 2] = (int)Math.max(ix0, ix1);
+        rects[j + 3] = (int)Math.max(iy0, iy1);
+        colors[i] = ((Color)paint).getRGB();
+        return 1;
+    }
+
+    /**
+     * Tells whether Java2D would normalize the strokes of
+     * <code>node</code>.
+     */
+    private boolean isStrokeNormalized(ShapeNode node) {
+        Object aa = antialiasing;
+        Object sc = strokeControl;
+        RenderingHints hints = node.hints;
+        if (hints != null) {
+            if (hints.containsKey(RenderingHints.KEY_ANTIALIASING))
+                aa = hints.get(RenderingHints.KEY_ANTIALIASING);
+            if (hints.containsKey(RenderingHints.KEY_STROKE_CONTROL))
+                sc = hints.get(RenderingHints.KEY_STROKE_CONTROL);
+        }
+        return (aa == RenderingHints.VALUE_ANTIALIAS_ON)
+            && (sc != RenderingHints.VALUE_STROKE_PURE);
+    }
+
+    private static boolean isOnPixelCenter(double d) {
+        return Math.abs(d - Math.floor(d) - 0.5) <= EPSILON;
+    }
+
+    /**
+     * Composites <code>argb</code> over the pixels of the device
+     * rectangle (x0, y0)-(x1, y1), within the clip.
+     */
+    private void fill(int x0, int y0, int x1, int y1, int argb) {
+        if (x0 < clipX0) x0 = clipX0;
+        if (y0 < clipY0) y0 = clipY0;
+        if (x1 > clipX1) x1 = clipX1;
+        if (y1 > clipY1) y1 = clipY1;
+        if ((x0 >= x1) || (y0 >= y1))
+            return;
+
+        int a = argb >>> 24;
+        if (a == 0)
+            return;
+        int sp = base + y0 * scanStride + x0;
+        int w = x1 - x0;
+        if (a == 255) {
+            for (int y = y0; y < y1; y++, sp += scanStride)
+                Arrays.fill(pixels, sp, sp + w, argb);
+            return;
+        }
+
+        // Source over, with the arithmetic of Java2D's blending loops.
+        int ia = 255 - a;
+        int pr = mul8(a, (argb >> 16) & 0xFF);
+        int pg = mul8(a, (argb >>  8) & 0xFF);
+        int pb = mul8(a,  argb        & 0xFF);
+        int scanInc = scanStride - w;
+        for (int y = y0; y < y1; y++, sp += scanInc) {
+            for (int end = sp + w; sp < end; sp++) {
+                int d = pixels[sp];
+                int da = hasAlpha ? (d >>> 24) : 255;
+                int df = premultiplied ? ia : mul8(ia, da);
+                int ra = a + mul8(ia, da);
+                int rr = pr + mul8(df, (d >> 16) & 0xFF);
+                int rg = pg + mul8(df, (d >>  8) & 0xFF);
+                int rb = pb + mul8(df,  d        & 0xFF);
+                if (!premultiplied && (ra < 255)) {
+                    rr = div8(rr, ra);
+                    rg = div8(rg, ra);
+                    rb = div8(rb, ra);
+                }
+                pixels[sp] = (ra << 24) | (rr << 16) | (rg << 8) | rb;
+            }
+        }
+    }
+
+    /**
+     * Returns a * b / 255, rounded.
+     */
+    private static int mul8(int a, int b) {
+        return (a * b + 127) / 255;
+    }
+
+    /**
+     * Returns v * 255 / a, rounded and capped at 255.
+     */
+    private static int div8(int v, int a) {
+        int r = (v * 255 + (a >> 1)) / a;
+        return (r > 255) ? 255 : r;
+    }
+}
@@ -26,6 +26,8 @@ import java.awt.geom.AffineTransform;
 import java.awt.geom.Rectangle2D;
 import java.awt.image.ColorModel;
 import java.awt.image.Raster;
+import java.util.Iterator;
+import java.util.LinkedList;
 
 import org.apache.batik.ext.awt.image.PadMode;
 import org.apache.batik.ext.awt.image.renderable.Filter;
@@ -70,7 +72,28 @@ public class PatternPaint implements Paint {
      */
     private boolean overflow;
 
-    private PatternPaintContext lastContext;
+    /**
+     * The most recently used contexts, first to last. Painting with a
+     * cached context only copies the tile pixels it has rendered.
+     */
+    private final LinkedList contexts = new LinkedList();
+
+    /**
+     * The maximum number of cached contexts.
+     */
+    private static final int MAX_CONTEXTS = 4;
+
+    /**
+     * The largest difference between the scale and shear factors of two
+     * transforms for which the same tile rendering is used.
+     */
+    private static final double EPSILON = 1e-6;
+
+    /**
+     * The largest difference, in pixels, between a translation and a
+     * whole number of pixels for which the same tile rendering is used.
+     */
+    private static final double PIXEL_EPSILON = 1e-3;
 
     /**
      * Constructs a new <code>PatternPaint</code>.
@@ -162,33 +185,65 @@ public class PatternPaint implements Paint {
             xform.concatenate(patternTransform);
         }
 
-        if ((lastContext!= null) &&
-            lastContext.getColorModel().equals(cm)) {
-
-            double[] p = new double[6];
-            double[] q = new double[6];
-            xform.getMatrix(p);
-            lastContext.getUsr2Dev().getMatrix(q);
-            if ((p[0] == q[0]) && (p[1] == q[1]) &&
-                (p[2] == q[2]) && (p[3] == q[3])) {
-                if ((p[4] == q[4]) && (p[5] == q[5]))
-                    return lastContext;
-                else
-                    return new PatternPaintContextWrapper
-                        (lastContext,
-                         (int)(q[4]-p[4]+0.5),
-                         (int)(q[5]-p[5]+0.5));
+        double[] p = new double[6];
+        double[] q = new double[6];
+        xform.getMatrix(p);
+        synchronized (contexts) {
+            Iterator it = contexts.iterator();
+            while (it.hasNext()) {
+                CachedContext cc = (CachedContext)it.next();
+                if (!cc.colorModel.equals(cm)) {
+                    continue;
+                }
+                cc.context.getUsr2Dev().getMatrix(q);
+                double dx = q[4] - p[4];
+                double dy = q[5] - p[5];
+                int xShift = (int)Math.floor(dx + 0.5);
+                int yShift = (int)Math.floor(dy + 0.5);
+                if ((Math.abs(p[0] - q[0]) <= EPSILON) &&
+                    (Math.abs(p[1] - q[1]) <= EPSILON) &&
+                    (Math.abs(p[2] - q[2]) <= EPSILON) &&
+                    (Math.abs(p[3] - q[3]) <= EPSILON) &&
+                    (Math.abs(dx - xShift) <= PIXEL_EPSILON) &&
+                    (Math.abs(dy - yShift) <= PIXEL_EPSILON)) {
+                    // The tile is only moved by whole pixels.
+                    if (cc != contexts.getFirst()) {
+                        it.remove();
+                        contexts.addFirst(cc);
+                    }
+                    if ((xShift == 0) && (yShift == 0))
+                        return cc.context;
+                    else
+                        return new PatternPaintContextWrapper
+                            (cc.context, xShift, yShift);
+                }
             }
         }
         // System.out.println("CreateContext Called: " + this);
         // System.out.println("CM : " + cm);
         // System.out.println("xForm : " + xform);
 
-        lastContext = new PatternPaintContext(cm, xform,
-                                       hints, tile,
-                                       patternRegion,
-                                       overflow);
-        return lastContext;
+        PatternPaintContext ppc = new PatternPaintContext(cm, xform,
+                                                          hints, tile,
+                                                          patternRegion,
+                                                          overflow);
+        synchronized (contexts) {
+            contexts.addFirst(new CachedContext(cm, ppc));
+            if (contexts.size() > MAX_CONTEXTS) {
+                contexts.removeLast();
+            }
+        }
+        return ppc;
+    }
+
+    /**
+     * Discards the renderings of the tile, so that the next painting
+     * renders the pattern content again.
+     */
+    public void clearCache() {
+        synchronized (contexts) {
+            contexts.clear();
+        }
     }
 
     /**
@@ -198,6 +253,18 @@ public class PatternPaint implements Paint {
         return TRANSLUCENT;
     }
 
+    /**
+     * A context with the color model it was created for.
+     */
+    static class CachedContext {
+        ColorModel colorModel;
+        PatternPaintContext context;
+        CachedContext(ColorModel colorModel, PatternPaintContext context) {
+            this.colorModel = colorModel;
+            this.context = context;
+        }
+    }
+
     static class PatternPaintContextWrapper implements PaintContext {
         PatternPaintContext ppc;
         int xShift, yShift;
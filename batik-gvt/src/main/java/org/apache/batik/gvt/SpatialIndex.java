@@ -0,0 +1,178 @@
+/*
+
+   Licensed to the Apache Software Foundation (ASF) under one or more
+   contributor license agreements.  See the NOTICE file distributed with
+   this work for additional information regarding copyright ownership.
+   The ASF licenses this file to You under the Apache License, Version 2.0
+   (the "License"); you may not use this file except in compliance with
+   the License.  You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+ */
+package org.apache.batik.gvt;
+
+import java.awt.geom.Rectangle2D;
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * A static R-tree over the bounds of the children of a
+ * <code>CompositeGraphicsNode</code>, used to find the children that
+ * overlap a rectangle or a point without visiting all of them.
+ *
+ * The tree is bulk loaded with the Sort-Tile-Recursive method: the
+ * boxes are sorted into vertical slices by their x center, each slice
+ * is sorted by y center and consecutive runs of <code>FANOUT</code>
+ * boxes become the leaves.  Upper levels group consecutive nodes.
+ * The tree is immutable; it is rebuilt when the children change.
+ *
+ * @version $Id$
+ */
+final class SpatialIndex {
+
+    /**
+     * Maximum number of entries per tree node.
+     */
+    static final int FANOUT = 16;
+
+    /**
+     * Child indices, in leaf order.
+     */
+    private final int[] ids;
+
+    /**
+     * Boxes of each level as (x0, y0, x1, y1) quadruples.  Level 0
+     * holds the entries, the last level at most FANOUT nodes.
+     */
+    private final double[][] levels;
+
+    /**
+     * Builds an index over <code>bounds</code>.  Null entries are
+     * left out of the index and never returned by queries.
+     */
+    SpatialIndex(Rectangle2D[] bounds, int n) {
+        int m = 0;
+        for (int i = 0; i < n; i++)
+            if (bounds[i] != null) m++;
+
+        final double[] cx = new double[n];
+        final double[] cy = new double[n];
+        Integer[] order = new Integer[m];
+        m = 0;
+        for (int i = 0; i < n; i++) {
+            Rectangle2D r = bounds[i];
+            if (r == null) continue;
+            cx[i] = r.getCenterX();
+            cy[i] = r.getCenterY();
+            order[m++] = Integer.valueOf(i);
+        }
+
+        // Sort-Tile-Recursive ordering of the entries.
+        Arrays.sort(order, new Comparator() {
+                public int compare(Object a, Object b) {
+                    return Double.compare(cx[((Integer)a).intValue()],
+                                          cx[((Integer)b).intValue()]);
+                }
+            });
+        int nLeaves = (m + FANOUT - 1) / FANOUT;
+        int nSlices = (int)Math.ceil(Math.sqrt(nLeaves));
+        int sliceSize = (nSlices == 0) ? 0
+            : ((nLeaves + nSlices - 1) / nSlices) * FANOUT;
+        Comparator byY = new Comparator() {
+                public int compare(Object a, Object b) {
+                    return Double.compare(cy[((Integer)a).intValue()],
+                                          cy[((Integer)b).intValue()]);
+                }
+            };
+        for (int s = 0; s < m; s += sliceSize)
+            Arrays.sort(order, s, Math.min(s + sliceSize, m), byY);
+
+        ids = new int[m];
+        double[] lvl = new double[m * 4];
+        for (int i = 0; i < m; i++) {
+            int id = order[i].intValue();
+            Rectangle2D r = bounds[id];
+            ids[i] = id;
+            lvl[i*4  ] = r.getMinX();
+            lvl[i*4+1] = r.getMinY();
+            lvl[i*4+2] = r.getMaxX();
+            lvl[i*4+3] = r.getMaxY();
+        }
+
+        int nLevels = 1;
+        for (int k = m; k > FANOUT; k = (k + FANOUT - 1) / FANOUT)
+            nLevels++;
+        levels = new double[nLevels][];
+        levels[0] = lvl;
+        for (int l = 1; l < nLevels; l++) {
+            double[] prev = levels[l-1];
+            int pn = prev.length / 4;
+            int cn = (pn + FANOUT - 1) / FANOUT;
+            double[] cur = new double[cn * 4];
+            for (int c = 0; c < cn; c++) {
+                double x0 = Double.POSITIVE_INFINITY;
+                double y0 = Double.POSITIVE_INFINITY;
+                double x1 = Double.NEGATIVE_INFINITY;
+                double y1 = Double.NEGATIVE_INFINITY;
+                int end = Math.min((c + 1) * FANOUT, pn);
+                for (int p = c * FANOUT; p < end; p++) {
+                    x0 = Math.min(x0, prev[p*4  ]);
+                    y0 = Math.min(y0, prev[p*4+1]);
+                    x1 = Math.max(x1, prev[p*4+2]);
+                    y1 = Math.max(y1, prev[p*4+3]);
+                }
+                cur[c*4  ] = x0;
+                cur[c*4+1] = y0;
+                cur[c*4+2] = x1;
+                cur[c*4+3] = y1;
+            }
+            levels[l] = cur;
+        }
+    }
+
+    /**
+     * Returns, in increasing order, the indices of the entries whose
+     * box intersects the given rectangle.  Boxes are closed, so
+     * touching counts as intersecting.
+     */
+    int[] query(double x0, double y0, double x1, double y1) {
+        int[] res = new int[16];
+        int top = levels.length - 1;
+        int n = levels[top].length / 4;
+        int[] cnt = new int[1];
+        for (int i = 0; i < n; i++)
+            res = search(top, i, x0, y0, x1, y1, res, cnt);
+        int[] ret = new int[cnt[0]];
+        System.arraycopy(res, 0, ret, 0, cnt[0]);
+        Arrays.sort(ret);
+        return ret;
+    }
+
+    private int[] search(int l, int i, double x0, double y0,
+                         double x1, double y1, int[] res, int[] cnt) {
+        double[] b = levels[l];
+        if ((b[i*4] > x1) || (b[i*4+2] < x0) ||
+            (b[i*4+1] > y1) || (b[i*4+3] < y0))
+            return res;
+        if (l == 0) {
+            if (cnt[0] == res.length) {
+                int[] t = new int[res.length * 2];
+                System.arraycopy(res, 0, t, 0, res.length);
+                res = t;
+            }
+            res[cnt[0]++] = ids[i];
+            return res;
+        }
+        int end = Math.min((i + 1) * FANOUT, levels[l-1].length / 4);
+        for (int c = i * FANOUT; c < end; c++)
+            res = search(l-1, c, x0, y0, x1, y1, res, cnt);
+        return res;
+    }
+}
@@ -0,0 +1,823 @@
+/*
+
+   Licensed to the Apache Software Foundation (ASF) under one or more
+   contributor license agreements.  See the NOTICE file distributed with
+   this work for additional information regarding copyright ownership.
+   The ASF licenses this file to You under the Apache License, Version 2.0
+   (the "License"); you may not use this file except in compliance with
+   the License.  You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+ */
+package org.apache.batik.gvt.renderer;
+
+import java.awt.AlphaComposite;
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.RenderingHints;
+import java.awt.Shape;
+import java.awt.geom.AffineTransform;
+import java.awt.geom.NoninvertibleTransformException;
+import java.awt.geom.Rectangle2D;
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.batik.ext.awt.image.GraphicsUtil;
+import org.apache.batik.gvt.GraphicsNode;
+
+/**
+ * Renders a GVT tree as fixed size tiles, one grid of tiles per zoom
+ * level, and keeps the tiles in a cache bounded in bytes.
+ *
+ * A zoom level is identified by the scale, rotation and shear part of
+ * the user to device transform.  The translation is rounded to whole
+ * pixels, as <code>StaticRenderer</code> does, so panning reuses the
+ * tiles already rendered.
+ *
+ * {@link #paint} draws the tiles available for a view and queues the
+ * missing ones for a background thread.  Until they are ready, the
+ * area is covered with cached tiles from the other levels, scaled
+ * from the nearest zoom level.  Listeners are notified each time a
+ * tile is added so the view can be repainted progressively.
+ * {@link #render} renders a view synchronously and can be used
+ * without a display.
+ *
+ * Painting a GVT tree is not thread safe, so every access to the tree
+ * made by this object is serialized.  The tree must not be modified
+ * while it is attached to a pyramid other than through {@link #flush}.
+ *
+ * @version $Id$
+ */
+public class TilePyramid {
+
+    /**
+     * The default width and height of the tiles.
+     */
+    public static final int DEFAULT_TILE_SIZE = 256;
+
+    /**
+     * The default maximum number of bytes held by the tile cache.
+     */
+    public static final long DEFAULT_CACHE_SIZE = 64L * 1024 * 1024;
+
+    /**
+     * Interface for objects notified of the tiles rendered in the
+     * background.
+     */
+    public interface Listener {
+
+        /**
+         * Called from the rendering thread each time a tile has been
+         * added to the cache.
+         */
+        void tileRendered(TilePyramid src);
+
+        /**
+         * Called from the rendering thread when rendering a tile
+         * failed.  The tile is left out of the cache.
+         * @param t the throwable thrown while rendering the tile.
+         */
+        void tileFailed(TilePyramid src, Throwable t);
+    }
+
+    /**
+     * The tree to render.
+     */
+    protected GraphicsNode rootGN;
+
+    /**
+     * The hints used to render the tiles.
+     */
+    protected RenderingHints renderingHints;
+
+    /**
+     * The width and height of the tiles.
+     */
+    protected int tileSize;
+
+    /**
+     * Serializes the accesses to the tree.
+     */
+    protected final Object treeLock = new Object();
+
+    /**
+     * The bounds of the tree, or null if they need to be computed.
+     */
+    private volatile Rectangle2D rootBounds;
+
+    /**
+     * The cached tiles (TileKey to BufferedImage), in access order.
+     */
+    private final LinkedHashMap tiles = new LinkedHashMap(64, 0.75f, true);
+
+    /**
+     * The zoom levels which have cached tiles.
+     */
+    private final Map levels = new HashMap();
+
+    /**
+     * The tiles waiting to be rendered, most wanted first.
+     */
+    private final LinkedList pending = new LinkedList();
+
+    /**
+     * The view last requested, whose tiles are not evicted.
+     */
+    private View requested;
+
+    private long maxCacheSize = DEFAULT_CACHE_SIZE;
+    private long cacheSize;
+
+    /**
+     * Incremented when tiles are flushed, so tiles being rendered at
+     * that time are dropped.
+     */
+    private int generation;
+
+    private Thread worker;
+    private boolean disposed;
+
+    private final List listeners = Collections.synchronizedList
+        (new LinkedList());
+
+    /**
+     * Creates a pyramid rendering <code>root</code> with the default
+     * rendering hints and tile size.
+     */
+    public TilePyramid(GraphicsNode root) {
+        this(root, StaticRenderer.defaultRenderingHints, DEFAULT_TILE_SIZE);
+    }
+
+    /**
+     * Creates a pyramid.
+     * @param root the tree to render.
+     * @param rh the hints used to render the tiles.
+     * @param tileSize the width and height of the tiles.
+     */
+    public TilePyramid(GraphicsNode root, RenderingHints rh, int tileSize) {
+        rootGN = root;
+        renderingHints = new RenderingHints(null);
+        if (rh != null)
+            renderingHints.add(rh);
+        this.tileSize = tileSize;
+    }
+
+    /**
+     * Returns the tree rendered by this pyramid.
+     */
+    public GraphicsNode getTree() {
+        return rootGN;
+    }
+
+    /**
+     * Returns the width and height of the tiles.
+     */
+    public int getTileSize() {
+        return tileSize;
+    }
+
+    /**
+     * Returns the maximum number of bytes held by the tile cache.
+     */
+    public synchronized long getMaxCacheSize() {
+        return maxCacheSize;
+    }
+
+    /**
+     * Sets the maximum number of bytes held by the tile cache.  The
+     * tiles of the last requested view are kept even if they do not
+     * fit.
+     */
+    public synchronized void setMaxCacheSize(long n) {
+        maxCacheSize = n;
+        evict();
+    }
+
+    /**
+     * Returns the number of bytes currently held by the tile cache.
+     */
+    public synchronized long getCacheSize() {
+        return cacheSize;
+    }
+
+    /**
+     * Returns the number of tiles waiting to be rendered.
+     */
+    public synchronized int getPendingCount() {
+        return pending.size();
+    }
+
+    public void addListener(Listener l) {
+        listeners.add(l);
+    }
+
+    public void removeListener(Listener l) {
+        listeners.remove(l);
+    }
+
+    /**
+     * Paints the area <code>area</code> of the view given by
+     * <code>usr2dev</code>, in the device space of <code>g</code>.
+     * Missing tiles are replaced by those of other zoom levels and,
+     * if <code>request</code> is true, queued for rendering in place
+     * of any previously queued tile.
+     * @return true if the area was painted with the exact tiles.
+     */
+    public boolean paint(Graphics2D g, AffineTransform usr2dev,
+                         Rectangle area, boolean request) {
+        Rectangle2D rb = getRootBounds();
+        View v = createView(usr2dev, area);
+        if (v == null)
+            return true;
+
+        List exact = new ArrayList();
+        List missing = new ArrayList();
+        List fallback = null;
+        synchronized (this) {
+            collect(v, rb, exact, missing);
+            if (!missing.isEmpty())
+                fallback = collectFallback(v, usr2dev, area);
+            if (request)
+                queue(v, missing);
+        }
+
+        Graphics2D g2d = (Graphics2D)g.create();
+        g2d.clip(area);
+        if (fallback != null) {
+            Graphics2D fg = (Graphics2D)g2d.create();
+            fg.setRenderingHint(RenderingHints.KEY_INTERPOLATION,
+                                RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+            for (Object o : fallback) {
+                Object[] lt = (Object[])o;
+                Level l = (Level)lt[0];
+                AffineTransform at = new AffineTransform(usr2dev);
+                at.concatenate(l.inverse);
+                Graphics2D lg = (Graphics2D)fg.create();
+                lg.transform(at);
+                List ts = (List)lt[1];
+                for (Object o2 : ts) {
+                    Object[] t = (Object[])o2;
+                    TileKey k = (TileKey)t[0];
+                    lg.drawImage((BufferedImage)t[1],
+                            k.col * tileSize, k.row * tileSize, null);
+                }
+                lg.dispose();
+            }
+            fg.dispose();
+        }
+        for (Object o : exact) {
+            Object[] t = (Object[])o;
+            TileKey k = (TileKey)t[0];
+            g2d.drawImage((BufferedImage)t[1],
+                    v.tx + k.col * tileSize,
+                    v.ty + k.row * tileSize, null);
+        }
+        g2d.dispose();
+        return missing.isEmpty();
+    }
+
+    /**
+     * Queues the tiles of the given view that are not in the cache,
+     * in place of any previously queued tile.
+     * @return true if all the tiles of the view are available.
+     */
+    public boolean requestTiles(AffineTransform usr2dev, Rectangle area) {
+        Rectangle2D rb = getRootBounds();
+        View v = createView(usr2dev, area);
+        if (v == null)
+            return true;
+        List missing = new ArrayList();
+        synchronized (this) {
+            collect(v, rb, null, missing);
+            queue(v, missing);
+        }
+        return missing.isEmpty();
+    }
+
+    /**
+     * Tells whether all the tiles of the given view are available.
+     */
+    public boolean isComplete(AffineTransform usr2dev, Rectangle area) {
+        Rectangle2D rb = getRootBounds();
+        View v = createView(usr2dev, area);
+        if (v == null)
+            return true;
+        List missing = new ArrayList();
+        synchronized (this) {
+            collect(v, rb, null, missing);
+        }
+        return missing.isEmpty();
+    }
+
+    /**
+     * Renders a <code>width</code> by <code>height</code> view on the
+     * calling thread, using and filling the tile cache.
+     */
+    public BufferedImage render(AffineTransform usr2dev,
+                                int width, int height) {
+        BufferedImage ret = new BufferedImage
+            (width, height, BufferedImage.TYPE_INT_ARGB_PRE);
+        Rectangle area = new Rectangle(0, 0, width, height);
+        Rectangle2D rb = getRootBounds();
+        View v = createView(usr2dev, area);
+        if (v == null)
+            return ret;
+
+        List exact = new ArrayList();
+        List missing = new ArrayList();
+        int gen;
+        synchronized (this) {
+            collect(v, rb, exact, missing);
+            requested = v;
+            gen = generation;
+        }
+
+        Graphics2D g = ret.createGraphics();
+        g.setComposite(AlphaComposite.Src);
+        for (Object o : exact) {
+            Object[] t = (Object[])o;
+            TileKey k = (TileKey)t[0];
+            g.drawImage((BufferedImage)t[1],
+                    v.tx + k.col * tileSize,
+                    v.ty + k.row * tileSize, null);
+        }
+        for (Object o : missing) {
+            TileKey k = (TileKey)o;
+            BufferedImage bi = renderTile(k.level.transform,
+                                          k.col * tileSize,
+                                          k.row * tileSize);
+            synchronized (this) {
+                if (gen == generation && !disposed)
+                    store(k, bi);
+            }
+            g.drawImage(bi, v.tx + k.col * tileSize,
+                    v.ty + k.row * tileSize, null);
+        }
+        g.dispose();
+        return ret;
+    }
+
+    /**
+     * Removes all the tiles from the cache.  Must be called when the
+     * tree has changed.  Does not wait for the tile being rendered,
+     * which is dropped.
+     */
+    public void flush() {
+        synchronized (this) {
+            rootBounds = null;
+            tiles.clear();
+            levels.clear();
+            cacheSize = 0;
+            generation++;
+        }
+    }
+
+    /**
+     * Removes the tiles covering <code>area</code>, in user space,
+     * from the cache.  Must be called when the tree has changed under
+     * that area.  Does not wait for the tile being rendered, which is
+     * dropped.
+     */
+    public void flush(Shape area) {
+        synchronized (this) {
+            rootBounds = null;
+            Iterator it = tiles.keySet().iterator();
+            while (it.hasNext()) {
+                TileKey k = (TileKey)it.next();
+                Rectangle2D r = k.level.transform.createTransformedShape
+                    (area).getBounds2D();
+                // Anti-aliasing may touch the pixels around the area.
+                if (r.intersects(k.col * tileSize - 1, k.row * tileSize - 1,
+                                 tileSize + 2, tileSize + 2)) {
+                    it.remove();
+                    removed(k);
+                }
+            }
+            for (Object o : levels.values()) {
+                ((Level)o).bounds = null;
+            }
+            generation++;
+        }
+    }
+
+    /**
+     * Discards the tiles waiting to be rendered.
+     */
+    public synchronized void cancel() {
+        pending.clear();
+    }
+
+    /**
+     * Stops the rendering thread and releases the cached tiles.
+     */
+    public void dispose() {
+        synchronized (this) {
+            disposed = true;
+            pending.clear();
+            tiles.clear();
+            levels.clear();
+            cacheSize = 0;
+            requested = null;
+            notifyAll();
+        }
+        listeners.clear();
+    }
+
+    /**
+     * Returns the bounds of the tree, computing them if needed.
+     */
+    protected Rectangle2D getRootBounds() {
+        Rectangle2D rb = rootBounds;
+        if (rb != null)
+            return rb;
+        int gen;
+        synchronized (this) {
+            gen = generation;
+        }
+        synchronized (treeLock) {
+            rb = rootBounds;
+            if (rb != null)
+                return rb;
+            rb = rootGN.getBounds();
+        }
+        if (rb == null)
+            rb = new Rectangle2D.Double();
+        synchronized (this) {
+            // Bounds computed before a flush may be out of date.
+            if (gen == generation)
+                rootBounds = rb;
+        }
+        return rb;
+    }
+
+    /**
+     * Renders one tile.
+     * @param level the transform of the tile's zoom level, without
+     *        translation.
+     * @param x the left edge of the tile in the level's space.
+     * @param y the top edge of the tile in the level's space.
+     */
+    protected BufferedImage renderTile(AffineTransform level, int x, int y) {
+        BufferedImage bi = new BufferedImage
+            (tileSize, tileSize, BufferedImage.TYPE_INT_ARGB_PRE);
+        Graphics2D g = GraphicsUtil.createGraphics(bi, renderingHints);
+        g.translate(-x, -y);
+        g.transform(level);
+        synchronized (treeLock) {
+            rootGN.paint(g);
+        }
+        g.dispose();
+        return bi;
+    }
+
+    /**
+     * Returns the view of the given area, or null if nothing can be
+     * displayed with this transform.
+     */
+    private View createView(AffineTransform usr2dev, Rectangle area) {
+        if (area.isEmpty())
+            return null;
+        Level l = new Level(usr2dev);
+        if (l.inverse == null)
+            return null;
+        View v = new View();
+        v.level = l;
+        v.tx = Math.round((float)usr2dev.getTranslateX());
+        v.ty = Math.round((float)usr2dev.getTranslateY());
+        v.col0 = floorDiv(area.x - v.tx, tileSize);
+        v.row0 = floorDiv(area.y - v.ty, tileSize);
+        v.col1 = floorDiv(area.x + area.width  - 1 - v.tx, tileSize);
+        v.row1 = floorDiv(area.y + area.height - 1 - v.ty, tileSize);
+        return v;
+    }
+
+    private static int floorDiv(int a, int b) {
+        return (a >= 0) ? a / b : -((-a + b - 1) / b);
+    }
+
+    /**
+     * Sorts the non empty tiles of a view into the cached ones
+     * (TileKey, BufferedImage pairs added to <code>exact</code>) and
+     * the missing ones (TileKeys added to <code>missing</code>).
+     */
+    private void collect(View v, Rectangle2D rb, List exact, List missing) {
+        Level l = (Level)levels.get(v.level);
+        if (l == null)
+            l = v.level;
+        v.level = l;
+        if (l.bounds == null || l.boundsFor != rb) {
+            Rectangle2D b = l.transform.createTransformedShape(rb)
+                .getBounds2D();
+            l.bounds = new Rectangle2D.Double(b.getX() - 1, b.getY() - 1,
+                                              b.getWidth() + 2,
+                                              b.getHeight() + 2);
+            l.boundsFor = rb;
+        }
+        if (rb.isEmpty())
+            return;
+        for (int row = v.row0; row <= v.row1; row++) {
+            for (int col = v.col0; col <= v.col1; col++) {
+                if (!l.bounds.intersects(col * tileSize, row * tileSize,
+                                         tileSize, tileSize))
+                    continue;
+                TileKey k = new TileKey(l, col, row);
+                Object bi = tiles.get(k);
+                if (bi != null) {
+                    if (exact != null)
+                        exact.add(new Object[] { k, bi });
+                } else {
+                    missing.add(k);
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the cached tiles of the other levels covering the area,
+     * as (Level, List of (TileKey, BufferedImage)) pairs with the
+     * level nearest in scale last.
+     */
+    private List collectFallback(View v, AffineTransform usr2dev,
+                                 Rectangle area) {
+        Map byLevel = new HashMap();
+        for (Object o : tiles.entrySet()) {
+            Map.Entry e = (Map.Entry)o;
+            TileKey k = (TileKey)e.getKey();
+            if (k.level.equals(v.level))
+                continue;
+            AffineTransform at = new AffineTransform(usr2dev);
+            at.concatenate(k.level.inverse);
+            Rectangle2D r = at.createTransformedShape
+                    (new Rectangle(k.col * tileSize, k.row * tileSize,
+                            tileSize, tileSize)).getBounds2D();
+            if (!r.intersects(area))
+                continue;
+            List l = (List)byLevel.get(k.level);
+            if (l == null) {
+                l = new ArrayList();
+                byLevel.put(k.level, l);
+            }
+            l.add(new Object[]{k, e.getValue()});
+        }
+        if (byLevel.isEmpty())
+            return null;
+
+        List ret = new ArrayList();
+        for (Object o : byLevel.entrySet()) {
+            Map.Entry e = (Map.Entry)o;
+            ret.add(new Object[]{e.getKey(), e.getValue()});
+        }
+        final double s = v.level.scale;
+        Collections.sort(ret, new Comparator() {
+                public int compare(Object o1, Object o2) {
+                    double d1 = scaleDistance(((Level)((Object[])o1)[0]), s);
+                    double d2 = scaleDistance(((Level)((Object[])o2)[0]), s);
+                    return (d1 > d2) ? -1 : (d1 < d2) ? 1 : 0;
+                }
+            });
+        return ret;
+    }
+
+    private static double scaleDistance(Level l, double s) {
+        return Math.abs(Math.log(l.scale / s));
+    }
+
+    /**
+     * Replaces the queued tiles with <code>missing</code>, the tiles
+     * nearest the center of the view first.
+     */
+    private void queue(View v, List missing) {
+        requested = v;
+        pending.clear();
+        if (missing.isEmpty())
+            return;
+        final double cx = (v.col0 + v.col1) / 2.0;
+        final double cy = (v.row0 + v.row1) / 2.0;
+        Collections.sort(missing, new Comparator() {
+                public int compare(Object o1, Object o2) {
+                    TileKey k1 = (TileKey)o1;
+                    TileKey k2 = (TileKey)o2;
+                    double d1 = (k1.col - cx) * (k1.col - cx)
+                        + (k1.row - cy) * (k1.row - cy);
+                    double d2 = (k2.col - cx) * (k2.col - cx)
+                        + (k2.row - cy) * (k2.row - cy);
+                    return (d1 < d2) ? -1 : (d1 > d2) ? 1 : 0;
+                }
+            });
+        pending.addAll(missing);
+        if (worker == null && !disposed) {
+            worker = new Thread(new Runnable() {
+                    public void run() {
+                        renderPending();
+                    }
+                }, "Batik Tile Renderer");
+            worker.setDaemon(true);
+            worker.setPriority(Thread.MIN_PRIORITY);
+            worker.start();
+        }
+        notifyAll();
+    }
+
+    /**
+     * The rendering thread loop.
+     */
+    private void renderPending() {
+        while (true) {
+            TileKey k;
+            int gen;
+            synchronized (this) {
+                while (!disposed && pending.isEmpty()) {
+                    try {
+                        wait();
+                    } catch (InterruptedException ie) {
+                        worker = null;
+                        return;
+                    }
+                }
+                if (disposed) {
+                    worker = null;
+                    return;
+                }
+                k = (TileKey)pending.removeFirst();
+                if (tiles.containsKey(k))
+                    continue;
+                gen = generation;
+            }
+
+            BufferedImage bi;
+            try {
+                bi = renderTile(k.level.transform, k.col * tileSize,
+                                k.row * tileSize);
+            } catch (ThreadDeath td) {
+                throw td;
+            } catch (Throwable t) {
+                Object[] ll = listeners.toArray();
+                for (Object l : ll) {
+                    ((Listener)l).tileFailed(this, t);
+                }
+                continue;
+            }
+
+            synchronized (this) {
+                if (disposed || gen != generation)
+                    continue;
+                store(k, bi);
+            }
+            Object[] ll = listeners.toArray();
+            for (Object l : ll) {
+                ((Listener)l).tileRendered(this);
+            }
+        }
+    }
+
+    /**
+     * Adds a tile to the cache.
+     */
+    private void store(TileKey k, BufferedImage bi) {
+        Level l = (Level)levels.get(k.level);
+        if (l == null) {
+            l = k.level;
+            levels.put(l, l);
+        }
+        k = new TileKey(l, k.col, k.row);
+        if (tiles.put(k, bi) == null) {
+            l.count++;
+            cacheSize += tileBytes();
+        }
+        evict();
+    }
+
+    /**
+     * Removes the least recently used tiles until the cache fits in
+     * its maximum size.  The tiles of the last requested view are
+     * kept.
+     */
+    private void evict() {
+        if (cacheSize <= maxCacheSize)
+            return;
+        Iterator it = tiles.keySet().iterator();
+        while (cacheSize > maxCacheSize && it.hasNext()) {
+            TileKey k = (TileKey)it.next();
+            if (requested != null && requested.contains(k))
+                continue;
+            it.remove();
+            removed(k);
+        }
+    }
+
+    /**
+     * Updates the accounting for a tile removed from the cache.
+     */
+    private void removed(TileKey k) {
+        cacheSize -= tileBytes();
+        Level l = (Level)levels.get(k.level);
+        if (l != null && --l.count <= 0)
+            levels.remove(l);
+    }
+
+    private long tileBytes() {
+        return 4L * tileSize * tileSize;
+    }
+
+    /**
+     * A zoom level: the linear part of a user to device transform.
+     */
+    static final class Level {
+        final AffineTransform transform;
+        final AffineTransform inverse;
+        final double scale;
+        final int hash;
+
+        /**
+         * The tree bounds in this level's space, padded by a pixel.
+         */
+        Rectangle2D bounds;
+        Rectangle2D boundsFor;
+
+        /**
+         * The number of cached tiles of this level.
+         */
+        int count;
+
+        Level(AffineTransform at) {
+            transform = new AffineTransform(at.getScaleX(), at.getShearY(),
+                                            at.getShearX(), at.getScaleY(),
+                                            0, 0);
+            AffineTransform inv;
+            try {
+                inv = transform.createInverse();
+            } catch (NoninvertibleTransformException e) {
+                inv = null;
+            }
+            inverse = inv;
+            scale = Math.sqrt(Math.abs(transform.getDeterminant()));
+            hash = transform.hashCode();
+        }
+
+        public int hashCode() {
+            return hash;
+        }
+
+        public boolean equals(Object o) {
+            return (o instanceof Level)
+                && ((Level)o).transform.equals(transform);
+        }
+    }
+
+    /**
+     * Identifies a tile: its level and its column and row in the
+     * level's tile grid.
+     */
+    static final class TileKey {
+        final Level level;
+        final int col;
+        final int row;
+
+        TileKey(Level level, int col, int row) {
+            this.level = level;
+            this.col = col;
+            this.row = row;
+        }
+
+        public int hashCode() {
+            return level.hash ^ (col * 31 + row * 65521);
+        }
+
+        public boolean equals(Object o) {
+            if (!(o instanceof TileKey))
+                return false;
+            TileKey k = (TileKey)o;
+            return col == k.col && row == k.row && level.equals(k.level);
+        }
+    }
+
+    /**
+     * The tiles covering an area of a view.
+     */
+    static final class View {
+        Level level;
+        int tx, ty;
+        int col0, row0, col1, row1;
+
+        boolean contains(TileKey k) {
+            return k.col >= col0 && k.col <= col1
+                && k.row >= row0 && k.row <= row1
+                && k.level.equals(level);
+        }
+    }
+}
@@ -0,0 +1,183 @@
+/*
+
+   Licensed to the Apache Software Foundation (ASF) under one or more
+   contributor license agreements.  See the NOTICE file distributed with
+   this work for additional information regarding copyright ownership.
+   The ASF licenses this file to You under the Apache License, Version 2.0
+   (the "License"); you may not use this file except in compliance with
+   the License.  You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+ */
+package org.apache.batik.gvt.snapshot;
+
+import java.awt.RenderingHints;
+
+/**
+ * The constants of the GVT snapshot format written by
+ * {@link GVTSnapshotWriter} and read by {@link GVTSnapshotReader}.
+ *
+ * <p>A snapshot starts with {@link #MAGIC} and {@link #VERSION}, followed
+ * by the deflated description of the tree.  Each object is introduced by
+ * one of the tags below.  Nodes, paints other than colors, markers and
+ * filters can be shared: once one has been written, only a {@link #REF}
+ * to it is written, with its index in the order the shared objects were
+ * written.  A node counts as written as soon as its tag is, anything
+ * else once all of it is.</p>
+ *
+ * @version $Id$
+ */
+public interface GVTSnapshotConstants {
+
+    /**
+     * The first four bytes of a snapshot: "GVTS".
+     */
+    int MAGIC = 0x47565453;
+
+    /**
+     * The version of the format.
+     */
+    short VERSION = 1;
+
+    // Common tags /////////////////////////////////////////////////////
+
+    byte NULL = 0;
+    byte REF  = 1;
+
+    // Graphics nodes //////////////////////////////////////////////////
+
+    byte NODE_COMPOSITE = 10;
+    byte NODE_ROOT      = 11;
+    byte NODE_CANVAS    = 12;
+    byte NODE_IMAGE     = 13;
+    byte NODE_SHAPE     = 14;
+    byte NODE_RASTER    = 15;
+    byte NODE_PROXY     = 16;
+
+    // Shapes //////////////////////////////////////////////////////////
+
+    byte SHAPE_RECTANGLE       = 20;
+    byte SHAPE_PATH            = 21;
+    byte SHAPE_DOUBLE_PATH     = 22;
+    byte SHAPE_EXTENDED_PATH   = 23;
+    byte SHAPE_LINE            = 24;
+    byte SHAPE_ELLIPSE         = 25;
+    byte SHAPE_ROUND_RECTANGLE = 26;
+
+    /**
+     * The segment types of paths are those of
+     * <code>java.awt.geom.PathIterator</code>, plus these.
+     */
+    byte SEGMENT_ARCTO = 5;
+    byte SEGMENT_END   = -1;
+
+    // Shape painters //////////////////////////////////////////////////
+
+    byte PAINTER_FILL      = 30;
+    byte PAINTER_STROKE    = 31;
+    byte PAINTER_MARKER    = 32;
+    byte PAINTER_COMPOSITE = 33;
+    byte MARKER            = 34;
+
+    // Paints, strokes and composites //////////////////////////////////
+
+    byte PAINT_COLOR           = 40;
+    byte PAINT_LINEAR_GRADIENT = 41;
+    byte PAINT_RADIAL_GRADIENT = 42;
+    byte PAINT_PATTERN         = 43;
+    byte STROKE_BASIC          = 44;
+    byte COMPOSITE_ALPHA       = 45;
+
+    // Filters /////////////////////////////////////////////////////////
+
+    byte FILTER_GRAPHICS_NODE      = 50;
+    byte FILTER_PAD                = 51;
+    byte FILTER_CHAIN              = 52;
+    byte FILTER_AFFINE             = 53;
+    byte FILTER_GAUSSIAN_BLUR      = 54;
+    byte FILTER_COMPOSITE          = 55;
+    byte FILTER_FLOOD              = 56;
+    byte FILTER_COLOR_MATRIX       = 57;
+    byte FILTER_ALPHA              = 58;
+    byte FILTER_AS_ALPHA           = 59;
+    byte FILTER_COMPONENT_TRANSFER = 60;
+    byte FILTER_MORPHOLOGY         = 61;
+    byte FILTER_TILE               = 62;
+    byte FILTER_TURBULENCE         = 63;
+    byte FILTER_DISPLACEMENT_MAP   = 64;
+    byte FILTER_CONVOLVE_MATRIX    = 65;
+    byte FILTER_DIFFUSE_LIGHTING   = 66;
+    byte FILTER_SPECULAR_LIGHTING  = 67;
+    byte FILTER_RASTER             = 68;
+    byte FILTER_CLIP               = 69;
+
+    // Lights //////////////////////////////////////////////////////////
+
+    byte LIGHT_DISTANT = 70;
+    byte LIGHT_POINT   = 71;
+    byte LIGHT_SPOT    = 72;
+
+    // Rendering hints /////////////////////////////////////////////////
+
+    /**
+     * The rendering hints a snapshot can hold, written as their index
+     * in this array.
+     */
+    RenderingHints.Key[] HINT_KEYS = {
+        RenderingHints.KEY_ANTIALIASING,
+        RenderingHints.KEY_RENDERING,
+        RenderingHints.KEY_DITHERING,
+        RenderingHints.KEY_TEXT_ANTIALIASING,
+        RenderingHints.KEY_FRACTIONALMETRICS,
+        RenderingHints.KEY_INTERPOLATION,
+        RenderingHints.KEY_ALPHA_INTERPOLATION,
+        RenderingHints.KEY_COLOR_RENDERING,
+        RenderingHints.KEY_STROKE_CONTROL,
+    };
+
+    /**
+     * The values of each of the {@link #HINT_KEYS}, written as their
+     * index in this array.
+     */
+    Object[][] HINT_VALUES = {
+        { RenderingHints.VALUE_ANTIALIAS_DEFAULT,
+          RenderingHints.VALUE_ANTIALIAS_ON,
+          RenderingHints.VALUE_ANTIALIAS_OFF },
+        { RenderingHints.VALUE_RENDER_DEFAULT,
+          RenderingHints.VALUE_RENDER_SPEED,
+          RenderingHints.VALUE_RENDER_QUALITY },
+        { RenderingHints.VALUE_DITHER_DEFAULT,
+          RenderingHints.VALUE_DITHER_DISABLE,
+          RenderingHints.VALUE_DITHER_ENABLE },
+        { RenderingHints.VALUE_TEXT_ANTIALIAS_DEFAULT,
+          RenderingHints.VALUE_TEXT_ANTIALIAS_ON,
+          RenderingHints.VALUE_TEXT_ANTIALIAS_OFF,
+          RenderingHints.VALUE_TEXT_ANTIALIAS_GASP,
+          RenderingHints.VALUE_TEXT_ANTIALIAS_LCD_HRGB,
+          RenderingHints.VALUE_TEXT_ANTIALIAS_LCD_HBGR,
+          RenderingHints.VALUE_TEXT_ANTIALIAS_LCD_VRGB,
+          RenderingHints.VALUE_TEXT_ANTIALIAS_LCD_VBGR },
+        { RenderingHints.VALUE_FRACTIONALMETRICS_DEFAULT,
+          RenderingHints.VALUE_FRACTIONALMETRICS_ON,
+          RenderingHints.VALUE_FRACTIONALMETRICS_OFF },
+        { RenderingHints.VALUE_INTERPOLATION_NEAREST_NEIGHBOR,
+          RenderingHints.VALUE_INTERPOLATION_BILINEAR,
+          RenderingHints.VALUE_INTERPOLATION_BICUBIC },
+        { RenderingHints.VALUE_ALPHA_INTERPOLATION_DEFAULT,
+          RenderingHints.VALUE_ALPHA_INTERPOLATION_SPEED,
+          RenderingHints.VALUE_ALPHA_INTERPOLATION_QUALITY },
+        { RenderingHints.VALUE_COLOR_RENDER_DEFAULT,
+          RenderingHints.VALUE_COLOR_RENDER_SPEED,
+          RenderingHints.VALUE_COLOR_RENDER_QUALITY },
+        { RenderingHints.VALUE_STROKE_DEFAULT,
+          RenderingHints.VALUE_STROKE_NORMALIZE,
+          RenderingHints.VALUE_STROKE_PURE },
+    };
+}
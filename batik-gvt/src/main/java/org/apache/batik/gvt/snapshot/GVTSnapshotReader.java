@@ -0,0 +1,1091 @@
+/*
+
+   Licensed to the Apache Software Foundation (ASF) under one or more
+   contributor license agreements.  See the NOTICE file distributed with
+   this work for additional information regarding copyright ownership.
+   The ASF licenses this file to You under the Apache License, Version 2.0
+   (the "License"); you may not use this file except in compliance with
+   the License.  You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+ */
+package org.apache.batik.gvt.snapshot;
+
+import java.awt.AlphaComposite;
+import java.awt.BasicStroke;
+import java.awt.Color;
+import java.awt.Composite;
+import java.awt.Paint;
+import java.awt.Point;
+import java.awt.RenderingHints;
+import java.awt.Shape;
+import java.awt.Stroke;
+import java.awt.geom.AffineTransform;
+import java.awt.geom.Ellipse2D;
+import java.awt.geom.GeneralPath;
+import java.awt.geom.Line2D;
+import java.awt.geom.Path2D;
+import java.awt.geom.PathIterator;
+import java.awt.geom.Point2D;
+import java.awt.geom.Rectangle2D;
+import java.awt.geom.RoundRectangle2D;
+import java.awt.image.BufferedImage;
+import java.awt.image.Kernel;
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.StreamCorruptedException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+import org.apache.batik.ext.awt.LinearGradientPaint;
+import org.apache.batik.ext.awt.MultipleGradientPaint;
+import org.apache.batik.ext.awt.RadialGradientPaint;
+import org.apache.batik.ext.awt.geom.ExtendedGeneralPath;
+import org.apache.batik.ext.awt.image.ARGBChannel;
+import org.apache.batik.ext.awt.image.ComponentTransferFunction;
+import org.apache.batik.ext.awt.image.CompositeRule;
+import org.apache.batik.ext.awt.image.ConcreteComponentTransferFunction;
+import org.apache.batik.ext.awt.image.DistantLight;
+import org.apache.batik.ext.awt.image.Light;
+import org.apache.batik.ext.awt.image.PadMode;
+import org.apache.batik.ext.awt.image.PointLight;
+import org.apache.batik.ext.awt.image.SpotLight;
+import org.apache.batik.ext.awt.image.renderable.AbstractColorInterpolationRable;
+import org.apache.batik.ext.awt.image.renderable.AffineRable8Bit;
+import org.apache.batik.ext.awt.image.renderable.ClipRable8Bit;
+import org.apache.batik.ext.awt.image.renderable.ColorMatrixRable;
+import org.apache.batik.ext.awt.image.renderable.ColorMatrixRable8Bit;
+import org.apache.batik.ext.awt.image.renderable.ComponentTransferRable8Bit;
+import org.apache.batik.ext.awt.image.renderable.CompositeRable8Bit;
+import org.apache.batik.ext.awt.image.renderable.ConvolveMatrixRable8Bit;
+import org.apache.batik.ext.awt.image.renderable.DiffuseLightingRable8Bit;
+import org.apache.batik.ext.awt.image.renderable.DisplacementMapRable8Bit;
+import org.apache.batik.ext.awt.image.renderable.Filter;
+import org.apache.batik.ext.awt.image.renderable.FilterAlphaRable;
+import org.apache.batik.ext.awt.image.renderable.FilterAsAlphaRable;
+import org.apache.batik.ext.awt.image.renderable.FilterChainRable8Bit;
+import org.apache.batik.ext.awt.image.renderable.FloodRable8Bit;
+import org.apache.batik.ext.awt.image.renderable.GaussianBlurRable8Bit;
+import org.apache.batik.ext.awt.image.renderable.MorphologyRable8Bit;
+import org.apache.batik.ext.awt.image.renderable.PadRable8Bit;
+import org.apache.batik.ext.awt.image.renderable.RedRable;
+import org.apache.batik.ext.awt.image.renderable.SpecularLightingRable8Bit;
+import org.apache.batik.ext.awt.image.renderable.TileRable8Bit;
+import org.apache.batik.ext.awt.image.renderable.TurbulenceRable8Bit;
+import org.apache.batik.ext.awt.image.rendered.BufferedImageCachableRed;
+import org.apache.batik.gvt.AbstractGraphicsNode;
+import org.apache.batik.gvt.CanvasGraphicsNode;
+import org.apache.batik.gvt.CompositeGraphicsNode;
+import org.apache.batik.gvt.CompositeShapePainter;
+import org.apache.batik.gvt.FillShapePainter;
+import org.apache.batik.gvt.GraphicsNode;
+import org.apache.batik.gvt.ImageNode;
+import org.apache.batik.gvt.Marker;
+import org.apache.batik.gvt.MarkerShapePainter;
+import org.apache.batik.gvt.PatternPaint;
+import org.apache.batik.gvt.ProxyGraphicsNode;
+import org.apache.batik.gvt.RasterImageNode;
+import org.apache.batik.gvt.RootGraphicsNode;
+import org.apache.batik.gvt.ShapeNode;
+import org.apache.batik.gvt.ShapePainter;
+import org.apache.batik.gvt.StrokeShapePainter;
+import org.apache.batik.gvt.filter.GraphicsNodeRable;
+import org.apache.batik.gvt.filter.GraphicsNodeRable8Bit;
+import org.apache.batik.gvt.filter.MaskRable8Bit;
+
+/**
+ * Reads a snapshot written by {@link GVTSnapshotWriter} back into a
+ * GVT tree.
+ *
+ * @version $Id$
+ */
+public class GVTSnapshotReader implements GVTSnapshotConstants {
+
+    /**
+     * The stream the snapshot is read from.
+     */
+    protected InputStream input;
+
+    /**
+     * The stream the body of the snapshot is read from while it is
+     * being read.
+     */
+    protected DataInputStream in;
+
+    /**
+     * The shared objects read, in the order they were written.
+     */
+    protected List objects = new ArrayList();
+
+    /**
+     * Creates a reader from <code>is</code>.  The stream is not closed.
+     */
+    public GVTSnapshotReader(InputStream is) {
+        input = is;
+    }
+
+    /**
+     * Reads a snapshot and returns the root of the tree it holds.
+     */
+    public GraphicsNode read() throws IOException {
+        DataInputStream header = new DataInputStream(input);
+        if (header.readInt() != MAGIC)
+            throw new IOException("Not a GVT snapshot");
+        short version = header.readShort();
+        if (version != VERSION)
+            throw new IOException("Unsupported GVT snapshot version: "
+                                  + version);
+
+        Inflater inflater = new Inflater();
+        try {
+            in = new DataInputStream(new BufferedInputStream
+                (new InflaterInputStream(input, inflater)));
+            return readNode();
+        } finally {
+            inflater.end();
+            in = null;
+            objects.clear();
+        }
+    }
+
+    /**
+     * Returns the shared object at <code>index</code>.
+     */
+    protected Object getReference(int index) throws IOException {
+        if ((index < 0) || (index >= objects.size()))
+            throw new StreamCorruptedException("Bad reference: " + index);
+        return objects.get(index);
+    }
+
+    /**
+     * Reads a tag, resolving references.  Returns the object referred
+     * to for a {@link #REF}, null for a {@link #NULL}, and the tag as a
+     * <code>Byte</code> otherwise.
+     */
+    protected Object readTag() throws IOException {
+        byte tag = in.readByte();
+        switch (tag) {
+        case NULL:
+            return null;
+        case REF:
+            return getReference(in.readInt());
+        default:
+            return Byte.valueOf(tag);
+        }
+    }
+
+    /**
+     * Returns an exception for an unexpected tag.
+     */
+    protected static IOException corrupted(Object tag) {
+        return new StreamCorruptedException("Unexpected tag: " + tag);
+    }
+
+    // Nodes ///////////////////////////////////////////////////////////
+
+    /**
+     * Reads a graphics node, its content and its effects.
+     */
+    protected GraphicsNode readNode() throws IOException {
+        Object t = readTag();
+        if (!(t instanceof Byte)) {
+            if ((t != null) && !(t instanceof GraphicsNode))
+                throw corrupted(t);
+            return (GraphicsNode)t;
+        }
+
+        byte tag = ((Byte)t).byteValue();
+        AbstractGraphicsNode node;
+        switch (tag) {
+        case NODE_SHAPE: {
+            ShapeNode sn = new ShapeNode();
+            objects.add(sn);
+            readProperties(sn);
+            Shape s = readShape();
+            sn.setShape(s);
+            sn.setShapePainter(readPainter(s));
+            node = sn;
+            break;
+        }
+        case NODE_RASTER: {
+            RasterImageNode rin = new RasterImageNode();
+            objects.add(rin);
+            readProperties(rin);
+            rin.setImage(readFilter());
+            node = rin;
+            break;
+        }
+        case NODE_PROXY: {
+            ProxyGraphicsNode pgn = new ProxyGraphicsNode();
+            objects.add(pgn);
+            readProperties(pgn);
+            pgn.setSource(readNode());
+            node = pgn;
+            break;
+        }
+        case NODE_IMAGE: {
+            ImageNode imn = new ImageNode();
+            objects.add(imn);
+            readProperties(imn);
+            imn.setHitCheckChildren(in.readBoolean());
+            GraphicsNode image = readNode();
+            if (image != null)
+                imn.setImage(image);
+            node = imn;
+            break;
+        }
+        case NODE_CANVAS: {
+            CanvasGraphicsNode cgn = new CanvasGraphicsNode();
+            objects.add(cgn);
+            cgn.setPositionTransform(readTransform());
+            cgn.setViewingTransform(readTransform());
+            cgn.setBackgroundPaint(readPaint());
+            readProperties(cgn);
+            readChildren(cgn);
+            node = cgn;
+            break;
+        }
+        case NODE_ROOT:
+        case NODE_COMPOSITE: {
+            CompositeGraphicsNode cgn = (tag == NODE_ROOT)
+                ? new RootGraphicsNode() : new CompositeGraphicsNode();
+            objects.add(cgn);
+            readProperties(cgn);
+            readChildren(cgn);
+            node = cgn;
+            break;
+        }
+        default:
+            throw corrupted(t);
+        }
+        readEffects(node);
+        return node;
+    }
+
+    /**
+     * Reads the transform, composite, visibility, pointer event type
+     * and rendering hints of a node.
+     */
+    protected void readProperties(AbstractGraphicsNode node)
+        throws IOException {
+        AffineTransform at = readTransform();
+        if (at != null)
+            node.setTransform(at);
+        node.setComposite(readComposite());
+        node.setVisible(in.readBoolean());
+        node.setPointerEventType(in.readInt());
+        RenderingHints hints = readHints();
+        if (hints != null)
+            node.setRenderingHints(hints);
+    }
+
+    /**
+     * Reads the background enable region and the children of a
+     * composite node.
+     */
+    protected void readChildren(CompositeGraphicsNode node)
+        throws IOException {
+        Rectangle2D bgEnable = readRectangle();
+        if (bgEnable != null)
+            node.setBackgroundEnable(bgEnable);
+        int n = in.readInt();
+        for (int i = 0; i < n; i++) {
+            node.add(readNode());
+        }
+    }
+
+    /**
+     * Reads the filter, clip and mask of a node.
+     */
+    protected void readEffects(AbstractGraphicsNode node) throws IOException {
+        Filter filter = readFilter();
+        if (filter != null)
+            node.setFilter(filter);
+        Filter src = (filter != null)
+            ? filter : node.getGraphicsNodeRable(true);
+
+        if (in.readBoolean()) {
+            Shape clip = readShape();
+            node.setClip(new ClipRable8Bit(src, clip, in.readBoolean()));
+        }
+
+        if (in.readBoolean()) {
+            GraphicsNode maskNode = readNode();
+            Rectangle2D region = readRectangle();
+            node.setMask(new MaskRable8Bit(src, maskNode, region));
+        }
+    }
+
+    /**
+     * Reads a composite.
+     */
+    protected Composite readComposite() throws IOException {
+        byte tag = in.readByte();
+        switch (tag) {
+        case NULL:
+            return null;
+        case COMPOSITE_ALPHA:
+            int rule = in.readByte();
+            return AlphaComposite.getInstance(rule, in.readFloat());
+        default:
+            throw corrupted(Byte.valueOf(tag));
+        }
+    }
+
+    /**
+     * Reads rendering hints, which may be null.
+     */
+    protected RenderingHints readHints() throws IOException {
+        int n = in.readInt();
+        if (n == -1)
+            return null;
+        RenderingHints hints = new RenderingHints(null);
+        for (int i = 0; i < n; i++) {
+            int k = in.readByte();
+            int v = in.readByte();
+            if ((k < 0) || (k >= HINT_KEYS.length)
+                || (v < 0) || (v >= HINT_VALUES[k].length))
+                throw new StreamCorruptedException("Bad rendering hint");
+            hints.put(HINT_KEYS[k], HINT_VALUES[k][v]);
+        }
+        return hints;
+    }
+
+    // Geometry ////////////////////////////////////////////////////////
+
+    /**
+     * Reads a transform, which may be null.
+     */
+    protected AffineTransform readTransform() throws IOException {
+        if (!in.readBoolean())
+            return null;
+        double[] m = new double[6];
+        for (int i = 0; i < m.length; i++) {
+            m[i] = in.readDouble();
+        }
+        return new AffineTransform(m);
+    }
+
+    /**
+     * Reads a rectangle, which may be null.
+     */
+    protected Rectangle2D readRectangle() throws IOException {
+        if (!in.readBoolean())
+            return null;
+        return new Rectangle2D.Double(in.readDouble(), in.readDouble(),
+                                      in.readDouble(), in.readDouble());
+    }
+
+    /**
+     * Reads a point.
+     */
+    protected Point2D readPoint() throws IOException {
+        return new Point2D.Double(in.readDouble(), in.readDouble());
+    }
+
+    /**
+     * Reads a shape.
+     */
+    protected Shape readShape() throws IOException {
+        byte tag = in.readByte();
+        switch (tag) {
+        case NULL:
+            return null;
+        case SHAPE_RECTANGLE:
+            return new Rectangle2D.Double(in.readDouble(), in.readDouble(),
+                                          in.readDouble(), in.readDouble());
+        case SHAPE_LINE:
+            return new Line2D.Double(in.readDouble(), in.readDouble(),
+                                     in.readDouble(), in.readDouble());
+        case SHAPE_ELLIPSE:
+            return new Ellipse2D.Double(in.readDouble(), in.readDouble(),
+                                        in.readDouble(), in.readDouble());
+        case SHAPE_ROUND_RECTANGLE:
+            return new RoundRectangle2D.Double
+                (in.readDouble(), in.readDouble(), in.readDouble(),
+                 in.readDouble(), in.readDouble(), in.readDouble());
+        case SHAPE_EXTENDED_PATH: {
+            ExtendedGeneralPath p = new ExtendedGeneralPath(in.readByte());
+            float[] c = new float[7];
+            for (int seg = in.readByte(); seg != SEGMENT_END;
+                 seg = in.readByte()) {
+                readFloats(c, seg);
+                switch (seg) {
+                case PathIterator.SEG_MOVETO:
+                    p.moveTo(c[0], c[1]);
+                    break;
+                case PathIterator.SEG_LINETO:
+                    p.lineTo(c[0], c[1]);
+                    break;
+                case PathIterator.SEG_QUADTO:
+                    p.quadTo(c[0], c[1], c[2], c[3]);
+                    break;
+                case PathIterator.SEG_CUBICTO:
+                    p.curveTo(c[0], c[1], c[2], c[3], c[4], c[5]);
+                    break;
+                case PathIterator.SEG_CLOSE:
+                    p.closePath();
+                    break;
+                case SEGMENT_ARCTO:
+                    p.arcTo(c[0], c[1], c[2], c[3] != 0, c[4] != 0,
+                            c[5], c[6]);
+                    break;
+                default:
+                    throw new StreamCorruptedException("Bad segment: " + seg);
+                }
+            }
+            return p;
+        }
+        case SHAPE_PATH: {
+            GeneralPath p = new GeneralPath(in.readByte());
+            float[] c = new float[6];
+            for (int seg = in.readByte(); seg != SEGMENT_END;
+                 seg = in.readByte()) {
+                readFloats(c, seg);
+                appendSegment(p, seg, c[0], c[1], c[2], c[3], c[4], c[5]);
+            }
+            return p;
+        }
+        case SHAPE_DOUBLE_PATH: {
+            Path2D.Double p = new Path2D.Double(in.readByte());
+            double[] c = new double[6];
+            for (int seg = in.readByte(); seg != SEGMENT_END;
+                 seg = in.readByte()) {
+                int n = getSegmentCoordinateCount(seg);
+                for (int i = 0; i < n; i++) {
+                    c[i] = in.readDouble();
+                }
+                appendSegment(p, seg, c[0], c[1], c[2], c[3], c[4], c[5]);
+            }
+            return p;
+        }
+        default:
+            throw corrupted(Byte.valueOf(tag));
+        }
+    }
+
+    /**
+     * Reads the coordinates of a path segment.
+     */
+    private void readFloats(float[] c, int seg) throws IOException {
+        int n = getSegmentCoordinateCount(seg);
+        for (int i = 0; i < n; i++) {
+            c[i] = in.readFloat();
+        }
+    }
+
+    private static int getSegmentCoordinateCount(int seg)
+        throws IOException {
+        if ((seg < PathIterator.SEG_MOVETO) || (seg > SEGMENT_ARCTO))
+            throw new StreamCorruptedException("Bad segment: " + seg);
+        return GVTSnapshotWriter.getCoordinateCount(seg);
+    }
+
+    /**
+     * Appends a segment other than an arc to a path.
+     */
+    private static void appendSegment(Path2D p, int seg,
+                                      double x1, double y1,
+                                      double x2, double y2,
+                                      double x3, double y3)
+        throws IOException {
+        switch (seg) {
+        case PathIterator.SEG_MOVETO:
+            p.moveTo(x1, y1);
+            break;
+        case PathIterator.SEG_LINETO:
+            p.lineTo(x1, y1);
+            break;
+        case PathIterator.SEG_QUADTO:
+            p.quadTo(x1, y1, x2, y2);
+            break;
+        case PathIterator.SEG_CUBICTO:
+            p.curveTo(x1, y1, x2, y2, x3, y3);
+            break;
+        case PathIterator.SEG_CLOSE:
+            p.closePath();
+            break;
+        default:
+            throw new StreamCorruptedException("Bad segment: " + seg);
+        }
+    }
+
+    // Painters and paints /////////////////////////////////////////////
+
+    /**
+     * Reads a shape painter painting <code>s</code>.
+     */
+    protected ShapePainter readPainter(Shape s) throws IOException {
+        byte tag = in.readByte();
+        switch (tag) {
+        case NULL:
+            return null;
+        case PAINTER_FILL: {
+            FillShapePainter p = new FillShapePainter(s);
+            p.setPaint(readPaint());
+            return p;
+        }
+        case PAINTER_STROKE: {
+            StrokeShapePainter p = new StrokeShapePainter(s);
+            p.setStroke(readStroke());
+            p.setPaint(readPaint());
+            return p;
+        }
+        case PAINTER_MARKER: {
+            MarkerShapePainter p = new MarkerShapePainter(s);
+            p.setStartMarker(readMarker());
+            p.setMiddleMarker(readMarker());
+            p.setEndMarker(readMarker());
+            return p;
+        }
+        case PAINTER_COMPOSITE: {
+            CompositeShapePainter p = new CompositeShapePainter(s);
+            int n = in.readInt();
+            for (int i = 0; i < n; i++) {
+                p.addShapePainter(readPainter(s));
+            }
+            return p;
+        }
+        default:
+            throw corrupted(Byte.valueOf(tag));
+        }
+    }
+
+    /**
+     * Reads a marker, which may be shared.
+     */
+    protected Marker readMarker() throws IOException {
+        Object t = readTag();
+        if (!(t instanceof Byte)) {
+            if ((t != null) && !(t instanceof Marker))
+                throw corrupted(t);
+            return (Marker)t;
+        }
+        if (((Byte)t).byteValue() != MARKER)
+            throw corrupted(t);
+        Point2D ref = readPoint();
+        double orient = in.readDouble();
+        Marker m = new Marker(readNode(), ref, orient);
+        objects.add(m);
+        return m;
+    }
+
+    /**
+     * Reads a stroke.
+     */
+    protected Stroke readStroke() throws IOException {
+        byte tag = in.readByte();
+        if (tag == NULL)
+            return null;
+        if (tag != STROKE_BASIC)
+            throw corrupted(Byte.valueOf(tag));
+
+        float width = in.readFloat();
+        int cap = in.readByte();
+        int join = in.readByte();
+        float miter = in.readFloat();
+        int n = in.readInt();
+        float[] dash = null;
+        if (n != -1) {
+            dash = new float[n];
+            for (int i = 0; i < n; i++) {
+                dash[i] = in.readFloat();
+            }
+        }
+        return new BasicStroke(width, cap, join, miter, dash, in.readFloat());
+    }
+
+    /**
+     * Reads a paint.
+     */
+    protected Paint readPaint() throws IOException {
+        Object t = readTag();
+        if (!(t instanceof Byte)) {
+            if ((t != null) && !(t instanceof Paint))
+                throw corrupted(t);
+            return (Paint)t;
+        }
+
+        Paint p;
+        switch (((Byte)t).byteValue()) {
+        case PAINT_COLOR:
+            return new Color(in.readInt(), true);
+        case PAINT_LINEAR_GRADIENT: {
+            Point2D start = readPoint();
+            Point2D end = readPoint();
+            Gradient g = readGradient();
+            p = new LinearGradientPaint(start, end, g.fractions, g.colors,
+                                        g.cycle, g.colorSpace, g.transform);
+            break;
+        }
+        case PAINT_RADIAL_GRADIENT: {
+            Point2D center = readPoint();
+            float radius = in.readFloat();
+            Point2D focus = readPoint();
+            Gradient g = readGradient();
+            p = new RadialGradientPaint(center, radius, focus,
+                                        g.fractions, g.colors,
+                                        g.cycle, g.colorSpace, g.transform);
+            break;
+        }
+        case PAINT_PATTERN: {
+            GraphicsNode node = readNode();
+            Rectangle2D rect = readRectangle();
+            boolean overflow = in.readBoolean();
+            p = new PatternPaint(node, rect, overflow, readTransform());
+            break;
+        }
+        default:
+            throw corrupted(t);
+        }
+        objects.add(p);
+        return p;
+    }
+
+    /**
+     * The common parameters of gradients.
+     */
+    protected static class Gradient {
+        float[] fractions;
+        Color[] colors;
+        MultipleGradientPaint.CycleMethodEnum cycle;
+        MultipleGradientPaint.ColorSpaceEnum colorSpace;
+        AffineTransform transform;
+    }
+
+    /**
+     * Reads the stops, cycle method, color space and transform of a
+     * gradient.
+     */
+    protected Gradient readGradient() throws IOException {
+        Gradient g = new Gradient();
+        int n = in.readInt();
+        g.fractions = new float[n];
+        g.colors = new Color[n];
+        for (int i = 0; i < n; i++) {
+            g.fractions[i] = in.readFloat();
+            g.colors[i] = new Color(in.readInt(), true);
+        }
+        switch (in.readByte()) {
+        case 1:
+            g.cycle = MultipleGradientPaint.REFLECT;
+            break;
+        case 2:
+            g.cycle = MultipleGradientPaint.REPEAT;
+            break;
+        default:
+            g.cycle = MultipleGradientPaint.NO_CYCLE;
+        }
+        g.colorSpace = in.readBoolean()
+            ? MultipleGradientPaint.LINEAR_RGB : MultipleGradientPaint.SRGB;
+        g.transform = readTransform();
+        if (g.transform == null)
+            g.transform = new AffineTransform();
+        return g;
+    }
+
+    // Filters /////////////////////////////////////////////////////////
+
+    /**
+     * Reads a filter and its sources.
+     */
+    protected Filter readFilter() throws IOException {
+        Object t = readTag();
+        if (!(t instanceof Byte)) {
+            if ((t != null) && !(t instanceof Filter))
+                throw corrupted(t);
+            return (Filter)t;
+        }
+
+        Filter f;
+        switch (((Byte)t).byteValue()) {
+        case FILTER_GRAPHICS_NODE: {
+            boolean own = in.readBoolean();
+            boolean prim = in.readBoolean();
+            GraphicsNode node = readNode();
+            if (own) {
+                GraphicsNodeRable gnr =
+                    (GraphicsNodeRable)node.getGraphicsNodeRable(true);
+                if (gnr.getUsePrimitivePaint() != prim)
+                    gnr.setUsePrimitivePaint(prim);
+                f = gnr;
+            } else {
+                f = new GraphicsNodeRable8Bit(node, prim);
+            }
+            break;
+        }
+        case FILTER_CHAIN: {
+            Rectangle2D region = readRectangle();
+            boolean hasRes = in.readBoolean();
+            int resX = 0, resY = 0;
+            if (hasRes) {
+                resX = in.readInt();
+                resY = in.readInt();
+            }
+            FilterChainRable8Bit fc =
+                new FilterChainRable8Bit(readFilter(), region);
+            if (hasRes) {
+                fc.setFilterResolutionX(resX);
+                fc.setFilterResolutionY(resY);
+            }
+            f = fc;
+            break;
+        }
+        case FILTER_PAD: {
+            Rectangle2D rect = readRectangle();
+            PadMode mode = readPadMode();
+            f = new PadRable8Bit(readFilter(), rect, mode);
+            break;
+        }
+        case FILTER_CLIP: {
+            Shape clip = readShape();
+            boolean aa = in.readBoolean();
+            f = new ClipRable8Bit(readFilter(), clip, aa);
+            break;
+        }
+        case FILTER_AFFINE: {
+            AffineTransform at = readTransform();
+            f = new AffineRable8Bit(readFilter(), at);
+            break;
+        }
+        case FILTER_GAUSSIAN_BLUR: {
+            double stdX = in.readDouble();
+            double stdY = in.readDouble();
+            f = new GaussianBlurRable8Bit(readFilter(), stdX, stdY);
+            break;
+        }
+        case FILTER_COMPOSITE: {
+            CompositeRule rule = readCompositeRule();
+            f = new CompositeRable8Bit(readSources(), rule, false);
+            break;
+        }
+        case FILTER_FLOOD: {
+            Rectangle2D region = readRectangle();
+            f = new FloodRable8Bit(region, readPaint());
+            break;
+        }
+        case FILTER_COLOR_MATRIX: {
+            float[][] m = new float[4][5];
+            for (int i = 0; i < 4; i++) {
+                for (int j = 0; j < 5; j++) {
+                    m[i][j] = in.readFloat();
+                }
+            }
+            ColorMatrixRable cm = ColorMatrixRable8Bit.buildMatrix(m);
+            cm.setSource(readFilter());
+            f = cm;
+            break;
+        }
+        case FILTER_ALPHA:
+            f = new FilterAlphaRable(readFilter());
+            break;
+        case FILTER_AS_ALPHA:
+            f = new FilterAsAlphaRable(readFilter());
+            break;
+        case FILTER_COMPONENT_TRANSFER: {
+            ComponentTransferFunction a = readTransferFunction();
+            ComponentTransferFunction r = readTransferFunction();
+            ComponentTransferFunction g = readTransferFunction();
+            ComponentTransferFunction b = readTransferFunction();
+            f = new ComponentTransferRable8Bit(readFilter(), a, r, g, b);
+            break;
+        }
+        case FILTER_MORPHOLOGY: {
+            double rx = in.readDouble();
+            double ry = in.readDouble();
+            boolean dilation = in.readBoolean();
+            f = new MorphologyRable8Bit(readFilter(), rx, ry, dilation);
+            break;
+        }
+        case FILTER_TILE: {
+            Rectangle2D tiledRegion = readRectangle();
+            Rectangle2D tileRegion = readRectangle();
+            boolean overflow = in.readBoolean();
+            f = new TileRable8Bit(readFilter(), tiledRegion, tileRegion,
+                                  overflow);
+            break;
+        }
+        case FILTER_TURBULENCE: {
+            Rectangle2D region = readRectangle();
+            int seed = in.readInt();
+            int octaves = in.readInt();
+            double bfx = in.readDouble();
+            double bfy = in.readDouble();
+            boolean stitched = in.readBoolean();
+            f = new TurbulenceRable8Bit(region, seed, octaves, bfx, bfy,
+                                        stitched, in.readBoolean());
+            break;
+        }
+        case FILTER_DISPLACEMENT_MAP: {
+            double scale = in.readDouble();
+            ARGBChannel x = readChannel();
+            ARGBChannel y = readChannel();
+            f = new DisplacementMapRable8Bit(readSources(), scale, x, y);
+            break;
+        }
+        case FILTER_CONVOLVE_MATRIX: {
+            int w = in.readInt();
+            int h = in.readInt();
+            if ((w <= 0) || (h <= 0) || (w > 4096) || (h > 4096))
+                throw new StreamCorruptedException("Bad kernel size");
+            float[] data = new float[w * h];
+            for (int i = 0; i < data.length; i++) {
+                data[i] = in.readFloat();
+            }
+            Point target = new Point(in.readInt(), in.readInt());
+            double bias = in.readDouble();
+            PadMode edgeMode = readPadMode();
+            double[] kernelUnitLength = readDoubles();
+            boolean preserveAlpha = in.readBoolean();
+            ConvolveMatrixRable8Bit cm =
+                new ConvolveMatrixRable8Bit(readFilter());
+            cm.setKernel(new Kernel(w, h, data));
+            cm.setTarget(target);
+            cm.setBias(bias);
+            cm.setEdgeMode(edgeMode);
+            cm.setKernelUnitLength(kernelUnitLength);
+            cm.setPreserveAlpha(preserveAlpha);
+            f = cm;
+            break;
+        }
+        case FILTER_DIFFUSE_LIGHTING: {
+            Rectangle2D litRegion = readRectangle();
+            Light light = readLight();
+            double kd = in.readDouble();
+            double surfaceScale = in.readDouble();
+            double[] kernelUnitLength = readDoubles();
+            f = new DiffuseLightingRable8Bit(readFilter(), litRegion, light,
+                                             kd, surfaceScale,
+                                             kernelUnitLength);
+            break;
+        }
+        case FILTER_SPECULAR_LIGHTING: {
+            Rectangle2D litRegion = readRectangle();
+            Light light = readLight();
+            double ks = in.readDouble();
+            double specExp = in.readDouble();
+            double surfaceScale = in.readDouble();
+            double[] kernelUnitLength = readDoubles();
+            f = new SpecularLightingRable8Bit(readFilter(), litRegion, light,
+                                              ks, specExp, surfaceScale,
+                                              kernelUnitLength);
+            break;
+        }
+        case FILTER_RASTER:
+            f = readRaster();
+            objects.add(f);
+            return f;
+        default:
+            throw corrupted(t);
+        }
+
+        if (f instanceof AbstractColorInterpolationRable) {
+            ((AbstractColorInterpolationRable)f).setColorSpaceLinear
+                (in.readBoolean());
+        }
+        objects.add(f);
+        return f;
+    }
+
+    /**
+     * Reads the sources of a filter with several sources.
+     */
+    protected List readSources() throws IOException {
+        int n = in.readInt();
+        List srcs = new ArrayList(n);
+        for (int i = 0; i < n; i++) {
+            srcs.add(readFilter());
+        }
+        return srcs;
+    }
+
+    /**
+     * Reads the pixels of a filter.
+     */
+    protected Filter readRaster() throws IOException {
+        Rectangle2D bounds = readRectangle();
+        int x = in.readInt();
+        int y = in.readInt();
+        int w = in.readInt();
+        int h = in.readInt();
+        if ((w <= 0) || (h <= 0))
+            return new FloodRable8Bit(bounds, new Color(0, 0, 0, 0));
+
+        BufferedImage bi = new BufferedImage(w, h, BufferedImage.TYPE_INT_ARGB);
+        int[] row = new int[w];
+        for (int j = 0; j < h; j++) {
+            for (int i = 0; i < w; i++) {
+                row[i] = in.readInt();
+            }
+            bi.getRaster().setDataElements(0, j, w, 1, row);
+        }
+        Filter f = new RedRable(new BufferedImageCachableRed(bi, x, y));
+        if ((bounds != null) && !bounds.equals(f.getBounds2D()))
+            f = new PadRable8Bit(f, bounds, PadMode.ZERO_PAD);
+        return f;
+    }
+
+    /**
+     * Reads a pad mode.
+     */
+    protected PadMode readPadMode() throws IOException {
+        byte mode = in.readByte();
+        switch (mode) {
+        case PadMode.MODE_ZERO_PAD:
+            return PadMode.ZERO_PAD;
+        case PadMode.MODE_REPLICATE:
+            return PadMode.REPLICATE;
+        case PadMode.MODE_WRAP:
+            return PadMode.WRAP;
+        default:
+            throw new StreamCorruptedException("Bad pad mode: " + mode);
+        }
+    }
+
+    /**
+     * Reads a channel of a displacement map.
+     */
+    protected ARGBChannel readChannel() throws IOException {
+        byte c = in.readByte();
+        switch (c) {
+        case ARGBChannel.CHANNEL_A:
+            return ARGBChannel.A;
+        case ARGBChannel.CHANNEL_R:
+            return ARGBChannel.R;
+        case ARGBChannel.CHANNEL_G:
+            return ARGBChannel.G;
+        case ARGBChannel.CHANNEL_B:
+            return ARGBChannel.B;
+        default:
+            throw new StreamCorruptedException("Bad channel: " + c);
+        }
+    }
+
+    /**
+     * Reads the rule of a composite filter.
+     */
+    protected CompositeRule readCompositeRule() throws IOException {
+        byte rule = in.readByte();
+        switch (rule) {
+        case CompositeRule.RULE_OVER:
+            return CompositeRule.OVER;
+        case CompositeRule.RULE_IN:
+            return CompositeRule.IN;
+        case CompositeRule.RULE_OUT:
+            return CompositeRule.OUT;
+        case CompositeRule.RULE_ATOP:
+            return CompositeRule.ATOP;
+        case CompositeRule.RULE_XOR:
+            return CompositeRule.XOR;
+        case CompositeRule.RULE_ARITHMETIC:
+            return CompositeRule.ARITHMETIC(in.readFloat(), in.readFloat(),
+                                            in.readFloat(), in.readFloat());
+        case CompositeRule.RULE_MULTIPLY:
+            return CompositeRule.MULTIPLY;
+        case CompositeRule.RULE_SCREEN:
+            return CompositeRule.SCREEN;
+        case CompositeRule.RULE_DARKEN:
+            return CompositeRule.DARKEN;
+        case CompositeRule.RULE_LIGHTEN:
+            return CompositeRule.LIGHTEN;
+        default:
+            throw new StreamCorruptedException("Bad composite rule: " + rule);
+        }
+    }
+
+    /**
+     * Reads a component transfer function, which may be null.
+     */
+    protected ComponentTransferFunction readTransferFunction()
+        throws IOException {
+        byte type = in.readByte();
+        switch (type) {
+        case -1:
+            return null;
+        case ComponentTransferFunction.IDENTITY:
+            return ConcreteComponentTransferFunction.getIdentityTransfer();
+        case ComponentTransferFunction.TABLE:
+        case ComponentTransferFunction.DISCRETE: {
+            int n = in.readInt();
+            if ((n < 0) || (n > 65536))
+                throw new StreamCorruptedException("Bad table size: " + n);
+            float[] v = new float[n];
+            for (int i = 0; i < n; i++) {
+                v[i] = in.readFloat();
+            }
+            return (type == ComponentTransferFunction.TABLE)
+                ? ConcreteComponentTransferFunction.getTableTransfer(v)
+                : ConcreteComponentTransferFunction.getDiscreteTransfer(v);
+        }
+        case ComponentTransferFunction.LINEAR:
+            return ConcreteComponentTransferFunction.getLinearTransfer
+                (in.readFloat(), in.readFloat());
+        case ComponentTransferFunction.GAMMA:
+            return ConcreteComponentTransferFunction.getGammaTransfer
+                (in.readFloat(), in.readFloat(), in.readFloat());
+        default:
+            throw new StreamCorruptedException("Bad transfer type: " + type);
+        }
+    }
+
+    /**
+     * Reads the light of a lighting filter.
+     */
+    protected Light readLight() throws IOException {
+        byte tag = in.readByte();
+        switch (tag) {
+        case LIGHT_DISTANT: {
+            double az = in.readDouble();
+            double el = in.readDouble();
+            return new DistantLight(az, el, new Color(in.readInt()));
+        }
+        case LIGHT_POINT: {
+            double x = in.readDouble();
+            double y = in.readDouble();
+            double z = in.readDouble();
+            return new PointLight(x, y, z, new Color(in.readInt()));
+        }
+        case LIGHT_SPOT: {
+            double x = in.readDouble();
+            double y = in.readDouble();
+            double z = in.readDouble();
+            double px = in.readDouble();
+            double py = in.readDouble();
+            double pz = in.readDouble();
+            double specExp = in.readDouble();
+            double cone = in.readDouble();
+            return new SpotLight(x, y, z, px, py, pz, specExp, cone,
+                                 new Color(in.readInt()));
+        }
+        default:
+            throw corrupted(Byte.valueOf(tag));
+        }
+    }
+
+    /**
+     * Reads an array of doubles, which may be null.
+     */
+    protected double[] readDoubles() throws IOException {
+        int n = in.readInt();
+        if (n == -1)
+            return null;
+        if ((n < 0) || (n > 65536))
+            throw new StreamCorruptedException("Bad array size: " + n);
+        double[] a = new double[n];
+        for (int i = 0; i < n; i++) {
+            a[i] = in.readDouble();
+        }
+        return a;
+    }
+}
@@ -0,0 +1,989 @@
+/*
+
+   Licensed to the Apache Software Foundation (ASF) under one or more
+   contributor license agreements.  See the NOTICE file distributed with
+   this work for additional information regarding copyright ownership.
+   The ASF licenses this file to You under the Apache License, Version 2.0
+   (the "License"); you may not use this file except in compliance with
+   the License.  You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+ */
+package org.apache.batik.gvt.snapshot;
+
+import java.awt.AlphaComposite;
+import java.awt.BasicStroke;
+import java.awt.Color;
+import java.awt.Composite;
+import java.awt.Paint;
+import java.awt.Point;
+import java.awt.Rectangle;
+import java.awt.RenderingHints;
+import java.awt.Shape;
+import java.awt.Stroke;
+import java.awt.geom.AffineTransform;
+import java.awt.geom.Ellipse2D;
+import java.awt.geom.Line2D;
+import java.awt.geom.Path2D;
+import java.awt.geom.PathIterator;
+import java.awt.geom.Point2D;
+import java.awt.geom.Rectangle2D;
+import java.awt.geom.RoundRectangle2D;
+import java.awt.image.Kernel;
+import java.awt.image.Raster;
+import java.awt.image.RenderedImage;
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.NotSerializableException;
+import java.io.OutputStream;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+import org.apache.batik.ext.awt.LinearGradientPaint;
+import org.apache.batik.ext.awt.MultipleGradientPaint;
+import org.apache.batik.ext.awt.RadialGradientPaint;
+import org.apache.batik.ext.awt.geom.ExtendedGeneralPath;
+import org.apache.batik.ext.awt.geom.ExtendedPathIterator;
+import org.apache.batik.ext.awt.image.AbstractLight;
+import org.apache.batik.ext.awt.image.ComponentTransferFunction;
+import org.apache.batik.ext.awt.image.CompositeRule;
+import org.apache.batik.ext.awt.image.DistantLight;
+import org.apache.batik.ext.awt.image.GraphicsUtil;
+import org.apache.batik.ext.awt.image.Light;
+import org.apache.batik.ext.awt.image.PointLight;
+import org.apache.batik.ext.awt.image.SpotLight;
+import org.apache.batik.ext.awt.image.renderable.AbstractColorInterpolationRable;
+import org.apache.batik.ext.awt.image.renderable.AffineRable8Bit;
+import org.apache.batik.ext.awt.image.renderable.ClipRable;
+import org.apache.batik.ext.awt.image.renderable.ClipRable8Bit;
+import org.apache.batik.ext.awt.image.renderable.ColorMatrixRable8Bit;
+import org.apache.batik.ext.awt.image.renderable.ComponentTransferRable8Bit;
+import org.apache.batik.ext.awt.image.renderable.CompositeRable8Bit;
+import org.apache.batik.ext.awt.image.renderable.ConvolveMatrixRable8Bit;
+import org.apache.batik.ext.awt.image.renderable.DeferRable;
+import org.apache.batik.ext.awt.image.renderable.DiffuseLightingRable8Bit;
+import org.apache.batik.ext.awt.image.renderable.DisplacementMapRable8Bit;
+import org.apache.batik.ext.awt.image.renderable.Filter;
+import org.apache.batik.ext.awt.image.renderable.FilterAlphaRable;
+import org.apache.batik.ext.awt.image.renderable.FilterAsAlphaRable;
+import org.apache.batik.ext.awt.image.renderable.FilterChainRable8Bit;
+import org.apache.batik.ext.awt.image.renderable.FilterResRable;
+import org.apache.batik.ext.awt.image.renderable.FloodRable8Bit;
+import org.apache.batik.ext.awt.image.renderable.GaussianBlurRable8Bit;
+import org.apache.batik.ext.awt.image.renderable.MorphologyRable8Bit;
+import org.apache.batik.ext.awt.image.renderable.PadRable;
+import org.apache.batik.ext.awt.image.renderable.PadRable8Bit;
+import org.apache.batik.ext.awt.image.renderable.SpecularLightingRable8Bit;
+import org.apache.batik.ext.awt.image.renderable.TileRable8Bit;
+import org.apache.batik.ext.awt.image.renderable.TurbulenceRable8Bit;
+import org.apache.batik.ext.awt.image.rendered.Any2sRGBRed;
+import org.apache.batik.ext.awt.image.rendered.CachableRed;
+import org.apache.batik.ext.awt.image.rendered.FormatRed;
+import org.apache.batik.gvt.CanvasGraphicsNode;
+import org.apache.batik.gvt.CompositeGraphicsNode;
+import org.apache.batik.gvt.CompositeShapePainter;
+import org.apache.batik.gvt.FillShapePainter;
+import org.apache.batik.gvt.GraphicsNode;
+import org.apache.batik.gvt.ImageNode;
+import org.apache.batik.gvt.Marker;
+import org.apache.batik.gvt.MarkerShapePainter;
+import org.apache.batik.gvt.PatternPaint;
+import org.apache.batik.gvt.ProxyGraphicsNode;
+import org.apache.batik.gvt.RasterImageNode;
+import org.apache.batik.gvt.RootGraphicsNode;
+import org.apache.batik.gvt.ShapeNode;
+import org.apache.batik.gvt.ShapePainter;
+import org.apache.batik.gvt.StrokeShapePainter;
+import org.apache.batik.gvt.filter.BackgroundRable8Bit;
+import org.apache.batik.gvt.filter.GraphicsNodeRable;
+import org.apache.batik.gvt.filter.Mask;
+
+/**
+ * Writes a GVT tree as a snapshot that {@link GVTSnapshotReader} turns
+ * back into an equivalent tree, without the document, the CSS engine or
+ * the bridges the tree was built with.
+ *
+ * <p>The nodes, painters, paints and filters of the
+ * <code>org.apache.batik.gvt</code> and
+ * <code>org.apache.batik.ext.awt</code> packages are written as they
+ * are.  Any other node, such as text, is written as a composite of what
+ * its <code>primitivePaint</code> method draws (see
+ * {@link RecordingGraphics2D}): text is kept as the outlines of its
+ * glyphs, which can differ by a pixel from glyphs Java2D would have
+ * drawn hinted.  Any other filter not drawing a graphics node, such as
+ * a decoded image, is written as its pixels.  Paints, strokes and
+ * composites of other types, and BackgroundImage filters, cannot be
+ * written: a <code>NotSerializableException</code> is thrown for
+ * them.</p>
+ *
+ * @version $Id$
+ */
+public class GVTSnapshotWriter implements GVTSnapshotConstants {
+
+    /**
+     * The stream the snapshot is written to.
+     */
+    protected OutputStream output;
+
+    /**
+     * The stream the body of the snapshot is written to while it is
+     * being written.
+     */
+    protected DataOutputStream out;
+
+    /**
+     * The index of each shared object written.
+     */
+    protected Map objects = new IdentityHashMap();
+
+    /**
+     * The number of shared objects written.
+     */
+    protected int count;
+
+    /**
+     * Creates a writer to <code>os</code>.  The stream is not closed.
+     */
+    public GVTSnapshotWriter(OutputStream os) {
+        output = os;
+    }
+
+    /**
+     * Writes a snapshot of the tree rooted at <code>node</code>.
+     */
+    public void write(GraphicsNode node) throws IOException {
+        DataOutputStream header = new DataOutputStream(output);
+        header.writeInt(MAGIC);
+        header.writeShort(VERSION);
+        header.flush();
+
+        Deflater deflater = new Deflater();
+        try {
+            DeflaterOutputStream dos =
+                new DeflaterOutputStream(output, deflater);
+            out = new DataOutputStream(new BufferedOutputStream(dos));
+            writeNode(node);
+            out.flush();
+            dos.finish();
+            output.flush();
+        } finally {
+            deflater.end();
+            out = null;
+            objects.clear();
+            count = 0;
+        }
+    }
+
+    /**
+     * Writes a {@link #NULL} or a {@link #REF} if <code>o</code> is
+     * null or was already written, and returns true if so.
+     */
+    protected boolean writeReference(Object o) throws IOException {
+        if (o == null) {
+            out.writeByte(NULL);
+            return true;
+        }
+        Integer index = (Integer)objects.get(o);
+        if (index == null)
+            return false;
+        out.writeByte(REF);
+        out.writeInt(index.intValue());
+        return true;
+    }
+
+    /**
+     * Records that <code>o</code> was written.
+     */
+    protected void register(Object o) {
+        objects.put(o, Integer.valueOf(count++));
+    }
+
+    /**
+     * Returns an exception for an object that cannot be written.
+     */
+    protected static IOException unsupported(Object o) {
+        return new NotSerializableException(o.getClass().getName());
+    }
+
+    // Nodes ///////////////////////////////////////////////////////////
+
+    /**
+     * Writes a graphics node, its content and its effects.
+     */
+    protected void writeNode(GraphicsNode node) throws IOException {
+        if (writeReference(node))
+            return;
+
+        Class c = node.getClass();
+        if (c == ShapeNode.class) {
+            ShapeNode sn = (ShapeNode)node;
+            writeNodeTag(node, NODE_SHAPE);
+            writeProperties(node);
+            writeShape(sn.getShape());
+            writePainter(sn.getShapePainter());
+        } else if (c == RasterImageNode.class) {
+            writeNodeTag(node, NODE_RASTER);
+            writeProperties(node);
+            writeFilter(((RasterImageNode)node).getImage());
+        } else if (c == ProxyGraphicsNode.class) {
+            writeNodeTag(node, NODE_PROXY);
+            writeProperties(node);
+            writeNode(((ProxyGraphicsNode)node).getSource());
+        } else if (c == ImageNode.class) {
+            ImageNode in = (ImageNode)node;
+            writeNodeTag(node, NODE_IMAGE);
+            writeProperties(node);
+            out.writeBoolean(in.getHitCheckChildren());
+            writeNode(in.getImage());
+        } else if (c == CanvasGraphicsNode.class) {
+            CanvasGraphicsNode cgn = (CanvasGraphicsNode)node;
+            writeNodeTag(node, NODE_CANVAS);
+            writeTransform(cgn.getPositionTransform());
+            writeTransform(cgn.getViewingTransform());
+            writePaint(cgn.getBackgroundPaint());
+            writeProperties(node);
+            writeChildren(cgn);
+        } else if (c == RootGraphicsNode.class) {
+            writeNodeTag(node, NODE_ROOT);
+            writeProperties(node);
+            writeChildren((CompositeGraphicsNode)node);
+        } else if (c == CompositeGraphicsNode.class) {
+            writeNodeTag(node, NODE_COMPOSITE);
+            writeProperties(node);
+            writeChildren((CompositeGraphicsNode)node);
+        } else {
+            // Record what the node draws.
+            CompositeGraphicsNode content = new CompositeGraphicsNode();
+            RecordingGraphics2D g = new RecordingGraphics2D(content);
+            node.primitivePaint(g);
+            g.dispose();
+            writeNodeTag(node, NODE_COMPOSITE);
+            writeProperties(node);
+            writeChildren(content);
+        }
+        writeEffects(node);
+    }
+
+    /**
+     * Writes the tag of a node and records it as written.
+     */
+    protected void writeNodeTag(GraphicsNode node, byte tag)
+        throws IOException {
+        register(node);
+        out.writeByte(tag);
+    }
+
+    /**
+     * Writes the transform, composite, visibility, pointer event type
+     * and rendering hints of a node.
+     */
+    protected void writeProperties(GraphicsNode node) throws IOException {
+        writeTransform(node.getTransform());
+        writeComposite(node.getComposite());
+        out.writeBoolean(node.isVisible());
+        out.writeInt(node.getPointerEventType());
+        writeHints(node.getRenderingHints());
+    }
+
+    /**
+     * Writes the background enable region and the children of a
+     * composite node.
+     */
+    protected void writeChildren(CompositeGraphicsNode node)
+        throws IOException {
+        writeRectangle(node.getBackgroundEnable());
+        List children = node.getChildren();
+        out.writeInt(children.size());
+        Iterator i = children.iterator();
+        while (i.hasNext()) {
+            writeNode((GraphicsNode)i.next());
+        }
+    }
+
+    /**
+     * Writes the filter, clip and mask of a node.  Clips and masks are
+     * rebuilt on the node's filter when read.
+     */
+    protected void writeEffects(GraphicsNode node) throws IOException {
+        writeFilter(node.getFilter());
+
+        ClipRable clip = node.getClip();
+        out.writeBoolean(clip != null);
+        if (clip != null) {
+            writeShape(clip.getClipPath());
+            out.writeBoolean(clip.getUseAntialiasedClip());
+        }
+
+        Mask mask = node.getMask();
+        out.writeBoolean(mask != null);
+        if (mask != null) {
+            writeNode(mask.getMaskNode());
+            writeRectangle(mask.getFilterRegion());
+        }
+    }
+
+    /**
+     * Writes a composite, which must be an <code>AlphaComposite</code>.
+     */
+    protected void writeComposite(Composite c) throws IOException {
+        if (c == null) {
+            out.writeByte(NULL);
+        } else if (c instanceof AlphaComposite) {
+            AlphaComposite ac = (AlphaComposite)c;
+            out.writeByte(COMPOSITE_ALPHA);
+            out.writeByte(ac.getRule());
+            out.writeFloat(ac.getAlpha());
+        } else {
+            throw unsupported(c);
+        }
+    }
+
+    /**
+     * Writes rendering hints, which must be among the
+     * {@link #HINT_KEYS}.
+     */
+    protected void writeHints(RenderingHints hints) throws IOException {
+        if (hints == null) {
+            out.writeInt(-1);
+            return;
+        }
+        out.writeInt(hints.size());
+        Iterator i = hints.entrySet().iterator();
+        while (i.hasNext()) {
+            Map.Entry e = (Map.Entry)i.next();
+            int k = indexOf(HINT_KEYS, e.getKey());
+            int v = (k == -1) ? -1 : indexOf(HINT_VALUES[k], e.getValue());
+            if (v == -1)
+                throw new NotSerializableException(String.valueOf(e.getKey()));
+            out.writeByte(k);
+            out.writeByte(v);
+        }
+    }
+
+    private static int indexOf(Object[] a, Object o) {
+        for (int i = 0; i < a.length; i++) {
+            if (a[i].equals(o))
+                return i;
+        }
+        return -1;
+    }
+
+    // Geometry ////////////////////////////////////////////////////////
+
+    /**
+     * Writes a transform, which may be null.
+     */
+    protected void writeTransform(AffineTransform at) throws IOException {
+        out.writeBoolean(at != null);
+        if (at == null)
+            return;
+        double[] m = new double[6];
+        at.getMatrix(m);
+        for (int i = 0; i < m.length; i++) {
+            out.writeDouble(m[i]);
+        }
+    }
+
+    /**
+     * Writes a rectangle, which may be null.
+     */
+    protected void writeRectangle(Rectangle2D r) throws IOException {
+        out.writeBoolean(r != null);
+        if (r == null)
+            return;
+        out.writeDouble(r.getX());
+        out.writeDouble(r.getY());
+        out.writeDouble(r.getWidth());
+        out.writeDouble(r.getHeight());
+    }
+
+    /**
+     * Writes a point.
+     */
+    protected void writePoint(Point2D p) throws IOException {
+        out.writeDouble(p.getX());
+        out.writeDouble(p.getY());
+    }
+
+    /**
+     * Writes a shape.  Rectangles, lines, ellipses, rounded rectangles
+     * and paths are kept as they are, since Java2D renders some of them
+     * differently than their outline, and the arcs of
+     * <code>ExtendedGeneralPath</code>s are kept as arcs; other shapes
+     * are written as their outline.
+     */
+    protected void writeShape(Shape s) throws IOException {
+        if (s == null) {
+            out.writeByte(NULL);
+        } else if (s instanceof Rectangle2D) {
+            out.writeByte(SHAPE_RECTANGLE);
+            Rectangle2D r = (Rectangle2D)s;
+            out.writeDouble(r.getX());
+            out.writeDouble(r.getY());
+            out.writeDouble(r.getWidth());
+            out.writeDouble(r.getHeight());
+        } else if (s instanceof Line2D) {
+            out.writeByte(SHAPE_LINE);
+            Line2D l = (Line2D)s;
+            out.writeDouble(l.getX1());
+            out.writeDouble(l.getY1());
+            out.writeDouble(l.getX2());
+            out.writeDouble(l.getY2());
+        } else if (s instanceof Ellipse2D) {
+            out.writeByte(SHAPE_ELLIPSE);
+            Ellipse2D e = (Ellipse2D)s;
+            out.writeDouble(e.getX());
+            out.writeDouble(e.getY());
+            out.writeDouble(e.getWidth());
+            out.writeDouble(e.getHeight());
+        } else if (s instanceof RoundRectangle2D) {
+            out.writeByte(SHAPE_ROUND_RECTANGLE);
+            RoundRectangle2D r = (RoundRectangle2D)s;
+            out.writeDouble(r.getX());
+            out.writeDouble(r.getY());
+            out.writeDouble(r.getWidth());
+            out.writeDouble(r.getHeight());
+            out.writeDouble(r.getArcWidth());
+            out.writeDouble(r.getArcHeight());
+        } else if (s instanceof ExtendedGeneralPath) {
+            out.writeByte(SHAPE_EXTENDED_PATH);
+            ExtendedPathIterator epi =
+                ((ExtendedGeneralPath)s).getExtendedPathIterator();
+            out.writeByte(epi.getWindingRule());
+            float[] coords = new float[7];
+            while (!epi.isDone()) {
+                int seg = epi.currentSegment(coords);
+                if (seg == ExtendedPathIterator.SEG_ARCTO)
+                    seg = SEGMENT_ARCTO;
+                out.writeByte(seg);
+                int n = getCoordinateCount(seg);
+                for (int i = 0; i < n; i++) {
+                    out.writeFloat(coords[i]);
+                }
+                epi.next();
+            }
+            out.writeByte(SEGMENT_END);
+        } else if (s instanceof Path2D.Float) {
+            out.writeByte(SHAPE_PATH);
+            PathIterator pi = s.getPathIterator(null);
+            out.writeByte(pi.getWindingRule());
+            float[] coords = new float[6];
+            while (!pi.isDone()) {
+                int seg = pi.currentSegment(coords);
+                out.writeByte(seg);
+                int n = getCoordinateCount(seg);
+                for (int i = 0; i < n; i++) {
+                    out.writeFloat(coords[i]);
+                }
+                pi.next();
+            }
+            out.writeByte(SEGMENT_END);
+        } else {
+            out.writeByte(SHAPE_DOUBLE_PATH);
+            PathIterator pi = s.getPathIterator(null);
+            out.writeByte(pi.getWindingRule());
+            double[] coords = new double[6];
+            while (!pi.isDone()) {
+                int seg = pi.currentSegment(coords);
+                out.writeByte(seg);
+                int n = getCoordinateCount(seg);
+                for (int i = 0; i < n; i++) {
+                    out.writeDouble(coords[i]);
+                }
+                pi.next();
+            }
+            out.writeByte(SEGMENT_END);
+        }
+    }
+
+    /**
+     * Returns the number of coordinates of a path segment.
+     */
+    static int getCoordinateCount(int seg) {
+        switch (seg) {
+        case PathIterator.SEG_MOVETO:
+        case PathIterator.SEG_LINETO:
+            return 2;
+        case PathIterator.SEG_QUADTO:
+            return 4;
+        case PathIterator.SEG_CUBICTO:
+            return 6;
+        case SEGMENT_ARCTO:
+            return 7;
+        default:
+            return 0;
+        }
+    }
+
+    // Painters and paints /////////////////////////////////////////////
+
+    /**
+     * Writes a shape painter.  When read, it paints the shape of the
+     * node read.
+     */
+    protected void writePainter(ShapePainter p) throws IOException {
+        if (p == null) {
+            out.writeByte(NULL);
+        } else if (p instanceof FillShapePainter) {
+            out.writeByte(PAINTER_FILL);
+            writePaint(((FillShapePainter)p).getPaint());
+        } else if (p instanceof StrokeShapePainter) {
+            StrokeShapePainter ssp = (StrokeShapePainter)p;
+            out.writeByte(PAINTER_STROKE);
+            writeStroke(ssp.getStroke());
+            writePaint(ssp.getPaint());
+        } else if (p instanceof MarkerShapePainter) {
+            MarkerShapePainter msp = (MarkerShapePainter)p;
+            out.writeByte(PAINTER_MARKER);
+            writeMarker(msp.getStartMarker());
+            writeMarker(msp.getMiddleMarker());
+            writeMarker(msp.getEndMarker());
+        } else if (p instanceof CompositeShapePainter) {
+            CompositeShapePainter csp = (CompositeShapePainter)p;
+            int n = csp.getShapePainterCount();
+            out.writeByte(PAINTER_COMPOSITE);
+            out.writeInt(n);
+            for (int i = 0; i < n; i++) {
+                writePainter(csp.getShapePainter(i));
+            }
+        } else {
+            throw unsupported(p);
+        }
+    }
+
+    /**
+     * Writes a marker, which may be shared.
+     */
+    protected void writeMarker(Marker m) throws IOException {
+        if (writeReference(m))
+            return;
+        out.writeByte(MARKER);
+        writePoint(m.getRef());
+        out.writeDouble(m.getOrient());
+        writeNode(m.getMarkerNode());
+        register(m);
+    }
+
+    /**
+     * Writes a stroke, which must be a <code>BasicStroke</code>.
+     */
+    protected void writeStroke(Stroke s) throws IOException {
+        if (s == null) {
+            out.writeByte(NULL);
+            return;
+        }
+        if (!(s instanceof BasicStroke))
+            throw unsupported(s);
+
+        BasicStroke bs = (BasicStroke)s;
+        out.writeByte(STROKE_BASIC);
+        out.writeFloat(bs.getLineWidth());
+        out.writeByte(bs.getEndCap());
+        out.writeByte(bs.getLineJoin());
+        out.writeFloat(bs.getMiterLimit());
+        float[] dash = bs.getDashArray();
+        out.writeInt((dash == null) ? -1 : dash.length);
+        if (dash != null) {
+            for (int i = 0; i < dash.length; i++) {
+                out.writeFloat(dash[i]);
+            }
+        }
+        out.writeFloat(bs.getDashPhase());
+    }
+
+    /**
+     * Writes a paint: a color, a gradient or a pattern.
+     */
+    protected void writePaint(Paint p) throws IOException {
+        if (p instanceof Color) {
+            out.writeByte(PAINT_COLOR);
+            out.writeInt(((Color)p).getRGB());
+            return;
+        }
+        if (writeReference(p))
+            return;
+
+        if (p instanceof LinearGradientPaint) {
+            LinearGradientPaint lgp = (LinearGradientPaint)p;
+            out.writeByte(PAINT_LINEAR_GRADIENT);
+            writePoint(lgp.getStartPoint());
+            writePoint(lgp.getEndPoint());
+            writeGradient(lgp);
+        } else if (p instanceof RadialGradientPaint) {
+            RadialGradientPaint rgp = (RadialGradientPaint)p;
+            out.writeByte(PAINT_RADIAL_GRADIENT);
+            writePoint(rgp.getCenterPoint());
+            out.writeFloat(rgp.getRadius());
+            writePoint(rgp.getFocusPoint());
+            writeGradient(rgp);
+        } else if (p instanceof PatternPaint) {
+            PatternPaint pp = (PatternPaint)p;
+            out.writeByte(PAINT_PATTERN);
+            writeNode(pp.getGraphicsNode());
+            writeRectangle(pp.getPatternRect());
+            out.writeBoolean(pp.getOverflow());
+            writeTransform(pp.getPatternTransform());
+        } else {
+            throw unsupported(p);
+        }
+        register(p);
+    }
+
+    /**
+     * Writes the stops, cycle method, color space and transform of a
+     * gradient.
+     */
+    protected void writeGradient(MultipleGradientPaint p) throws IOException {
+        float[] fractions = p.getFractions();
+        Color[] colors = p.getColors();
+        out.writeInt(fractions.length);
+        for (int i = 0; i < fractions.length; i++) {
+            out.writeFloat(fractions[i]);
+            out.writeInt(colors[i].getRGB());
+        }
+
+        Object cycle = p.getCycleMethod();
+        if (cycle == MultipleGradientPaint.REFLECT)
+            out.writeByte(1);
+        else if (cycle == MultipleGradientPaint.REPEAT)
+            out.writeByte(2);
+        else
+            out.writeByte(0);
+        out.writeBoolean(p.getColorSpace() == MultipleGradientPaint.LINEAR_RGB);
+        writeTransform(p.getTransform());
+    }
+
+    // Filters /////////////////////////////////////////////////////////
+
+    /**
+     * Writes a filter and its sources.
+     */
+    protected void writeFilter(Filter f) throws IOException {
+        while (f instanceof DeferRable)
+            f = ((DeferRable)f).getSource();
+        if (writeReference(f))
+            return;
+
+        if (f instanceof GraphicsNodeRable) {
+            GraphicsNodeRable gnr = (GraphicsNodeRable)f;
+            GraphicsNode node = gnr.getGraphicsNode();
+            out.writeByte(FILTER_GRAPHICS_NODE);
+            out.writeBoolean(f == node.getGraphicsNodeRable(false));
+            out.writeBoolean(gnr.getUsePrimitivePaint());
+            writeNode(node);
+        } else if (f instanceof FilterChainRable8Bit) {
+            FilterChainRable8Bit fc = (FilterChainRable8Bit)f;
+            Filter src = ((PadRable)fc.getSource()).getSource();
+            out.writeByte(FILTER_CHAIN);
+            writeRectangle(fc.getFilterRegion());
+            boolean res = src instanceof FilterResRable;
+            out.writeBoolean(res);
+            if (res) {
+                out.writeInt(fc.getFilterResolutionX());
+                out.writeInt(fc.getFilterResolutionY());
+                src = ((FilterResRable)src).getSource();
+            }
+            writeFilter(src);
+        } else if (f instanceof PadRable8Bit) {
+            PadRable8Bit pad = (PadRable8Bit)f;
+            out.writeByte(FILTER_PAD);
+            writeRectangle(pad.getPadRect());
+            out.writeByte(pad.getPadMode().getMode());
+            writeFilter(pad.getSource());
+        } else if (f instanceof ClipRable8Bit) {
+            ClipRable8Bit clip = (ClipRable8Bit)f;
+            out.writeByte(FILTER_CLIP);
+            writeShape(clip.getClipPath());
+            out.writeBoolean(clip.getUseAntialiasedClip());
+            writeFilter(clip.getSource());
+        } else if (f instanceof AffineRable8Bit) {
+            AffineRable8Bit ar = (AffineRable8Bit)f;
+            out.writeByte(FILTER_AFFINE);
+            writeTransform(ar.getAffine());
+            writeFilter(ar.getSource());
+        } else if (f instanceof GaussianBlurRable8Bit) {
+            GaussianBlurRable8Bit gb = (GaussianBlurRable8Bit)f;
+            out.writeByte(FILTER_GAUSSIAN_BLUR);
+            out.writeDouble(gb.getStdDeviationX());
+            out.writeDouble(gb.getStdDeviationY());
+            writeFilter(gb.getSource());
+        } else if (f instanceof CompositeRable8Bit) {
+            CompositeRule rule = ((CompositeRable8Bit)f).getCompositeRule();
+            out.writeByte(FILTER_COMPOSITE);
+            out.writeByte(rule.getRule());
+            if (rule.getRule() == CompositeRule.RULE_ARITHMETIC) {
+                float[] k = rule.getCoefficients();
+                for (int i = 0; i < 4; i++) {
+                    out.writeFloat(k[i]);
+                }
+            }
+            writeSources(f);
+        } else if (f instanceof FloodRable8Bit) {
+            FloodRable8Bit fl = (FloodRable8Bit)f;
+            out.writeByte(FILTER_FLOOD);
+            writeRectangle(fl.getFloodRegion());
+            writePaint(fl.getFloodPaint());
+        } else if (f instanceof ColorMatrixRable8Bit) {
+            ColorMatrixRable8Bit cm = (ColorMatrixRable8Bit)f;
+            float[][] m = cm.getMatrix();
+            out.writeByte(FILTER_COLOR_MATRIX);
+            for (int i = 0; i < 4; i++) {
+                for (int j = 0; j < 5; j++) {
+                    out.writeFloat(m[i][j]);
+                }
+            }
+            writeFilter(cm.getSource());
+        } else if (f instanceof FilterAlphaRable) {
+            out.writeByte(FILTER_ALPHA);
+            writeFilter(((FilterAlphaRable)f).getSource());
+        } else if (f instanceof FilterAsAlphaRable) {
+            out.writeByte(FILTER_AS_ALPHA);
+            writeFilter(((FilterAsAlphaRable)f).getSource());
+        } else if (f instanceof ComponentTransferRable8Bit) {
+            ComponentTransferRable8Bit ct = (ComponentTransferRable8Bit)f;
+            out.writeByte(FILTER_COMPONENT_TRANSFER);
+            writeTransferFunction(ct.getAlphaFunction());
+            writeTransferFunction(ct.getRedFunction());
+            writeTransferFunction(ct.getGreenFunction());
+            writeTransferFunction(ct.getBlueFunction());
+            writeFilter(ct.getSource());
+        } else if (f instanceof MorphologyRable8Bit) {
+            MorphologyRable8Bit mr = (MorphologyRable8Bit)f;
+            out.writeByte(FILTER_MORPHOLOGY);
+            out.writeDouble(mr.getRadiusX());
+            out.writeDouble(mr.getRadiusY());
+            out.writeBoolean(mr.getDoDilation());
+            writeFilter(mr.getSource());
+        } else if (f instanceof TileRable8Bit) {
+            TileRable8Bit tr = (TileRable8Bit)f;
+            out.writeByte(FILTER_TILE);
+            writeRectangle(tr.getTiledRegion());
+            writeRectangle(tr.getTileRegion());
+            out.writeBoolean(tr.isOverflow());
+            writeFilter(tr.getSource());
+        } else if (f instanceof TurbulenceRable8Bit) {
+            TurbulenceRable8Bit tr = (TurbulenceRable8Bit)f;
+            out.writeByte(FILTER_TURBULENCE);
+            writeRectangle(tr.getTurbulenceRegion());
+            out.writeInt(tr.getSeed());
+            out.writeInt(tr.getNumOctaves());
+            out.writeDouble(tr.getBaseFrequencyX());
+            out.writeDouble(tr.getBaseFrequencyY());
+            out.writeBoolean(tr.isStitched());
+            out.writeBoolean(tr.isFractalNoise());
+        } else if (f instanceof DisplacementMapRable8Bit) {
+            DisplacementMapRable8Bit dm = (DisplacementMapRable8Bit)f;
+            out.writeByte(FILTER_DISPLACEMENT_MAP);
+            out.writeDouble(dm.getScale());
+            out.writeByte(dm.getXChannelSelector().toInt());
+            out.writeByte(dm.getYChannelSelector().toInt());
+            writeSources(f);
+        } else if (f instanceof ConvolveMatrixRable8Bit) {
+            ConvolveMatrixRable8Bit cm = (ConvolveMatrixRable8Bit)f;
+            Kernel k = cm.getKernel();
+            Point target = cm.getTarget();
+            out.writeByte(FILTER_CONVOLVE_MATRIX);
+            out.writeInt(k.getWidth());
+            out.writeInt(k.getHeight());
+            float[] data = k.getKernelData(null);
+            for (int i = 0; i < data.length; i++) {
+                out.writeFloat(data[i]);
+            }
+            out.writeInt(target.x);
+            out.writeInt(target.y);
+            out.writeDouble(cm.getBias());
+            out.writeByte(cm.getEdgeMode().getMode());
+            writeDoubles(cm.getKernelUnitLength());
+            out.writeBoolean(cm.getPreserveAlpha());
+            writeFilter(cm.getSource());
+        } else if (f instanceof DiffuseLightingRable8Bit) {
+            DiffuseLightingRable8Bit dl = (DiffuseLightingRable8Bit)f;
+            out.writeByte(FILTER_DIFFUSE_LIGHTING);
+            writeRectangle(dl.getLitRegion());
+            writeLight(dl.getLight());
+            out.writeDouble(dl.getKd());
+            out.writeDouble(dl.getSurfaceScale());
+            writeDoubles(dl.getKernelUnitLength());
+            writeFilter(dl.getSource());
+        } else if (f instanceof SpecularLightingRable8Bit) {
+            SpecularLightingRable8Bit sl = (SpecularLightingRable8Bit)f;
+            out.writeByte(FILTER_SPECULAR_LIGHTING);
+            writeRectangle(sl.getLitRegion());
+            writeLight(sl.getLight());
+            out.writeDouble(sl.getKs());
+            out.writeDouble(sl.getSpecularExponent());
+            out.writeDouble(sl.getSurfaceScale());
+            writeDoubles(sl.getKernelUnitLength());
+            writeFilter(sl.getSource());
+        } else if (isRasterizable(f)) {
+            writeRaster(f);
+            register(f);
+            return;
+        } else {
+            throw unsupported(f);
+        }
+
+        if (f instanceof AbstractColorInterpolationRable) {
+            out.writeBoolean
+                (((AbstractColorInterpolationRable)f).isColorSpaceLinear());
+        }
+        register(f);
+    }
+
+    /**
+     * Writes the sources of a filter with several sources.
+     */
+    protected void writeSources(Filter f) throws IOException {
+        List srcs = f.getSources();
+        out.writeInt(srcs.size());
+        Iterator i = srcs.iterator();
+        while (i.hasNext()) {
+            writeFilter((Filter)i.next());
+        }
+    }
+
+    /**
+     * Returns true if <code>f</code> can be written as its pixels:
+     * if it does not depend on graphics nodes.
+     */
+    protected boolean isRasterizable(Filter f) {
+        if ((f instanceof GraphicsNodeRable)
+            || (f instanceof BackgroundRable8Bit))
+            return false;
+        List srcs = f.getSources();
+        if (srcs != null) {
+            Iterator i = srcs.iterator();
+            while (i.hasNext()) {
+                Object src = i.next();
+                if ((src instanceof Filter) && !isRasterizable((Filter)src))
+                    return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Writes the bounds and the default rendering of a filter, as
+     * unpremultiplied sRGB pixels.
+     */
+    protected void writeRaster(Filter f) throws IOException {
+        out.writeByte(FILTER_RASTER);
+        writeRectangle(f.getBounds2D());
+
+        RenderedImage ri = f.createDefaultRendering();
+        if (ri == null) {
+            out.writeInt(0);
+            out.writeInt(0);
+            out.writeInt(0);
+            out.writeInt(0);
+            return;
+        }
+        CachableRed cr = GraphicsUtil.wrap(ri);
+        cr = new Any2sRGBRed(cr);
+        cr = new FormatRed(cr, GraphicsUtil.sRGB_Unpre);
+        Rectangle r = cr.getBounds();
+        out.writeInt(r.x);
+        out.writeInt(r.y);
+        out.writeInt(r.width);
+        out.writeInt(r.height);
+        Raster ras = cr.getData();
+        int[] row = new int[r.width];
+        for (int y = r.y; y < r.y + r.height; y++) {
+            ras.getDataElements(r.x, y, r.width, 1, row);
+            for (int x = 0; x < r.width; x++) {
+                out.writeInt(row[x]);
+            }
+        }
+    }
+
+    /**
+     * Writes a component transfer function, which may be null.
+     */
+    protected void writeTransferFunction(ComponentTransferFunction f)
+        throws IOException {
+        if (f == null) {
+            out.writeByte(-1);
+            return;
+        }
+        int type = f.getType();
+        out.writeByte(type);
+        switch (type) {
+        case ComponentTransferFunction.TABLE:
+        case ComponentTransferFunction.DISCRETE:
+            float[] v = f.getTableValues();
+            out.writeInt(v.length);
+            for (int i = 0; i < v.length; i++) {
+                out.writeFloat(v[i]);
+            }
+            break;
+        case ComponentTransferFunction.LINEAR:
+            out.writeFloat(f.getSlope());
+            out.writeFloat(f.getIntercept());
+            break;
+        case ComponentTransferFunction.GAMMA:
+            out.writeFloat(f.getAmplitude());
+            out.writeFloat(f.getExponent());
+            out.writeFloat(f.getOffset());
+            break;
+        }
+    }
+
+    /**
+     * Writes the light of a lighting filter.
+     */
+    protected void writeLight(Light l) throws IOException {
+        if (l instanceof DistantLight) {
+            DistantLight dl = (DistantLight)l;
+            out.writeByte(LIGHT_DISTANT);
+            out.writeDouble(dl.getAzimuth());
+            out.writeDouble(dl.getElevation());
+        } else if (l instanceof PointLight) {
+            PointLight pl = (PointLight)l;
+            out.writeByte(LIGHT_POINT);
+            out.writeDouble(pl.getLightX());
+            out.writeDouble(pl.getLightY());
+            out.writeDouble(pl.getLightZ());
+        } else if (l instanceof SpotLight) {
+            SpotLight sl = (SpotLight)l;
+            out.writeByte(LIGHT_SPOT);
+            out.writeDouble(sl.getLightX());
+            out.writeDouble(sl.getLightY());
+            out.writeDouble(sl.getLightZ());
+            out.writeDouble(sl.getPointAtX());
+            out.writeDouble(sl.getPointAtY());
+            out.writeDouble(sl.getPointAtZ());
+            out.writeDouble(sl.getSpecularExponent());
+            out.writeDouble(sl.getLimitingConeAngle());
+        } else {
+            throw unsupported(l);
+        }
+        double[] c = ((AbstractLight)l).getColor(false);
+        out.writeInt(new Color((int)Math.round(c[0] * 255),
+                               (int)Math.round(c[1] * 255),
+                               (int)Math.round(c[2] * 255)).getRGB());
+    }
+
+    /**
+     * Writes an array of doubles, which may be null.
+     */
+    protected void writeDoubles(double[] a) throws IOException {
+        out.writeInt((a == null) ? -1 : a.length);
+        if (a != null) {
+            for (int i = 0; i < a.length; i++) {
+                out.writeDouble(a[i]);
+            }
+        }
+    }
+}
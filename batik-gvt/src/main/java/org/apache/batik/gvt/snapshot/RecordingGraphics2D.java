@@ -0,0 +1,310 @@
+/*
+
+   Licensed to the Apache Software Foundation (ASF) under one or more
+   contributor license agreements.  See the NOTICE file distributed with
+   this work for additional information regarding copyright ownership.
+   The ASF licenses this file to You under the Apache License, Version 2.0
+   (the "License"); you may not use this file except in compliance with
+   the License.  You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+ */
+package org.apache.batik.gvt.snapshot;
+
+import java.awt.AlphaComposite;
+import java.awt.BasicStroke;
+import java.awt.Color;
+import java.awt.Composite;
+import java.awt.Font;
+import java.awt.FontMetrics;
+import java.awt.Graphics;
+import java.awt.Graphics2D;
+import java.awt.GraphicsConfiguration;
+import java.awt.Image;
+import java.awt.Paint;
+import java.awt.RenderingHints;
+import java.awt.Shape;
+import java.awt.Stroke;
+import java.awt.font.TextLayout;
+import java.awt.geom.AffineTransform;
+import java.awt.image.BufferedImage;
+import java.awt.image.ImageObserver;
+import java.awt.image.RenderedImage;
+import java.awt.image.renderable.RenderableImage;
+import java.text.AttributedCharacterIterator;
+
+import org.apache.batik.ext.awt.g2d.AbstractGraphics2D;
+import org.apache.batik.ext.awt.g2d.GraphicContext;
+import org.apache.batik.ext.awt.image.GraphicsUtil;
+import org.apache.batik.ext.awt.image.renderable.ClipRable8Bit;
+import org.apache.batik.ext.awt.image.renderable.Filter;
+import org.apache.batik.ext.awt.image.renderable.RedRable;
+import org.apache.batik.ext.awt.image.rendered.BufferedImageCachableRed;
+import org.apache.batik.gvt.AbstractGraphicsNode;
+import org.apache.batik.gvt.CompositeGraphicsNode;
+import org.apache.batik.gvt.FillShapePainter;
+import org.apache.batik.gvt.RasterImageNode;
+import org.apache.batik.gvt.ShapeNode;
+import org.apache.batik.gvt.StrokeShapePainter;
+
+/**
+ * A Graphics2D that turns what is drawn into it into graphics nodes,
+ * added to a <code>CompositeGraphicsNode</code>: shapes and text
+ * outlines become <code>ShapeNode</code>s and images become
+ * <code>RasterImageNode</code>s, with the transform, composite, clip
+ * and rendering hints in effect when they were drawn.
+ *
+ * <p>The shapes drawn are kept as they are, not copied.  XOR mode and
+ * <code>copyArea</code> cannot be recorded and are ignored.</p>
+ *
+ * @version $Id$
+ */
+public class RecordingGraphics2D extends AbstractGraphics2D
+    implements GVTSnapshotConstants {
+
+    /**
+     * Used to get font metrics.
+     */
+    protected static final Graphics2D FMG;
+
+    static {
+        BufferedImage bi = new BufferedImage(1, 1, BufferedImage.TYPE_INT_ARGB);
+        FMG = bi.createGraphics();
+    }
+
+    /**
+     * The node the recorded nodes are added to.
+     */
+    protected CompositeGraphicsNode target;
+
+    /**
+     * The rendering hints the recording started with.
+     */
+    protected RenderingHints initialHints;
+
+    /**
+     * Creates a Graphics2D that records into <code>target</code>.
+     */
+    public RecordingGraphics2D(CompositeGraphicsNode target) {
+        super(true);
+        this.gc = new GraphicContext();
+        this.target = target;
+        this.initialHints = (RenderingHints)gc.getRenderingHints().clone();
+    }
+
+    /**
+     * Creates a copy of <code>g</code>, recording into the same node.
+     */
+    public RecordingGraphics2D(RecordingGraphics2D g) {
+        super(g);
+        this.target = g.target;
+        this.initialHints = g.initialHints;
+    }
+
+    public Graphics create() {
+        return new RecordingGraphics2D(this);
+    }
+
+    public void dispose() {
+    }
+
+    public void fill(Shape s) {
+        ShapeNode node = new ShapeNode();
+        node.setShape(s);
+        FillShapePainter painter = new FillShapePainter(s);
+        Paint paint = getShapePaint();
+        painter.setPaint(paint);
+        node.setShapePainter(painter);
+        record(node, null, paint != gc.getPaint());
+    }
+
+    public void draw(Shape s) {
+        Stroke stroke = gc.getStroke();
+        if (!(stroke instanceof BasicStroke)) {
+            fill(stroke.createStrokedShape(s));
+            return;
+        }
+        ShapeNode node = new ShapeNode();
+        node.setShape(s);
+        StrokeShapePainter painter = new StrokeShapePainter(s);
+        painter.setStroke(stroke);
+        Paint paint = getShapePaint();
+        painter.setPaint(paint);
+        node.setShapePainter(painter);
+        record(node, null, paint != gc.getPaint());
+    }
+
+    public void drawString(String s, float x, float y) {
+        if (s.length() == 0)
+            return;
+        TextLayout layout = new TextLayout(s, gc.getFont(),
+                                           getFontRenderContext());
+        fill(layout.getOutline
+             (AffineTransform.getTranslateInstance(x, y)));
+    }
+
+    public void drawString(AttributedCharacterIterator iterator,
+                           float x, float y) {
+        if (iterator.getBeginIndex() == iterator.getEndIndex())
+            return;
+        TextLayout layout = new TextLayout(iterator, getFontRenderContext());
+        fill(layout.getOutline
+             (AffineTransform.getTranslateInstance(x, y)));
+    }
+
+    public boolean drawImage(Image img, int x, int y,
+                             ImageObserver observer) {
+        BufferedImage bi = toBufferedImage(img, observer);
+        if (bi == null)
+            return false;
+        recordImage(bi, AffineTransform.getTranslateInstance(x, y));
+        return true;
+    }
+
+    public boolean drawImage(Image img, int x, int y,
+                             int width, int height,
+                             ImageObserver observer) {
+        BufferedImage bi = toBufferedImage(img, observer);
+        if (bi == null)
+            return false;
+        AffineTransform at = AffineTransform.getTranslateInstance(x, y);
+        at.scale(width / (double)bi.getWidth(),
+                 height / (double)bi.getHeight());
+        recordImage(bi, at);
+        return true;
+    }
+
+    public void drawRenderedImage(RenderedImage img, AffineTransform xform) {
+        RasterImageNode node = new RasterImageNode();
+        node.setImage(new RedRable(GraphicsUtil.wrap(img)));
+        record(node, xform, false);
+    }
+
+    public void drawRenderableImage(RenderableImage img,
+                                    AffineTransform xform) {
+        if (img instanceof Filter) {
+            RasterImageNode node = new RasterImageNode();
+            node.setImage((Filter)img);
+            record(node, xform, false);
+        } else {
+            RenderedImage ri = img.createDefaultRendering();
+            if (ri != null)
+                drawRenderedImage(ri, xform);
+        }
+    }
+
+    public GraphicsConfiguration getDeviceConfiguration() {
+        return null;
+    }
+
+    public FontMetrics getFontMetrics(Font f) {
+        return FMG.getFontMetrics(f);
+    }
+
+    public void setXORMode(Color c) {
+    }
+
+    public void copyArea(int x, int y, int width, int height,
+                         int dx, int dy) {
+    }
+
+    /**
+     * Records an image, drawn with <code>at</code> on top of the current
+     * transform.
+     */
+    protected void recordImage(BufferedImage bi, AffineTransform at) {
+        RasterImageNode node = new RasterImageNode();
+        node.setImage(new RedRable(new BufferedImageCachableRed(bi)));
+        record(node, at, false);
+    }
+
+    /**
+     * Returns <code>img</code> as a BufferedImage, or null if its size
+     * is not known yet.
+     */
+    protected BufferedImage toBufferedImage(Image img,
+                                            ImageObserver observer) {
+        if (img instanceof BufferedImage)
+            return (BufferedImage)img;
+        int w = img.getWidth(observer);
+        int h = img.getHeight(observer);
+        if ((w <= 0) || (h <= 0))
+            return null;
+        BufferedImage bi = new BufferedImage(w, h, BufferedImage.TYPE_INT_ARGB);
+        Graphics2D g = bi.createGraphics();
+        g.drawImage(img, 0, 0, observer);
+        g.dispose();
+        return bi;
+    }
+
+    /**
+     * Returns the paint to record shapes with.  A node with a composite
+     * other than SrcOver is rendered offscreen, so the alpha of a
+     * SrcOver composite is folded into the paint when it is a color.
+     */
+    protected Paint getShapePaint() {
+        Paint paint = gc.getPaint();
+        Composite composite = gc.getComposite();
+        if (!(paint instanceof Color)
+            || !(composite instanceof AlphaComposite))
+            return paint;
+        AlphaComposite ac = (AlphaComposite)composite;
+        if ((ac.getRule() != AlphaComposite.SRC_OVER)
+            || (ac.getAlpha() == 1))
+            return paint;
+        Color c = (Color)paint;
+        int alpha = Math.round(c.getAlpha() * ac.getAlpha());
+        return new Color(c.getRed(), c.getGreen(), c.getBlue(), alpha);
+    }
+
+    /**
+     * Gives <code>node</code> the current state of this Graphics2D and
+     * adds it to the target.
+     *
+     * @param node the node to record
+     * @param at a transform to apply on top of the current one, or null
+     * @param alphaFolded whether the alpha of the composite was already
+     *        folded into the paint of the node
+     */
+    protected void record(AbstractGraphicsNode node, AffineTransform at,
+                          boolean alphaFolded) {
+        AffineTransform t = gc.getTransform();
+        if (at != null)
+            t.concatenate(at);
+        if (!t.isIdentity())
+            node.setTransform(t);
+
+        Composite composite = gc.getComposite();
+        if (!alphaFolded && !AlphaComposite.SrcOver.equals(composite))
+            node.setComposite(composite);
+
+        for (int i = 0; i < HINT_KEYS.length; i++) {
+            Object value = gc.getRenderingHint(HINT_KEYS[i]);
+            if ((value != null)
+                && !value.equals(initialHints.get(HINT_KEYS[i])))
+                node.setRenderingHint(HINT_KEYS[i], value);
+        }
+
+        Shape clip = gc.getClip();
+        if (clip != null) {
+            if (at != null) {
+                try {
+                    clip = at.createInverse().createTransformedShape(clip);
+                } catch (java.awt.geom.NoninvertibleTransformException e) {
+                    return;
+                }
+            }
+            // The clips of a Graphics2D are hard edged.
+            node.setClip(new ClipRable8Bit
+                         (node.getGraphicsNodeRable(true), clip, false));
+        }
+        target.add(node);
+    }
+}
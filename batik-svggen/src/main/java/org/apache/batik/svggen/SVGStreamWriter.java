@@ -0,0 +1,154 @@
+/*
+
+   Licensed to the Apache Software Foundation (ASF) under one or more
+   contributor license agreements.  See the NOTICE file distributed with
+   this work for additional information regarding copyright ownership.
+   The ASF licenses this file to You under the Apache License, Version 2.0
+   (the "License"); you may not use this file except in compliance with
+   the License.  You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+ */
+package org.apache.batik.svggen;
+
+import java.awt.Dimension;
+import java.io.IOException;
+import java.io.Writer;
+
+import org.w3c.dom.Element;
+
+/**
+ * Writes the content of an <code>SVGGraphics2D</code> to a
+ * <code>Writer</code> while it is being painted. Each call to
+ * {@link #flush()} writes the content painted since the previous one,
+ * with the definitions it uses, and removes it from the generator's
+ * DOM tree. This keeps the memory used to generate large documents
+ * bounded.
+ *
+ * <p>The root element is written by {@link #start(Element)}, so it must
+ * carry its final attributes at that time. Unlike
+ * {@link SVGGraphics2D#getRoot()}, the <code>enable-background</code>
+ * attribute is not set when an <code>AlphaComposite</code> needs the
+ * background.</p>
+ *
+ * @version $Id$
+ */
+public class SVGStreamWriter implements SVGSyntax {
+
+    /**
+     * The generator whose content is written.
+     */
+    protected SVGGraphics2D generator;
+
+    /**
+     * Defines if the characters are escaped.
+     */
+    protected boolean escaped;
+
+    /**
+     * The root element, once it has been written.
+     */
+    protected Element svgRoot;
+
+    private XmlWriter.IndentWriter out;
+
+    /**
+     * @param generator the generator to write the content of
+     * @param writer the output
+     * @param escaped defines if the characters are escaped
+     */
+    public SVGStreamWriter(SVGGraphics2D generator, Writer writer,
+                           boolean escaped) {
+        this.generator = generator;
+        this.out = new XmlWriter.IndentWriter(writer);
+        this.escaped = escaped;
+    }
+
+    /**
+     * Writes the document header and the start tag of the root element,
+     * followed by the generic definitions.
+     * @param svgRoot the root element, or null to write a new
+     *        <code>svg</code> element
+     */
+    public void start(Element svgRoot) throws SVGGraphics2DIOException {
+        if (this.svgRoot != null)
+            throw new IllegalStateException();
+        DOMTreeManager domTreeManager = generator.getDOMTreeManager();
+        if (svgRoot == null) {
+            svgRoot = generator.getDOMFactory().
+                createElementNS(SVG_NAMESPACE_URI, SVG_SVG_TAG);
+        }
+        domTreeManager.applyDefaultRenderingStyle(svgRoot);
+        Dimension size = generator.getSVGCanvasSize();
+        if (size != null) {
+            svgRoot.setAttributeNS(null, SVG_WIDTH_ATTRIBUTE,
+                                   String.valueOf(size.width));
+            svgRoot.setAttributeNS(null, SVG_HEIGHT_ATTRIBUTE,
+                                   String.valueOf(size.height));
+        }
+        svgRoot.setAttributeNS(XMLNS_NAMESPACE_URI,
+                               XMLNS_PREFIX,
+                               SVG_NAMESPACE_URI);
+        svgRoot.setAttributeNS(XMLNS_NAMESPACE_URI,
+                               XMLNS_PREFIX + ":" + XLINK_PREFIX,
+                               XLINK_NAMESPACE_URI);
+        this.svgRoot = svgRoot;
+
+        try {
+            XmlWriter.writeStartTag(svgRoot, out, escaped);
+            String comment = generator.getGeneratorContext().getComment();
+            if (comment != null) {
+                XmlWriter.writeChildXml
+                    (generator.getDOMFactory().createComment(comment),
+                     out, escaped);
+            }
+            XmlWriter.writeChildXml(domTreeManager.getGenericDefinitions(),
+                                    out, escaped);
+        } catch (SVGGraphics2DIOException e) {
+            generator.getGeneratorContext().errorHandler.handleError(e);
+        }
+    }
+
+    /**
+     * Writes the content painted since the last call, and flushes the
+     * output.
+     */
+    public void flush() throws SVGGraphics2DIOException {
+        if (svgRoot == null)
+            throw new IllegalStateException();
+        Element group = generator.getTopLevelGroup(true);
+        try {
+            if (group.hasChildNodes())
+                XmlWriter.writeChildXml(group, out, escaped);
+            out.flush();
+        } catch (SVGGraphics2DIOException e) {
+            generator.getGeneratorContext().errorHandler.handleError(e);
+        } catch (IOException io) {
+            generator.getGeneratorContext().errorHandler.
+                handleError(new SVGGraphics2DIOException(io));
+        }
+    }
+
+    /**
+     * Writes the remaining content and the end tag of the root element.
+     */
+    public void end() throws SVGGraphics2DIOException {
+        flush();
+        try {
+            XmlWriter.writeEndTag(svgRoot, out);
+            out.flush();
+        } catch (SVGGraphics2DIOException e) {
+            generator.getGeneratorContext().errorHandler.handleError(e);
+        } catch (IOException io) {
+            generator.getGeneratorContext().errorHandler.
+                handleError(new SVGGraphics2DIOException(io));
+        }
+    }
+}
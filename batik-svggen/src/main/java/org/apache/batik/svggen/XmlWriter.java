@@ -363,20 +363,16 @@ class XmlWriter implements SVGConstants {
     private static void writeXml(Element element, IndentWriter out,
                                  boolean escaped)
         throws IOException, SVGGraphics2DIOException {
+        boolean lastElem = (element.getParentNode().getLastChild()==element);
+        writeXml(element, out, escaped, lastElem);
+    }
+
+    private static void writeXml(Element element, IndentWriter out,
+                                 boolean escaped, boolean lastElem)
+        throws IOException, SVGGraphics2DIOException {
         out.write (TAG_START, 0, 1);    // "<"
         out.write (element.getTagName());
-
-        NamedNodeMap attributes = element.getAttributes();
-        if (attributes != null){
-            int nAttr = attributes.getLength();
-            for(int i=0; i<nAttr; i++){
-                Attr attr = (Attr)attributes.item(i);
-                out.write(' ');
-                writeXml(attr, out, escaped);
-            }
-        }
-
-        boolean lastElem = (element.getParentNode().getLastChild()==element);
+        writeAttributes(element, out, escaped);
 
         //
         // Write empty nodes as "<EMPTY />" to make sure version 3
@@ -408,6 +404,20 @@ class XmlWriter implements SVGConstants {
         out.write (TAG_END, 1, 1);  // ">"
     }
 
+    private static void writeAttributes(Element element, IndentWriter out,
+                                        boolean escaped)
+        throws IOException {
+        NamedNodeMap attributes = element.getAttributes();
+        if (attributes != null){
+            int nAttr = attributes.getLength();
+            for(int i=0; i<nAttr; i++){
+                Attr attr = (Attr)attributes.item(i);
+                out.write(' ');
+                writeXml(attr, out, escaped);
+            }
+        }
+    }
+
     private static void writeChildrenXml(Element element, IndentWriter out,
                                          boolean escaped)
         throws IOException, SVGGraphics2DIOException {
@@ -512,6 +522,61 @@ class XmlWriter implements SVGConstants {
         return "UTF-8";
     }
 
+    /**
+     * Writes the document header and the start tag of the given
+     * element. Its children are then written one at a time with
+     * {@link #writeChildXml} and the element is closed with
+     * {@link #writeEndTag}.
+     */
+    static void writeStartTag(Element element, IndentWriter out,
+                              boolean escaped)
+        throws SVGGraphics2DIOException {
+        try {
+            writeDocumentHeader(out);
+            out.write (TAG_START, 0, 1);    // "<"
+            out.write (element.getTagName());
+            writeAttributes(element, out, escaped);
+            out.printIndent ();
+            out.write (TAG_END, 1, 1);  // ">"
+            out.setIndentLevel(out.getIndentLevel()+2);
+        } catch (IOException io) {
+            throw new SVGGraphics2DIOException(io);
+        }
+    }
+
+    /**
+     * Writes a child of the element opened by {@link #writeStartTag}.
+     */
+    static void writeChildXml(Node child, IndentWriter out, boolean escaped)
+        throws SVGGraphics2DIOException {
+        if (child.getNodeType() != Node.ELEMENT_NODE) {
+            writeXml(child, out, escaped);
+            return;
+        }
+        try {
+            writeXml((Element)child, out, escaped, false);
+        } catch (IOException io) {
+            throw new SVGGraphics2DIOException(io);
+        }
+    }
+
+    /**
+     * Closes the element opened by {@link #writeStartTag}.
+     */
+    static void writeEndTag(Element element, IndentWriter out)
+        throws SVGGraphics2DIOException {
+        try {
+            out.write (TAG_START, 0, 2);        // "</"
+            out.write (element.getTagName());
+            out.setIndentLevel(out.getIndentLevel()-2);
+            out.printIndent ();
+            out.write (TAG_END, 1, 1);  // ">"
+            out.write (EOL);
+        } catch (IOException io) {
+            throw new SVGGraphics2DIOException(io);
+        }
+    }
+
     public static void writeXml(Node node, Writer writer, boolean escaped)
         throws SVGGraphics2DIOException {
         try {
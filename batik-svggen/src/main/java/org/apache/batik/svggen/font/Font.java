@@ -23,11 +23,13 @@ import java.io.IOException;
 import java.io.RandomAccessFile;
 
 import org.apache.batik.svggen.font.table.CmapTable;
+import org.apache.batik.svggen.font.table.DirectoryEntry;
 import org.apache.batik.svggen.font.table.GlyfTable;
 import org.apache.batik.svggen.font.table.HeadTable;
 import org.apache.batik.svggen.font.table.HheaTable;
 import org.apache.batik.svggen.font.table.HmtxTable;
 import org.apache.batik.svggen.font.table.LocaTable;
+import org.apache.batik.svggen.font.table.MappedRandomAccessFile;
 import org.apache.batik.svggen.font.table.MaxpTable;
 import org.apache.batik.svggen.font.table.NameTable;
 import org.apache.batik.svggen.font.table.Os2Table;
@@ -38,6 +40,11 @@ import org.apache.batik.svggen.font.table.TableFactory;
 
 /**
  * The TrueType font.
+ *
+ * The file is memory mapped and only the tables needed to locate
+ * glyphs are parsed when the font is read; the other tables are
+ * parsed on first access and glyph outlines are decoded on demand.
+ *
  * @version $Id$
  * @author <a href="mailto:david@steadystate.co.uk">David Schweinsberg</a>
  */
@@ -47,17 +54,14 @@ public class Font {
 //    private Interpreter interp = null;
 //    private Parser parser = null;
     private TableDirectory tableDirectory = null;
+    private RandomAccessFile raf;
     private Table[] tables;
-    private Os2Table os2;
-    private CmapTable cmap;
     private GlyfTable glyf;
     private HeadTable head;
     private HheaTable hhea;
     private HmtxTable hmtx;
     private LocaTable loca;
     private MaxpTable maxp;
-    private NameTable name;
-    private PostTable post;
 
     /**
      * Constructor
@@ -65,21 +69,38 @@ public class Font {
     public Font() {
     }
 
-    public Table getTable(int tableType) {
-        for (Table table : tables) {
-            if ((table != null) && (table.getType() == tableType)) {
-                return table;
+    /**
+     * Returns the table of the given type, parsing it if needed.
+     * @return the table, or null if the font has no such table or
+     *         its type is not supported.
+     * @throws IllegalStateException if the table can not be parsed,
+     *         with the IOException as its cause.
+     */
+    public synchronized Table getTable(int tableType) {
+        for (int i = 0; i < tables.length; i++) {
+            DirectoryEntry de = tableDirectory.getEntry(i);
+            if (de.getTag() != tableType) {
+                continue;
+            }
+            if (tables[i] == null && raf != null) {
+                try {
+                    tables[i] = TableFactory.create(de, raf);
+                } catch (IOException e) {
+                    throw new IllegalStateException
+                        ("Cannot read table " + de + " of " + path, e);
+                }
             }
+            return tables[i];
         }
         return null;
     }
 
     public Os2Table getOS2Table() {
-        return os2;
+        return (Os2Table) getTable(Table.OS_2);
     }
     
     public CmapTable getCmapTable() {
-        return cmap;
+        return (CmapTable) getTable(Table.cmap);
     }
     
     public HeadTable getHeadTable() {
@@ -103,11 +124,11 @@ public class Font {
     }
 
     public NameTable getNameTable() {
-        return name;
+        return (NameTable) getTable(Table.name);
     }
 
     public PostTable getPostTable() {
-        return post;
+        return (PostTable) getTable(Table.post);
     }
 
     public int getAscent() {
@@ -122,7 +143,7 @@ public class Font {
         return maxp.getNumGlyphs();
     }
 
-    public Glyph getGlyph(int i) {
+    public synchronized Glyph getGlyph(int i) {
         return (glyf.getDescription(i) != null)
             ? new Glyph(
                 glyf.getDescription(i),
@@ -141,6 +162,7 @@ public class Font {
 
     /**
      * @param pathName Path to the TTF font file
+     * @throws IllegalStateException if the file can not be parsed.
      */
     protected void read(String pathName) {
         path = pathName;
@@ -152,28 +174,18 @@ public class Font {
         }
 
         try {
-            RandomAccessFile raf = new RandomAccessFile(f, "r");
+            raf = new MappedRandomAccessFile(f);
             tableDirectory = new TableDirectory(raf);
             tables = new Table[tableDirectory.getNumTables()];
 
-            // Load each of the tables
-            for (int i = 0; i < tableDirectory.getNumTables(); i++) {
-                tables[i] = TableFactory.create
-                    (tableDirectory.getEntry(i), raf);
-            }
-            raf.close();
-
-            // Get references to commonly used tables
-            os2  = (Os2Table) getTable(Table.OS_2);
-            cmap = (CmapTable) getTable(Table.cmap);
+            // Load the tables needed to locate glyphs, the others
+            // are loaded by getTable when first used.
             glyf = (GlyfTable) getTable(Table.glyf);
             head = (HeadTable) getTable(Table.head);
             hhea = (HheaTable) getTable(Table.hhea);
             hmtx = (HmtxTable) getTable(Table.hmtx);
             loca = (LocaTable) getTable(Table.loca);
             maxp = (MaxpTable) getTable(Table.maxp);
-            name = (NameTable) getTable(Table.name);
-            post = (PostTable) getTable(Table.post);
 
             // Initialize the tables that require it
             hmtx.init(hhea.getNumberOfHMetrics(), 
@@ -181,7 +193,7 @@ public class Font {
             loca.init(maxp.getNumGlyphs(), head.getIndexToLocFormat() == 0);
             glyf.init(maxp.getNumGlyphs(), loca);
         } catch (IOException e) {
-            e.printStackTrace();
+            throw new IllegalStateException("Cannot read " + path, e);
         }
     }
     
@@ -191,6 +203,7 @@ public class Font {
     
     /**
      * @param pathName Path to the TTF font file
+     * @throws IllegalStateException if the file can not be parsed.
      */
     public static Font create(String pathName) {
         Font f = new Font();
@@ -21,6 +21,7 @@ package org.apache.batik.svggen.font.table;
 import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
 
 /**
  * @version $Id$
@@ -28,78 +29,69 @@ import java.io.RandomAccessFile;
  */
 public class GlyfTable implements Table {
 
-    private byte[] buf = null;
+    private ByteBuffer buf = null;
+    private LocaTable loca;
     private GlyfDescript[] descript;
+    private boolean[] decoded;
 
     protected GlyfTable(DirectoryEntry de, RandomAccessFile raf) throws IOException {
-        raf.seek(de.getOffset());
-        buf = new byte[de.getLength()];
-        raf.read(buf);
-/*
-        TableMaxp t_maxp = (TableMaxp) td.getEntryByTag(maxp).getTable();
-        TableLoca t_loca = (TableLoca) td.getEntryByTag(loca).getTable();
-        descript = new TableGlyfDescript[t_maxp.getNumGlyphs()];
-        for (int i = 0; i < t_maxp.getNumGlyphs(); i++) {
-            raf.seek(tde.getOffset() + t_loca.getOffset(i));
-            int len = t_loca.getOffset((short)(i + 1)) - t_loca.getOffset(i);
-            if (len > 0) {
-                short numberOfContours = raf.readShort();
-                if (numberOfContours < 0) {
-                    //          descript[i] = new TableGlyfCompositeDescript(this, raf);
-                } else {
-                    descript[i] = new TableGlyfSimpleDescript(this, numberOfContours, raf);
-                }
-            } else {
-                descript[i] = null;
-            }
-        }
-
-        for (int i = 0; i < t_maxp.getNumGlyphs(); i++) {
-            raf.seek(tde.getOffset() + t_loca.getOffset(i));
-            int len = t_loca.getOffset((short)(i + 1)) - t_loca.getOffset(i);
-            if (len > 0) {
-                short numberOfContours = raf.readShort();
-                if (numberOfContours < 0) {
-                    descript[i] = new TableGlyfCompositeDescript(this, raf);
-                }
-            }
+        if (raf instanceof MappedRandomAccessFile) {
+            // Glyphs are decoded from the mapped file on demand.
+            buf = ((MappedRandomAccessFile) raf).slice(de.getOffset(),
+                                                       de.getLength());
+        } else {
+            raf.seek(de.getOffset());
+            byte[] b = new byte[de.getLength()];
+            raf.read(b);
+            buf = ByteBuffer.wrap(b);
         }
-*/
     }
 
+    /**
+     * Prepares the table for reading.  The glyph descriptions are only
+     * decoded when first requested, so tools converting a few
+     * characters of a large font only pay for those.
+     */
     public void init(int numGlyphs, LocaTable loca) {
         if (buf == null) {
             return;
         }
+        this.loca = loca;
         descript = new GlyfDescript[numGlyphs];
-        ByteArrayInputStream bais = new ByteArrayInputStream(buf);
-        for (int i = 0; i < numGlyphs; i++) {
-            int len = loca.getOffset((i + 1)) - loca.getOffset(i);
-            if (len > 0) {
-                bais.reset();
-                bais.skip(loca.getOffset(i));
-                short numberOfContours = (short)(bais.read()<<8 | bais.read());
-                if (numberOfContours >= 0) {
-                    descript[i] = new GlyfSimpleDescript(this, numberOfContours, bais);
-                } else {
-                    descript[i] = new GlyfCompositeDescript(this, bais);
-                }
-            }
-        }
-
-        buf = null;
-
-        for (int i = 0; i < numGlyphs; i++) {
-            if (descript[i] == null) continue;
-
-            descript[i].resolve();
-        }
+        decoded = new boolean[numGlyphs];
     }
 
     public GlyfDescript getDescription(int i) {
+        if (descript == null) {
+            return null;
+        }
+        if (!decoded[i]) {
+            decoded[i] = true;
+            decode(i);
+        }
         return descript[i];
     }
 
+    private void decode(int i) {
+        int off = loca.getOffset(i);
+        int len = Math.min(loca.getOffset(i + 1), buf.limit()) - off;
+        if (len <= 0 || off < 0) {
+            return;
+        }
+        byte[] b = new byte[len];
+        ByteBuffer d = buf.duplicate();
+        d.position(off);
+        d.get(b);
+        ByteArrayInputStream bais = new ByteArrayInputStream(b);
+        short numberOfContours = (short)(bais.read()<<8 | bais.read());
+        if (numberOfContours >= 0) {
+            descript[i] = new GlyfSimpleDescript(this, numberOfContours, bais);
+        } else {
+            descript[i] = new GlyfCompositeDescript(this, bais);
+        }
+        descript[i].resolve();
+    }
+
     public int getType() {
         return glyf;
     }
@@ -0,0 +1,109 @@
+/*
+
+   Licensed to the Apache Software Foundation (ASF) under one or more
+   contributor license agreements.  See the NOTICE file distributed with
+   this work for additional information regarding copyright ownership.
+   The ASF licenses this file to You under the Apache License, Version 2.0
+   (the "License"); you may not use this file except in compliance with
+   the License.  You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+ */
+package org.apache.batik.svggen.font.table;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * A read only RandomAccessFile whose reads are served from a memory
+ * mapped copy of the file instead of one system call per
+ * <code>readShort</code> or <code>read</code>.  The tables keep
+ * their RandomAccessFile based parsers and transparently benefit.
+ *
+ * The file descriptor is released once the file is mapped; the mapping
+ * stays valid until this object is garbage collected.  If the file
+ * cannot be mapped it is read into memory instead.
+ *
+ * @version $Id$
+ */
+public class MappedRandomAccessFile extends RandomAccessFile {
+
+    private final ByteBuffer buf;
+
+    public MappedRandomAccessFile(File f) throws IOException {
+        super(f, "r");
+        try {
+            FileChannel ch = getChannel();
+            ByteBuffer b;
+            try {
+                b = ch.map(FileChannel.MapMode.READ_ONLY, 0, ch.size());
+            } catch (IOException e) {
+                b = ByteBuffer.allocate((int) ch.size());
+                while (b.hasRemaining() && (ch.read(b) >= 0)) {
+                }
+                b.flip();
+            }
+            buf = b;
+        } finally {
+            super.close();
+        }
+    }
+
+    /**
+     * Returns a buffer over <code>length</code> bytes of the file
+     * starting at <code>offset</code>, without copying them.  The
+     * range is clipped to the end of the file.
+     */
+    public ByteBuffer slice(int offset, int length) {
+        ByteBuffer d = buf.duplicate();
+        int start = Math.min(offset, d.limit());
+        d.position(start);
+        d.limit(start + Math.max(Math.min(length, d.limit() - start), 0));
+        return d.slice();
+    }
+
+    public int read() {
+        return buf.hasRemaining() ? (buf.get() & 0xff) : -1;
+    }
+
+    public int read(byte[] b, int off, int len) {
+        if (len == 0) {
+            return 0;
+        }
+        int n = Math.min(len, buf.remaining());
+        if (n <= 0) {
+            return -1;
+        }
+        buf.get(b, off, n);
+        return n;
+    }
+
+    public int read(byte[] b) {
+        return read(b, 0, b.length);
+    }
+
+    public void seek(long pos) throws IOException {
+        if (pos < 0) {
+            throw new IOException("Negative seek offset");
+        }
+        buf.position((int) Math.min(pos, buf.limit()));
+    }
+
+    public long getFilePointer() {
+        return buf.position();
+    }
+
+    public long length() {
+        return buf.limit();
+    }
+}
@@ -75,6 +75,7 @@ public class Main {
     {
         handlers.put("-doctype", new DoctypeHandler());
         handlers.put("-doc-width", new DocWidthHandler());
+        handlers.put("-minify", new MinifyHandler());
         handlers.put("-newline", new NewlineHandler());
         handlers.put("-public-id", new PublicIdHandler());
         handlers.put("-no-format", new NoFormatHandler());
@@ -216,6 +217,20 @@ public class Main {
         }
     }
 
+    /**
+     * To handle the '-minify' option.
+     */
+    protected class MinifyHandler implements OptionHandler {
+        public void handleOption() {
+            index++;
+            transcoder.addTranscodingHint(SVGTranscoder.KEY_MINIFY, Boolean.TRUE);
+        }
+
+        public String getDescription() {
+            return localizableSupport.formatMessage("minify.description", null);
+        }
+    }
+
     /**
      * To handle the '-no-format' option.
      */
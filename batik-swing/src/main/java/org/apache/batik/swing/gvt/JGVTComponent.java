@@ -61,6 +61,8 @@ import org.apache.batik.gvt.event.SelectionEvent;
 import org.apache.batik.gvt.renderer.ConcreteImageRendererFactory;
 import org.apache.batik.gvt.renderer.ImageRenderer;
 import org.apache.batik.gvt.renderer.ImageRendererFactory;
+import org.apache.batik.gvt.renderer.TilePyramid;
+import org.apache.batik.util.EventDispatcher.Dispatcher;
 import org.apache.batik.util.HaltingThread;
 import org.apache.batik.util.Platform;
 
@@ -174,6 +176,21 @@ public class JGVTComponent extends JComponent {
      */
     protected boolean doubleBufferedRendering;
 
+    /**
+     * Whether the tree should be rendered as cached tiles.
+     */
+    protected boolean tiledRendering;
+
+    /**
+     * The tiles of the tree, when tiled rendering is used.
+     */
+    protected TilePyramid tilePyramid;
+
+    /**
+     * Whether the tiles of the current view are still being rendered.
+     */
+    protected boolean tileRenderingPending;
+
     /**
      * Whether the GVT tree should be reactive to mouse and key events.
      */
@@ -341,6 +358,9 @@ public class JGVTComponent extends JComponent {
             gvtTreeRenderer.halt();
             haltProgressivePaintThread();
         }
+        if (tilePyramid != null) {
+            tilePyramid.cancel();
+        }
     }
 
     /**
@@ -571,7 +591,24 @@ public class JGVTComponent extends JComponent {
         g2d.fillRect(visRect.x,     visRect.y,
                      visRect.width, visRect.height);
 
-        if (image != null) {
+        if (tilePyramid != null) {
+            AffineTransform at = renderingTransform;
+            if (paintingTransform != null) {
+                at = new AffineTransform(paintingTransform);
+                at.concatenate(renderingTransform);
+            }
+            // Only ask for the tiles of the final view, not for
+            // those of an interactor's intermediate ones.
+            tilePyramid.paint(g2d, at, visRect, paintingTransform == null);
+            if (paintingTransform != null) {
+                g2d.transform(paintingTransform);
+            }
+            g2d.setRenderingHint(RenderingHints.KEY_ANTIALIASING,
+                                 RenderingHints.VALUE_ANTIALIAS_OFF);
+            for (Object overlay : overlays) {
+                ((Overlay) overlay).paint(g);
+            }
+        } else if (image != null) {
             if (paintingTransform != null) {
                 g2d.transform(paintingTransform);
             }
@@ -666,6 +703,32 @@ public class JGVTComponent extends JComponent {
         return doubleBufferedRendering;
     }
 
+    /**
+     * Sets whether this component should render the tree as tiles
+     * kept in a cache across pans and zooms.  Changes of the
+     * rendering transform are then displayed at once with the cached
+     * tiles, scaled from the nearest zoom level if needed, while the
+     * exact tiles are rendered in the background.  The change will
+     * be effective during the next rendering.
+     */
+    public void setTiledRendering(boolean b) {
+        tiledRendering = b;
+    }
+
+    /**
+     * Tells whether this component renders the tree as cached tiles.
+     */
+    public boolean getTiledRendering() {
+        return tiledRendering;
+    }
+
+    /**
+     * Tells whether the next rendering should use the tile pyramid.
+     */
+    protected boolean isTiledRenderingEnabled() {
+        return tiledRendering;
+    }
+
     /**
      * Adds a GVTTreeRendererListener to this component.
      */
@@ -685,7 +748,10 @@ public class JGVTComponent extends JComponent {
      * may be removed or modified in the future).
      */
     public void flush() {
-        renderer.flush();
+        if (tilePyramid != null)
+            tilePyramid.flush();
+        if (renderer != null)
+            renderer.flush();
     }
 
     /**
@@ -693,7 +759,16 @@ public class JGVTComponent extends JComponent {
      * may be removed or modified in the future).
      */
     public void flush(Rectangle r) {
-        renderer.flush(r);
+        if (tilePyramid != null) {
+            try {
+                tilePyramid.flush(renderingTransform.createInverse()
+                                  .createTransformedShape(r));
+            } catch (NoninvertibleTransformException e) {
+                tilePyramid.flush();
+            }
+        }
+        if (renderer != null)
+            renderer.flush(r);
     }
 
     /**
@@ -712,6 +787,15 @@ public class JGVTComponent extends JComponent {
             return;
         }
 
+        if (isTiledRenderingEnabled()) {
+            renderTiles(visRect);
+            return;
+        }
+        if (tilePyramid != null) {
+            tilePyramid.dispose();
+            tilePyramid = null;
+        }
+
         // Renderer setup.
         if (renderer == null || renderer.getTree() != gvtRoot) {
             renderer = createImageRenderer();
@@ -747,6 +831,104 @@ public class JGVTComponent extends JComponent {
         gvtTreeRenderer.start();
     }
 
+    /**
+     * Creates the tile pyramid used when tiled rendering is enabled.
+     */
+    protected TilePyramid createTilePyramid() {
+        return new TilePyramid(gvtRoot);
+    }
+
+    /**
+     * Renders the GVT tree through the tile pyramid.  The rendering
+     * events are fired as for a GVTTreeRenderer, with a null image,
+     * and the rendering completes once every tile of the view has
+     * been rendered.
+     */
+    protected void renderTiles(Rectangle visRect) {
+        if (tilePyramid == null || tilePyramid.getTree() != gvtRoot) {
+            if (tilePyramid != null) {
+                tilePyramid.dispose();
+            }
+            tilePyramid = createTilePyramid();
+            tilePyramid.addListener(new TilePyramid.Listener() {
+                    public void tileRendered(final TilePyramid src) {
+                        EventQueue.invokeLater(new Runnable() {
+                                public void run() {
+                                    tilesUpdated(src);
+                                }
+                            });
+                    }
+                    public void tileFailed(final TilePyramid src,
+                                           final Throwable t) {
+                        EventQueue.invokeLater(new Runnable() {
+                                public void run() {
+                                    tileRenderingFailed(src, t);
+                                }
+                            });
+                    }
+                });
+        }
+        image = null;
+
+        GVTTreeRendererEvent ev = new GVTTreeRendererEvent(this, null);
+        fireTileRenderingEvent(GVTTreeRenderer.prepareDispatcher, ev);
+        fireTileRenderingEvent(GVTTreeRenderer.startedDispatcher, ev);
+        paintingTransform = null;
+        suspendInteractions = false;
+
+        tileRenderingPending = true;
+        if (tilePyramid.requestTiles(renderingTransform, visRect)) {
+            tileRenderingCompleted();
+        }
+        immediateRepaint();
+    }
+
+    /**
+     * Called in the event dispatch thread when a tile was rendered.
+     */
+    protected void tilesUpdated(TilePyramid src) {
+        if (src != tilePyramid) {
+            return;
+        }
+        Rectangle visRect = getRenderRect();
+        repaint(visRect.x, visRect.y, visRect.width, visRect.height);
+        if (tileRenderingPending &&
+            tilePyramid.isComplete(renderingTransform, visRect)) {
+            tileRenderingCompleted();
+        }
+    }
+
+    /**
+     * Called in the event dispatch thread when rendering a tile
+     * failed.  Fires the failed event of the pending rendering.
+     */
+    protected void tileRenderingFailed(TilePyramid src, Throwable t) {
+        if (src != tilePyramid) {
+            return;
+        }
+        if (t instanceof Exception) {
+            handleException((Exception)t);
+        } else {
+            t.printStackTrace();
+        }
+        if (tileRenderingPending) {
+            tileRenderingPending = false;
+            fireTileRenderingEvent(GVTTreeRenderer.failedDispatcher,
+                                   new GVTTreeRendererEvent(this, null));
+        }
+    }
+
+    private void tileRenderingCompleted() {
+        tileRenderingPending = false;
+        fireTileRenderingEvent(GVTTreeRenderer.completedDispatcher,
+                               new GVTTreeRendererEvent(this, null));
+    }
+
+    private void fireTileRenderingEvent(Dispatcher d, Object ev) {
+        org.apache.batik.util.EventDispatcher.fireEvent
+            (d, gvtTreeRendererListeners, ev, true);
+    }
+
     /**
      * Computes the initial value of the transform used for rendering.
      * Return true if a repaint is required, otherwise false.
@@ -788,6 +970,10 @@ public class JGVTComponent extends JComponent {
         renderer = null;
         image = null;
         gvtRoot = null;
+        if (tilePyramid != null) {
+            tilePyramid.dispose();
+            tilePyramid = null;
+        }
     }
 
     /**
@@ -34,6 +34,7 @@ import java.awt.geom.Dimension2D;
 import java.awt.geom.NoninvertibleTransformException;
 import java.awt.geom.Point2D;
 import java.net.URL;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
@@ -902,6 +903,15 @@ public class JSVGComponent extends JGVTComponent {
         }
     }
 
+    /**
+     * Tells whether the next rendering should use the tile pyramid.
+     * Interactive documents are always rendered by the renderer the
+     * UpdateManager works with.
+     */
+    protected boolean isTiledRenderingEnabled() {
+        return super.isTiledRenderingEnabled() && !isInteractiveDocument;
+    }
+
     public CanvasGraphicsNode getCanvasGraphicsNode() {
         return getCanvasGraphicsNode(gvtRoot);
 
@@ -1136,21 +1146,12 @@ public class JSVGComponent extends JGVTComponent {
         }
         RunnableQueue rq = updateManager.getUpdateRunnableQueue();
 
-        // Events compression.
-        synchronized (rq.getIteratorLock()) {
-            Iterator it = rq.iterator();
-            while (it.hasNext()) {
-                Object next = it.next();
-                if (next instanceof UpdateRenderingRunnable) {
-                    ((UpdateRenderingRunnable)next).deactivate();
-                }
-            }
-        }
-
+        // Events compression: a pending update is replaced.
         rq.invokeLater(new UpdateRenderingRunnable
                        (renderingTransform,
                         doubleBufferedRendering, true, s,
-                        visRect.width, visRect.height));
+                        visRect.width, visRect.height),
+                       UpdateRenderingRunnable.class);
     }
 
     /**
@@ -2220,24 +2221,12 @@ public class JSVGComponent extends JGVTComponent {
             if (updateManager != null && updateManager.isRunning()) {
                 RunnableQueue rq = updateManager.getUpdateRunnableQueue();
 
-                // Events compression.
-                synchronized (rq.getIteratorLock()) {
-                    Iterator it = rq.iterator();
-                    while (it.hasNext()) {
-                        Object next = it.next();
-                        if (next instanceof MouseDraggedRunnable) {
-                            MouseDraggedRunnable mdr;
-                            mdr = (MouseDraggedRunnable)next;
-                            MouseEvent mev = mdr.event;
-                            if (mev.getModifiersEx() == e.getModifiersEx()) {
-                                mdr.event = e;
-                            }
-                            return;
-                        }
-                    }
-                }
-
-                rq.invokeLater(new MouseDraggedRunnable(e));
+                // Events compression: a pending drag with the same
+                // modifiers is replaced.
+                rq.invokeLater(new MouseDraggedRunnable(e),
+                               Arrays.asList(new Object[] {
+                                   MouseDraggedRunnable.class,
+                                   new Integer(e.getModifiersEx()) }));
             }
         }
 
@@ -2263,27 +2252,12 @@ public class JSVGComponent extends JGVTComponent {
             if (updateManager != null && updateManager.isRunning()) {
                 RunnableQueue rq = updateManager.getUpdateRunnableQueue();
 
-                // Events compression.
-                int i = 0;
-                synchronized (rq.getIteratorLock()) {
-                    Iterator it = rq.iterator();
-                    while (it.hasNext()) {
-                        Object next = it.next();
-                        if (next instanceof MouseMovedRunnable) {
-                            MouseMovedRunnable mmr;
-                            mmr = (MouseMovedRunnable)next;
-                            MouseEvent mev = mmr.event;
-                            if (mev.getModifiersEx() == e.getModifiersEx()) {
-                                mmr.event = e;
-                            }
-                            return;
-                        }
-                        i++;
-                    }
-
-                }
-
-                rq.invokeLater(new MouseMovedRunnable(e));
+                // Events compression: a pending move with the same
+                // modifiers is replaced.
+                rq.invokeLater(new MouseMovedRunnable(e),
+                               Arrays.asList(new Object[] {
+                                   MouseMovedRunnable.class,
+                                   new Integer(e.getModifiersEx()) }));
             }
         }
 
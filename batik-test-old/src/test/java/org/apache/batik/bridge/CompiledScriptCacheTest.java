@@ -0,0 +1,97 @@
+/*
+
+   Licensed to the Apache Software Foundation (ASF) under one or more
+   contributor license agreements.  See the NOTICE file distributed with
+   this work for additional information regarding copyright ownership.
+   The ASF licenses this file to You under the Apache License, Version 2.0
+   (the "License"); you may not use this file except in compliance with
+   the License.  You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+ */
+package org.apache.batik.bridge;
+
+import java.net.URL;
+
+import org.apache.batik.test.AbstractTest;
+
+import org.mozilla.javascript.Context;
+import org.mozilla.javascript.Script;
+import org.mozilla.javascript.Scriptable;
+
+/**
+ * Checks the eviction order and key separation of the compiled script
+ * cache, and that interpreters for the same document share it.
+ *
+ * @version $Id$
+ */
+public class CompiledScriptCacheTest extends AbstractTest {
+
+    public boolean runImplBasic() throws Exception {
+        ClassLoader cl = getClass().getClassLoader();
+        CompiledScriptCache cache = new CompiledScriptCache(2);
+        CompiledScriptCache.Key a = key("a", "file:/a.svg", cl, true);
+        CompiledScriptCache.Key b = key("b", "file:/a.svg", cl, true);
+        CompiledScriptCache.Key c = key("c", "file:/a.svg", cl, true);
+        Script sa = new DummyScript();
+        Script sb = new DummyScript();
+        cache.put(a, sa);
+        cache.put(b, sb);
+        // Touch a so b is the least recently used entry.
+        assertTrue(cache.get(key("a", "file:/a.svg", cl, true)) == sa);
+        cache.put(c, new DummyScript());
+        assertEquals(2, cache.size());
+        assertTrue(cache.get(b) == null);
+        assertTrue(cache.get(a) == sa);
+
+        // Scripts are not shared across security domains.
+        assertTrue(cache.get(key("a", "file:/b.svg", cl, true)) == null);
+        assertTrue(cache.get(key("a", null, cl, true)) == null);
+        assertTrue(cache.get(key("a", "file:/a.svg", cl, false)) == null);
+        assertTrue(cache.get(key("a", "file:/a.svg", new ClassLoader(cl) {},
+                                 true)) == null);
+
+        cache.setMaxSize(1);
+        assertEquals(1, cache.size());
+        cache.setMaxSize(0);
+        cache.put(a, sa);
+        assertEquals(0, cache.size());
+
+        // Interpreters for the same document reuse each other's scripts.
+        RhinoInterpreter.clearCompiledScriptCache();
+        try {
+            URL url = new URL("http://example.org/doc.svg");
+            RhinoInterpreter i1 = new RhinoInterpreter(url);
+            RhinoInterpreter i2 = new RhinoInterpreter(url);
+            Object r1 = i1.evaluate("var x = 20; x + 22");
+            Object r2 = i2.evaluate("var x = 20; x + 22");
+            assertEquals(42, ((Number)r1).intValue());
+            assertEquals(42, ((Number)r2).intValue());
+            assertEquals(1, RhinoInterpreter.sharedCompiledScripts.size());
+            i1.dispose();
+            i2.dispose();
+        } finally {
+            RhinoInterpreter.clearCompiledScriptCache();
+        }
+        return true;
+    }
+
+    private static CompiledScriptCache.Key key(String src, String domain,
+                                               ClassLoader cl,
+                                               boolean compiled) {
+        return new CompiledScriptCache.Key(src, domain, cl, compiled);
+    }
+
+    static class DummyScript implements Script {
+        public Object exec(Context cx, Scriptable scope) {
+            return null;
+        }
+    }
+}
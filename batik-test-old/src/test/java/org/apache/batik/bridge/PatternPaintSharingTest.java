@@ -0,0 +1,166 @@
+/*
+
+   Licensed to the Apache Software Foundation (ASF) under one or more
+   contributor license agreements.  See the NOTICE file distributed with
+   this work for additional information regarding copyright ownership.
+   The ASF licenses this file to You under the Apache License, Version 2.0
+   (the "License"); you may not use this file except in compliance with
+   the License.  You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+ */
+package org.apache.batik.bridge;
+
+import java.awt.PaintContext;
+import java.awt.Rectangle;
+import java.awt.RenderingHints;
+import java.awt.geom.AffineTransform;
+import java.awt.geom.Rectangle2D;
+import java.awt.image.ColorModel;
+import java.io.StringReader;
+
+import org.apache.batik.anim.dom.SAXSVGDocumentFactory;
+import org.apache.batik.gvt.CompositeShapePainter;
+import org.apache.batik.gvt.FillShapePainter;
+import org.apache.batik.gvt.GraphicsNode;
+import org.apache.batik.gvt.PatternPaint;
+import org.apache.batik.gvt.PatternPaintContext;
+import org.apache.batik.gvt.RootGraphicsNode;
+import org.apache.batik.gvt.ShapeNode;
+import org.apache.batik.gvt.ShapePainter;
+import org.apache.batik.test.AbstractTest;
+import org.apache.batik.util.XMLResourceDescriptor;
+
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+
+/**
+ * Checks that the elements filled with the same pattern tile share
+ * its renderings, that the renderings are discarded when the
+ * pattern content changes, and that the shared paints do not keep
+ * a pattern content alive.
+ *
+ * @version $Id$
+ */
+public class PatternPaintSharingTest extends AbstractTest {
+
+    static final String DOC =
+        "<svg xmlns='http://www.w3.org/2000/svg' width='100' height='100'>"
+        + "<pattern id='u' patternUnits='userSpaceOnUse' width='10' "
+        + "height='10'><rect id='c' width='5' height='5'/></pattern>"
+        + "<pattern id='o' width='.5' height='.5'>"
+        + "<rect width='5' height='5'/></pattern>"
+        + "<rect id='r1' width='30' height='30' fill='url(#u)'/>"
+        + "<rect id='r2' x='40' width='30' height='50' fill='url(#u)'/>"
+        + "<rect id='r3' width='30' height='30' fill='url(#o)'/>"
+        + "<rect id='r4' width='40' height='30' fill='url(#o)'/>"
+        + "<rect id='r5' width='30' height='30' fill='url(#u)' "
+        + "fill-opacity='.5'/></svg>";
+
+    public boolean runImplBasic() throws Exception {
+        SAXSVGDocumentFactory f = new SAXSVGDocumentFactory
+            (XMLResourceDescriptor.getXMLParserClassName());
+        Document doc = f.createDocument("file:/pattern.svg",
+                                        new StringReader(DOC));
+        BridgeContext ctx = new BridgeContext(new UserAgentAdapter());
+        ctx.setDynamic(true);
+        new GVTBuilder().build(ctx, doc);
+
+        PatternPaint p1 = getFill(ctx, doc, "r1");
+        assertTrue(p1 == getFill(ctx, doc, "r2"));
+        assertTrue(getFill(ctx, doc, "r3") != getFill(ctx, doc, "r4"));
+        assertTrue(p1 != getFill(ctx, doc, "r5"));
+
+        ColorModel cm = ColorModel.getRGBdefault();
+        Rectangle bounds = new Rectangle(0, 0, 100, 100);
+        RenderingHints hints = new RenderingHints(null);
+        PaintContext pc = p1.createContext
+            (cm, bounds, bounds, new AffineTransform(), hints);
+        assertTrue(pc == p1.createContext
+                   (cm, bounds, bounds, new AffineTransform(), hints));
+
+        // Whole pixel moves reuse the rendering, others do not.
+        PaintContext moved = p1.createContext
+            (cm, bounds, bounds,
+             AffineTransform.getTranslateInstance(3, -2), hints);
+        assertTrue(!(moved instanceof PatternPaintContext));
+        PaintContext half = p1.createContext
+            (cm, bounds, bounds,
+             AffineTransform.getTranslateInstance(.5, 0), hints);
+        assertTrue(half instanceof PatternPaintContext);
+        assertTrue(half != pc);
+
+        // Changing the content discards the renderings and the paints.
+        RootGraphicsNode content = (RootGraphicsNode)
+            ctx.getElementData(doc.getElementById("u"));
+        GraphicsNode child = (GraphicsNode)content.getChildren().get(0);
+        child.setTransform(AffineTransform.getTranslateInstance(1, 1));
+        assertTrue(pc != p1.createContext
+                   (cm, bounds, bounds, new AffineTransform(), hints));
+        SVGPatternElementBridge bridge = (SVGPatternElementBridge)
+            ctx.getBridge(doc.getElementById("u"));
+        assertTrue(p1 != bridge.createPaint
+                   (ctx, doc.getElementById("u"), doc.getElementById("r1"),
+                    ctx.getGraphicsNode(doc.getElementById("r1")), 1));
+
+        // Bounding box relative tiles only keep the recent paints.
+        Element o = doc.getElementById("o");
+        Element r3 = doc.getElementById("r3");
+        RootGraphicsNode oContent = (RootGraphicsNode)ctx.getElementData(o);
+        PatternPaint first = null;
+        for (int i = 1; i <= 100; i++) {
+            ShapeNode sn = new ShapeNode();
+            sn.setShape(new Rectangle(0, 0, i, i));
+            PatternPaint p = (PatternPaint)bridge.createPaint
+                (ctx, o, r3, sn, 1);
+            if (first == null)
+                first = p;
+            assertTrue(p == bridge.createPaint(ctx, o, r3, sn, 1));
+        }
+        assertEquals(SVGPatternElementBridge.MAX_SHARED_PAINTS,
+                     bridge.getPatternPaints(oContent).size());
+        ShapeNode sn = new ShapeNode();
+        sn.setShape(new Rectangle(0, 0, 1, 1));
+        assertTrue(first != bridge.createPaint(ctx, o, r3, sn, 1));
+
+        // The paints of a content no longer referenced are released.
+        int n = bridge.patternPaints.size();
+        addPaint(bridge);
+        assertEquals(n + 1, bridge.patternPaints.size());
+        long end = System.currentTimeMillis() + 10000;
+        while (bridge.patternPaints.size() > n) {
+            assertTrue(System.currentTimeMillis() < end);
+            System.gc();
+            Thread.sleep(10);
+        }
+        ctx.dispose();
+        return true;
+    }
+
+    private static void addPaint(SVGPatternElementBridge bridge) {
+        RootGraphicsNode content = new RootGraphicsNode();
+        PatternPaint p = new PatternPaint
+            (new SVGPatternElementBridge.PatternGraphicsNode(content),
+             new Rectangle2D.Double(0, 0, 10, 10), false,
+             new AffineTransform());
+        bridge.getPatternPaints(content).put("key", p);
+    }
+
+    private static PatternPaint getFill(BridgeContext ctx, Document doc,
+                                        String id) {
+        ShapeNode node = (ShapeNode)ctx.getGraphicsNode
+            (doc.getElementById(id));
+        ShapePainter sp = node.getShapePainter();
+        if (sp instanceof CompositeShapePainter) {
+            sp = ((CompositeShapePainter)sp).getShapePainter(0);
+        }
+        return (PatternPaint)((FillShapePainter)sp).getPaint();
+    }
+}
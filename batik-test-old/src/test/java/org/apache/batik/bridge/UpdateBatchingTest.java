@@ -0,0 +1,134 @@
+/*
+
+   Licensed to the Apache Software Foundation (ASF) under one or more
+   contributor license agreements.  See the NOTICE file distributed with
+   this work for additional information regarding copyright ownership.
+   The ASF licenses this file to You under the Apache License, Version 2.0
+   (the "License"); you may not use this file except in compliance with
+   the License.  You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+ */
+package org.apache.batik.bridge;
+
+import java.awt.geom.AffineTransform;
+import java.io.StringReader;
+
+import org.apache.batik.anim.dom.SAXSVGDocumentFactory;
+import org.apache.batik.gvt.GraphicsNode;
+import org.apache.batik.gvt.ShapeNode;
+import org.apache.batik.gvt.event.GraphicsNodeChangeAdapter;
+import org.apache.batik.gvt.event.GraphicsNodeChangeEvent;
+import org.apache.batik.gvt.renderer.DynamicRenderer;
+import org.apache.batik.test.AbstractTest;
+import org.apache.batik.util.XMLResourceDescriptor;
+
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.svg.SVGLocatable;
+
+/**
+ * Checks that a burst of changes to an element in one update runnable
+ * rebuilds its graphics node once, and that the GVT tree is up to date
+ * when scripts query it or when the runnable completes.
+ *
+ * @version $Id$
+ */
+public class UpdateBatchingTest extends AbstractTest {
+
+    static final String DOC =
+        "<svg xmlns='http://www.w3.org/2000/svg' width='100' height='100'>"
+        + "<rect id='r' width='10' height='10' fill='blue'/></svg>";
+
+    int changes;
+    Exception error;
+
+    public boolean runImplBasic() throws Exception {
+        SAXSVGDocumentFactory f = new SAXSVGDocumentFactory
+            (XMLResourceDescriptor.getXMLParserClassName());
+        Document doc = f.createDocument("file:/batching.svg",
+                                        new StringReader(DOC));
+        BridgeContext ctx = new BridgeContext(new UserAgentAdapter());
+        ctx.setDynamic(true);
+        GraphicsNode gn = new GVTBuilder().build(ctx, doc);
+        gn.getRoot().addTreeGraphicsNodeChangeListener
+            (new GraphicsNodeChangeAdapter() {
+                    public void changeStarted(GraphicsNodeChangeEvent ev) {
+                        changes++;
+                    }
+                });
+        UpdateManager um = new UpdateManager(ctx, gn, doc);
+        DynamicRenderer r = new DynamicRenderer();
+        r.setTree(gn);
+        r.setTransform(new AffineTransform());
+        r.updateOffScreen(100, 100);
+        um.manageUpdates(r);
+
+        final Element rect = doc.getElementById("r");
+        final ShapeNode node = (ShapeNode)ctx.getGraphicsNode(rect);
+        final int[] counts = new int[2];
+        try {
+            um.getUpdateRunnableQueue().invokeAndWait(new Runnable() {
+                    public void run() {
+                        changes = 0;
+                        for (int i = 1; i <= 50; i++) {
+                            rect.setAttributeNS(null, "width", "" + i);
+                            rect.setAttributeNS(null, "fill",
+                                                (i % 2 == 0) ? "red" : "blue");
+                        }
+                        counts[0] = changes;
+                        // Queries see the changes.
+                        float w = ((SVGLocatable)rect).getBBox().getWidth();
+                        if (w != 50)
+                            error = new Exception("bbox width " + w);
+                    }
+                });
+            assertEquals(0, counts[0]);
+            int batched = changes;
+            assertTrue(batched > 0);
+
+            // Without queries, the changes are applied after the runnable.
+            final double[] height = new double[1];
+            um.getUpdateRunnableQueue().invokeAndWait(new Runnable() {
+                    public void run() {
+                        rect.setAttributeNS(null, "height", "20");
+                        height[0] = node.getShape().getBounds2D().getHeight();
+                    }
+                });
+            assertEquals(10.0, height[0]);
+            um.getUpdateRunnableQueue().invokeAndWait(new Runnable() {
+                    public void run() {
+                        height[0] = node.getShape().getBounds2D().getHeight();
+                    }
+                });
+            assertEquals(20.0, height[0]);
+
+            // The same burst without batching.
+            ctx.setUpdateBatching(false);
+            um.getUpdateRunnableQueue().invokeAndWait(new Runnable() {
+                    public void run() {
+                        changes = 0;
+                        for (int i = 1; i <= 50; i++) {
+                            rect.setAttributeNS(null, "width", "" + i);
+                            rect.setAttributeNS(null, "fill",
+                                                (i % 2 == 0) ? "red" : "blue");
+                        }
+                        counts[1] = changes;
+                    }
+                });
+            assertTrue(counts[1] >= 50 * batched);
+            if (error != null)
+                throw error;
+        } finally {
+            um.interrupt();
+        }
+        return true;
+    }
+}
@@ -0,0 +1,141 @@
+/*
+
+   Licensed to the Apache Software Foundation (ASF) under one or more
+   contributor license agreements.  See the NOTICE file distributed with
+   this work for additional information regarding copyright ownership.
+   The ASF licenses this file to You under the Apache License, Version 2.0
+   (the "License"); you may not use this file except in compliance with
+   the License.  You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+ */
+package org.apache.batik.css.engine;
+
+import java.io.StringReader;
+
+import org.apache.batik.anim.dom.SAXSVGDocumentFactory;
+import org.apache.batik.anim.dom.SVGOMDocument;
+import org.apache.batik.bridge.BridgeContext;
+import org.apache.batik.bridge.GVTBuilder;
+import org.apache.batik.bridge.UserAgentAdapter;
+import org.apache.batik.css.engine.value.Value;
+import org.apache.batik.css.engine.value.ValueConstants;
+import org.apache.batik.test.AbstractTest;
+import org.apache.batik.util.SVGConstants;
+import org.apache.batik.util.XMLResourceDescriptor;
+
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NodeList;
+
+/**
+ * Checks that siblings with the same cascade inputs share their
+ * cascaded StyleMap, that writing to a shared map leaves the others
+ * unchanged, and that the elements whose style depends on more than
+ * their attributes are not shared.
+ *
+ * @version $Id$
+ */
+public class StyleSharingTest extends AbstractTest {
+
+    static final String SHARED =
+        "<svg xmlns='http://www.w3.org/2000/svg' width='10' height='10'>"
+        + "<style type='text/css'>.a { fill: red } rect { stroke: blue }"
+        + "</style><g>"
+        + "<rect class='a' fill-opacity='.5' width='1' height='1'/>"
+        + "<rect class='a' fill-opacity='.5' width='1' height='1'/>"
+        + "<rect class='a' fill-opacity='.5' width='1' height='1'/>"
+        + "<rect class='a' fill-opacity='.7' width='1' height='1'/>"
+        + "<rect style='fill: green' width='1' height='1'/>"
+        + "<rect style='fill: green' width='1' height='1'/>"
+        + "<rect id='i1' class='a' fill-opacity='.5' width='1' height='1'/>"
+        + "</g></svg>";
+
+    static final String PSEUDO_CLASS =
+        "<svg xmlns='http://www.w3.org/2000/svg' width='10' height='10'>"
+        + "<style type='text/css'>rect:first-child { fill: red }"
+        + "</style><g>"
+        + "<rect width='1' height='1'/>"
+        + "<rect width='1' height='1'/>"
+        + "</g></svg>";
+
+    public boolean runImplBasic() throws Exception {
+        BridgeContext ctx = new BridgeContext(new UserAgentAdapter());
+        Document doc = load(ctx, SHARED);
+        CSSEngine eng = ((SVGOMDocument)doc).getCSSEngine();
+        Element[] rects = getRects(doc);
+
+        // Equal inputs share the storage of the first cascade.
+        StyleMap m0 = eng.getCascadedStyleMap((CSSStylableElement)rects[0],
+                                              null);
+        StyleMap m1 = eng.getCascadedStyleMap((CSSStylableElement)rects[1],
+                                              null);
+        assertTrue(m0.values == m1.values);
+        assertTrue(m0.masks == m1.masks);
+
+        // Writing to one of them copies its storage first.
+        int fill = eng.getPropertyIndex(SVGConstants.CSS_FILL_PROPERTY);
+        int stroke = eng.getPropertyIndex(SVGConstants.CSS_STROKE_PROPERTY);
+        Value fillValue = m0.getValue(fill);
+        short strokeMask = m0.getMask(stroke);
+        m1.putValue(fill, ValueConstants.INHERIT_VALUE);
+        assertTrue(m0.values != m1.values);
+        assertTrue(m0.getValue(fill) == fillValue);
+        m0.putMask(stroke, (short)~strokeMask);
+        assertTrue(m0.masks != m1.masks);
+        assertEquals(strokeMask, m1.getMask(stroke));
+
+        // Neither write reached the map kept for the next siblings.
+        StyleMap m2 = eng.getCascadedStyleMap((CSSStylableElement)rects[2],
+                                              null);
+        assertTrue(m2.getValue(fill) == fillValue);
+        assertEquals(strokeMask, m2.getMask(stroke));
+
+        // Other inputs, a style attribute or an id give a fresh cascade.
+        assertNotShared(eng, rects[2], rects[3]);
+        assertNotShared(eng, rects[4], rects[5]);
+        assertNotShared(eng, rects[0], rects[6]);
+        ctx.dispose();
+
+        ctx = new BridgeContext(new UserAgentAdapter());
+        doc = load(ctx, PSEUDO_CLASS);
+        eng = ((SVGOMDocument)doc).getCSSEngine();
+        rects = getRects(doc);
+        assertNotShared(eng, rects[0], rects[1]);
+        ctx.dispose();
+        return true;
+    }
+
+    private void assertNotShared(CSSEngine eng, Element e1, Element e2)
+        throws Exception {
+        StyleMap m1 = eng.getCascadedStyleMap((CSSStylableElement)e1, null);
+        StyleMap m2 = eng.getCascadedStyleMap((CSSStylableElement)e2, null);
+        assertTrue(m1.values != m2.values);
+    }
+
+    private static Document load(BridgeContext ctx, String svg)
+        throws Exception {
+        SAXSVGDocumentFactory f = new SAXSVGDocumentFactory
+            (XMLResourceDescriptor.getXMLParserClassName());
+        Document doc = f.createDocument("file:/style.svg",
+                                        new StringReader(svg));
+        new GVTBuilder().build(ctx, doc);
+        return doc;
+    }
+
+    private static Element[] getRects(Document doc) {
+        NodeList nl = doc.getElementsByTagNameNS
+            (SVGConstants.SVG_NAMESPACE_URI, SVGConstants.SVG_RECT_TAG);
+        Element[] ret = new Element[nl.getLength()];
+        for (int i = 0; i < ret.length; i++)
+            ret[i] = (Element)nl.item(i);
+        return ret;
+    }
+}
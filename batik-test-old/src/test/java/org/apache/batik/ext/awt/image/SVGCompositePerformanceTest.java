@@ -0,0 +1,121 @@
+/*
+
+   Licensed to the Apache Software Foundation (ASF) under one or more
+   contributor license agreements.  See the NOTICE file distributed with
+   this work for additional information regarding copyright ownership.
+   The ASF licenses this file to You under the Apache License, Version 2.0
+   (the "License"); you may not use this file except in compliance with
+   the License.  You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+ */
+package org.apache.batik.ext.awt.image;
+
+import java.awt.CompositeContext;
+import java.awt.color.ColorSpace;
+import java.awt.image.ColorModel;
+import java.awt.image.DataBuffer;
+import java.awt.image.DataBufferInt;
+import java.awt.image.DirectColorModel;
+import java.awt.image.WritableRaster;
+import java.util.Random;
+
+import org.apache.batik.test.PerformanceTest;
+
+/**
+ * Compares the INT_PACK kernel of one SVGComposite rule (runOp) with
+ * the generic Raster based implementation of the same rule (runRef)
+ * on the same premultiplied pixels.
+ *
+ * @version $Id$
+ */
+public class SVGCompositePerformanceTest extends PerformanceTest {
+
+    static final int SIZE = 512;
+
+    protected CompositeContext refCtx, opCtx;
+    protected WritableRaster refSrc, refDstIn, refDstOut;
+    protected WritableRaster opSrc, opDstIn, opDstOut;
+
+    /**
+     * @param rule one of over, in, out, atop, xor, multiply, screen,
+     *        darken, lighten or arithmetic.
+     */
+    public SVGCompositePerformanceTest(String rule) {
+        CompositeRule cr = toRule(rule);
+        ColorSpace cs = ColorSpace.getInstance(ColorSpace.CS_sRGB);
+        // ARGB is recognized as INT_PACK...
+        ColorModel packed = new DirectColorModel
+            (cs, 32, 0x00FF0000, 0x0000FF00, 0x000000FF, 0xFF000000,
+             true, DataBuffer.TYPE_INT);
+        // ... while ABGR goes through the generic code.
+        ColorModel generic = new DirectColorModel
+            (cs, 32, 0x000000FF, 0x0000FF00, 0x00FF0000, 0xFF000000,
+             true, DataBuffer.TYPE_INT);
+
+        SVGComposite comp = new SVGComposite(cr);
+        opCtx  = comp.createContext(packed,  packed,  null);
+        refCtx = comp.createContext(generic, generic, null);
+
+        Random rand = new Random(42);
+        opSrc     = createRaster(packed, rand);
+        opDstIn   = createRaster(packed, rand);
+        opDstOut  = packed.createCompatibleWritableRaster(SIZE, SIZE);
+        refSrc    = generic.createCompatibleWritableRaster(SIZE, SIZE);
+        refDstIn  = generic.createCompatibleWritableRaster(SIZE, SIZE);
+        refDstOut = generic.createCompatibleWritableRaster(SIZE, SIZE);
+        copy(opSrc, refSrc);
+        copy(opDstIn, refDstIn);
+    }
+
+    static CompositeRule toRule(String rule) {
+        if ("over".equals(rule))     return CompositeRule.OVER;
+        if ("in".equals(rule))       return CompositeRule.IN;
+        if ("out".equals(rule))      return CompositeRule.OUT;
+        if ("atop".equals(rule))     return CompositeRule.ATOP;
+        if ("xor".equals(rule))      return CompositeRule.XOR;
+        if ("multiply".equals(rule)) return CompositeRule.MULTIPLY;
+        if ("screen".equals(rule))   return CompositeRule.SCREEN;
+        if ("darken".equals(rule))   return CompositeRule.DARKEN;
+        if ("lighten".equals(rule))  return CompositeRule.LIGHTEN;
+        if ("arithmetic".equals(rule))
+            return CompositeRule.ARITHMETIC(0.5f, 0.25f, 0.25f, 0.1f);
+        throw new IllegalArgumentException("Unknown rule: " + rule);
+    }
+
+    /**
+     * Creates a raster of random premultiplied pixels.
+     */
+    static WritableRaster createRaster(ColorModel cm, Random rand) {
+        WritableRaster wr = cm.createCompatibleWritableRaster(SIZE, SIZE);
+        int[] pixels = ((DataBufferInt)wr.getDataBuffer()).getData();
+        for (int i = 0; i < pixels.length; i++) {
+            int a = rand.nextInt(256);
+            int r = rand.nextInt(a + 1);
+            int g = rand.nextInt(a + 1);
+            int b = rand.nextInt(a + 1);
+            pixels[i] = (a << 24) | (r << 16) | (g << 8) | b;
+        }
+        return wr;
+    }
+
+    static void copy(WritableRaster src, WritableRaster dst) {
+        dst.setPixels(0, 0, SIZE, SIZE, src.getPixels(0, 0, SIZE, SIZE,
+                                                      (int[])null));
+    }
+
+    protected void runRef() {
+        refCtx.compose(refSrc, refDstIn, refDstOut);
+    }
+
+    protected void runOp() {
+        opCtx.compose(opSrc, opDstIn, opDstOut);
+    }
+}
@@ -0,0 +1,172 @@
+/*
+
+   Licensed to the Apache Software Foundation (ASF) under one or more
+   contributor license agreements.  See the NOTICE file distributed with
+   this work for additional information regarding copyright ownership.
+   The ASF licenses this file to You under the Apache License, Version 2.0
+   (the "License"); you may not use this file except in compliance with
+   the License.  You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+ */
+package org.apache.batik.ext.awt.image.codec.png;
+
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.FilterInputStream;
+
+import org.apache.batik.ext.awt.image.GraphicsUtil;
+import org.apache.batik.ext.awt.image.renderable.DeferRable;
+import org.apache.batik.ext.awt.image.renderable.Filter;
+import org.apache.batik.ext.awt.image.renderable.RedRable;
+import org.apache.batik.ext.awt.image.rendered.BufferedImageCachableRed;
+import org.apache.batik.test.AbstractTest;
+
+/**
+ * Checks that a PNG image large enough to be decoded lazily, drawn at
+ * a quarter and a tenth of its size, looks the same as its full
+ * decode drawn the same way, for two areas of interest in turn, and
+ * that a small image read from a stream without mark support is
+ * decoded at once.
+ *
+ * @version $Id$
+ */
+public class PNGRableTest extends AbstractTest {
+
+    static final int WIDTH = 2301;
+    static final int HEIGHT = 2203;
+
+    /**
+     * The size of the destination images.
+     */
+    static final int SIZE = 300;
+
+    /**
+     * The area of interest, in device space.
+     */
+    static final Rectangle AOI = new Rectangle(37, 51, 90, 70);
+
+    /**
+     * Where the area of interest is over the image, as fractions of
+     * its size: a first area, one panned from it, then the first again.
+     */
+    static final double[][] PANS = {
+        { 0.1, 0.1 }, { 0.5, 0.55 }, { 0.1, 0.1 }
+    };
+
+    /**
+     * The largest difference allowed between two components of a
+     * pixel, between the box filter of the subsampled decode and the
+     * interpolation of the full image.
+     */
+    static final int TOLERANCE = 8;
+
+    public boolean runImplBasic() throws Exception {
+        byte[] png = PNGRedTest.encode(createImage(), false);
+        assertTrue(PNGRegistryEntry.isLazyDecoded(png));
+        Filter full = new PNGRable(png, WIDTH, HEIGHT, false).decode(null, 1);
+
+        double[] scales = { 0.25, 0.1 };
+        for (int s = 0; s < scales.length; s++) {
+            DeferRable dr = (DeferRable)new PNGRegistryEntry().handleStream
+                (new ByteArrayInputStream(png), null, false);
+            PNGRable rable = (PNGRable)dr.getSource();
+            double scale = scales[s];
+            for (int p = 0; p < PANS.length; p++) {
+                int[] pan = { (int)(WIDTH * scale * PANS[p][0]) - AOI.x,
+                              (int)(HEIGHT * scale * PANS[p][1]) - AOI.y };
+                int[] expected = render(full, scale, pan);
+                int[] actual = render(dr, scale, pan);
+                assertTrue(rable.full == null);
+                assertTrue(rable.lastSubsampling > 1);
+                compare(expected, actual);
+            }
+        }
+
+        BufferedImage small = createImage().getSubimage(100, 200, 64, 48);
+        png = PNGRedTest.encode(small, false);
+        assertTrue(!PNGRegistryEntry.isLazyDecoded(png));
+        DeferRable dr = (DeferRable)new PNGRegistryEntry().handleStream
+            (new FilterInputStream(new ByteArrayInputStream(png)) {
+                    public boolean markSupported() {
+                        return false;
+                    }
+                }, null, true);
+        assertTrue(dr.getSource() instanceof RedRable);
+        BufferedImage decoded = ((BufferedImageCachableRed)
+            ((RedRable)dr.getSource()).createDefaultRendering())
+            .getBufferedImage();
+        assertEquals(64, decoded.getWidth());
+        assertEquals(48, decoded.getHeight());
+        for (int y = 0; y < 48; y++)
+            for (int x = 0; x < 64; x++)
+                assertEquals(small.getRGB(x, y), decoded.getRGB(x, y));
+        return true;
+    }
+
+    /**
+     * Returns an image with smooth gradients in color and alpha, so
+     * that the way it is resampled barely shows.
+     */
+    static BufferedImage createImage() {
+        BufferedImage bi = new BufferedImage
+            (WIDTH, HEIGHT, BufferedImage.TYPE_INT_ARGB);
+        int[] row = new int[WIDTH];
+        for (int y = 0; y < HEIGHT; y++) {
+            for (int x = 0; x < WIDTH; x++) {
+                int r = x * 255 / (WIDTH - 1);
+                int g = y * 255 / (HEIGHT - 1);
+                int b = (int)(127.5 + 127 * Math.sin(x / 400.0)
+                              * Math.cos(y / 300.0));
+                int a = 128 + (x + y) * 127 / (WIDTH + HEIGHT - 2);
+                row[x] = (a << 24) | (r << 16) | (g << 8) | b;
+            }
+            bi.setRGB(0, y, WIDTH, 1, row, 0, WIDTH);
+        }
+        return bi;
+    }
+
+    /**
+     * Draws <code>filter</code> scaled by <code>scale</code> and
+     * panned by <code>pan</code>, clipped to the area of interest.
+     */
+    static int[] render(Filter filter, double scale, int[] pan) {
+        BufferedImage bi = new BufferedImage
+            (SIZE, SIZE, BufferedImage.TYPE_INT_ARGB_PRE);
+        Graphics2D g = GraphicsUtil.createGraphics(bi);
+        g.clip(AOI);
+        g.translate(-pan[0], -pan[1]);
+        g.scale(scale, scale);
+        GraphicsUtil.drawImage(g, filter);
+        g.dispose();
+        return bi.getRGB(0, 0, SIZE, SIZE, null, 0, SIZE);
+    }
+
+    private void compare(int[] expected, int[] actual) throws Exception {
+        int drawn = 0;
+        for (int i = 0; i < expected.length; i++) {
+            if (expected[i] != 0)
+                drawn++;
+            for (int s = 0; s < 32; s += 8) {
+                int a = (expected[i] >>> s) & 0xFF;
+                int b = (actual[i] >>> s) & 0xFF;
+                if (Math.abs(a - b) > TOLERANCE) {
+                    String at = " at (" + (i % SIZE) + ", " + (i / SIZE) + ")";
+                    assertEquals(Integer.toHexString(expected[i]) + at,
+                                 Integer.toHexString(actual[i]) + at);
+                }
+            }
+        }
+        // The area of interest is within the image.
+        assertEquals(AOI.width * AOI.height, drawn);
+    }
+}
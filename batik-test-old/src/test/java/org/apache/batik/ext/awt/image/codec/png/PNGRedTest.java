@@ -0,0 +1,183 @@
+/*
+
+   Licensed to the Apache Software Foundation (ASF) under one or more
+   contributor license agreements.  See the NOTICE file distributed with
+   this work for additional information regarding copyright ownership.
+   The ASF licenses this file to You under the Apache License, Version 2.0
+   (the "License"); you may not use this file except in compliance with
+   the License.  You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+ */
+package org.apache.batik.ext.awt.image.codec.png;
+
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.awt.image.ComponentColorModel;
+import java.awt.image.Raster;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.Random;
+
+import org.apache.batik.test.AbstractTest;
+
+/**
+ * Checks that PNGRed decodes a region of an image, subsampled or not,
+ * to the pixels of the whole image it covers, averaged with their
+ * alpha, and that interlaced and indexed images ignore what does not
+ * apply to them.
+ *
+ * @version $Id$
+ */
+public class PNGRedTest extends AbstractTest {
+
+    static final int WIDTH = 203;
+    static final int HEIGHT = 157;
+
+    static final Rectangle[] REGIONS = {
+        null,
+        new Rectangle(0, 0, WIDTH, HEIGHT),
+        new Rectangle(13, 7, 50, 91),
+        new Rectangle(-20, 100, 300, 200),
+        new Rectangle(WIDTH - 1, HEIGHT - 1, 1, 1),
+        new Rectangle(500, 500, 10, 10),
+    };
+
+    static final int[] SUBSAMPLINGS = { 1, 2, 3, 8, 300 };
+
+    public boolean runImplBasic() throws Exception {
+        int[] types = {
+            BufferedImage.TYPE_INT_ARGB,
+            BufferedImage.TYPE_INT_RGB,
+            BufferedImage.TYPE_BYTE_GRAY,
+            BufferedImage.TYPE_USHORT_GRAY,
+            BufferedImage.TYPE_BYTE_INDEXED,
+            BufferedImage.TYPE_BYTE_BINARY,
+        };
+        for (int i = 0; i < types.length; i++) {
+            byte[] png = encode(createImage(types[i]), false);
+            check(png, true, false);
+            check(png, false, false);
+        }
+        check(encode(createImage(BufferedImage.TYPE_INT_ARGB), true),
+              true, true);
+        return true;
+    }
+
+    static BufferedImage createImage(int type) {
+        BufferedImage bi = new BufferedImage(WIDTH, HEIGHT, type);
+        Random rand = new Random(type);
+        for (int y = 0; y < HEIGHT; y++) {
+            for (int x = 0; x < WIDTH; x++) {
+                int argb = rand.nextInt();
+                if ((x + y) % 5 == 0)
+                    argb &= 0x00FFFFFF;
+                bi.setRGB(x, y, argb);
+            }
+        }
+        return bi;
+    }
+
+    static byte[] encode(BufferedImage bi, boolean interlaced)
+        throws Exception {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        PNGEncodeParam param = PNGEncodeParam.getDefaultEncodeParam(bi);
+        param.setInterlacing(interlaced);
+        new PNGImageEncoder(bos, param).encode(bi);
+        return bos.toByteArray();
+    }
+
+    static PNGRed decode(byte[] png, boolean expand, Rectangle region,
+                         int sub) throws Exception {
+        PNGDecodeParam param = new PNGDecodeParam();
+        param.setExpandPalette(expand);
+        param.setPerformGammaCorrection(expand);
+        param.setSourceRegion(region);
+        param.setSubsampling(sub);
+        return new PNGRed(new ByteArrayInputStream(png), param);
+    }
+
+    private void check(byte[] png, boolean expand, boolean interlaced)
+        throws Exception {
+        PNGRed full = decode(png, expand, null, 1);
+        assertEquals(new Rectangle(0, 0, WIDTH, HEIGHT), full.getBounds());
+        Raster all = full.getData();
+        boolean component = full.getColorModel() instanceof ComponentColorModel;
+        for (int r = 0; r < REGIONS.length; r++) {
+            for (int s = 0; s < SUBSAMPLINGS.length; s++) {
+                PNGRed red = decode(png, expand, REGIONS[r], SUBSAMPLINGS[s]);
+                int sub = (component && !interlaced) ? SUBSAMPLINGS[s] : 1;
+                assertEquals(sub, red.getSubsampling());
+
+                Rectangle region = new Rectangle(0, 0, WIDTH, HEIGHT);
+                if ((REGIONS[r] != null) && !interlaced) {
+                    region = REGIONS[r].intersection(region);
+                    if (region.isEmpty())
+                        region = new Rectangle(WIDTH - 1, HEIGHT - 1, 1, 1);
+                }
+                int x0 = region.x / sub;
+                int y0 = region.y / sub;
+                int x1 = Math.min((region.x + region.width + sub - 1) / sub,
+                                  (WIDTH + sub - 1) / sub);
+                int y1 = Math.min((region.y + region.height + sub - 1) / sub,
+                                  (HEIGHT + sub - 1) / sub);
+                assertEquals(new Rectangle(x0, y0, x1 - x0, y1 - y0),
+                             red.getBounds());
+
+                Raster ras = red.getData();
+                int bands = ras.getNumBands();
+                int[] expected = new int[bands];
+                int[] actual = new int[bands];
+                for (int y = y0; y < y1; y++) {
+                    for (int x = x0; x < x1; x++) {
+                        if (sub == 1)
+                            all.getPixel(x, y, expected);
+                        else
+                            average(all, x, y, sub, expected);
+                        ras.getPixel(x, y, actual);
+                        for (int b = 0; b < bands; b++)
+                            assertEquals(expected[b], actual[b]);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Computes the average of the pixels of <code>ras</code> covered by
+     * pixel <code>(x, y)</code> of an image subsampled by
+     * <code>sub</code>, weighted by alpha.
+     */
+    static void average(Raster ras, int x, int y, int sub, int[] pixel) {
+        int bands = ras.getNumBands();
+        boolean hasAlpha = (bands & 1) == 0;
+        int colors = hasAlpha ? bands - 1 : bands;
+        long[] sums = new long[bands];
+        int[] p = new int[bands];
+        long count = 0;
+        for (int j = y * sub; j < Math.min((y + 1) * sub, HEIGHT); j++) {
+            for (int i = x * sub; i < Math.min((x + 1) * sub, WIDTH); i++) {
+                ras.getPixel(i, j, p);
+                long w = hasAlpha ? p[colors] : 1;
+                for (int b = 0; b < colors; b++)
+                    sums[b] += p[b] * w;
+                if (hasAlpha)
+                    sums[colors] += w;
+                count++;
+            }
+        }
+        long weight = hasAlpha ? sums[colors] : count;
+        for (int b = 0; b < colors; b++)
+            pixel[b] = (weight == 0) ? 0
+                : (int)((sums[b] + weight / 2) / weight);
+        if (hasAlpha)
+            pixel[colors] = (int)((sums[colors] + count / 2) / count);
+    }
+}
@@ -0,0 +1,93 @@
+/*
+
+   Licensed to the Apache Software Foundation (ASF) under one or more
+   contributor license agreements.  See the NOTICE file distributed with
+   this work for additional information regarding copyright ownership.
+   The ASF licenses this file to You under the Apache License, Version 2.0
+   (the "License"); you may not use this file except in compliance with
+   the License.  You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+ */
+package org.apache.batik.ext.awt.image.codec.png;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.util.Random;
+import java.util.zip.InflaterInputStream;
+
+import org.apache.batik.ext.awt.image.rendered.ParallelTileExecutor;
+import org.apache.batik.test.AbstractTest;
+
+/**
+ * Checks that ParallelDeflaterOutputStream produces a valid zlib
+ * stream that inflates back to its input, across block and batch
+ * boundaries.
+ *
+ * @version $Id$
+ */
+public class ParallelDeflaterOutputStreamTest extends AbstractTest {
+
+    public boolean runImplBasic() throws Exception {
+        if (!ParallelDeflaterOutputStream.isSupported())
+            return true;
+
+        // Compressible data with long range repeats and some noise.
+        Random rnd = new Random(42);
+        byte[] data = new byte[700*1024 + 123];
+        for (int i = 0; i < data.length; i++) {
+            if (i >= 1000 && rnd.nextInt(4) != 0)
+                data[i] = data[i - 1000 + rnd.nextInt(3)];
+            else
+                data[i] = (byte)rnd.nextInt(256);
+        }
+
+        int parallelism = ParallelTileExecutor.getParallelism();
+        try {
+            ParallelTileExecutor.setParallelism(3);
+            check(data, data.length);
+            check(data, 1);
+            check(data, 1000);
+            check(data, 64*1024 - 1);
+            check(new byte[0], 1);
+        } finally {
+            ParallelTileExecutor.setParallelism(parallelism);
+        }
+        return true;
+    }
+
+    private void check(byte[] data, int len) throws Exception {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        ParallelDeflaterOutputStream dos
+            = new ParallelDeflaterOutputStream(bos, 9, 64*1024);
+        // Write in odd sized pieces.
+        int off = 0;
+        while (off < data.length) {
+            int n = Math.min(len, data.length - off);
+            dos.write(data, off, n);
+            off += n;
+        }
+        dos.close();
+
+        // InflaterInputStream verifies the Adler-32 checksum.
+        InputStream is = new InflaterInputStream
+            (new ByteArrayInputStream(bos.toByteArray()));
+        byte[] out = new byte[data.length + 1];
+        int n = 0, c;
+        while ((c = is.read(out, n, out.length - n)) > 0)
+            n += c;
+        is.close();
+
+        assertEquals(data.length, n);
+        for (int i = 0; i < data.length; i++)
+            assertEquals(data[i], out[i]);
+    }
+}
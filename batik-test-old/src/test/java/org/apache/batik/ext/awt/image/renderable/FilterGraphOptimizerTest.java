@@ -0,0 +1,147 @@
+/*
+
+   Licensed to the Apache Software Foundation (ASF) under one or more
+   contributor license agreements.  See the NOTICE file distributed with
+   this work for additional information regarding copyright ownership.
+   The ASF licenses this file to You under the Apache License, Version 2.0
+   (the "License"); you may not use this file except in compliance with
+   the License.  You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+ */
+package org.apache.batik.ext.awt.image.renderable;
+
+import java.awt.Rectangle;
+import java.awt.geom.AffineTransform;
+import java.awt.geom.Rectangle2D;
+import java.awt.image.BufferedImage;
+import java.awt.image.Raster;
+import java.awt.image.RenderedImage;
+import java.awt.image.renderable.RenderContext;
+
+import org.apache.batik.ext.awt.image.ComponentTransferFunction;
+import org.apache.batik.ext.awt.image.ConcreteComponentTransferFunction;
+import org.apache.batik.ext.awt.image.PadMode;
+import org.apache.batik.ext.awt.image.rendered.BufferedImageCachableRed;
+import org.apache.batik.test.AbstractTest;
+
+/**
+ * Checks that the filter graph optimizer simplifies chains of
+ * primitives the way the SVG filter bridges build them, and that the
+ * simplified graphs render the same pixels.
+ *
+ * @version $Id$
+ */
+public class FilterGraphOptimizerTest extends AbstractTest {
+
+    private static final Rectangle2D REGION
+        = new Rectangle2D.Double(0, 0, 64, 48);
+
+    private Filter source;
+
+    public boolean runImplBasic() throws Exception {
+        BufferedImage bi = new BufferedImage(64, 48,
+                                             BufferedImage.TYPE_INT_ARGB);
+        for (int y = 0; y < 48; y++)
+            for (int x = 0; x < 64; x++)
+                bi.setRGB(x, y, ((x*4) << 24) | ((y*5) << 16)
+                                | ((x*y) & 0xff) << 8 | ((x+y*3) & 0xff));
+        source = new RedRable(new BufferedImageCachableRed(bi));
+
+        // Consecutive transfers become one lookup table.
+        Filter f = optimize(transfers());
+        PadRable pad = (PadRable)f;
+        assertTrue(pad.getSource() instanceof ComponentTransferRable8Bit);
+        ComponentTransferRable8Bit ct
+            = (ComponentTransferRable8Bit)pad.getSource();
+        assertTrue(((PadRable)ct.getSource()).getSource() == source);
+        assertSame(render(transfers()), render(f));
+
+        // Identity primitives are dropped.
+        ColorMatrixRable cm = ColorMatrixRable8Bit.buildMatrix
+            (new float[][] {{ 1, 0, 0, 0, 0 }, { 0, 1, 0, 0, 0 },
+                            { 0, 0, 1, 0, 0 }, { 0, 0, 0, 1, 0 }});
+        cm.setSource(pad(source));
+        f = optimize(pad(cm));
+        assertTrue(((PadRable)f).getSource() == source);
+
+        // Offsets fold into a single translation.
+        f = optimize(offsets());
+        int affines = 0;
+        for (Filter s = f; s.getSources() != null && !s.getSources().isEmpty();
+             s = (Filter)s.getSources().get(0)) {
+            if (s instanceof AffineRable) {
+                AffineTransform at = ((AffineRable)s).getAffine();
+                assertEquals(7.0, at.getTranslateX());
+                assertEquals(-2.0, at.getTranslateY());
+                affines++;
+            }
+        }
+        assertEquals(1, affines);
+        assertSame(render(offsets()), render(f));
+
+        // Nothing happens when the optimizer is off.
+        FilterGraphOptimizer.setEnabled(false);
+        try {
+            Filter g = transfers();
+            assertTrue(FilterGraphOptimizer.optimize(g) == g);
+        } finally {
+            FilterGraphOptimizer.setEnabled(true);
+        }
+        return true;
+    }
+
+    private static Filter optimize(Filter f) {
+        return FilterGraphOptimizer.optimize(f);
+    }
+
+    private static Filter pad(Filter f) {
+        return new PadRable8Bit(f, REGION, PadMode.ZERO_PAD);
+    }
+
+    /**
+     * A gamma transfer followed by a table transfer.
+     */
+    private Filter transfers() {
+        ComponentTransferFunction gamma = ConcreteComponentTransferFunction
+            .getGammaTransfer(1.5f, 0.7f, 0.1f);
+        ComponentTransferFunction table = ConcreteComponentTransferFunction
+            .getTableTransfer(new float[] { 1, 0.2f, 0.6f });
+        Filter f = new ComponentTransferRable8Bit
+            (pad(source), null, gamma, null, gamma);
+        f = new ComponentTransferRable8Bit
+            (pad(f), table, table, gamma, null);
+        return pad(f);
+    }
+
+    /**
+     * Two offsets, as built by feOffset.
+     */
+    private Filter offsets() {
+        Filter f = pad(new AffineRable8Bit
+                       (pad(source),
+                        AffineTransform.getTranslateInstance(3, -5)));
+        return pad(new AffineRable8Bit
+                   (pad(f), AffineTransform.getTranslateInstance(4, 3)));
+    }
+
+    private static int[] render(Filter f) {
+        RenderedImage ri = f.createRendering
+            (new RenderContext(new AffineTransform()));
+        Raster r = ri.getData(new Rectangle(0, 0, 64, 48));
+        return r.getPixels(0, 0, 64, 48, (int[])null);
+    }
+
+    private void assertSame(int[] expected, int[] actual) throws Exception {
+        assertEquals(expected.length, actual.length);
+        for (int i = 0; i < expected.length; i++)
+            assertEquals(expected[i], actual[i]);
+    }
+}
@@ -0,0 +1,64 @@
+/*
+
+   Licensed to the Apache Software Foundation (ASF) under one or more
+   contributor license agreements.  See the NOTICE file distributed with
+   this work for additional information regarding copyright ownership.
+   The ASF licenses this file to You under the Apache License, Version 2.0
+   (the "License"); you may not use this file except in compliance with
+   the License.  You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+ */
+package org.apache.batik.ext.awt.image.rendered;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.ColorModel;
+import java.awt.image.WritableRaster;
+import java.util.Random;
+
+import org.apache.batik.ext.awt.image.GraphicsUtil;
+import org.apache.batik.test.PerformanceTest;
+
+/**
+ * Compares the single pass conversion of a 512x512 premultiplied sRGB
+ * image to premultiplied linear sRGB (runOp), as a filter reads its
+ * input, with the previous divide, lookup and multiply passes (runRef).
+ *
+ * @version $Id$
+ */
+public class ColorSpaceLutPerformanceTest extends PerformanceTest {
+
+    static final int SIZE = 512;
+
+    protected CachableRed src;
+    protected CachableRed linear;
+    protected ColorModel cm;
+
+    public ColorSpaceLutPerformanceTest() {
+        BufferedImage bi = ConvolveMatrixPerformanceTest.createImage
+            (BufferedImage.TYPE_INT_ARGB_PRE, new Random(7));
+        src = new BufferedImageCachableRed(bi);
+        linear = new Any2LsRGBRed(src);
+        cm = linear.getColorModel();
+    }
+
+    protected void runRef() {
+        WritableRaster wr = cm.createCompatibleWritableRaster(SIZE, SIZE);
+        src.copyData(wr);
+        GraphicsUtil.coerceData(wr, src.getColorModel(), false);
+        Any2sRGBRed.applyLut_INT(wr, ColorSpaceLut.SRGB_TO_LINEAR_8);
+        GraphicsUtil.coerceData(wr, cm, true);
+    }
+
+    protected void runOp() {
+        WritableRaster wr = cm.createCompatibleWritableRaster(SIZE, SIZE);
+        GraphicsUtil.copyCoercedData(linear, wr, true);
+    }
+}
@@ -0,0 +1,160 @@
+/*
+
+   Licensed to the Apache Software Foundation (ASF) under one or more
+   contributor license agreements.  See the NOTICE file distributed with
+   this work for additional information regarding copyright ownership.
+   The ASF licenses this file to You under the Apache License, Version 2.0
+   (the "License"); you may not use this file except in compliance with
+   the License.  You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+ */
+package org.apache.batik.ext.awt.image.rendered;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.ColorModel;
+import java.awt.image.WritableRaster;
+
+import org.apache.batik.ext.awt.image.GraphicsUtil;
+import org.apache.batik.test.AbstractTest;
+
+/**
+ * Checks the single pass sRGB / linear sRGB conversions of ColorSpaceLut
+ * against the conversion formulas, for every alpha and color value and
+ * each alpha premultiplied state, and checks that GraphicsUtil removes
+ * conversions which undo each other.
+ *
+ * @version $Id$
+ */
+public class ColorSpaceLutTest extends AbstractTest {
+
+    public boolean runImplBasic() throws Exception {
+        int parallelism = ParallelTileExecutor.getParallelism();
+        try {
+            ParallelTileExecutor.setParallelism(4);
+            for (int i = 0; i < 8; i++)
+                check((i & 4) != 0, (i & 2) != 0, (i & 1) != 0);
+        } finally {
+            ParallelTileExecutor.setParallelism(parallelism);
+        }
+
+        checkRoundTrip();
+        checkCopyCoercedData();
+        return true;
+    }
+
+    /**
+     * Returns an image with a row per alpha value and a column per
+     * color value, premultiplied or not.
+     */
+    static BufferedImage createImage(boolean premult) {
+        BufferedImage bi = new BufferedImage
+            (256, 256, premult ? BufferedImage.TYPE_INT_ARGB_PRE
+                               : BufferedImage.TYPE_INT_ARGB);
+        int[] pixels = new int[256 * 256];
+        for (int a = 0; a < 256; a++) {
+            for (int c = 0; c < 256; c++) {
+                int v = premult ? c * a / 255 : c;
+                pixels[a * 256 + c] = (a << 24) | (v << 16) | (c << 8) |
+                    (255 - v);
+            }
+        }
+        bi.getRaster().setDataElements(0, 0, 256, 256, pixels);
+        return bi;
+    }
+
+    private void check(boolean toLinear, boolean srcPremult,
+                       boolean dstPremult) throws Exception {
+        WritableRaster wr = createImage(srcPremult).getRaster();
+        int[] src = (int[])wr.getDataElements(0, 0, 256, 256, null);
+        if (toLinear)
+            ColorSpaceLut.toLinear(wr, srcPremult, dstPremult);
+        else
+            ColorSpaceLut.toSRGB(wr, srcPremult, dstPremult);
+        int[] dst = (int[])wr.getDataElements(0, 0, 256, 256, null);
+
+        for (int i = 0; i < src.length; i++) {
+            int a = src[i] >>> 24;
+            assertEquals(a, dst[i] >>> 24);
+            for (int s = 0; s < 24; s += 8) {
+                int c = (src[i] >> s) & 0xFF;
+                int v = (dst[i] >> s) & 0xFF;
+                if (a == 0) {
+                    if (dstPremult)
+                        assertEquals(0, v);
+                    else if (srcPremult)
+                        assertEquals(255, v);
+                    continue;
+                }
+                double u = Math.min(1, srcPremult ? c / (double)a : c / 255.0);
+                u = toLinear ? Any2LsRGBRed.sRGBToLsRGB(u)
+                             : ColorSpaceLut.lsRGBTosRGB(u);
+                int expected = (int)Math.round(u * (dstPremult ? a : 255));
+                // Opaque pixels use the 8 bit tables, other pixels are
+                // only rounded once except for the sRGB value of
+                // premultiplied data.
+                int tolerance = (toLinear && srcPremult && !dstPremult)
+                    ? 2 : 1;
+                if (a == 255)
+                    tolerance = 0;
+                if (Math.abs(expected - v) > tolerance)
+                    assertEquals(expected, v);
+            }
+        }
+    }
+
+    /**
+     * Checks that converting back to the color space of a source
+     * returns that source.
+     */
+    private void checkRoundTrip() throws Exception {
+        CachableRed src = new BufferedImageCachableRed(createImage(true));
+        CachableRed linear = GraphicsUtil.convertToLsRGB(src);
+        assertTrue(linear instanceof Any2LsRGBRed);
+        assertTrue(GraphicsUtil.convertTosRGB(linear) == src);
+
+        CachableRed srgb = new Any2sRGBRed(linear);
+        assertTrue(GraphicsUtil.convertToLsRGB(srgb) == linear);
+    }
+
+    /**
+     * Checks that copying a conversion to premultiplied data converts
+     * the data of its source in one pass, and that copying other images
+     * copies and multiplies their data.
+     */
+    private void checkCopyCoercedData() throws Exception {
+        BufferedImage bi = createImage(false);
+        CachableRed src = new BufferedImageCachableRed(bi);
+        CachableRed linear = new Any2LsRGBRed(src);
+        ColorModel cm = linear.getColorModel();
+
+        WritableRaster expected = bi.copyData(null);
+        ColorSpaceLut.toLinear(expected, false, true);
+        WritableRaster wr = cm.createCompatibleWritableRaster(256, 256);
+        ColorModel pre = GraphicsUtil.copyCoercedData(linear, wr, true);
+        assertTrue(pre.isAlphaPremultiplied());
+        assertSame(expected, wr);
+
+        expected = bi.copyData(null);
+        GraphicsUtil.coerceData(expected, src.getColorModel(), true);
+        wr = cm.createCompatibleWritableRaster(256, 256);
+        pre = GraphicsUtil.copyCoercedData(src, wr, true);
+        assertTrue(pre.isAlphaPremultiplied());
+        assertSame(expected, wr);
+    }
+
+    private void assertSame(WritableRaster expected, WritableRaster actual)
+        throws Exception {
+        int[] e = expected.getPixels(0, 0, 256, 256, (int[])null);
+        int[] p = actual.getPixels(0, 0, 256, 256, (int[])null);
+        for (int i = 0; i < e.length; i++)
+            assertEquals(e[i], p[i]);
+    }
+}
@@ -0,0 +1,133 @@
+/*
+
+   Licensed to the Apache Software Foundation (ASF) under one or more
+   contributor license agreements.  See the NOTICE file distributed with
+   this work for additional information regarding copyright ownership.
+   The ASF licenses this file to You under the Apache License, Version 2.0
+   (the "License"); you may not use this file except in compliance with
+   the License.  You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+ */
+package org.apache.batik.ext.awt.image.rendered;
+
+import java.awt.Point;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.awt.image.Raster;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.apache.batik.ext.awt.image.CompositeRule;
+import org.apache.batik.test.AbstractTest;
+
+/**
+ * Checks that CompositeRed gives the same pixels when the composites
+ * are split into bands run concurrently as when they run on a single
+ * thread, for tall sources not aligned on the bands, one of which
+ * returns rasters that are not writable.
+ *
+ * @version $Id$
+ */
+public class CompositeRedTest extends AbstractTest {
+
+    static final CompositeRule[] RULES = {
+        CompositeRule.OVER,
+        CompositeRule.IN,
+        CompositeRule.OUT,
+        CompositeRule.ATOP,
+        CompositeRule.XOR,
+        CompositeRule.MULTIPLY,
+        CompositeRule.SCREEN,
+        CompositeRule.DARKEN,
+        CompositeRule.LIGHTEN,
+        CompositeRule.ARITHMETIC(0.5f, 0.25f, 0.75f, 0.1f)
+    };
+
+    public boolean runImplBasic() throws Exception {
+        List srcs = new ArrayList();
+        srcs.add(new BufferedImageCachableRed(createImage(301, 701, 1), 13, 7));
+        srcs.add(new BufferedImageCachableRed(createImage(257, 613, 2), 29, 45));
+        srcs.add(new ReadOnlyRed(createImage(283, 659, 3), 3, 31));
+
+        int parallelism = ParallelTileExecutor.getParallelism();
+        try {
+            for (int i = 0; i < RULES.length; i++) {
+                ParallelTileExecutor.setParallelism(1);
+                int[] expected = compose(srcs, RULES[i]);
+                ParallelTileExecutor.setParallelism(4);
+                int[] actual = compose(srcs, RULES[i]);
+                assertEquals(expected.length, actual.length);
+                for (int j = 0; j < expected.length; j++)
+                    if (expected[j] != actual[j])
+                        assertEquals(Integer.toHexString(expected[j]),
+                                     Integer.toHexString(actual[j]) +
+                                     " at " + j + " for " + RULES[i]);
+            }
+        } finally {
+            ParallelTileExecutor.setParallelism(parallelism);
+        }
+        return true;
+    }
+
+    /**
+     * Composites <code>srcs</code> in one piece and returns the pixels.
+     */
+    static int[] compose(List srcs, CompositeRule rule) {
+        CompositeRed red = new CompositeRed(srcs, rule);
+        Rectangle r = red.getBounds();
+        Raster ras = red.getData(r);
+        return (int[])ras.getDataElements(r.x, r.y, r.width, r.height, null);
+    }
+
+    /**
+     * Returns a premultiplied image of random pixels, some of them
+     * transparent or opaque.
+     */
+    static BufferedImage createImage(int w, int h, long seed) {
+        BufferedImage bi = new BufferedImage
+            (w, h, BufferedImage.TYPE_INT_ARGB_PRE);
+        Random rnd = new Random(seed);
+        for (int y = 0; y < h; y++) {
+            for (int x = 0; x < w; x++) {
+                int argb = rnd.nextInt();
+                switch (rnd.nextInt(4)) {
+                case 0: argb &= 0x00FFFFFF; break;
+                case 1: argb |= 0xFF000000; break;
+                }
+                bi.setRGB(x, y, argb);
+            }
+        }
+        return bi;
+    }
+
+    /**
+     * A source whose data is returned in rasters that are not
+     * WritableRasters.
+     */
+    static class ReadOnlyRed extends BufferedImageCachableRed {
+        ReadOnlyRed(BufferedImage bi, int x, int y) {
+            super(bi, x, y);
+        }
+
+        public Raster getData(Rectangle rect) {
+            Raster r = super.getData(rect);
+            if (r == null)
+                return null;
+            return new Raster(r.getSampleModel(), r.getDataBuffer(),
+                              r.getBounds(),
+                              new Point(r.getSampleModelTranslateX(),
+                                        r.getSampleModelTranslateY()),
+                              null) {
+                };
+        }
+    }
+}
@@ -0,0 +1,102 @@
+/*
+
+   Licensed to the Apache Software Foundation (ASF) under one or more
+   contributor license agreements.  See the NOTICE file distributed with
+   this work for additional information regarding copyright ownership.
+   The ASF licenses this file to You under the Apache License, Version 2.0
+   (the "License"); you may not use this file except in compliance with
+   the License.  You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+ */
+package org.apache.batik.ext.awt.image.rendered;
+
+import java.awt.Point;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.awt.image.ConvolveOp;
+import java.awt.image.Kernel;
+import java.awt.image.WritableRaster;
+import java.util.Random;
+
+import org.apache.batik.ext.awt.image.GraphicsUtil;
+import org.apache.batik.ext.awt.image.PadMode;
+import org.apache.batik.test.PerformanceTest;
+
+/**
+ * Compares ConvolveMatrixRed (runOp) with the previous feConvolveMatrix
+ * code (runRef), which padded the source with a PadRed and convolved
+ * the copy with <code>java.awt.image.ConvolveOp</code>, on a 512x512
+ * premultiplied image with <code>edgeMode="duplicate"</code>.
+ *
+ * @version $Id$
+ */
+public class ConvolveMatrixPerformanceTest extends PerformanceTest {
+
+    static final int SIZE = 512;
+
+    protected CachableRed src;
+    protected Kernel kernel;
+    protected Point target;
+    protected Rectangle bounds = new Rectangle(0, 0, SIZE, SIZE);
+
+    /**
+     * @param order the width and height of the kernel.
+     * @param separable whether the kernel is a box blur, which is
+     *        separable, or random values, which are not.
+     */
+    public ConvolveMatrixPerformanceTest(Integer order, Boolean separable) {
+        int n = order.intValue();
+        Random rand = new Random(5);
+        float[] data = new float[n * n];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = separable.booleanValue()
+                ? 1f / data.length
+                : (rand.nextFloat() - 0.3f) * 2 / data.length;
+        }
+        kernel = new Kernel(n, n, data);
+        target = new Point(n / 2, n / 2);
+        src = new BufferedImageCachableRed
+            (createImage(BufferedImage.TYPE_INT_ARGB_PRE, rand));
+    }
+
+    /**
+     * Creates a SIZE x SIZE image with random premultiplied pixels.
+     */
+    static BufferedImage createImage(int type, Random rand) {
+        BufferedImage bi = new BufferedImage(SIZE, SIZE, type);
+        int[] pixels = new int[SIZE * SIZE];
+        for (int i = 0; i < pixels.length; i++) {
+            int a = rand.nextInt(256);
+            pixels[i] = (a << 24) | (rand.nextInt(a + 1) << 16) |
+                (rand.nextInt(a + 1) << 8) | rand.nextInt(a + 1);
+        }
+        bi.getRaster().setDataElements(0, 0, SIZE, SIZE, pixels);
+        return bi;
+    }
+
+    protected void runRef() {
+        int kw = kernel.getWidth();
+        int kh = kernel.getHeight();
+        Rectangle r = new Rectangle(-target.x, -target.y,
+                                    SIZE + kw - 1, SIZE + kh - 1);
+        CachableRed cr = new PadRed(src, r, PadMode.REPLICATE, null);
+        WritableRaster wr = GraphicsUtil.makeRasterWritable
+            (cr.getData(), 0, 0);
+        BufferedImage bi = new BufferedImage
+            (cr.getColorModel(), wr, true, null);
+        new ConvolveOp(kernel, ConvolveOp.EDGE_NO_OP, null).filter(bi, null);
+    }
+
+    protected void runOp() {
+        new ConvolveMatrixRed(src, bounds, kernel, target,
+                              PadMode.REPLICATE, false).getData();
+    }
+}
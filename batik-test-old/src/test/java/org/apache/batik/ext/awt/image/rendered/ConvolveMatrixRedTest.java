@@ -0,0 +1,212 @@
+/*
+
+   Licensed to the Apache Software Foundation (ASF) under one or more
+   contributor license agreements.  See the NOTICE file distributed with
+   this work for additional information regarding copyright ownership.
+   The ASF licenses this file to You under the Apache License, Version 2.0
+   (the "License"); you may not use this file except in compliance with
+   the License.  You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+ */
+package org.apache.batik.ext.awt.image.rendered;
+
+import java.awt.Point;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.awt.image.Kernel;
+import java.awt.image.Raster;
+import java.util.Random;
+
+import org.apache.batik.ext.awt.image.PadMode;
+import org.apache.batik.test.AbstractTest;
+
+/**
+ * Checks ConvolveMatrixRed against a direct computation of the
+ * feConvolveMatrix formula, for each edge mode, with separable and
+ * non separable kernels of odd and even sizes, over an area larger
+ * than the source.
+ *
+ * @version $Id$
+ */
+public class ConvolveMatrixRedTest extends AbstractTest {
+
+    static final int WIDTH = 70;
+    static final int HEIGHT = 50;
+
+    /**
+     * The position of the source.
+     */
+    static final int X = 5;
+    static final int Y = -3;
+
+    /**
+     * The computed area, which goes past the source on every side.
+     */
+    static final Rectangle BOUNDS = new Rectangle(X - 6, Y - 4, 80, 60);
+
+    /**
+     * The position of the bands of the raster in a pixel.
+     */
+    static final int[] SHIFTS = { 16, 8, 0, 24 };
+
+    static final PadMode[] EDGE_MODES = {
+        PadMode.ZERO_PAD, PadMode.REPLICATE, PadMode.WRAP
+    };
+
+    public boolean runImplBasic() throws Exception {
+        Random rand = new Random(11);
+        Kernel[] kernels = {
+            // Separable: a Gaussian and an outer product.
+            new Kernel(3, 3, new float[] { 1/16f, 2/16f, 1/16f,
+                                           2/16f, 4/16f, 2/16f,
+                                           1/16f, 2/16f, 1/16f }),
+            outer(new float[] { 0.5f, -0.25f, 0.75f, 0.125f },
+                  new float[] { 0.25f, 1, 0.5f, -0.5f, 0.25f }),
+            // Not separable.
+            new Kernel(3, 3, new float[] { -1, -1, 0,
+                                           -1,  1, 1,
+                                            0,  1, 1 }),
+            randomKernel(4, 2, rand),
+            randomKernel(1, 5, rand),
+        };
+        boolean[] separable = { true, true, false, false, false };
+        Point[] targets = {
+            new Point(1, 1), new Point(0, 3), new Point(2, 0),
+            new Point(3, 1), new Point(0, 2)
+        };
+
+        BufferedImage pre, unpre, opaque;
+        pre = createImage(BufferedImage.TYPE_INT_ARGB_PRE, rand);
+        unpre = createImage(BufferedImage.TYPE_INT_ARGB, rand);
+        opaque = createImage(BufferedImage.TYPE_INT_RGB, rand);
+
+        int parallelism = ParallelTileExecutor.getParallelism();
+        try {
+            ParallelTileExecutor.setParallelism(4);
+            for (int k = 0; k < kernels.length; k++) {
+                for (int e = 0; e < EDGE_MODES.length; e++) {
+                    check(pre, kernels[k], targets[k], EDGE_MODES[e],
+                          false, separable[k]);
+                    check(opaque, kernels[k], targets[k], EDGE_MODES[e],
+                          false, separable[k]);
+                    check(unpre, kernels[k], targets[k], EDGE_MODES[e],
+                          true, separable[k]);
+                }
+            }
+        } finally {
+            ParallelTileExecutor.setParallelism(parallelism);
+        }
+        return true;
+    }
+
+    static Kernel outer(float[] col, float[] row) {
+        float[] data = new float[col.length * row.length];
+        for (int j = 0; j < col.length; j++)
+            for (int i = 0; i < row.length; i++)
+                data[j * row.length + i] = col[j] * row[i];
+        return new Kernel(row.length, col.length, data);
+    }
+
+    static Kernel randomKernel(int w, int h, Random rand) {
+        float[] data = new float[w * h];
+        for (int i = 0; i < data.length; i++)
+            data[i] = (rand.nextFloat() - 0.3f) * 2 / data.length;
+        return new Kernel(w, h, data);
+    }
+
+    /**
+     * Creates an image with random pixels, using every alpha value
+     * including 0 and 255.
+     */
+    static BufferedImage createImage(int type, Random rand) {
+        BufferedImage bi = new BufferedImage(WIDTH, HEIGHT, type);
+        boolean premult = type == BufferedImage.TYPE_INT_ARGB_PRE;
+        for (int y = 0; y < HEIGHT; y++) {
+            for (int x = 0; x < WIDTH; x++) {
+                int a = rand.nextInt(4) == 0 ? 255 : rand.nextInt(256);
+                int m = premult ? a : 255;
+                int p = (a << 24) | (rand.nextInt(m + 1) << 16) |
+                    (rand.nextInt(m + 1) << 8) | rand.nextInt(m + 1);
+                bi.getRaster().setDataElements(x, y, new int[] { p });
+            }
+        }
+        return bi;
+    }
+
+    private void check(BufferedImage bi, Kernel kernel, Point target,
+                       PadMode edgeMode, boolean preserveAlpha,
+                       boolean separable) throws Exception {
+        CachableRed src = new BufferedImageCachableRed(bi, X, Y);
+        ConvolveMatrixRed cr = new ConvolveMatrixRed
+            (src, BOUNDS, kernel, target, edgeMode, preserveAlpha);
+        assertEquals(separable, cr.isSeparable());
+
+        Raster r = cr.getData();
+        float[] k = kernel.getKernelData(null);
+        int kw = kernel.getWidth();
+        int kh = kernel.getHeight();
+        int[] pixel = new int[4];
+        for (int y = BOUNDS.y; y < BOUNDS.y + BOUNDS.height; y++) {
+            for (int x = BOUNDS.x; x < BOUNDS.x + BOUNDS.width; x++) {
+                double[] sum = new double[4];
+                for (int j = 0; j < kh; j++) {
+                    for (int i = 0; i < kw; i++) {
+                        int p = getSourcePixel(bi, x - target.x + i,
+                                               y - target.y + j, edgeMode);
+                        double kv = k[(kh - 1 - j) * kw + (kw - 1 - i)];
+                        for (int b = 0; b < 4; b++)
+                            sum[b] += kv * ((p >>> SHIFTS[b]) & 0xFF);
+                    }
+                }
+                int[] expected = new int[4];
+                for (int b = 0; b < 4; b++)
+                    expected[b] = (int)Math.max
+                        (0, Math.min(255, Math.floor(sum[b] + 0.5)));
+                if (preserveAlpha) {
+                    expected[3] = getSourcePixel(bi, x, y, edgeMode) >>> 24;
+                } else {
+                    for (int b = 0; b < 3; b++)
+                        expected[3] = Math.max(expected[3], expected[b]);
+                }
+                r.getPixel(x, y, pixel);
+                for (int b = 0; b < 4; b++) {
+                    if (Math.abs(expected[b] - pixel[b]) > 1)
+                        assertEquals(expected[b], pixel[b]);
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the source pixel at (x, y), extended according to the
+     * edge mode.
+     */
+    static int getSourcePixel(BufferedImage bi, int x, int y,
+                              PadMode edgeMode) {
+        x -= X;
+        y -= Y;
+        if ((x < 0) || (x >= WIDTH) || (y < 0) || (y >= HEIGHT)) {
+            if (edgeMode == PadMode.ZERO_PAD)
+                return 0;
+            if (edgeMode == PadMode.REPLICATE) {
+                x = Math.max(0, Math.min(WIDTH - 1, x));
+                y = Math.max(0, Math.min(HEIGHT - 1, y));
+            } else {
+                x = ((x % WIDTH) + WIDTH) % WIDTH;
+                y = ((y % HEIGHT) + HEIGHT) % HEIGHT;
+            }
+        }
+        int[] p = (int[])bi.getRaster().getDataElements(x, y, null);
+        if (bi.getType() == BufferedImage.TYPE_INT_RGB)
+            return 0xFF000000 | p[0];
+        return p[0];
+    }
+}
@@ -0,0 +1,141 @@
+/*
+
+   Licensed to the Apache Software Foundation (ASF) under one or more
+   contributor license agreements.  See the NOTICE file distributed with
+   this work for additional information regarding copyright ownership.
+   The ASF licenses this file to You under the Apache License, Version 2.0
+   (the "License"); you may not use this file except in compliance with
+   the License.  You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+ */
+package org.apache.batik.ext.awt.image.rendered;
+
+import java.awt.Color;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.awt.image.Raster;
+import java.util.Random;
+
+import org.apache.batik.ext.awt.image.DistantLight;
+import org.apache.batik.ext.awt.image.Light;
+import org.apache.batik.ext.awt.image.PointLight;
+import org.apache.batik.ext.awt.image.SpotLight;
+import org.apache.batik.test.AbstractTest;
+
+/**
+ * Checks that the lighting filters produce the same pixels with the
+ * LightingEngine as with the generic Light code, which they still use
+ * for subclasses of the standard lights.
+ *
+ * @version $Id$
+ */
+public class LightingEngineTest extends AbstractTest {
+
+    static final int WIDTH = 160;
+    static final int HEIGHT = 100;
+
+    /**
+     * A lit region that touches two edges of the texture.
+     */
+    static final Rectangle REGION = new Rectangle(0, 7, 150, HEIGHT - 7);
+
+    static final double SCALE_X = 1.25;
+    static final double SCALE_Y = 0.75;
+
+    public boolean runImplBasic() throws Exception {
+        BumpMap bumpMap = new BumpMap(createTexture(), 3.5, SCALE_X, SCALE_Y);
+
+        Light[][] lights = {
+            { new DistantLight(30, 45, Color.orange),
+              new DistantLight(30, 45, Color.orange) {} },
+            { new PointLight(60, 20, 40, Color.white),
+              new PointLight(60, 20, 40, Color.white) {} },
+            { new SpotLight(20, 10, 80, 100, 60, 0, 4, 30, Color.cyan),
+              new SpotLight(20, 10, 80, 100, 60, 0, 4, 30, Color.cyan) {} },
+        };
+
+        int parallelism = ParallelTileExecutor.getParallelism();
+        try {
+            ParallelTileExecutor.setParallelism(4);
+            for (int i = 0; i < lights.length; i++) {
+                Light light = lights[i][0];
+                Light reference = lights[i][1];
+                assertTrue(LightingEngine.isSupported(light));
+                assertTrue(!LightingEngine.isSupported(reference));
+                for (int l = 0; l < 2; l++) {
+                    boolean linear = l == 1;
+                    assertSame(diffuse(reference, bumpMap, linear),
+                               diffuse(light, bumpMap, linear), 0);
+                    assertSame(specular(reference, bumpMap, linear),
+                               specular(light, bumpMap, linear), 0);
+
+                    // The lookup table is close to Math.pow.
+                    LightingEngine.setPowTableEnabled(true);
+                    try {
+                        assertSame(specular(reference, bumpMap, linear),
+                                   specular(light, bumpMap, linear), 1);
+                    } finally {
+                        LightingEngine.setPowTableEnabled(false);
+                    }
+                }
+            }
+        } finally {
+            ParallelTileExecutor.setParallelism(parallelism);
+        }
+        return true;
+    }
+
+    /**
+     * Creates a texture with smooth bumps and sharp edges.
+     */
+    static CachableRed createTexture() {
+        BufferedImage bi = new BufferedImage
+            (WIDTH, HEIGHT, BufferedImage.TYPE_INT_ARGB_PRE);
+        Random rand = new Random(3);
+        for (int y = 0; y < HEIGHT; y++) {
+            for (int x = 0; x < WIDTH; x++) {
+                int a = (int)(127.5 + 127.5 * Math.sin(x / 7.0)
+                              * Math.cos(y / 5.0));
+                if (((x / 20) + (y / 20)) % 3 == 0)
+                    a = rand.nextInt(256);
+                bi.setRGB(x, y, (a << 24) | 0x336699);
+            }
+        }
+        return new BufferedImageCachableRed(bi);
+    }
+
+    static int[] diffuse(Light light, BumpMap bumpMap, boolean linear) {
+        CachableRed cr = new DiffuseLightingRed
+            (1.5, light, bumpMap, REGION, SCALE_X, SCALE_Y, linear);
+        return getPixels(cr);
+    }
+
+    static int[] specular(Light light, BumpMap bumpMap, boolean linear) {
+        CachableRed cr = new SpecularLightingRed
+            (1.2, 20, light, bumpMap, REGION, SCALE_X, SCALE_Y, linear);
+        return getPixels(cr);
+    }
+
+    static int[] getPixels(CachableRed cr) {
+        Raster r = cr.getData();
+        return r.getPixels(r.getMinX(), r.getMinY(),
+                           r.getWidth(), r.getHeight(), (int[])null);
+    }
+
+    private void assertSame(int[] expected, int[] actual, int tolerance)
+        throws Exception {
+        assertEquals(expected.length, actual.length);
+        for (int i = 0; i < expected.length; i++) {
+            if (Math.abs(expected[i] - actual[i]) > tolerance)
+                assertEquals(expected[i], actual[i]);
+        }
+    }
+}
@@ -0,0 +1,87 @@
+/*
+
+   Licensed to the Apache Software Foundation (ASF) under one or more
+   contributor license agreements.  See the NOTICE file distributed with
+   this work for additional information regarding copyright ownership.
+   The ASF licenses this file to You under the Apache License, Version 2.0
+   (the "License"); you may not use this file except in compliance with
+   the License.  You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+ */
+package org.apache.batik.ext.awt.image.rendered;
+
+import java.awt.Color;
+import java.awt.Rectangle;
+
+import org.apache.batik.ext.awt.image.DistantLight;
+import org.apache.batik.ext.awt.image.Light;
+import org.apache.batik.ext.awt.image.PointLight;
+import org.apache.batik.ext.awt.image.SpotLight;
+import org.apache.batik.test.PerformanceTest;
+
+/**
+ * Compares the lighting filters computed with the LightingEngine
+ * (runOp) and with the generic Light code (runRef), for one light type.
+ *
+ * @version $Id$
+ */
+public class LightingPerformanceTest extends PerformanceTest {
+
+    protected BumpMap bumpMap;
+    protected Light refLight, opLight;
+    protected boolean specular;
+
+    /**
+     * @param light one of distant, point or spot.
+     * @param filter diffuse or specular.
+     */
+    public LightingPerformanceTest(String light, String filter) {
+        bumpMap = new BumpMap(LightingEngineTest.createTexture(),
+                              3.5, 1, 1);
+        specular = "specular".equals(filter);
+        if ("distant".equals(light)) {
+            opLight  = new DistantLight(30, 45, Color.white);
+            refLight = new DistantLight(30, 45, Color.white) {};
+        } else if ("point".equals(light)) {
+            opLight  = new PointLight(60, 20, 40, Color.white);
+            refLight = new PointLight(60, 20, 40, Color.white) {};
+        } else if ("spot".equals(light)) {
+            opLight  = new SpotLight(20, 10, 80, 100, 60, 0, 4, 30,
+                                     Color.white);
+            refLight = new SpotLight(20, 10, 80, 100, 60, 0, 4, 30,
+                                     Color.white) {};
+        } else {
+            throw new IllegalArgumentException("Unknown light: " + light);
+        }
+    }
+
+    protected void render(Light light) {
+        Rectangle r = new Rectangle(0, 0, LightingEngineTest.WIDTH,
+                                    LightingEngineTest.HEIGHT);
+        CachableRed cr;
+        if (specular) {
+            cr = new SpecularLightingRed(1.2, 20, light, bumpMap, r,
+                                         1, 1, false);
+        } else {
+            cr = new DiffuseLightingRed(1.5, light, bumpMap, r,
+                                        1, 1, false);
+        }
+        cr.getData();
+    }
+
+    protected void runRef() {
+        render(refLight);
+    }
+
+    protected void runOp() {
+        render(opLight);
+    }
+}
@@ -0,0 +1,89 @@
+/*
+
+   Licensed to the Apache Software Foundation (ASF) under one or more
+   contributor license agreements.  See the NOTICE file distributed with
+   this work for additional information regarding copyright ownership.
+   The ASF licenses this file to You under the Apache License, Version 2.0
+   (the "License"); you may not use this file except in compliance with
+   the License.  You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+ */
+package org.apache.batik.ext.awt.image.rendered;
+
+import java.awt.image.DataBufferInt;
+import java.awt.image.WritableRaster;
+import java.util.Random;
+
+import org.apache.batik.test.PerformanceTest;
+
+/**
+ * Compares VanHerkMorphologyOp (runOp) with MorphologyOp (runRef) on
+ * the same premultiplied pixels, for a given radius.  MorphologyOp
+ * rescans the whole window each time its max leaves it, which happens
+ * at every pixel of a gradient that decreases along the pass.
+ *
+ * @version $Id$
+ */
+public class MorphologyPerformanceTest extends PerformanceTest {
+
+    static final int SIZE = 512;
+
+    protected MorphologyOp refOp, op;
+    protected WritableRaster src, refDest, opDest;
+
+    /**
+     * @param radius the radius on both axes.
+     * @param dilate "true" for a dilation, "false" for an erosion.
+     * @param pixels "noise" for random pixels, "gradient" for pixels
+     *        fading out to the bottom right corner.
+     */
+    public MorphologyPerformanceTest(Integer radius, Boolean dilate,
+                                     String pixels) {
+        int r = radius.intValue();
+        boolean d = dilate.booleanValue();
+        refOp = new MorphologyOp(r, r, d);
+        op = new VanHerkMorphologyOp(r, r, d);
+        if ("gradient".equals(pixels)) {
+            src = createGradient(d);
+        } else {
+            src = VanHerkMorphologyOpTest.createRaster
+                (SIZE, SIZE, new Random(42));
+        }
+        refDest = src.createCompatibleWritableRaster();
+        opDest = src.createCompatibleWritableRaster();
+    }
+
+    /**
+     * Creates a gray gradient, decreasing for a dilation and increasing
+     * for an erosion.
+     */
+    static WritableRaster createGradient(boolean dilate) {
+        WritableRaster wr = VanHerkMorphologyOpTest.CM
+            .createCompatibleWritableRaster(SIZE, SIZE);
+        int[] pixels = ((DataBufferInt)wr.getDataBuffer()).getData();
+        for (int y = 0; y < SIZE; y++) {
+            for (int x = 0; x < SIZE; x++) {
+                int v = (x + y) * 255 / (2 * SIZE - 2);
+                if (dilate) v = 255 - v;
+                pixels[y * SIZE + x] = v * 0x01010101;
+            }
+        }
+        return wr;
+    }
+
+    protected void runRef() {
+        refOp.filter(src, refDest);
+    }
+
+    protected void runOp() {
+        op.filter(src, opDest);
+    }
+}
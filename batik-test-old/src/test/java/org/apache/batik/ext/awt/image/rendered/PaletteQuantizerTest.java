@@ -0,0 +1,182 @@
+/*
+
+   Licensed to the Apache Software Foundation (ASF) under one or more
+   contributor license agreements.  See the NOTICE file distributed with
+   this work for additional information regarding copyright ownership.
+   The ASF licenses this file to You under the Apache License, Version 2.0
+   (the "License"); you may not use this file except in compliance with
+   the License.  You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+ */
+package org.apache.batik.ext.awt.image.rendered;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.IndexColorModel;
+import java.util.Random;
+
+import org.apache.batik.test.AbstractTest;
+
+/**
+ * Checks that PaletteQuantizer keeps to the palette size, converts
+ * images with few colors exactly and keeps their alpha channel.
+ *
+ * @version $Id$
+ */
+public class PaletteQuantizerTest extends AbstractTest {
+
+    static final int W = 301;
+    static final int H = 203;
+
+    public boolean runImplBasic() throws Exception {
+        int parallelism = ParallelTileExecutor.getParallelism();
+        try {
+            ParallelTileExecutor.setParallelism(4);
+            checkPaletteSize();
+            checkExact();
+            checkAlpha();
+        } finally {
+            ParallelTileExecutor.setParallelism(parallelism);
+        }
+        return true;
+    }
+
+    /**
+     * Quantizes an image with far more colors than the palette holds.
+     */
+    private void checkPaletteSize() throws Exception {
+        BufferedImage src = createImage(BufferedImage.TYPE_INT_RGB, false);
+        int[] sizes = { 2, 16, 100, 256 };
+        int[] qualities = { 0, 5, 9 };
+        for (int s = 0; s < sizes.length; s++) {
+            for (int q = 0; q < qualities.length; q++) {
+                for (int d = 0; d < 2; d++) {
+                    PaletteQuantizer pq = new PaletteQuantizer(sizes[s]);
+                    pq.setQuality(qualities[q]);
+                    pq.setDither(d == 1);
+                    BufferedImage dst = pq.getIndexedImage(src);
+                    IndexColorModel icm = (IndexColorModel)dst.getColorModel();
+                    assertTrue(icm.getMapSize() <= sizes[s]);
+                    assertTrue(!icm.hasAlpha());
+                    assertEquals(W, dst.getWidth());
+                    assertEquals(H, dst.getHeight());
+                    if (sizes[s] == 256)
+                        assertTrue(meanError(src, dst, 0) < 6);
+                }
+            }
+        }
+    }
+
+    /**
+     * Converts images with at most 256 distinct colors, translucent
+     * ones included, and checks that every pixel comes back unchanged.
+     */
+    private void checkExact() throws Exception {
+        int[] types = { BufferedImage.TYPE_INT_ARGB,
+                        BufferedImage.TYPE_4BYTE_ABGR,
+                        BufferedImage.TYPE_INT_RGB,
+                        BufferedImage.TYPE_3BYTE_BGR };
+        int[] nColors = { 256, 200, 3 };
+        for (int t = 0; t < types.length; t++) {
+            for (int n = 0; n < nColors.length; n++) {
+                BufferedImage src = new BufferedImage(W, H, types[t]);
+                Random rnd = new Random(n);
+                int[] colors = new int[nColors[n]];
+                for (int i = 0; i < colors.length; i++)
+                    colors[i] = rnd.nextInt() | ((i % 3 == 0) ? 0xFF000000 : 0);
+                colors[0] = 0;
+                for (int y = 0; y < H; y++)
+                    for (int x = 0; x < W; x++)
+                        src.setRGB(x, y, colors[rnd.nextInt(colors.length)]);
+
+                PaletteQuantizer pq = new PaletteQuantizer(256);
+                pq.setDither(true);
+                BufferedImage dst = pq.getIndexedImage(src);
+                IndexColorModel icm = (IndexColorModel)dst.getColorModel();
+                assertEquals(src.getColorModel().hasAlpha(), icm.hasAlpha());
+                if (nColors[n] == 3)
+                    assertEquals(2, icm.getPixelSize());
+                for (int y = 0; y < H; y++)
+                    for (int x = 0; x < W; x++)
+                        if (src.getRGB(x, y) != dst.getRGB(x, y))
+                            assertEquals
+                                (Integer.toHexString(src.getRGB(x, y)),
+                                 Integer.toHexString(dst.getRGB(x, y)) +
+                                 " at (" + x + ", " + y + ")");
+            }
+        }
+    }
+
+    /**
+     * Quantizes a translucent image with more colors than the palette
+     * holds and checks that the alpha of the pixels is kept.
+     */
+    private void checkAlpha() throws Exception {
+        BufferedImage src = createImage(BufferedImage.TYPE_INT_ARGB, true);
+        for (int d = 0; d < 2; d++) {
+            PaletteQuantizer pq = new PaletteQuantizer(256);
+            pq.setDither(d == 1);
+            BufferedImage dst = pq.getIndexedImage(src);
+            assertTrue(dst.getColorModel().hasAlpha());
+            assertTrue(meanError(src, dst, 24) < 6);
+            // The fully transparent and opaque pixels stay so.
+            for (int y = 0; y < H; y++) {
+                for (int x = 0; x < W; x++) {
+                    int a = src.getRGB(x, y) >>> 24;
+                    if ((a == 0) || (a == 255))
+                        assertEquals(a, dst.getRGB(x, y) >>> 24);
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns an image with smooth gradients and some noise.  If
+     * <code>alpha</code> is true its left third is transparent, its
+     * right third opaque, with an alpha ramp in between.
+     */
+    static BufferedImage createImage(int type, boolean alpha) {
+        BufferedImage bi = new BufferedImage(W, H, type);
+        Random rnd = new Random(3);
+        for (int y = 0; y < H; y++) {
+            for (int x = 0; x < W; x++) {
+                int a = 255;
+                if (alpha)
+                    a = PaletteQuantizer.clamp((x - W / 3) * 255 / (W / 3));
+                int r = x * 255 / (W - 1);
+                int g = (x + y) * 255 / (W + H - 2);
+                int b = PaletteQuantizer.clamp(128 + rnd.nextInt(33) - 16);
+                bi.setRGB(x, y, (a << 24) | (r << 16) | (g << 8) | b);
+            }
+        }
+        return bi;
+    }
+
+    /**
+     * Returns the mean absolute difference of the components of the
+     * two images, starting at bit <code>shift</code>.
+     */
+    static double meanError(BufferedImage src, BufferedImage dst,
+                            int shift) {
+        long sum = 0;
+        int n = 0;
+        for (int y = 0; y < H; y++) {
+            for (int x = 0; x < W; x++) {
+                int p = src.getRGB(x, y);
+                int q = dst.getRGB(x, y);
+                for (int s = shift; s < 32; s += 8) {
+                    sum += Math.abs(((p >>> s) & 0xFF) - ((q >>> s) & 0xFF));
+                    n++;
+                }
+            }
+        }
+        return sum / (double)n;
+    }
+}
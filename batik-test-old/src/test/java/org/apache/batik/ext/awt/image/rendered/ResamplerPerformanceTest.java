@@ -0,0 +1,77 @@
+/*
+
+   Licensed to the Apache Software Foundation (ASF) under one or more
+   contributor license agreements.  See the NOTICE file distributed with
+   this work for additional information regarding copyright ownership.
+   The ASF licenses this file to You under the Apache License, Version 2.0
+   (the "License"); you may not use this file except in compliance with
+   the License.  You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+ */
+package org.apache.batik.ext.awt.image.rendered;
+
+import java.awt.RenderingHints;
+import java.awt.geom.AffineTransform;
+import java.awt.image.BufferedImage;
+import java.util.Random;
+
+import org.apache.batik.test.PerformanceTest;
+
+/**
+ * Compares scaling a 2048x2048 image down with a Resampler (runOp)
+ * with the AffineTransformOp code AffineRed used before (runRef).
+ * When the image is cached, as decoded images are, runOp reuses the
+ * pyramid levels built by the previous runs.
+ *
+ * @version $Id$
+ */
+public class ResamplerPerformanceTest extends PerformanceTest {
+
+    static final int SIZE = 2048;
+
+    protected CachableRed src;
+    protected AffineTransform at;
+    protected RenderingHints hints = new RenderingHints
+        (RenderingHints.KEY_INTERPOLATION,
+         RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+
+    /**
+     * @param scale the scale applied to the image.
+     * @param cached whether the image is a BufferedImageCachableRed,
+     *        whose levels are cached.
+     */
+    public ResamplerPerformanceTest(Double scale, Boolean cached) {
+        at = AffineTransform.getScaleInstance(scale.doubleValue(),
+                                              scale.doubleValue());
+        BufferedImage bi = new BufferedImage
+            (SIZE, SIZE, BufferedImage.TYPE_INT_ARGB);
+        Random rand = new Random(9);
+        int[] row = new int[SIZE];
+        for (int y = 0; y < SIZE; y++) {
+            for (int x = 0; x < SIZE; x++)
+                row[x] = 0xFF000000 | ((x ^ y) << 8) ^ rand.nextInt(0x40);
+            bi.setRGB(0, y, SIZE, 1, row, 0, SIZE);
+        }
+        src = new BufferedImageCachableRed(bi);
+        if (!cached.booleanValue())
+            src = new FormatRed(src, src.getColorModel());
+    }
+
+    protected void runRef() {
+        AffineRed ar = new AffineRed(src, at, hints);
+        ar.resampler = null;
+        ar.getData();
+    }
+
+    protected void runOp() {
+        new AffineRed(src, at, hints).getData();
+    }
+}
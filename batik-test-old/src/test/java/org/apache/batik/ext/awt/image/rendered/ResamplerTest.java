@@ -0,0 +1,245 @@
+/*
+
+   Licensed to the Apache Software Foundation (ASF) under one or more
+   contributor license agreements.  See the NOTICE file distributed with
+   this work for additional information regarding copyright ownership.
+   The ASF licenses this file to You under the Apache License, Version 2.0
+   (the "License"); you may not use this file except in compliance with
+   the License.  You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+ */
+package org.apache.batik.ext.awt.image.rendered;
+
+import java.awt.Rectangle;
+import java.awt.RenderingHints;
+import java.awt.geom.AffineTransform;
+import java.awt.image.BufferedImage;
+import java.awt.image.Raster;
+import java.awt.image.WritableRaster;
+import java.util.Random;
+
+import org.apache.batik.test.AbstractTest;
+
+/**
+ * Checks the images AffineRed scales down with a Resampler: the covered
+ * pixels, the filtered values of gradients and fine patterns, and that
+ * cached levels, tiles and parallel bands give the same pixels as a
+ * single uncached computation.
+ *
+ * @version $Id$
+ */
+public class ResamplerTest extends AbstractTest {
+
+    static final int WIDTH = 301;
+    static final int HEIGHT = 203;
+
+    /**
+     * The position of the source.
+     */
+    static final int X = 7;
+    static final int Y = -5;
+
+    public boolean runImplBasic() throws Exception {
+        long maxCacheSize = Resampler.getMaxCacheSize();
+        int parallelism = ParallelTileExecutor.getParallelism();
+        try {
+            Resampler.flushCache();
+            ParallelTileExecutor.setParallelism(4);
+
+            double[][] transforms = {
+                { 0.5, 0.5, 3.25, 1.5 },
+                { 0.45, 0.8, 0.75, 3 },
+                { 0.3, 0.3, -2.5, 4.125 },
+                { 0.1, 0.2, 1, 2 },
+                { 0.05, 0.05, 0.5, 0.5 },
+                { 0.4, 1.5, -1, 0 },
+            };
+            for (int i = 0; i < transforms.length; i++) {
+                double[] t = transforms[i];
+                AffineTransform at = new AffineTransform
+                    (t[0], 0, 0, t[1], t[2], t[3]);
+                for (int l = 0; l < 2; l++) {
+                    RenderingHints hints = new RenderingHints
+                        (RenderingHints.KEY_INTERPOLATION,
+                         l == 0 ? RenderingHints.VALUE_INTERPOLATION_BILINEAR
+                                : RenderingHints.VALUE_INTERPOLATION_BICUBIC);
+                    checkGradient(at, hints);
+                    checkPattern(at, hints);
+                    checkCache(at, hints);
+                }
+            }
+            assertTrue(Resampler.getCacheSize() > 0);
+
+            Resampler.setMaxCacheSize(0);
+            assertEquals(0L, Resampler.getCacheSize());
+        } finally {
+            Resampler.setMaxCacheSize(maxCacheSize);
+            ParallelTileExecutor.setParallelism(parallelism);
+        }
+
+        // Nearest neighbor, rotations and smaller reductions are left
+        // to AffineTransformOp.
+        BufferedImage bi = createGradient();
+        CachableRed src = new BufferedImageCachableRed(bi, X, Y);
+        RenderingHints hints = new RenderingHints
+            (RenderingHints.KEY_INTERPOLATION,
+             RenderingHints.VALUE_INTERPOLATION_NEAREST_NEIGHBOR);
+        AffineTransform at = AffineTransform.getScaleInstance(0.5, 0.5);
+        assertTrue(new AffineRed(src, at, hints).resampler == null);
+        at.rotate(0.1);
+        assertTrue(new AffineRed(src, at, null).resampler == null);
+        at = AffineTransform.getScaleInstance(0.75, 0.6);
+        assertTrue(new AffineRed(src, at, null).resampler == null);
+        return true;
+    }
+
+    /**
+     * Returns an opaque image whose colors are linear functions of the
+     * pixel position.
+     */
+    static BufferedImage createGradient() {
+        BufferedImage bi = new BufferedImage
+            (WIDTH, HEIGHT, BufferedImage.TYPE_INT_RGB);
+        for (int y = 0; y < HEIGHT; y++) {
+            for (int x = 0; x < WIDTH; x++) {
+                int r = x * 255 / (WIDTH - 1);
+                int g = y * 255 / (HEIGHT - 1);
+                bi.setRGB(x, y, (r << 16) | (g << 8) | 0x80);
+            }
+        }
+        return bi;
+    }
+
+    /**
+     * Checks that a gradient keeps its values, away from the edges,
+     * and that exactly the pixels whose center is in the source are
+     * covered.
+     */
+    private void checkGradient(AffineTransform at, RenderingHints hints)
+        throws Exception {
+        CachableRed src = new BufferedImageCachableRed
+            (createGradient(), X, Y);
+        AffineRed ar = new AffineRed(src, at, hints);
+        assertTrue(ar.resampler != null);
+        Raster r = ar.getData();
+
+        AffineTransform inv = at.createInverse();
+        int[] pixel = new int[4];
+        double[] pt = new double[2];
+        double margin = 3 / Math.min(at.getScaleX(), at.getScaleY());
+        for (int y = r.getMinY(); y < r.getMinY() + r.getHeight(); y++) {
+            for (int x = r.getMinX(); x < r.getMinX() + r.getWidth(); x++) {
+                pt[0] = x + 0.5;
+                pt[1] = y + 0.5;
+                inv.transform(pt, 0, pt, 0, 1);
+                double sx = pt[0] - X;
+                double sy = pt[1] - Y;
+                r.getPixel(x, y, pixel);
+                if (onEdge(sx, WIDTH) || onEdge(sy, HEIGHT))
+                    continue;
+                boolean inside = (sx > 0) && (sx < WIDTH) &&
+                    (sy > 0) && (sy < HEIGHT);
+                assertEquals(inside ? 255 : 0, pixel[3]);
+                if ((sx < margin) || (sx > WIDTH - margin) ||
+                    (sy < margin) || (sy > HEIGHT - margin))
+                    continue;
+
+                double er = (sx - 0.5) * 255 / (WIDTH - 1);
+                double eg = (sy - 0.5) * 255 / (HEIGHT - 1);
+                if (Math.abs(pixel[0] - er) > 2)
+                    assertEquals((int)Math.round(er), pixel[0]);
+                if (Math.abs(pixel[1] - eg) > 2)
+                    assertEquals((int)Math.round(eg), pixel[1]);
+                assertEquals(0x80, pixel[2]);
+            }
+        }
+    }
+
+    /**
+     * Returns true if the center of a pixel is on an edge of the
+     * source, where rounding decides whether it is covered.
+     */
+    static boolean onEdge(double v, int size) {
+        return (Math.abs(v) < 1e-6) || (Math.abs(v - size) < 1e-6);
+    }
+
+    /**
+     * Checks that a pattern of single pixel lines, finer than the
+     * output pixels, is averaged to a uniform gray.
+     */
+    private void checkPattern(AffineTransform at, RenderingHints hints)
+        throws Exception {
+        if (at.getScaleX() > 0.5)
+            return;
+        BufferedImage bi = new BufferedImage
+            (WIDTH, HEIGHT, BufferedImage.TYPE_INT_ARGB_PRE);
+        for (int y = 0; y < HEIGHT; y++)
+            for (int x = 0; x < WIDTH; x++)
+                bi.setRGB(x, y, ((x & 1) == 0) ? 0xFFFFFFFF : 0xFF000000);
+        CachableRed src = new BufferedImageCachableRed(bi, X, Y);
+        Raster r = new AffineRed(src, at, hints).getData();
+
+        int[] pixel = new int[4];
+        Rectangle inner = r.getBounds();
+        inner.grow(-4, -4);
+        for (int y = inner.y; y < inner.y + inner.height; y++) {
+            for (int x = inner.x; x < inner.x + inner.width; x++) {
+                r.getPixel(x, y, pixel);
+                if (Math.abs(pixel[0] - 128) > 24)
+                    assertEquals(128, pixel[0]);
+            }
+        }
+    }
+
+    /**
+     * Checks that the cached levels of an image give the same pixels
+     * as levels reduced for each tile, and that the tiles give the same
+     * pixels as the whole image computed at once.
+     */
+    private void checkCache(AffineTransform at, RenderingHints hints)
+        throws Exception {
+        BufferedImage bi = new BufferedImage
+            (WIDTH, HEIGHT, BufferedImage.TYPE_INT_ARGB);
+        Random rand = new Random(3);
+        for (int y = 0; y < HEIGHT; y++)
+            for (int x = 0; x < WIDTH; x++)
+                bi.setRGB(x, y, rand.nextInt());
+        CachableRed src = new BufferedImageCachableRed(bi, X, Y);
+        // A FormatRed is not cached.
+        CachableRed uncached = new FormatRed(src, src.getColorModel());
+
+        AffineRed cached = new AffineRed(src, at, hints);
+        AffineRed ar = new AffineRed(uncached, at, hints);
+        assertTrue(cached.resampler.cached != null);
+        assertTrue(ar.resampler.cached == null);
+
+        Raster tiles = cached.getData();
+        WritableRaster whole = ar.getColorModel()
+            .createCompatibleWritableRaster(ar.getWidth(), ar.getHeight());
+        whole = whole.createWritableTranslatedChild
+            (ar.getMinX(), ar.getMinY());
+        ParallelTileExecutor.setParallelism(1);
+        try {
+            ar.copyData(whole);
+        } finally {
+            ParallelTileExecutor.setParallelism(4);
+        }
+
+        int[] e = whole.getPixels(whole.getMinX(), whole.getMinY(),
+                                  whole.getWidth(), whole.getHeight(),
+                                  (int[])null);
+        int[] p = tiles.getPixels(whole.getMinX(), whole.getMinY(),
+                                  whole.getWidth(), whole.getHeight(),
+                                  (int[])null);
+        for (int i = 0; i < e.length; i++)
+            assertEquals(e[i], p[i]);
+    }
+}
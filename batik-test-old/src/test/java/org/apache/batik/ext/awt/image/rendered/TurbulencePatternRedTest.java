@@ -0,0 +1,76 @@
+/*
+
+   Licensed to the Apache Software Foundation (ASF) under one or more
+   contributor license agreements.  See the NOTICE file distributed with
+   this work for additional information regarding copyright ownership.
+   The ASF licenses this file to You under the Apache License, Version 2.0
+   (the "License"); you may not use this file except in compliance with
+   the License.  You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+ */
+package org.apache.batik.ext.awt.image.rendered;
+
+import java.awt.Rectangle;
+import java.awt.color.ColorSpace;
+import java.awt.geom.AffineTransform;
+import java.awt.image.DataBufferInt;
+import java.awt.image.WritableRaster;
+
+import org.apache.batik.test.AbstractTest;
+
+/**
+ * Checks that the scan line and parallel generators of
+ * TurbulencePatternRed produce exactly the same pixels as the per
+ * pixel generator.
+ *
+ * @version $Id$
+ */
+public class TurbulencePatternRedTest extends AbstractTest {
+
+    public boolean runImplBasic() throws Exception {
+        AffineTransform txf = new AffineTransform(0.9, 0.1, -0.2, 1.1, 3, 7);
+        Rectangle devRect = new Rectangle(-20, 10, 300, 200);
+        ColorSpace cs = ColorSpace.getInstance(ColorSpace.CS_sRGB);
+
+        int parallelism = ParallelTileExecutor.getParallelism();
+        try {
+            for (int f = 0; f < 2; f++) {
+                boolean fractal = (f == 1);
+                TurbulencePatternRed ref = new TurbulencePatternRed
+                    (0.05, 0.07, 4, 17, fractal, null, txf, devRect,
+                     cs, true);
+                ref.setRowBatched(false);
+                ParallelTileExecutor.setParallelism(1);
+                int[] expected = generate(ref, devRect);
+
+                TurbulencePatternRed red = new TurbulencePatternRed
+                    (0.05, 0.07, 4, 17, fractal, null, txf, devRect,
+                     cs, true);
+                ParallelTileExecutor.setParallelism(4);
+                int[] actual = generate(red, devRect);
+
+                assertEquals(expected.length, actual.length);
+                for (int i = 0; i < expected.length; i++)
+                    assertEquals(expected[i], actual[i]);
+            }
+        } finally {
+            ParallelTileExecutor.setParallelism(parallelism);
+        }
+        return true;
+    }
+
+    private static int[] generate(TurbulencePatternRed red, Rectangle r) {
+        WritableRaster wr = red.getColorModel().createCompatibleWritableRaster
+            (r.width, r.height).createWritableTranslatedChild(r.x, r.y);
+        red.copyData(wr);
+        return ((DataBufferInt)wr.getDataBuffer()).getData();
+    }
+}
@@ -0,0 +1,135 @@
+/*
+
+   Licensed to the Apache Software Foundation (ASF) under one or more
+   contributor license agreements.  See the NOTICE file distributed with
+   this work for additional information regarding copyright ownership.
+   The ASF licenses this file to You under the Apache License, Version 2.0
+   (the "License"); you may not use this file except in compliance with
+   the License.  You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+ */
+package org.apache.batik.ext.awt.image.rendered;
+
+import java.awt.color.ColorSpace;
+import java.awt.image.ColorModel;
+import java.awt.image.DataBuffer;
+import java.awt.image.DataBufferInt;
+import java.awt.image.DirectColorModel;
+import java.awt.image.WritableRaster;
+import java.util.Random;
+
+import org.apache.batik.test.AbstractTest;
+
+/**
+ * Checks VanHerkMorphologyOp against a direct computation of the max
+ * (or min) of each band over the kernel clipped to the raster.  This
+ * includes the last row, which MorphologyOp gets wrong, the cases
+ * where the kernel is larger than the raster and filtering in place.
+ *
+ * @version $Id$
+ */
+public class VanHerkMorphologyOpTest extends AbstractTest {
+
+    static final ColorModel CM = new DirectColorModel
+        (ColorSpace.getInstance(ColorSpace.CS_sRGB), 32,
+         0x00FF0000, 0x0000FF00, 0x000000FF, 0xFF000000,
+         true, DataBuffer.TYPE_INT);
+
+    private static final int[][] SIZES = {
+        { 97, 61 }, { 5, 40 }, { 40, 3 }, { 1, 1 }, { 300, 200 }
+    };
+
+    private static final int[][] RADII = {
+        { 1, 1 }, { 2, 7 }, { 9, 3 }, { 25, 25 }, { 60, 100 }
+    };
+
+    public boolean runImplBasic() throws Exception {
+        Random rand = new Random(7);
+        for (int s = 0; s < SIZES.length; s++) {
+            WritableRaster src = createRaster
+                (SIZES[s][0], SIZES[s][1], rand);
+            for (int r = 0; r < RADII.length; r++) {
+                for (int d = 0; d < 2; d++) {
+                    boolean dilate = d == 0;
+                    int rx = RADII[r][0];
+                    int ry = RADII[r][1];
+                    int[] expected = filter(src, rx, ry, dilate);
+                    MorphologyOp op = new VanHerkMorphologyOp
+                        (rx, ry, dilate);
+                    assertSame(expected, op.filter(src, null));
+
+                    WritableRaster copy = src.createCompatibleWritableRaster();
+                    copy.setDataElements(0, 0, src);
+                    assertSame(expected, op.filter(copy, copy));
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Creates a raster of random premultiplied pixels.
+     */
+    static WritableRaster createRaster(int w, int h, Random rand) {
+        WritableRaster wr = CM.createCompatibleWritableRaster(w, h);
+        int[] pixels = ((DataBufferInt)wr.getDataBuffer()).getData();
+        for (int i = 0; i < pixels.length; i++) {
+            int a = rand.nextInt(256);
+            int r = rand.nextInt(a + 1);
+            int g = rand.nextInt(a + 1);
+            int b = rand.nextInt(a + 1);
+            pixels[i] = (a << 24) | (r << 16) | (g << 8) | b;
+        }
+        return wr;
+    }
+
+    /**
+     * Computes the max (or min) of each band over the rows of the
+     * kernel, then over its columns, one window at a time.
+     */
+    static int[] filter(WritableRaster src, int rx, int ry, boolean dilate) {
+        int w = src.getWidth();
+        int h = src.getHeight();
+        int[] pixels = ((DataBufferInt)src.getDataBuffer()).getData();
+        int[] rows = new int[w * h];
+        for (int y = 0; y < h; y++)
+            for (int x = 0; x < w; x++)
+                rows[y * w + x] = window(pixels, y * w, 1, x, w, rx, dilate);
+        int[] res = new int[w * h];
+        for (int y = 0; y < h; y++)
+            for (int x = 0; x < w; x++)
+                res[y * w + x] = window(rows, x, w, y, h, ry, dilate);
+        return res;
+    }
+
+    private static int window(int[] pixels, int off, int step,
+                              int i, int len, int r, boolean dilate) {
+        int pel = 0;
+        for (int shift = 0; shift < 32; shift += 8) {
+            int v = dilate ? 0 : 255;
+            int end = Math.min(len - 1, i + r);
+            for (int j = Math.max(0, i - r); j <= end; j++) {
+                int c = (pixels[off + j * step] >>> shift) & 0xff;
+                v = dilate ? Math.max(v, c) : Math.min(v, c);
+            }
+            pel |= v << shift;
+        }
+        return pel;
+    }
+
+    private void assertSame(int[] e, WritableRaster actual)
+        throws Exception {
+        int[] a = ((DataBufferInt)actual.getDataBuffer()).getData();
+        assertEquals(e.length, a.length);
+        for (int i = 0; i < e.length; i++)
+            assertEquals(e[i], a[i]);
+    }
+}
@@ -0,0 +1,216 @@
+/*
+
+   Licensed to the Apache Software Foundation (ASF) under one or more
+   contributor license agreements.  See the NOTICE file distributed with
+   this work for additional information regarding copyright ownership.
+   The ASF licenses this file to You under the Apache License, Version 2.0
+   (the "License"); you may not use this file except in compliance with
+   the License.  You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+ */
+package org.apache.batik.gvt;
+
+import java.awt.BasicStroke;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.Shape;
+import java.awt.geom.AffineTransform;
+import java.awt.geom.Ellipse2D;
+import java.awt.geom.Line2D;
+import java.awt.geom.Rectangle2D;
+import java.awt.image.BufferedImage;
+import java.util.Random;
+
+import org.apache.batik.ext.awt.image.GraphicsUtil;
+import org.apache.batik.test.AbstractTest;
+
+/**
+ * Checks that the rectangles and lines a CompositeGraphicsNode writes
+ * straight into its destination look the same as when Java2D draws
+ * them, for each kind of INT_PACK image and antialiasing setting.
+ *
+ * @version $Id$
+ */
+public class FastRectanglePainterTest extends AbstractTest {
+
+    /**
+     * The largest difference allowed between two components of a
+     * pixel, for the rounding of translucent colors.
+     */
+    static final int TOLERANCE = 1;
+
+    static final int SIZE = 120;
+
+    static final int[] IMAGE_TYPES = {
+        BufferedImage.TYPE_INT_ARGB,
+        BufferedImage.TYPE_INT_ARGB_PRE,
+        BufferedImage.TYPE_INT_RGB
+    };
+
+    static final Object[] ANTIALIASING = {
+        RenderingHints.VALUE_ANTIALIAS_ON,
+        RenderingHints.VALUE_ANTIALIAS_OFF
+    };
+
+    static final Object[] STROKE_CONTROL = {
+        RenderingHints.VALUE_STROKE_DEFAULT,
+        RenderingHints.VALUE_STROKE_PURE
+    };
+
+    public boolean runImplBasic() throws Exception {
+        CompositeGraphicsNode cgn = makeTree(new Random(11));
+        for (int t = 0; t < IMAGE_TYPES.length; t++) {
+            for (int a = 0; a < ANTIALIASING.length; a++) {
+                for (int s = 0; s < STROKE_CONTROL.length; s++) {
+                    int[] expected = paint(cgn, IMAGE_TYPES[t],
+                                           ANTIALIASING[a],
+                                           STROKE_CONTROL[s], false);
+                    int[] actual = paint(cgn, IMAGE_TYPES[t],
+                                         ANTIALIASING[a],
+                                         STROKE_CONTROL[s], true);
+                    compare(expected, actual);
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Builds a tree of rectangles and lines, most of them on pixel
+     * boundaries once scaled by 2, with a few shapes that are not.
+     */
+    private static CompositeGraphicsNode makeTree(Random rnd) {
+        CompositeGraphicsNode cgn = new CompositeGraphicsNode();
+        for (int i = 0; i < 600; i++) {
+            ShapeNode sn = new ShapeNode();
+            double x = rnd.nextInt(130) / 2.0 - 5;
+            double y = rnd.nextInt(130) / 2.0 - 5;
+            double w = rnd.nextInt(30) / 2.0;
+            double h = rnd.nextInt(30) / 2.0;
+            Shape shape;
+            ShapePainter painter;
+            switch (rnd.nextInt(5)) {
+            case 0:
+            case 1:
+                shape = new Rectangle2D.Float((float)x, (float)y,
+                                              (float)w, (float)h);
+                FillShapePainter fsp = new FillShapePainter(shape);
+                fsp.setPaint(makeColor(rnd));
+                painter = fsp;
+                if (rnd.nextBoolean())
+                    painter = addStroke(shape, fsp, rnd);
+                break;
+            case 2:
+                shape = rnd.nextBoolean()
+                    ? new Line2D.Double(x, y, x + w, y)
+                    : new Line2D.Double(x, y, x, y + h);
+                StrokeShapePainter ssp = new StrokeShapePainter(shape);
+                ssp.setPaint(makeColor(rnd));
+                int cap = rnd.nextBoolean()
+                    ? BasicStroke.CAP_BUTT : BasicStroke.CAP_SQUARE;
+                ssp.setStroke(new BasicStroke(1 + rnd.nextInt(4) / 2f, cap,
+                                              BasicStroke.JOIN_MITER));
+                painter = ssp;
+                break;
+            case 3:
+                shape = new Rectangle2D.Double(x + 0.3, y, w, h + 0.1);
+                fsp = new FillShapePainter(shape);
+                fsp.setPaint(makeColor(rnd));
+                painter = fsp;
+                break;
+            default:
+                shape = new Ellipse2D.Double(x, y, w, h);
+                fsp = new FillShapePainter(shape);
+                fsp.setPaint(makeColor(rnd));
+                painter = fsp;
+            }
+            sn.setShape(shape);
+            sn.setShapePainter(painter);
+            switch (rnd.nextInt(6)) {
+            case 0:
+                sn.setTransform(AffineTransform.getTranslateInstance(1, 0.5));
+                break;
+            case 1:
+                sn.setRenderingHint(RenderingHints.KEY_ANTIALIASING,
+                                    RenderingHints.VALUE_ANTIALIAS_OFF);
+                break;
+            case 2:
+                sn.setVisible(false);
+                break;
+            }
+            cgn.add(sn);
+        }
+        return cgn;
+    }
+
+    private static CompositeShapePainter addStroke(Shape shape,
+                                                   FillShapePainter fsp,
+                                                   Random rnd) {
+        CompositeShapePainter csp = new CompositeShapePainter(shape);
+        csp.addShapePainter(fsp);
+        StrokeShapePainter ssp = new StrokeShapePainter(shape);
+        ssp.setPaint(makeColor(rnd));
+        ssp.setStroke(new BasicStroke(1));
+        csp.addShapePainter(ssp);
+        return csp;
+    }
+
+    private static Color makeColor(Random rnd) {
+        int alpha = rnd.nextBoolean() ? 255 : rnd.nextInt(256);
+        return new Color(rnd.nextInt(256), rnd.nextInt(256),
+                         rnd.nextInt(256), alpha);
+    }
+
+    /**
+     * Paints <code>cgn</code> over a translucent background, either as
+     * a whole or one child at a time, which leaves all of the drawing
+     * to Java2D.
+     */
+    private int[] paint(CompositeGraphicsNode cgn, int type,
+                        Object antialiasing, Object strokeControl,
+                        boolean whole) throws Exception {
+        BufferedImage bi = new BufferedImage(SIZE, SIZE, type);
+        Random rnd = new Random(5);
+        for (int y = 0; y < SIZE; y++)
+            for (int x = 0; x < SIZE; x++)
+                bi.setRGB(x, y, rnd.nextInt());
+
+        Graphics2D g = GraphicsUtil.createGraphics(bi);
+        g.setRenderingHint(RenderingHints.KEY_ANTIALIASING, antialiasing);
+        g.setRenderingHint(RenderingHints.KEY_STROKE_CONTROL, strokeControl);
+        g.clipRect(2, 3, SIZE - 6, SIZE - 8);
+        g.scale(2, 2);
+        if (whole) {
+            assertTrue(FastRectanglePainter.create(g, g.getClip()) != null);
+            cgn.paint(g);
+        } else {
+            for (int i = 0; i < cgn.size(); i++)
+                ((GraphicsNode)cgn.get(i)).paint(g);
+        }
+        g.dispose();
+        return bi.getRGB(0, 0, SIZE, SIZE, null, 0, SIZE);
+    }
+
+    private void compare(int[] expected, int[] actual) throws Exception {
+        for (int i = 0; i < expected.length; i++) {
+            for (int s = 0; s < 32; s += 8) {
+                int a = (expected[i] >>> s) & 0xFF;
+                int b = (actual[i] >>> s) & 0xFF;
+                if (Math.abs(a - b) > TOLERANCE) {
+                    String at = " at (" + (i % SIZE) + ", " + (i / SIZE) + ")";
+                    assertEquals(Integer.toHexString(expected[i]) + at,
+                                 Integer.toHexString(actual[i]) + at);
+                }
+            }
+        }
+    }
+}
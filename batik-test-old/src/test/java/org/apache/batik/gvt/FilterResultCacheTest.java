@@ -0,0 +1,146 @@
+/*
+
+   Licensed to the Apache Software Foundation (ASF) under one or more
+   contributor license agreements.  See the NOTICE file distributed with
+   this work for additional information regarding copyright ownership.
+   The ASF licenses this file to You under the Apache License, Version 2.0
+   (the "License"); you may not use this file except in compliance with
+   the License.  You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+ */
+package org.apache.batik.gvt;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.geom.Ellipse2D;
+import java.awt.image.BufferedImage;
+import java.awt.image.RenderedImage;
+import java.awt.image.renderable.RenderContext;
+
+import org.apache.batik.ext.awt.image.GraphicsUtil;
+import org.apache.batik.ext.awt.image.renderable.Filter;
+import org.apache.batik.ext.awt.image.renderable.GaussianBlurRable8Bit;
+import org.apache.batik.gvt.event.GraphicsNodeChangeAdapter;
+import org.apache.batik.test.AbstractTest;
+
+/**
+ * Checks that the offscreen rendering of a filtered node is reused
+ * across repaints of a watched tree, and dropped when the node or
+ * one of its descendants changes.
+ *
+ * @version $Id$
+ */
+public class FilterResultCacheTest extends AbstractTest {
+
+    public boolean runImplBasic() throws Exception {
+        RootGraphicsNode root = new RootGraphicsNode();
+        CompositeGraphicsNode group = new CompositeGraphicsNode();
+        ShapeNode child = shape(new Ellipse2D.Double(20, 20, 40, 30));
+        group.add(child);
+        CountingBlur blur = new CountingBlur
+            (group.getGraphicsNodeRable(true));
+        group.setFilter(blur);
+        root.add(group);
+
+        // Trees nobody watches are not cached.
+        paint(root, 0, 0, null);
+        paint(root, 0, 0, null);
+        assertEquals(2, blur.count);
+
+        root.addTreeGraphicsNodeChangeListener
+            (new GraphicsNodeChangeAdapter() {});
+        int[] expected = paint(root, 0, 0, null);
+        assertEquals(3, blur.count);
+        // Partial repaints and integer translations reuse it.
+        int[] actual = paint(root, 0, 0, new Rectangle(30, 30, 20, 20));
+        assertEquals(3, blur.count);
+        assertSame(expected, actual, new Rectangle(30, 30, 20, 20));
+        paint(root, 7, -3, null);
+        assertEquals(3, blur.count);
+        actual = paint(root, 0, 0, null);
+        assertEquals(3, blur.count);
+        assertSame(expected, actual, new Rectangle(0, 0, 100, 100));
+
+        // Other painting options render again.
+        paint(root, 0.5, 0, null);
+        assertEquals(4, blur.count);
+        AbstractGraphicsNode.setFilterResultCaching(false);
+        try {
+            paint(root, 0, 0, null);
+            paint(root, 0, 0, null);
+            assertEquals(6, blur.count);
+        } finally {
+            AbstractGraphicsNode.setFilterResultCaching(true);
+        }
+
+        // A change to a descendant drops it.
+        paint(root, 0, 0, null);
+        assertEquals(7, blur.count);
+        child.setShape(new Ellipse2D.Double(30, 30, 40, 30));
+        int[] changed = paint(root, 0, 0, null);
+        assertEquals(8, blur.count);
+        AbstractGraphicsNode.setFilterResultCaching(false);
+        try {
+            expected = paint(root, 0, 0, null);
+        } finally {
+            AbstractGraphicsNode.setFilterResultCaching(true);
+        }
+        assertSame(expected, changed, new Rectangle(0, 0, 100, 100));
+        return true;
+    }
+
+    private static ShapeNode shape(Ellipse2D e) {
+        ShapeNode sn = new ShapeNode();
+        sn.setShape(e);
+        FillShapePainter p = new FillShapePainter(e);
+        p.setPaint(Color.blue);
+        sn.setShapePainter(p);
+        return sn;
+    }
+
+    /**
+     * Paints the tree into a 100x100 image, translated by (tx, ty) and
+     * clipped to the given area.
+     */
+    private static int[] paint(GraphicsNode gn, double tx, double ty,
+                               Rectangle area) {
+        BufferedImage bi = new BufferedImage(100, 100,
+                                             BufferedImage.TYPE_INT_ARGB);
+        Graphics2D g = GraphicsUtil.createGraphics(bi);
+        if (area != null)
+            g.clip(area);
+        g.translate(tx, ty);
+        gn.paint(g);
+        g.dispose();
+        return bi.getRGB(0, 0, 100, 100, null, 0, 100);
+    }
+
+    private void assertSame(int[] expected, int[] actual, Rectangle r)
+        throws Exception {
+        for (int y = r.y; y < r.y + r.height; y++)
+            for (int x = r.x; x < r.x + r.width; x++)
+                assertEquals(expected[y*100+x], actual[y*100+x]);
+    }
+
+    static class CountingBlur extends GaussianBlurRable8Bit {
+        int count;
+
+        CountingBlur(Filter src) {
+            super(src, 3, 3);
+        }
+
+        public RenderedImage createRendering(RenderContext rc) {
+            count++;
+            return super.createRendering(rc);
+        }
+    }
+}
@@ -0,0 +1,112 @@
+/*
+
+   Licensed to the Apache Software Foundation (ASF) under one or more
+   contributor license agreements.  See the NOTICE file distributed with
+   this work for additional information regarding copyright ownership.
+   The ASF licenses this file to You under the Apache License, Version 2.0
+   (the "License"); you may not use this file except in compliance with
+   the License.  You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+ */
+package org.apache.batik.gvt;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.geom.AffineTransform;
+import java.awt.geom.Ellipse2D;
+import java.awt.geom.Point2D;
+import java.awt.image.BufferedImage;
+import java.util.Random;
+
+import org.apache.batik.test.AbstractTest;
+
+/**
+ * Checks that painting and hit testing a CompositeGraphicsNode with
+ * many children give the same results with and without the spatial
+ * index.
+ *
+ * @version $Id$
+ */
+public class SpatialIndexTest extends AbstractTest {
+
+    public boolean runImplBasic() throws Exception {
+        Random rnd = new Random(7);
+        CompositeGraphicsNode cgn = new CompositeGraphicsNode();
+        for (int i = 0; i < 2000; i++) {
+            ShapeNode sn = new ShapeNode();
+            double w = 2 + rnd.nextDouble() * 30;
+            double h = 2 + rnd.nextDouble() * 30;
+            sn.setShape(new Ellipse2D.Double(0, 0, w, h));
+            sn.setShapePainter(new FillShapePainter(sn.getShape()));
+            ((FillShapePainter)sn.getShapePainter()).setPaint
+                (new Color(rnd.nextInt()));
+            AffineTransform at = AffineTransform.getTranslateInstance
+                (rnd.nextDouble() * 500, rnd.nextDouble() * 500);
+            at.rotate(rnd.nextDouble() * Math.PI);
+            sn.setTransform(at);
+            cgn.add(sn);
+        }
+
+        int threshold = CompositeGraphicsNode.getSpatialIndexThreshold();
+        try {
+            CompositeGraphicsNode.setSpatialIndexThreshold(0);
+            int[] expected = paint(cgn);
+            GraphicsNode[] expectedHits = hit(cgn, new Random(3));
+
+            CompositeGraphicsNode.setSpatialIndexThreshold(16);
+            // The index is only built on the second lookup.
+            paint(cgn);
+            int[] actual = paint(cgn);
+            hit(cgn, new Random(3));
+            GraphicsNode[] actualHits = hit(cgn, new Random(3));
+
+            assertEquals(expected.length, actual.length);
+            for (int i = 0; i < expected.length; i++)
+                assertEquals(expected[i], actual[i]);
+            for (int i = 0; i < expectedHits.length; i++)
+                assertTrue(expectedHits[i] == actualHits[i]);
+
+            // Changes to a child must be reflected.
+            GraphicsNode last = (GraphicsNode)cgn.get(cgn.size() - 1);
+            last.setTransform(AffineTransform.getTranslateInstance(-500, -500));
+            Point2D p = new Point2D.Double(-499, -499);
+            assertTrue(cgn.nodeHitAt(p) == null);
+            last.setTransform(AffineTransform.getTranslateInstance(-510, -510));
+            assertTrue(cgn.nodeHitAt(p) == null);
+            last.setTransform(AffineTransform.getTranslateInstance(-501, -501));
+            assertTrue(cgn.nodeHitAt(p) == last);
+        } finally {
+            CompositeGraphicsNode.setSpatialIndexThreshold(threshold);
+        }
+        return true;
+    }
+
+    private static int[] paint(GraphicsNode gn) {
+        BufferedImage bi = new BufferedImage(100, 100,
+                                             BufferedImage.TYPE_INT_ARGB);
+        Graphics2D g = bi.createGraphics();
+        g.translate(-200, -150);
+        g.clipRect(200, 150, 100, 100);
+        gn.paint(g);
+        g.dispose();
+        return bi.getRGB(0, 0, 100, 100, null, 0, 100);
+    }
+
+    private static GraphicsNode[] hit(GraphicsNode gn, Random rnd) {
+        GraphicsNode[] ret = new GraphicsNode[1000];
+        for (int i = 0; i < ret.length; i++) {
+            Point2D p = new Point2D.Double(rnd.nextDouble() * 540 - 20,
+                                           rnd.nextDouble() * 540 - 20);
+            ret[i] = gn.nodeHitAt(p);
+        }
+        return ret;
+    }
+}
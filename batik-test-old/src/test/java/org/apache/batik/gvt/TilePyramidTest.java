@@ -0,0 +1,181 @@
+/*
+
+   Licensed to the Apache Software Foundation (ASF) under one or more
+   contributor license agreements.  See the NOTICE file distributed with
+   this work for additional information regarding copyright ownership.
+   The ASF licenses this file to You under the Apache License, Version 2.0
+   (the "License"); you may not use this file except in compliance with
+   the License.  You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+ */
+package org.apache.batik.gvt;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.geom.AffineTransform;
+import java.awt.geom.Rectangle2D;
+import java.awt.image.BufferedImage;
+
+import org.apache.batik.gvt.renderer.StaticRenderer;
+import org.apache.batik.gvt.renderer.TilePyramid;
+import org.apache.batik.test.AbstractTest;
+
+/**
+ * Checks that a TilePyramid renders the same image as the
+ * StaticRenderer, and that its tiles are reused, bounded and flushed.
+ *
+ * @version $Id$
+ */
+public class TilePyramidTest extends AbstractTest {
+
+    static final int TILE = 64;
+
+    public boolean runImplBasic() throws Exception {
+        CompositeGraphicsNode root = new CompositeGraphicsNode();
+        for (int i = 0; i < 20; i++) {
+            ShapeNode sn = new ShapeNode();
+            sn.setShape(new Rectangle(i * 17, i * 11, 40 + i * 3, 30));
+            FillShapePainter p = new FillShapePainter(sn.getShape());
+            p.setPaint(new Color(i * 12, 255 - i * 12, (i * 40) & 255));
+            sn.setShapePainter(p);
+            root.add(sn);
+        }
+
+        AffineTransform at = new AffineTransform(2, 0, 0, 2, 10, 20);
+        int w = 300, h = 200;
+
+        StaticRenderer sr = new StaticRenderer();
+        sr.setTree(root);
+        sr.setTransform(at);
+        sr.updateOffScreen(w, h);
+        sr.clearOffScreen();
+        sr.repaint(at.createInverse().createTransformedShape
+                   (new Rectangle(0, 0, w, h)));
+        BufferedImage expected = sr.getOffScreen();
+
+        CountingPyramid tp = new CountingPyramid(root);
+        BufferedImage actual = tp.render(at, w, h);
+        assertSameImage(expected, actual);
+        int rendered = tp.count;
+        assertTrue(rendered > 0);
+        assertEquals(rendered * 4L * TILE * TILE, tp.getCacheSize());
+
+        // Panning by whole tiles only renders the new column.
+        AffineTransform pan = new AffineTransform(at);
+        pan.preConcatenate(AffineTransform.getTranslateInstance(-TILE, 0));
+        tp.count = 0;
+        tp.render(pan, w, h);
+        assertTrue(tp.count <= (h + TILE - 1) / TILE + 1);
+
+        // Same view again: everything comes from the cache.
+        tp.count = 0;
+        assertSameImage(actual, tp.render(at, w, h));
+        assertEquals(0, tp.count);
+        assertTrue(tp.isComplete(at, new Rectangle(0, 0, w, h)));
+
+        // Flushing an area only renders its tiles again.
+        tp.flush(new Rectangle2D.Double(40, 40, 5, 5));
+        assertTrue(!tp.isComplete(at, new Rectangle(0, 0, w, h)));
+        tp.render(at, w, h);
+        assertEquals(1, tp.count);
+
+        // The cache is bounded, but keeps the tiles of the last view.
+        tp.setMaxCacheSize(0);
+        long viewBytes = tp.getCacheSize();
+        assertTrue(viewBytes > 0);
+        tp.render(pan, w, h);
+        assertTrue(tp.getCacheSize() <= viewBytes + 4L * TILE * TILE * 4);
+
+        // Asynchronous painting fills in the missing tiles.
+        tp.flush();
+        tp.setMaxCacheSize(TilePyramid.DEFAULT_CACHE_SIZE);
+        final Object lock = new Object();
+        final Throwable[] failure = new Throwable[1];
+        tp.addListener(new TilePyramid.Listener() {
+                public void tileRendered(TilePyramid src) {
+                    synchronized (lock) {
+                        lock.notifyAll();
+                    }
+                }
+                public void tileFailed(TilePyramid src, Throwable t) {
+                    synchronized (lock) {
+                        failure[0] = t;
+                        lock.notifyAll();
+                    }
+                }
+            });
+        BufferedImage bi = new BufferedImage(w, h,
+                                             BufferedImage.TYPE_INT_ARGB);
+        Rectangle area = new Rectangle(0, 0, w, h);
+        long end = System.currentTimeMillis() + 20000;
+        synchronized (lock) {
+            while (!paint(tp, bi, at, area)) {
+                assertTrue(System.currentTimeMillis() < end);
+                lock.wait(100);
+            }
+        }
+        assertSameImage(expected, bi);
+
+        // A failing tile is reported to the listeners and left out.
+        tp.fail = true;
+        tp.flush();
+        end = System.currentTimeMillis() + 20000;
+        synchronized (lock) {
+            assertTrue(!paint(tp, bi, at, area));
+            while (failure[0] == null) {
+                assertTrue(System.currentTimeMillis() < end);
+                lock.wait(100);
+            }
+        }
+        assertEquals("tile", failure[0].getMessage());
+        assertTrue(!tp.isComplete(at, area));
+        tp.dispose();
+        return true;
+    }
+
+    private static boolean paint(TilePyramid tp, BufferedImage bi,
+                                 AffineTransform at, Rectangle area) {
+        Graphics2D g = bi.createGraphics();
+        boolean ret = tp.paint(g, at, area, true);
+        g.dispose();
+        return ret;
+    }
+
+    private void assertSameImage(BufferedImage a, BufferedImage b)
+        throws Exception {
+        for (int y = 0; y < a.getHeight(); y++) {
+            for (int x = 0; x < a.getWidth(); x++) {
+                int p = a.getRGB(x, y);
+                int q = b.getRGB(x, y);
+                if ((p >>> 24) == 0 && (q >>> 24) == 0)
+                    continue;
+                assertEquals(p, q);
+            }
+        }
+    }
+
+    static class CountingPyramid extends TilePyramid {
+        volatile int count;
+        volatile boolean fail;
+
+        CountingPyramid(GraphicsNode root) {
+            super(root, null, TILE);
+        }
+
+        protected BufferedImage renderTile(AffineTransform at, int x, int y) {
+            count++;
+            if (fail)
+                throw new IllegalStateException("tile");
+            return super.renderTile(at, x, y);
+        }
+    }
+}
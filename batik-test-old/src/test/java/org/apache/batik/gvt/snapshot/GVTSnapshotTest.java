@@ -0,0 +1,106 @@
+/*
+
+   Licensed to the Apache Software Foundation (ASF) under one or more
+   contributor license agreements.  See the NOTICE file distributed with
+   this work for additional information regarding copyright ownership.
+   The ASF licenses this file to You under the Apache License, Version 2.0
+   (the "License"); you may not use this file except in compliance with
+   the License.  You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+ */
+package org.apache.batik.gvt.snapshot;
+
+import java.awt.Graphics2D;
+import java.awt.geom.Dimension2D;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+
+import org.apache.batik.bridge.BridgeContext;
+import org.apache.batik.bridge.DocumentLoader;
+import org.apache.batik.bridge.GVTBuilder;
+import org.apache.batik.bridge.UserAgent;
+import org.apache.batik.bridge.UserAgentAdapter;
+import org.apache.batik.ext.awt.image.GraphicsUtil;
+import org.apache.batik.gvt.GraphicsNode;
+import org.apache.batik.test.AbstractTest;
+
+import org.w3c.dom.Document;
+
+/**
+ * Checks that the tree built for a document renders the same once
+ * written as a snapshot and read back.
+ *
+ * @version $Id$
+ */
+public class GVTSnapshotTest extends AbstractTest {
+
+    /**
+     * The largest difference allowed between two components of a
+     * pixel.  Images written as their pixels are resampled once more.
+     */
+    static final int TOLERANCE = 2;
+
+    /**
+     * The document to render.
+     */
+    protected String file;
+
+    public GVTSnapshotTest(String file) {
+        this.file = file;
+    }
+
+    public String getName() {
+        return super.getName() + '(' + file + ')';
+    }
+
+    public boolean runImplBasic() throws Exception {
+        UserAgent ua = new UserAgentAdapter();
+        Document doc = new DocumentLoader(ua).loadDocument
+            (new File(file).toURI().toString());
+        BridgeContext ctx = new BridgeContext(ua);
+        GraphicsNode root = new GVTBuilder().build(ctx, doc);
+        Dimension2D size = ctx.getDocumentSize();
+        int w = (int)Math.ceil(size.getWidth());
+        int h = (int)Math.ceil(size.getHeight());
+        int[] expected = paint(root, w, h);
+
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        new GVTSnapshotWriter(bos).write(root);
+        ctx.dispose();
+        GraphicsNode copy = new GVTSnapshotReader
+            (new ByteArrayInputStream(bos.toByteArray())).read();
+        int[] actual = paint(copy, w, h);
+
+        for (int i = 0; i < expected.length; i++) {
+            for (int s = 0; s < 32; s += 8) {
+                int a = (expected[i] >>> s) & 0xFF;
+                int b = (actual[i] >>> s) & 0xFF;
+                if (Math.abs(a - b) > TOLERANCE) {
+                    String at = " at (" + (i % w) + ", " + (i / w) + ")";
+                    assertEquals(Integer.toHexString(expected[i]) + at,
+                                 Integer.toHexString(actual[i]) + at);
+                }
+            }
+        }
+        return true;
+    }
+
+    private static int[] paint(GraphicsNode gn, int w, int h) {
+        BufferedImage bi = new BufferedImage(w, h,
+                                             BufferedImage.TYPE_INT_ARGB);
+        Graphics2D g = GraphicsUtil.createGraphics(bi);
+        gn.paint(g);
+        g.dispose();
+        return bi.getRGB(0, 0, w, h, null, 0, w);
+    }
+}
@@ -0,0 +1,179 @@
+/*
+
+   Licensed to the Apache Software Foundation (ASF) under one or more
+   contributor license agreements.  See the NOTICE file distributed with
+   this work for additional information regarding copyright ownership.
+   The ASF licenses this file to You under the Apache License, Version 2.0
+   (the "License"); you may not use this file except in compliance with
+   the License.  You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+ */
+package org.apache.batik.svggen.font;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.RandomAccessFile;
+
+import org.apache.batik.svggen.font.table.DirectoryEntry;
+import org.apache.batik.svggen.font.table.MappedRandomAccessFile;
+import org.apache.batik.svggen.font.table.Table;
+import org.apache.batik.svggen.font.table.TableDirectory;
+import org.apache.batik.test.AbstractTest;
+
+/**
+ * Checks that converting a TrueType font with its tables and glyphs
+ * parsed on demand gives the same SVG as with all of them parsed up
+ * front, that MappedRandomAccessFile reads like a RandomAccessFile,
+ * and that a table which can not be parsed is reported.
+ *
+ * @version $Id$
+ */
+public class SVGFontTest extends AbstractTest {
+
+    static final String FONT = "samples/tests/resources/ttf/glb12.ttf";
+
+    public boolean runImplBasic() throws Exception {
+        checkLazyConversion(-1, -1, true);
+        checkLazyConversion(65, 90, false);
+        checkMappedFile();
+        checkBrokenTable();
+        return true;
+    }
+
+    /**
+     * Converts the font as SVGFont does, parsing only what the range
+     * needs, and compares the output with a font whose tables and
+     * glyphs were all parsed before the conversion.
+     */
+    private void checkLazyConversion(int first, int last, boolean autoRange)
+        throws Exception {
+        Font lazy = Font.create(FONT);
+        String expected = convert(lazy, first, last, autoRange);
+
+        Font eager = Font.create(FONT);
+        TableDirectory td = eager.getTableDirectory();
+        for (int i = 0; i < td.getNumTables(); i++)
+            eager.getTable(td.getEntry(i).getTag());
+        for (int i = 0; i < eager.getNumGlyphs(); i++)
+            eager.getGlyph(i);
+        String actual = convert(eager, first, last, autoRange);
+
+        assertTrue(expected.indexOf("<glyph") >= 0);
+        assertEquals(expected, actual);
+    }
+
+    private static String convert(Font font, int first, int last,
+                                  boolean autoRange) throws Exception {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        PrintStream ps = new PrintStream(bos, true, "UTF-8");
+        SVGFont.writeFontAsSVGFragment(ps, font, "f", first, last,
+                                       autoRange, false);
+        ps.close();
+        return bos.toString("UTF-8");
+    }
+
+    /**
+     * Reads the font file at a few positions through both a
+     * MappedRandomAccessFile and a RandomAccessFile.
+     */
+    private void checkMappedFile() throws Exception {
+        File f = new File(FONT);
+        RandomAccessFile raf = new RandomAccessFile(f, "r");
+        RandomAccessFile mraf = new MappedRandomAccessFile(f);
+        try {
+            long len = raf.length();
+            assertEquals(len, mraf.length());
+            long[] offsets = { 0, 1, 12, len / 3, len / 2 + 1, len - 100 };
+            for (int i = 0; i < offsets.length; i++) {
+                raf.seek(offsets[i]);
+                mraf.seek(offsets[i]);
+                assertEquals(raf.readInt(), mraf.readInt());
+                assertEquals(raf.readShort(), mraf.readShort());
+                assertEquals(raf.readUnsignedShort(), mraf.readUnsignedShort());
+                assertEquals(raf.read(), mraf.read());
+                byte[] b1 = new byte[50];
+                byte[] b2 = new byte[50];
+                assertEquals(raf.read(b1), mraf.read(b2));
+                for (int j = 0; j < b1.length; j++)
+                    assertEquals(b1[j], b2[j]);
+                assertEquals(raf.getFilePointer(), mraf.getFilePointer());
+            }
+            raf.seek(len - 10);
+            mraf.seek(len - 10);
+            byte[] b = new byte[20];
+            assertEquals(raf.read(b), mraf.read(b));
+            assertEquals(-1, mraf.read());
+            assertEquals(-1, mraf.read(b));
+        } finally {
+            raf.close();
+            mraf.close();
+        }
+    }
+
+    /**
+     * Points the directory entry of the name table, which is parsed on
+     * first use, past the end of a copy of the font and checks that
+     * asking for it reports the failure.
+     */
+    private void checkBrokenTable() throws Exception {
+        File src = new File(FONT);
+        byte[] data = new byte[(int)src.length()];
+        RandomAccessFile raf = new RandomAccessFile(src, "r");
+        try {
+            raf.readFully(data);
+        } finally {
+            raf.close();
+        }
+
+        // 12 bytes of header, then 16 bytes per entry: the tag, the
+        // checksum, the offset and the length.
+        int numTables = Font.create(FONT).getTableDirectory().getNumTables();
+        int pos = -1;
+        for (int i = 0; i < numTables; i++)
+            if (getInt(data, 12 + 16 * i) == Table.name) pos = 12 + 16 * i + 8;
+        assertTrue(pos >= 0);
+        int off = data.length - 2;
+        data[pos    ] = (byte)(off >>> 24);
+        data[pos + 1] = (byte)(off >>> 16);
+        data[pos + 2] = (byte)(off >>> 8);
+        data[pos + 3] = (byte)off;
+
+        File broken = File.createTempFile("broken", ".ttf");
+        broken.deleteOnExit();
+        FileOutputStream fos = new FileOutputStream(broken);
+        try {
+            fos.write(data);
+        } finally {
+            fos.close();
+        }
+
+        Font font = Font.create(broken.getPath());
+        DirectoryEntry de = font.getTableDirectory().getEntryByTag(Table.name);
+        assertEquals(off, de.getOffset());
+        // The tables needed to locate glyphs are still there.
+        assertTrue(font.getGlyph(0) != null);
+        try {
+            font.getNameTable();
+        } catch (IllegalStateException e) {
+            assertTrue(e.getCause() instanceof IOException);
+            return;
+        }
+        assertTrue(false);
+    }
+
+    private static int getInt(byte[] b, int off) {
+        return ((b[off] & 0xff) << 24) | ((b[off + 1] & 0xff) << 16)
+            | ((b[off + 2] & 0xff) << 8) | (b[off + 3] & 0xff);
+    }
+}
@@ -0,0 +1,89 @@
+/*
+
+   Licensed to the Apache Software Foundation (ASF) under one or more
+   contributor license agreements.  See the NOTICE file distributed with
+   this work for additional information regarding copyright ownership.
+   The ASF licenses this file to You under the Apache License, Version 2.0
+   (the "License"); you may not use this file except in compliance with
+   the License.  You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+ */
+package org.apache.batik.transcoder.svg2svg;
+
+import java.io.StringReader;
+import java.io.StringWriter;
+
+import org.apache.batik.test.AbstractTest;
+import org.apache.batik.transcoder.TranscoderInput;
+import org.apache.batik.transcoder.TranscoderOutput;
+
+/**
+ * Checks the output of the SVG transcoder in minify mode.
+ *
+ * @version $Id$
+ */
+public class MinifyTest extends AbstractTest {
+
+    public boolean runImplBasic() throws Exception {
+        // Numbers.
+        assertEquals("0 .5 -.5 10 1.25 0 5e2 1e-5",
+                     ValueMinifier.minifyNumbers
+                     ("0.0 0.50, -0.5 +10.000 01.250 -0 5E+02 1.0e-05"));
+        assertEquals("10% 1.5px none",
+                     ValueMinifier.minifyNumbers("10.0%  1.50px none"));
+        assertEquals("translate(10 -.5) scale(2)",
+                     ValueMinifier.minifyNumbers
+                     ("translate( 10.0 , -0.50 ) scale (2)"));
+
+        // Path data.
+        assertEquals("M10 20 30 40 50-60C1 2 3 4 5 6 7 8 9 10 11 12z",
+                     ValueMinifier.minifyPathData
+                     ("M 10.000 20 L 30,40 L 50 -60.0 "
+                      + "C 1 2 3 4 5 6 C 7 8 9 10 11 12 z"));
+        assertEquals("m.5.5 1.5.5L2 2M3 3", ValueMinifier.minifyPathData
+                     ("m 0.5 0.5 l 1.5 .5 L 2 2 M 3 3"));
+        // The arc flags are kept, and so are the commands with a
+        // wrong number of arguments.
+        assertEquals("A25 25-30 01 50-25", ValueMinifier.minifyPathData
+                     ("A 25 25 -30 01 50 -25"));
+        assertEquals("L10L20 20", ValueMinifier.minifyPathData
+                     ("L 10 L 20 20"));
+        assertEquals("M 1 1 X", ValueMinifier.minifyPathData("M 1 1 X"));
+
+        // Documents.
+        assertEquals("<svg xmlns=\"http://www.w3.org/2000/svg\" "
+                     + "width=\"100\"><g opacity=\".5\" id=\"a  b\">"
+                     + "<rect x=\"1\" y=\"&#48;.50\"/></g></svg>",
+                     minify("<!-- c -->\n<svg "
+                            + "xmlns=\"http://www.w3.org/2000/svg\"\n"
+                            + "  width = \"100.0\" >\n  <!-- c -->\n"
+                            + "  <g opacity=\"0.50\" id=\"a  b\">\n"
+                            + "    <rect x=\"1.0\" y=\"&#48;.50\" />\n"
+                            + "  </g>\n</svg>\n"));
+        assertEquals("<svg><text> a b &amp; <tspan>c</tspan></text>"
+                     + "<text xml:space=\"preserve\"> a  b </text>"
+                     + "<style><![CDATA[ .a { } ]]></style></svg>",
+                     minify("<svg><text>  a\n  b  &amp;  <tspan>c"
+                            + "</tspan>\n</text>\n"
+                            + "<text xml:space=\"preserve\"> a  b </text>"
+                            + "<style><![CDATA[ .a { } ]]></style></svg>"));
+        return true;
+    }
+
+    private static String minify(String svg) throws Exception {
+        SVGTranscoder t = new SVGTranscoder();
+        t.addTranscodingHint(SVGTranscoder.KEY_MINIFY, Boolean.TRUE);
+        StringWriter out = new StringWriter();
+        t.transcode(new TranscoderInput(new StringReader(svg)),
+                    new TranscoderOutput(out));
+        return out.toString();
+    }
+}
@@ -0,0 +1,107 @@
+/*
+
+   Licensed to the Apache Software Foundation (ASF) under one or more
+   contributor license agreements.  See the NOTICE file distributed with
+   this work for additional information regarding copyright ownership.
+   The ASF licenses this file to You under the Apache License, Version 2.0
+   (the "License"); you may not use this file except in compliance with
+   the License.  You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+ */
+package org.apache.batik.transcoder.svg2svg;
+
+import java.io.StringReader;
+import java.io.Writer;
+
+import org.apache.batik.test.PerformanceTest;
+import org.apache.batik.xml.LexicalUnits;
+import org.apache.batik.xml.XMLScanner;
+
+/**
+ * Compares the time taken to print a generated document in one of the
+ * pretty printer modes (runOp) with the time taken to only scan it
+ * (runRef).
+ *
+ * @version $Id$
+ */
+public class PrettyPrinterPerformanceTest extends PerformanceTest {
+
+    static final int GROUPS = 2000;
+
+    protected String document;
+    protected String mode;
+
+    /**
+     * @param mode one of pretty, no-format or minify.
+     */
+    public PrettyPrinterPerformanceTest(String mode) {
+        if (!"pretty".equals(mode) && !"no-format".equals(mode) &&
+            !"minify".equals(mode)) {
+            throw new IllegalArgumentException("Unknown mode: " + mode);
+        }
+        this.mode = mode;
+        this.document = createDocument();
+    }
+
+    /**
+     * Creates a document made of groups of shapes and text.
+     */
+    static String createDocument() {
+        StringBuffer sb = new StringBuffer();
+        sb.append("<?xml version=\"1.0\" standalone=\"no\"?>\n");
+        sb.append("<svg xmlns=\"http://www.w3.org/2000/svg\" ");
+        sb.append("width=\"1000.0\" height=\"1000.0\">\n");
+        for (int i = 0; i < GROUPS; i++) {
+            sb.append("  <!-- Group ").append(i).append(" -->\n");
+            sb.append("  <g transform=\"translate(").append(i % 100)
+              .append(".50, ").append(i / 100).append(".0)\">\n");
+            sb.append("    <path d=\"M 10.000 20.000 L 30.500 40.000 ");
+            sb.append("L 50.000 -60.250 C 1.0 2.0 3.0 4.0 5.0 6.0 Z\" ");
+            sb.append("fill=\"#336699\" stroke-width=\"0.50\"/>\n");
+            sb.append("    <rect x=\"0.0\" y=\"0.0\" width=\"10.0\" ");
+            sb.append("height=\"20.0\" opacity=\"0.750\"/>\n");
+            sb.append("    <text x=\"5.0\" y=\"15.0\">  Label &amp; ");
+            sb.append(i).append("\n      continued  </text>\n");
+            sb.append("  </g>\n");
+        }
+        sb.append("</svg>\n");
+        return sb.toString();
+    }
+
+    protected void runRef() {
+        XMLScanner scanner = new XMLScanner(new StringReader(document));
+        while (scanner.next() != LexicalUnits.EOF) {
+            scanner.clearBuffer();
+        }
+    }
+
+    protected void runOp() throws Exception {
+        PrettyPrinter pp = new PrettyPrinter();
+        if ("no-format".equals(mode)) {
+            pp.setFormat(false);
+        } else if ("minify".equals(mode)) {
+            pp.setMinify(true);
+        }
+        pp.print(new StringReader(document), new NullWriter());
+    }
+
+    /**
+     * A writer that discards its output.
+     */
+    static class NullWriter extends Writer {
+        public void write(char[] cbuf, int off, int len) {
+        }
+        public void flush() {
+        }
+        public void close() {
+        }
+    }
+}
@@ -0,0 +1,178 @@
+/*
+
+   Licensed to the Apache Software Foundation (ASF) under one or more
+   contributor license agreements.  See the NOTICE file distributed with
+   this work for additional information regarding copyright ownership.
+   The ASF licenses this file to You under the Apache License, Version 2.0
+   (the "License"); you may not use this file except in compliance with
+   the License.  You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+ */
+package org.apache.batik.transcoder.wmf;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.StringReader;
+import java.io.StringWriter;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+
+import org.apache.batik.test.AbstractTest;
+import org.apache.batik.transcoder.TranscoderInput;
+import org.apache.batik.transcoder.TranscoderOutput;
+import org.apache.batik.transcoder.wmf.tosvg.WMFTranscoder;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+import org.xml.sax.InputSource;
+
+/**
+ * Checks that streaming a metafile to SVG produces the same shapes as
+ * building the whole SVG document first.
+ *
+ * @version $Id$
+ */
+public class WMFStreamingTest extends AbstractTest {
+
+    private static final int RECTANGLES = 2500;
+
+    public boolean runImplBasic() throws Exception {
+        byte[] wmf = createMetafile();
+        Document batch = parse(transcode(wmf, false));
+        Document stream = parse(transcode(wmf, true));
+
+        Element root = stream.getDocumentElement();
+        assertEquals(batch.getDocumentElement().getAttribute("viewBox"),
+                     root.getAttribute("viewBox"));
+        assertEquals(batch.getDocumentElement().getAttribute("width"),
+                     root.getAttribute("width"));
+
+        NodeList expected = batch.getElementsByTagName("rect");
+        NodeList actual = stream.getElementsByTagName("rect");
+        assertEquals(RECTANGLES, expected.getLength());
+        assertEquals(expected.getLength(), actual.getLength());
+        for (int i = 0; i < expected.getLength(); i++) {
+            Element e = (Element)expected.item(i);
+            Element a = (Element)actual.item(i);
+            assertEquals(e.getAttribute("x"), a.getAttribute("x"));
+            assertEquals(e.getAttribute("y"), a.getAttribute("y"));
+            assertEquals(e.getAttribute("width"), a.getAttribute("width"));
+            assertEquals(e.getAttribute("height"), a.getAttribute("height"));
+        }
+
+        // The content was written in several parts.
+        int groups = 0;
+        for (Element e = firstChild(root); e != null; e = nextSibling(e)) {
+            if (e.getTagName().equals("g"))
+                groups++;
+        }
+        assertTrue(groups > 1);
+        return true;
+    }
+
+    private static String transcode(byte[] wmf, boolean streaming)
+        throws Exception {
+        WMFTranscoder t = new WMFTranscoder();
+        t.addTranscodingHint(WMFTranscoder.KEY_STREAMING,
+                             Boolean.valueOf(streaming));
+        StringWriter out = new StringWriter();
+        t.transcode(new TranscoderInput(new ByteArrayInputStream(wmf)),
+                    new TranscoderOutput(out));
+        return out.toString();
+    }
+
+    private static Document parse(String svg) throws Exception {
+        DocumentBuilderFactory f = DocumentBuilderFactory.newInstance();
+        f.setNamespaceAware(true);
+        f.setValidating(false);
+        f.setFeature("http://apache.org/xml/features/nonvalidating/load-external-dtd",
+                     false);
+        return f.newDocumentBuilder().parse
+            (new InputSource(new StringReader(svg)));
+    }
+
+    private static Element firstChild(Element e) {
+        for (Node n = e.getFirstChild(); n != null;
+             n = n.getNextSibling()) {
+            if (n instanceof Element)
+                return (Element)n;
+        }
+        return null;
+    }
+
+    private static Element nextSibling(Element e) {
+        for (Node n = e.getNextSibling(); n != null;
+             n = n.getNextSibling()) {
+            if (n instanceof Element)
+                return (Element)n;
+        }
+        return null;
+    }
+
+    /**
+     * Builds a metafile filling many rectangles with a blue brush.
+     */
+    private static byte[] createMetafile() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        // Header: disk metafile, version 3, 1 object.
+        writeShort(out, 1);
+        writeShort(out, 9);
+        writeShort(out, 0x300);
+        writeInt(out, 0);
+        writeShort(out, 1);
+        writeInt(out, 7);
+        writeShort(out, 0);
+        // SETWINDOWEXT
+        writeInt(out, 5);
+        writeShort(out, WMFConstants.META_SETWINDOWEXT);
+        writeShort(out, 2000);
+        writeShort(out, 2000);
+        // CREATEBRUSHINDIRECT, solid blue
+        writeInt(out, 7);
+        writeShort(out, WMFConstants.META_CREATEBRUSHINDIRECT);
+        writeShort(out, WMFConstants.BS_SOLID);
+        writeInt(out, 0xff0000);
+        writeShort(out, 0);
+        // SELECTOBJECT
+        writeInt(out, 4);
+        writeShort(out, WMFConstants.META_SELECTOBJECT);
+        writeShort(out, 0);
+        for (int i = 0; i < RECTANGLES; i++) {
+            int x = (i * 37) % 1900;
+            int y = (i * 91) % 1900;
+            writeInt(out, 7);
+            writeShort(out, WMFConstants.META_RECTANGLE);
+            writeShort(out, y + 20);
+            writeShort(out, x + 30);
+            writeShort(out, y);
+            writeShort(out, x);
+        }
+        // End of file
+        writeInt(out, 3);
+        writeShort(out, 0);
+        return out.toByteArray();
+    }
+
+    private static void writeShort(OutputStream out, int v)
+        throws IOException {
+        out.write(v & 0xff);
+        out.write((v >> 8) & 0xff);
+    }
+
+    private static void writeInt(OutputStream out, int v)
+        throws IOException {
+        writeShort(out, v);
+        writeShort(out, v >> 16);
+    }
+}
@@ -0,0 +1,142 @@
+/*
+
+   Licensed to the Apache Software Foundation (ASF) under one or more
+   contributor license agreements.  See the NOTICE file distributed with
+   this work for additional information regarding copyright ownership.
+   The ASF licenses this file to You under the Apache License, Version 2.0
+   (the "License"); you may not use this file except in compliance with
+   the License.  You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+ */
+package org.apache.batik.util;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import org.apache.batik.test.AbstractTest;
+
+/**
+ * Checks the ordering, coalescing and run events of RunnableQueue,
+ * with runnables scheduled from several threads.
+ *
+ * @version $Id$
+ */
+public class RunnableQueueCoalescingTest extends AbstractTest {
+
+    public boolean runImplBasic() throws Exception {
+        final RunnableQueue rq = RunnableQueue.createRunnableQueue();
+        final int[] events = new int[4];
+        rq.setRunHandler(new RunnableQueue.RunHandler() {
+                public void runnableStart(RunnableQueue q, Runnable r) {
+                    events[0]++;
+                }
+                public void runnableInvoked(RunnableQueue q, Runnable r) {
+                    events[1]++;
+                }
+                public void executionSuspended(RunnableQueue q) {
+                    events[2]++;
+                }
+                public void executionResumed(RunnableQueue q) {
+                    events[3]++;
+                }
+            });
+        rq.resumeExecution();
+        rq.invokeAndWait(new Named(null, ""));
+
+        // Preempting runnables go first, coalesced ones are replaced and
+        // a null key does not coalesce.
+        rq.suspendExecution(true);
+        final List ran = new ArrayList();
+        rq.invokeLater(new Named(ran, "a"));
+        rq.invokeLater(new Named(ran, "k1"), "k");
+        rq.invokeLater(new Named(ran, "b"));
+        rq.invokeLater(new Named(ran, "n1"), null);
+        rq.invokeLater(new Named(ran, "n2"), null);
+        rq.preemptLater(new Named(ran, "p"));
+        rq.invokeLater(new Named(ran, "k2"), "k");
+        assertEquals(6, rq.getQueueDepth());
+        StringBuffer sb = new StringBuffer();
+        for (Iterator i = rq.iterator(); i.hasNext();)
+            sb.append(((Named)i.next()).name).append(' ');
+        assertEquals("p a b n1 n2 k2 ", sb.toString());
+        sb.setLength(0);
+        for (Iterator i = rq.getPendingRunnables().iterator(); i.hasNext();)
+            sb.append(((Named)i.next()).name).append(' ');
+        assertEquals("p a b n1 n2 k2 ", sb.toString());
+        rq.resumeExecution();
+        rq.invokeAndWait(new Named(ran, "end"));
+        assertEquals("[p, a, b, n1, n2, k2, end]", ran.toString());
+        assertEquals(0, rq.getQueueDepth());
+        assertEquals(1, events[2]);
+        assertEquals(2, events[3]);
+
+        // Many producers.
+        final int[] count = new int[1];
+        final Runnable inc = new Runnable() {
+                public void run() {
+                    count[0]++;
+                }
+            };
+        Thread[] producers = new Thread[4];
+        for (int t = 0; t < producers.length; t++) {
+            producers[t] = new Thread() {
+                    public void run() {
+                        for (int i = 0; i < 10000; i++)
+                            rq.invokeLater(inc);
+                    }
+                };
+            producers[t].start();
+        }
+        for (int t = 0; t < producers.length; t++)
+            producers[t].join();
+        rq.invokeAndWait(new Named(null, ""));
+        assertEquals(40000, count[0]);
+        assertEquals(40009L, rq.getInvokedCount());
+        assertEquals(40009, events[0]);
+        assertTrue(rq.getMaxLatency() >= rq.getAverageLatency());
+
+        // Halting the queue releases the runnables waiting on it.
+        rq.suspendExecution(true);
+        Thread waiter = new Thread() {
+                public void run() {
+                    try {
+                        rq.invokeAndWait(inc);
+                    } catch (InterruptedException ie) {
+                    }
+                }
+            };
+        waiter.start();
+        while (rq.getQueueDepth() == 0)
+            Thread.sleep(1);
+        rq.getThread().halt();
+        rq.resumeExecution();
+        waiter.join(5000);
+        assertTrue(!waiter.isAlive());
+        while (rq.getThread() != null)
+            Thread.sleep(1);
+        assertTrue(!rq.tryInvokeLater(inc));
+        return true;
+    }
+
+    static class Named implements Runnable {
+        final List list;
+        final String name;
+        Named(List list, String name) {
+            this.list = list;
+            this.name = name;
+        }
+        public void run() {
+            if (list != null)
+                list.add(name);
+        }
+    }
+}
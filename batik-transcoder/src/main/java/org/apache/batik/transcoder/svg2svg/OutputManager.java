@@ -20,9 +20,12 @@ package org.apache.batik.transcoder.svg2svg;
 
 import java.io.IOException;
 import java.io.Writer;
+import java.util.Arrays;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Set;
 
 import org.apache.batik.xml.XMLUtilities;
 
@@ -72,6 +75,14 @@ public class OutputManager {
         xmlSpace.add(Boolean.FALSE);
     }
 
+    /**
+     * Whether the current elements are text content elements.
+     */
+    protected List textContent = new LinkedList();
+    {
+        textContent.add(Boolean.FALSE);
+    }
+
     /**
      * Whether the next markup can be indented.
      */
@@ -87,6 +98,11 @@ public class OutputManager {
      */
     protected boolean lineAttributes = false;
 
+    /**
+     * The buffer used to print the margin and the minified text.
+     */
+    protected char[] charBuffer = new char[64];
+
     /**
      * Creates a new output manager.
      * @param pp The PrettyPrinter used for formatting the output.
@@ -113,10 +129,7 @@ public class OutputManager {
      * Prints a newline.
      */
     public void printNewline() throws IOException {
-        String nl = prettyPrinter.getNewline();
-        for (int i = 0; i < nl.length(); i++) {
-            writer.write(nl.charAt(i));
-        }
+        writer.write(prettyPrinter.getNewline());
         column = 0;
         line++;
      }
@@ -125,18 +138,54 @@ public class OutputManager {
      * Prints a string.
      */
     public void printString(String s) throws IOException {
-        for (int i = 0; i < s.length(); i++) {
-            printCharacter(s.charAt(i));
+        int start = 0;
+        int nl;
+        while ((nl = s.indexOf(10, start)) != -1) {
+            writer.write(s, start, nl - start);
+            printNewline();
+            start = nl + 1;
         }
+        int len = s.length() - start;
+        writer.write(s, start, len);
+        column += len;
     }
 
     /**
      * Prints a char array.
      */
     public void printCharacters(char[] ca) throws IOException {
-        for (char aCa : ca) {
-            printCharacter(aCa);
+        printCharacters(ca, 0, ca.length);
+    }
+
+    /**
+     * Prints a part of a char array.
+     */
+    public void printCharacters(char[] ca, int off, int len)
+        throws IOException {
+        int start = off;
+        int end = off + len;
+        for (int i = off; i < end; i++) {
+            if (ca[i] == 10) {
+                writer.write(ca, start, i - start);
+                printNewline();
+                start = i + 1;
+            }
+        }
+        writer.write(ca, start, end - start);
+        column += end - start;
+    }
+
+    /**
+     * Prints the margin.
+     */
+    protected void printMargin() throws IOException {
+        int len = margin.length();
+        if (len > charBuffer.length) {
+            charBuffer = new char[len * 2];
         }
+        margin.getChars(0, len, charBuffer, 0);
+        writer.write(charBuffer, 0, len);
+        column += len;
     }
 
     /**
@@ -145,7 +194,7 @@ public class OutputManager {
      * @param opt whether the space is optional.
      */
     public void printSpaces(char[] text, boolean opt) throws IOException {
-        if (prettyPrinter.getFormat()) {
+        if (prettyPrinter.getFormat() || prettyPrinter.getMinify()) {
             if (!opt) {
                 printCharacter(' ');
             }
@@ -159,6 +208,9 @@ public class OutputManager {
      * @param text The space text.
      */
     public void printTopSpaces(char[] text) throws IOException {
+        if (prettyPrinter.getMinify()) {
+            return;
+        }
         if (prettyPrinter.getFormat()) {
             int nl = newlines(text);
             for (int i = 0; i < nl; i++) {
@@ -174,10 +226,13 @@ public class OutputManager {
      * @param text The comment text.
      */
     public void printComment(char[] text) throws IOException {
+        if (prettyPrinter.getMinify()) {
+            return;
+        }
         if (prettyPrinter.getFormat()) {
             if (canIndent) {
                 printNewline();
-                printString(margin.toString());
+                printMargin();
             }
             printString("<!--");
             if (column + text.length + 3 < prettyPrinter.getDocumentWidth()) {
@@ -188,7 +243,7 @@ public class OutputManager {
             }
             if (column + 3 > prettyPrinter.getDocumentWidth()) {
                 printNewline();
-                printString(margin.toString());
+                printMargin();
             }
             printString("-->");
         } else {
@@ -293,7 +348,7 @@ public class OutputManager {
         if (prettyPrinter.getFormat()) {
             if (canIndent) {
                 printNewline();
-                printString(margin.toString());
+                printMargin();
             }
         }
         printString("<?");
@@ -410,7 +465,7 @@ public class OutputManager {
             (xmlSpace.get(0) != Boolean.TRUE) &&
             first) {
             printNewline();
-            printString(margin.toString());
+            printMargin();
         }
         printCharacter('&');
         printCharacters(name);
@@ -428,12 +483,12 @@ public class OutputManager {
 
             if (first) {
                 printNewline();
-                printString(margin.toString());
+                printMargin();
             } else if (preceedingSpace) {
                 int endCol = column + code.length + 3;
                 if (endCol > prettyPrinter.getDocumentWidth()){
                     printNewline();
-                    printString(margin.toString());
+                    printMargin();
                 } else {
                     printCharacter(' ');
                 }
@@ -450,19 +505,44 @@ public class OutputManager {
     public void printElementStart(char[] name, List attributes, char[] space)
         throws IOException {
         xmlSpace.add(0, xmlSpace.get(0));
+        textContent.add(0, ((textContent.get(0) == Boolean.TRUE ||
+                             isTextContentElement(name))
+                            ? Boolean.TRUE
+                            : Boolean.FALSE));
 
         startingLines.add(0, line);
 
         if (prettyPrinter.getFormat()) {
             if (canIndent) {
                 printNewline();
-                printString(margin.toString());
+                printMargin();
             }
         }
         printCharacter('<');
         printCharacters(name);
 
-        if (prettyPrinter.getFormat()) {
+        if (prettyPrinter.getMinify()) {
+            for (Object attribute : attributes) {
+                AttributeInfo ai = (AttributeInfo) attribute;
+
+                if (ai.isAttribute("xml:space")) {
+                    xmlSpace.set(0, (ai.value.equals("preserve")
+                            ? Boolean.TRUE
+                            : Boolean.FALSE));
+                }
+
+                printCharacter(' ');
+                printCharacters(ai.name);
+                printCharacter('=');
+                printCharacter(ai.delimiter);
+                if (ai.entityReferences) {
+                    printString(ai.value);
+                } else {
+                    printString(ValueMinifier.minify(ai.name, ai.value));
+                }
+                printCharacter(ai.delimiter);
+            }
+        } else if (prettyPrinter.getFormat()) {
             Iterator it = attributes.iterator();
             if (it.hasNext()) {
                 AttributeInfo ai = (AttributeInfo)it.next();
@@ -493,7 +573,7 @@ public class OutputManager {
                 if (lineAttributes ||
                     len + column > prettyPrinter.getDocumentWidth()) {
                     printNewline();
-                    printString(margin.toString());
+                    printMargin();
                     for (int i = 0; i < name.length + 2; i++) {
                         printCharacter(' ');
                     }
@@ -557,7 +637,7 @@ public class OutputManager {
                     (line != (Integer) startingLines.get(0) ||
                      column + name.length + 3 >= prettyPrinter.getDocumentWidth())) {
                     printNewline();
-                    printString(margin.toString());
+                    printMargin();
                 }
             }
             printString("</");
@@ -571,6 +651,7 @@ public class OutputManager {
         }
         startingLines.remove(0);
         xmlSpace.remove(0);
+        textContent.remove(0);
     }
 
     /**
@@ -580,6 +661,10 @@ public class OutputManager {
                                       boolean first,
                                       boolean preceedingSpace) 
         throws IOException {
+        if (prettyPrinter.getMinify()) {
+            printMinifiedCharacterData(data);
+            return false;
+        }
         if (!prettyPrinter.getFormat()) {
             printCharacters(data);
             return false;
@@ -602,11 +687,54 @@ public class OutputManager {
 
         if (first) {
             printNewline();
-            printString(margin.toString());
+            printMargin();
         }
         return formatText(data, margin.toString(), preceedingSpace);
     }
 
+    /**
+     * Prints the character data of an element content without the
+     * white spaces that do not change the rendering of the document.
+     * White spaces are only significant in text content elements, where
+     * they are processed like xml:space="default" would do.
+     */
+    protected void printMinifiedCharacterData(char[] data)
+        throws IOException {
+        if (xmlSpace.get(0) == Boolean.TRUE) {
+            printCharacters(data);
+            return;
+        }
+        if (textContent.get(0) != Boolean.TRUE) {
+            if (!isWhiteSpace(data)) {
+                printCharacters(data);
+            }
+            return;
+        }
+        if (data.length > charBuffer.length) {
+            charBuffer = new char[data.length * 2];
+        }
+        int len = 0;
+        boolean space = false;
+        for (char c : data) {
+            switch (c) {
+            case 10:
+            case 13:
+                break;
+            case 9:
+            case 32:
+                if (!space) {
+                    charBuffer[len++] = ' ';
+                    space = true;
+                }
+                break;
+            default:
+                charBuffer[len++] = c;
+                space = false;
+            }
+        }
+        printCharacters(charBuffer, 0, len);
+    }
+
     /**
      * Prints a CDATA section.
      */
@@ -744,6 +872,31 @@ public class OutputManager {
         return true;
     }
 
+    /**
+     * Tells whether the given name is the name of an element whose
+     * content is rendered as text.
+     */
+    protected boolean isTextContentElement(char[] name) {
+        int i = name.length;
+        while (i > 0 && name[i - 1] != ':') {
+            i--;
+        }
+        String localName = new String(name, i, name.length - i);
+        return TEXT_CONTENT_ELEMENTS.contains(localName);
+    }
+
+    /**
+     * The local names of the text content elements.
+     */
+    protected static final Set TEXT_CONTENT_ELEMENTS = new HashSet();
+    static {
+        String[] names = {
+            "text", "tspan", "tref", "textPath", "altGlyph", "title", "desc",
+            "flowRoot", "flowPara", "flowSpan", "flowDiv", "flowLine"
+        };
+        TEXT_CONTENT_ELEMENTS.addAll(Arrays.asList(names));
+    }
+
     /**
      * Formats the given text.
      */
@@ -762,21 +915,22 @@ public class OutputManager {
                 startsWithSpace = true;
                 i++;
             }
-            StringBuffer sb = new StringBuffer();
+            int start = i;
             for (;;) {
                 if (i >= text.length || XMLUtilities.isXMLSpace(text[i])) {
                     break;
                 }
-                sb.append(text[i++]);
+                i++;
             }
-            if (sb.length() == 0) {
+            int len = i - start;
+            if (len == 0) {
                 return startsWithSpace;
             }
             if (startsWithSpace) {
                 // Consider reformatting ws so things look nicer.
-                int endCol = column + sb.length();
+                int endCol = column + len;
                 if ((endCol >= prettyPrinter.getDocumentWidth() - 1) &&
-                    ((margin.length() + sb.length() <
+                    ((margin.length() + len <
                       prettyPrinter.getDocumentWidth() - 1) ||
                      (margin.length() < column))) {
                     printNewline();
@@ -786,7 +940,7 @@ public class OutputManager {
                     printCharacter(' ');
                 }
             }
-            printString(sb.toString());
+            printCharacters(text, start, len);
             startsWithSpace = false;
         }
         return startsWithSpace;
@@ -18,6 +18,7 @@
  */
 package org.apache.batik.transcoder.svg2svg;
 
+import java.io.BufferedWriter;
 import java.io.IOException;
 import java.io.Reader;
 import java.io.Writer;
@@ -74,6 +75,11 @@ public class PrettyPrinter {
      */
     protected boolean format = true;
 
+    /**
+     * Whether the output must be minified.
+     */
+    protected boolean minify;
+
     /**
      * The tabulation width.
      */
@@ -159,10 +165,25 @@ public class PrettyPrinter {
     }
 
     /**
-     * Returns whether the output must be formatted.
+     * Returns whether the output must be formatted. A minified output
+     * is never formatted.
      */
     public boolean getFormat() {
-        return format;
+        return format && !minify;
+    }
+
+    /**
+     * Sets the minify attribute.
+     */
+    public void setMinify(boolean b) {
+        minify = b;
+    }
+
+    /**
+     * Returns whether the output must be minified.
+     */
+    public boolean getMinify() {
+        return minify;
     }
 
     /**
@@ -198,6 +219,10 @@ public class PrettyPrinter {
      */
     public void print(Reader r, Writer w) throws TranscoderException,
                                                  IOException {
+        if (!(w instanceof BufferedWriter)) {
+            // The output manager writes small chunks.
+            w = new BufferedWriter(w);
+        }
         try {
             scanner = new XMLScanner(r);
             output = new OutputManager(this, w);
@@ -276,6 +301,8 @@ public class PrettyPrinter {
             }
         } catch (XMLException e) {
             errorHandler.fatalError(new TranscoderException(e.getMessage()));
+        } finally {
+            w.flush();
         }
     }
 
@@ -834,6 +861,9 @@ public class PrettyPrinter {
         List attributes = new LinkedList();
         char[] space = null;
 
+        // Keeps the scanner buffer small when there is no content
+        // between the tags.
+        scanner.clearBuffer();
         type = scanner.next();
         while (type == LexicalUnits.S) {
             space = getCurrentValue();
@@ -921,6 +951,7 @@ public class PrettyPrinter {
             }
             name = getCurrentValue();
 
+            scanner.clearBuffer();
             type = scanner.next();
             space = null;
             if (type == LexicalUnits.S) {
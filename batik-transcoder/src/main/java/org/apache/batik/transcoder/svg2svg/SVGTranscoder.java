@@ -95,6 +95,13 @@ public class SVGTranscoder extends AbstractTranscoder {
      */
     public static final Boolean VALUE_FORMAT_OFF = Boolean.FALSE;
 
+    /**
+     * The key to specify whether to minify the input. Minifying removes
+     * the comments and the insignificant white spaces, and shortens the
+     * numbers and the path data of the geometry attributes.
+     */
+    public static final TranscodingHints.Key KEY_MINIFY = new BooleanKey();
+
     /**
      * The key to specify the tabulation width.
      */
@@ -201,6 +208,10 @@ public class SVGTranscoder extends AbstractTranscoder {
             if (b != null) {
                 pp.setFormat(b);
             }
+            b = (Boolean)hints.get(KEY_MINIFY);
+            if (b != null) {
+                pp.setMinify(b);
+            }
             Integer i = (Integer)hints.get(KEY_TABULATION_WIDTH);
             if (i != null) {
                 pp.setTabulationWidth(i);
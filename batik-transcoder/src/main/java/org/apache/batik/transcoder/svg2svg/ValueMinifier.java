@@ -0,0 +1,377 @@
+/*
+
+   Licensed to the Apache Software Foundation (ASF) under one or more
+   contributor license agreements.  See the NOTICE file distributed with
+   this work for additional information regarding copyright ownership.
+   The ASF licenses this file to You under the Apache License, Version 2.0
+   (the "License"); you may not use this file except in compliance with
+   the License.  You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+ */
+package org.apache.batik.transcoder.svg2svg;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * This class shortens the values of the attributes made of numbers,
+ * like the path data, the point lists or the transforms, without
+ * changing the numbers they represent. The values that cannot be
+ * understood are returned unchanged.
+ *
+ * @version $Id$
+ */
+final class ValueMinifier {
+
+    /**
+     * The names of the attributes whose value is path data.
+     */
+    private static final Set PATH_ATTRIBUTES = new HashSet();
+    static {
+        String[] names = { "d", "path" };
+        PATH_ATTRIBUTES.addAll(Arrays.asList(names));
+    }
+
+    /**
+     * The names of the attributes whose value is made of numbers,
+     * lengths or transforms.
+     */
+    private static final Set NUMERIC_ATTRIBUTES = new HashSet();
+    static {
+        String[] names = {
+            "x", "y", "z", "x1", "y1", "x2", "y2", "cx", "cy", "r", "rx", "ry",
+            "fx", "fy", "dx", "dy", "width", "height", "points", "viewBox",
+            "transform", "gradientTransform", "patternTransform", "offset",
+            "rotate", "stroke-width", "stroke-dasharray", "stroke-dashoffset",
+            "stroke-miterlimit", "opacity", "fill-opacity", "stroke-opacity",
+            "stop-opacity", "flood-opacity", "font-size", "refX", "refY",
+            "markerWidth", "markerHeight", "startOffset", "textLength",
+            "stdDeviation", "k1", "k2", "k3", "k4", "scale", "baseFrequency",
+            "surfaceScale", "specularConstant", "specularExponent",
+            "diffuseConstant", "azimuth", "elevation", "pointsAtX",
+            "pointsAtY", "pointsAtZ", "limitingConeAngle", "radius",
+            "kernelMatrix", "divisor", "bias", "tableValues", "slope",
+            "intercept", "amplitude", "exponent"
+        };
+        NUMERIC_ATTRIBUTES.addAll(Arrays.asList(names));
+    }
+
+    // The types of the tokens.
+    private static final int NONE = 0;
+    private static final int NUMBER = 1;
+    private static final int COMMAND = 2;
+    private static final int WORD = 3;
+    private static final int OPEN = 4;
+    private static final int CLOSE = 5;
+
+    /**
+     * This class does not need to be instantiated.
+     */
+    private ValueMinifier() {
+    }
+
+    /**
+     * Returns the shortest form of the given attribute value.
+     * @param name The attribute name.
+     * @param value The attribute value, without entity references.
+     */
+    static String minify(char[] name, String value) {
+        String n = new String(name);
+        if (PATH_ATTRIBUTES.contains(n)) {
+            return minifyPathData(value);
+        }
+        if (NUMERIC_ATTRIBUTES.contains(n)) {
+            return minifyNumbers(value);
+        }
+        return value;
+    }
+
+    /**
+     * Shortens path data. The numbers are shortened, the separators
+     * that are not needed are removed and so are the repeated commands.
+     */
+    static String minifyPathData(String s) {
+        int len = s.length();
+        StringBuffer result = new StringBuffer(len);
+        StringBuffer number = new StringBuffer();
+        int prev = NONE;
+        boolean prevDot = false;
+        char command = 0;
+        int args = 0;
+        int i = 0;
+        while (i < len) {
+            char c = s.charAt(i);
+            if (isSeparator(c)) {
+                i++;
+                continue;
+            }
+            int j = scanNumber(s, i);
+            if (j > i) {
+                number.setLength(0);
+                if (command == 'A' || command == 'a') {
+                    // The flags can be written without separators.
+                    number.append(s, i, j);
+                } else {
+                    appendNumber(s, i, j, number);
+                }
+                char first = number.charAt(0);
+                if (prev == NUMBER &&
+                    first != '-' &&
+                    !(first == '.' && prevDot)) {
+                    result.append(' ');
+                }
+                result.append(number);
+                prevDot = hasDotOnly(number);
+                prev = NUMBER;
+                args++;
+                i = j;
+                continue;
+            }
+            int arity = arity(c);
+            if (arity == -1) {
+                return s;
+            }
+            int n = arity(command);
+            boolean implicit = n > 0 && args > 0 && args % n == 0 &&
+                ((c == command && c != 'M' && c != 'm') ||
+                 (command == 'M' && c == 'L') ||
+                 (command == 'm' && c == 'l'));
+            if (!implicit) {
+                result.append(c);
+                prev = COMMAND;
+            }
+            command = c;
+            args = 0;
+            i++;
+        }
+        return result.toString();
+    }
+
+    /**
+     * Shortens a list of numbers, lengths or transforms. The numbers are
+     * shortened and the separators are replaced by single spaces, or
+     * removed around parentheses.
+     */
+    static String minifyNumbers(String s) {
+        int len = s.length();
+        StringBuffer result = new StringBuffer(len);
+        int prev = NONE;
+        boolean separator = false;
+        int i = 0;
+        while (i < len) {
+            char c = s.charAt(i);
+            if (isSeparator(c)) {
+                separator = true;
+                i++;
+                continue;
+            }
+            int type;
+            int j;
+            if (c == '(' || c == ')') {
+                type = (c == '(') ? OPEN : CLOSE;
+                j = i + 1;
+            } else {
+                j = scanNumber(s, i);
+                if (j > i) {
+                    type = NUMBER;
+                } else {
+                    type = WORD;
+                    j = i + 1;
+                    while (j < len && !isSeparator(s.charAt(j)) &&
+                           s.charAt(j) != '(' && s.charAt(j) != ')') {
+                        j++;
+                    }
+                }
+            }
+            if (separator && prev != NONE && prev != OPEN &&
+                type != OPEN && type != CLOSE) {
+                result.append(' ');
+            }
+            if (type == NUMBER) {
+                appendNumber(s, i, j, result);
+                // The unit, if any.
+                int k = j;
+                while (k < len && (Character.isLetter(s.charAt(k)) ||
+                                   s.charAt(k) == '%')) {
+                    k++;
+                }
+                result.append(s, j, k);
+                j = k;
+            } else {
+                result.append(s, i, j);
+            }
+            prev = type;
+            separator = false;
+            i = j;
+        }
+        return result.toString();
+    }
+
+    /**
+     * Returns the index following the number that starts at the given
+     * index, or the given index if there is no number there.
+     */
+    static int scanNumber(String s, int i) {
+        int len = s.length();
+        int j = i;
+        if (j < len && (s.charAt(j) == '+' || s.charAt(j) == '-')) {
+            j++;
+        }
+        int digits = 0;
+        while (j < len && isDigit(s.charAt(j))) {
+            j++;
+            digits++;
+        }
+        if (j < len && s.charAt(j) == '.') {
+            int k = j + 1;
+            while (k < len && isDigit(s.charAt(k))) {
+                k++;
+                digits++;
+            }
+            if (digits > 0) {
+                j = k;
+            }
+        }
+        if (digits == 0) {
+            return i;
+        }
+        if (j < len && (s.charAt(j) == 'e' || s.charAt(j) == 'E')) {
+            int k = j + 1;
+            if (k < len && (s.charAt(k) == '+' || s.charAt(k) == '-')) {
+                k++;
+            }
+            if (k < len && isDigit(s.charAt(k))) {
+                while (k < len && isDigit(s.charAt(k))) {
+                    k++;
+                }
+                j = k;
+            }
+        }
+        return j;
+    }
+
+    /**
+     * Appends the shortest form of the number between the given indexes:
+     * the '+' signs and the leading and trailing zeros are removed.
+     */
+    static void appendNumber(String s, int start, int end,
+                             StringBuffer result) {
+        int i = start;
+        boolean negative = false;
+        char c = s.charAt(i);
+        if (c == '+' || c == '-') {
+            negative = c == '-';
+            i++;
+        }
+        int intStart = i;
+        while (i < end && isDigit(s.charAt(i))) {
+            i++;
+        }
+        int intEnd = i;
+        int fracStart = i;
+        int fracEnd = i;
+        if (i < end && s.charAt(i) == '.') {
+            fracStart = ++i;
+            while (i < end && isDigit(s.charAt(i))) {
+                i++;
+            }
+            fracEnd = i;
+        }
+        int expStart = i;
+
+        while (intStart < intEnd && s.charAt(intStart) == '0') {
+            intStart++;
+        }
+        while (fracEnd > fracStart && s.charAt(fracEnd - 1) == '0') {
+            fracEnd--;
+        }
+        if (intStart == intEnd && fracStart == fracEnd) {
+            result.append('0');
+            return;
+        }
+        if (negative) {
+            result.append('-');
+        }
+        result.append(s, intStart, intEnd);
+        if (fracStart < fracEnd) {
+            result.append('.');
+            result.append(s, fracStart, fracEnd);
+        }
+        if (expStart < end) {
+            int k = expStart + 1;
+            boolean negativeExp = false;
+            if (s.charAt(k) == '+' || s.charAt(k) == '-') {
+                negativeExp = s.charAt(k) == '-';
+                k++;
+            }
+            while (k < end - 1 && s.charAt(k) == '0') {
+                k++;
+            }
+            if (s.charAt(k) != '0') {
+                result.append('e');
+                if (negativeExp) {
+                    result.append('-');
+                }
+                result.append(s, k, end);
+            }
+        }
+    }
+
+    /**
+     * Returns the number of arguments of the given path command, 0 for
+     * the closepath command, -1 if the character is not a command.
+     */
+    private static int arity(char c) {
+        switch (c) {
+        case 'Z': case 'z':
+            return 0;
+        case 'H': case 'h': case 'V': case 'v':
+            return 1;
+        case 'M': case 'm': case 'L': case 'l': case 'T': case 't':
+            return 2;
+        case 'S': case 's': case 'Q': case 'q':
+            return 4;
+        case 'C': case 'c':
+            return 6;
+        case 'A': case 'a':
+            return 7;
+        default:
+            return -1;
+        }
+    }
+
+    /**
+     * Tells whether the given number has a fractional part and no
+     * exponent, so that a following number starting with '.' needs no
+     * separator.
+     */
+    private static boolean hasDotOnly(StringBuffer number) {
+        boolean dot = false;
+        for (int i = 0; i < number.length(); i++) {
+            char c = number.charAt(i);
+            if (c == '.') {
+                dot = true;
+            } else if (c == 'e' || c == 'E') {
+                return false;
+            }
+        }
+        return dot;
+    }
+
+    private static boolean isDigit(char c) {
+        return c >= '0' && c <= '9';
+    }
+
+    private static boolean isSeparator(char c) {
+        return c == ' ' || c == ',' || c == '\t' || c == '\n' || c == '\r';
+    }
+}
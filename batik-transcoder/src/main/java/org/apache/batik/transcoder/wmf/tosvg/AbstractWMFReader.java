@@ -56,6 +56,9 @@ public abstract class AbstractWMFReader {
 
     public int lastObjectIdx;
 
+    // Reused by readShort and readInt, which are called for each value.
+    private final byte[] readBuffer = new byte[ 4 ];
+
     public AbstractWMFReader() {
         scaleX = 1;
         scaleY = 1;
@@ -80,8 +83,8 @@ public abstract class AbstractWMFReader {
      * Read the next short (2 bytes) value in the DataInputStream.
      */
     protected short readShort(DataInputStream is) throws IOException {
-        byte[] js = new byte[ 2 ];
-        is.readFully(js);
+        byte[] js = readBuffer;
+        is.readFully(js, 0, 2);
         int iTemp = ((0xff) & js[ 1 ] ) << 8;
         short i = (short)(0xffff & iTemp);
         i |= ((0xff) & js[ 0 ] );
@@ -92,8 +95,8 @@ public abstract class AbstractWMFReader {
      * Read the next int (4 bytes) value in the DataInputStream.
      */
     protected int readInt( DataInputStream is) throws IOException {
-        byte[] js = new byte[ 4 ];
-        is.readFully(js);
+        byte[] js = readBuffer;
+        is.readFully(js, 0, 4);
         int i = ((0xff) & js[ 3 ] ) << 24;
         i |= ((0xff) & js[ 2 ] ) << 16;
         i |= ((0xff) & js[ 1 ] ) << 8;
@@ -76,6 +76,16 @@ public class WMFPainter extends AbstractWMFPainter {
     private boolean opaque = false;
     private transient boolean firstEffectivePaint = true;
 
+    // Device context state between two records.
+    private transient Graphics2D g2d;
+    private float fontHeight;
+    private float penWidth;
+    private float startX, startY;
+    private int brushObject = -1;
+    private int penObject = -1;
+    private int fontObject = -1;
+    private Stack dcStack;
+
     private static BasicStroke solid
         = new BasicStroke( 1.0f,
                            BasicStroke.CAP_BUTT,
@@ -129,53 +139,63 @@ public class WMFPainter extends AbstractWMFPainter {
      * Renders the WMF image(s).
      */
     public void paint( Graphics g ) {
+        if ( currentStore.isReading()) {
+            return;
+        }
+        startPaint( g );
+        int numRecords = currentStore.getNumRecords();
+        for ( int iRec = 0; iRec < numRecords; iRec++ ) {
+            paint( currentStore.getRecord( iRec ));
+        }
+    }
+
+    /**
+     * Resets the device context before the records are painted one at
+     * a time in <code>g</code> with {@link #paint(MetaRecord)}.  The
+     * record store must hold the header and the window extent of the
+     * metafile, but does not need to hold its records.
+     */
+    public void startPaint( Graphics g ) {
         // Objects on DC stack;
-        float fontHeight = 10;
-        float fontAngle = 0;
-        float penWidth = 0;
-        float startX = 0;
-        float startY = 0;
-        int brushObject = -1;
-        int penObject = -1;
-        int fontObject = -1;
-        Font font = null;
-        int lastObjectIdx;
-        Stack dcStack = new Stack();
+        fontHeight = 10;
+        penWidth = 0;
+        startX = 0;
+        startY = 0;
+        dcStack = new Stack();
 
-        int numRecords = currentStore.getNumRecords();
-        int numObjects = currentStore.getNumObjects();
         vpX = currentStore.getVpX() * scale;
         vpY = currentStore.getVpY() * scale;
         vpW = currentStore.getVpW() * scale;
         vpH = currentStore.getVpH() * scale;
 
-        if ( !currentStore.isReading()) {
-            GdiObject gdiObj;
-            int gdiIndex;
-            g.setPaintMode();
+        g.setPaintMode();
 
-            /** added stroke definition for lines
-             */
-            Graphics2D g2d = (Graphics2D)g;
-            g2d.setStroke(solid);
+        /** added stroke definition for lines
+         */
+        g2d = (Graphics2D)g;
+        g2d.setStroke(solid);
 
-            brushObject = -1;
-            penObject = -1;
-            fontObject = -1;
-            frgdColor = null;
-            bkgdColor = Color.white;
-            for ( int i = 0; i < numObjects; i++ ) {
-                gdiObj = currentStore.getObject( i );
-                gdiObj.clear();
-            }
+        brushObject = -1;
+        penObject = -1;
+        fontObject = -1;
+        frgdColor = null;
+        bkgdColor = Color.white;
+        int numObjects = currentStore.getNumObjects();
+        for ( int i = 0; i < numObjects; i++ ) {
+            currentStore.getObject( i ).clear();
+        }
 
-            float w = vpW;
-            float h = vpH;
+        g2d.setColor( Color.black );
+    }
 
-            g2d.setColor( Color.black );
+    /**
+     * Renders one record of the metafile.
+     */
+    public void paint( MetaRecord mr ) {
+        GdiObject gdiObj;
+        int gdiIndex;
+        int numObjects = currentStore.getNumObjects();
 
-            for ( int iRec = 0; iRec < numRecords; iRec++ ) {
-                MetaRecord mr = currentStore.getRecord( iRec );
 
                 switch ( mr.functionId ) {
                 case WMFConstants.META_SETWINDOWORG:
@@ -969,9 +989,6 @@ public class WMFPainter extends AbstractWMFPainter {
                     //os << " ------Unknown Function------";
                     break;
                 }
-            }
-
-        }
     }
 
     private Paint getPaint(byte[] bit) {
@@ -92,7 +92,7 @@ public class WMFRecordStore extends AbstractWMFReader {
                     int mapmode = readShort( is ); 
                     if (mapmode == WMFConstants.MM_ANISOTROPIC) isotropic = false;
                     mr.addElement(mapmode);
-                    records.add( mr );
+                    addRecord( mr );
             }
                 break;                
             case WMFConstants.META_DRAWTEXT:
@@ -151,7 +151,7 @@ public class WMFRecordStore extends AbstractWMFReader {
                         mr.addElement( x2 );
                         mr.addElement( y2 );
                     }
-                    records.add( mr );
+                    addRecord( mr );
                 }
                 break;
 
@@ -184,7 +184,7 @@ public class WMFRecordStore extends AbstractWMFReader {
 
                     mr.addElement( xVal );
                     mr.addElement( yVal );
-                    records.add( mr );
+                    addRecord( mr );
                 }
                 break;
 
@@ -229,7 +229,7 @@ public class WMFRecordStore extends AbstractWMFReader {
                     mr.addElement( lfOrientation );
                     // escapement is the orientation of the text in tenth of degrees
                     mr.addElement( lfEscapement );
-                    records.add( mr );
+                    addRecord( mr );
                 }
                 break;
 
@@ -269,7 +269,7 @@ public class WMFRecordStore extends AbstractWMFReader {
 
                     mr.addElement((int)(width  * scaleXY));
                     mr.addElement( height );
-                    records.add( mr );
+                    addRecord( mr );
                 }
                 break;
 
@@ -282,7 +282,7 @@ public class WMFRecordStore extends AbstractWMFReader {
                     int x = (int)(readShort( is ) * xSign * scaleXY);
                     mr.addElement( x );
                     mr.addElement( y );
-                    records.add( mr );
+                    addRecord( mr );
                 }
                 break;
 
@@ -299,7 +299,7 @@ public class WMFRecordStore extends AbstractWMFReader {
                     mr.addElement( ydenom );
                     mr.addElement( xnum );
                     mr.addElement( ynum );
-                    records.add( mr );
+                    addRecord( mr );
                     scaleX = scaleX * xdenom / xnum;
                     scaleY = scaleY * ydenom / ynum;
                 }
@@ -325,7 +325,7 @@ public class WMFRecordStore extends AbstractWMFReader {
                     // The hatch style
                     mr.addElement( readShort( is ) );
 
-                    records.add( mr );
+                    addRecord( mr );
                 }
                 break;
 
@@ -360,7 +360,7 @@ public class WMFRecordStore extends AbstractWMFReader {
                     // The pen width
                     mr.addElement( width );
 
-                    records.add( mr );
+                    addRecord( mr );
                 }
                 break;
 
@@ -372,7 +372,7 @@ public class WMFRecordStore extends AbstractWMFReader {
                     // need to do this, because sometimes there is more than one short
                     if (recSize > 1) for (int i = 1; i < recSize; i++) readShort( is );
                     mr.addElement( align );
-                    records.add( mr );
+                    addRecord( mr );
                 }
                 break;
 
@@ -390,7 +390,7 @@ public class WMFRecordStore extends AbstractWMFReader {
                     mr.addElement( red );
                     mr.addElement( green );
                     mr.addElement( blue );
-                    records.add( mr );
+                    addRecord( mr );
                 }
                 break;
 
@@ -404,7 +404,7 @@ public class WMFRecordStore extends AbstractWMFReader {
                     int x = (int)(readShort( is ) * xSign * scaleXY);
                     mr.addElement( x );
                     mr.addElement( y );
-                    records.add( mr );
+                    addRecord( mr );
                 }
                 break;
 
@@ -417,7 +417,7 @@ public class WMFRecordStore extends AbstractWMFReader {
                     // need to do this, because sometimes there is more than one short
                     if (recSize > 1) for (int i = 1; i < recSize; i++) readShort( is );
                     mr.addElement( mode );
-                    records.add( mr );
+                    addRecord( mr );
                 }
                 break;
 
@@ -446,7 +446,7 @@ public class WMFRecordStore extends AbstractWMFReader {
                             mr.addElement( readShort( is ) * ySign ); // y position of the polygon
                         }
                     }
-                    records.add( mr );
+                    addRecord( mr );
                 }
                 break;
 
@@ -462,7 +462,7 @@ public class WMFRecordStore extends AbstractWMFReader {
                         mr.addElement((int)(readShort( is ) * xSign * scaleXY));
                         mr.addElement( readShort( is ) * ySign );
                     }
-                    records.add( mr );
+                    addRecord( mr );
                 }
                 break;
 
@@ -481,7 +481,7 @@ public class WMFRecordStore extends AbstractWMFReader {
                     mr.addElement( top );
                     mr.addElement( right );
                     mr.addElement( bottom );
-                    records.add( mr );
+                    addRecord( mr );
                 }
                 break;
 
@@ -496,7 +496,7 @@ public class WMFRecordStore extends AbstractWMFReader {
                     mr.addElement( top );
                     mr.addElement( right );
                     mr.addElement( bottom );
-                    records.add( mr );
+                    addRecord( mr );
             }
             break;
 
@@ -516,7 +516,7 @@ public class WMFRecordStore extends AbstractWMFReader {
                     mr.addElement( bottom );
                     mr.addElement( el_width );
                     mr.addElement( el_height );
-                    records.add( mr );
+                    addRecord( mr );
                 }
                 break;
 
@@ -542,7 +542,7 @@ public class WMFRecordStore extends AbstractWMFReader {
                     mr.addElement( ystart );
                     mr.addElement( xend );
                     mr.addElement( yend );
-                    records.add( mr );
+                    addRecord( mr );
                 }
                 break;
 
@@ -564,7 +564,7 @@ public class WMFRecordStore extends AbstractWMFReader {
                     mr.addElement( top );
                     mr.addElement( left );
 
-                    records.add( mr );
+                    addRecord( mr );
                 }
                 break;
 
@@ -577,7 +577,7 @@ public class WMFRecordStore extends AbstractWMFReader {
                     mr.addElement( mode );
                     //if (recSize > 1) readShort( is );
                     if (recSize > 1) for (int i = 1; i < recSize; i++) readShort( is );
-                    records.add( mr );
+                    addRecord( mr );
                 }
                 break;
 
@@ -593,7 +593,7 @@ public class WMFRecordStore extends AbstractWMFReader {
                     else rop = readInt( is );
 
                     mr.addElement( rop );
-                    records.add( mr );
+                    addRecord( mr );
                 }
                 break;
             // UPDATED : META_DIBSTRETCHBLT added
@@ -625,7 +625,7 @@ public class WMFRecordStore extends AbstractWMFReader {
                     mr.addElement( widthDst );
                     mr.addElement( dy );
                     mr.addElement( dx );
-                    records.add( mr );
+                    addRecord( mr );
                 }
                 break;
             case WMFConstants.META_STRETCHDIB: {
@@ -656,7 +656,7 @@ public class WMFRecordStore extends AbstractWMFReader {
                     mr.addElement(widthDst); 
                     mr.addElement(dy);
                     mr.addElement(dx);                      
-                    records.add( mr );                
+                    addRecord( mr );                
             }
             break;                                                                                
             // UPDATED : META_DIBBITBLT added
@@ -693,7 +693,7 @@ public class WMFRecordStore extends AbstractWMFReader {
                     mr.addElement( sx );
                     mr.addElement( dy );
                     mr.addElement( dx );
-                    records.add( mr );
+                    addRecord( mr );
                 }
                 break;
             // UPDATED : META_CREATEPATTERNBRUSH added
@@ -708,7 +708,7 @@ public class WMFRecordStore extends AbstractWMFReader {
                     mr.numPoints = recSize;
                     mr.functionId = functionId;
                     mr.addElement( type );
-                    records.add( mr );
+                    addRecord( mr );
                 }
                 break;
             default:
@@ -718,7 +718,7 @@ public class WMFRecordStore extends AbstractWMFReader {
                 for ( int j = 0; j < recSize; j++ )
                     mr.addElement( readShort( is ) );
 
-                records.add( mr );
+                addRecord( mr );
                 break;
 
             }
@@ -739,6 +739,15 @@ public class WMFRecordStore extends AbstractWMFReader {
         return true;
     }
 
+    /**
+     * Adds a record read from the metafile to the store. Subclasses can
+     * override this method to process each record as soon as it is read
+     * instead of keeping it.
+     */
+    protected void addRecord( MetaRecord mr ) throws IOException {
+        records.add( mr );
+    }
+
     /**
      * Returns the current URL
      */
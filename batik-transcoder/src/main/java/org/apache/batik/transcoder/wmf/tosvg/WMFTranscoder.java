@@ -19,21 +19,31 @@
 
 package org.apache.batik.transcoder.wmf.tosvg;
 
-import java.awt.Dimension;
+import java.awt.Rectangle;
 import java.io.BufferedInputStream;
 import java.io.DataInputStream;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
 import java.net.MalformedURLException;
 import java.net.URL;
+import java.net.URLConnection;
+import java.util.ArrayList;
+import java.util.List;
 
 import org.apache.batik.svggen.SVGGraphics2D;
+import org.apache.batik.svggen.SVGStreamWriter;
 import org.apache.batik.transcoder.ToSVGAbstractTranscoder;
 import org.apache.batik.transcoder.TranscoderException;
 import org.apache.batik.transcoder.TranscoderInput;
 import org.apache.batik.transcoder.TranscoderOutput;
+import org.apache.batik.transcoder.TranscodingHints;
+import org.apache.batik.transcoder.keys.BooleanKey;
+import org.apache.batik.transcoder.wmf.WMFConstants;
 
 import org.w3c.dom.Document;
 import org.w3c.dom.Element;
@@ -80,11 +90,31 @@ import org.w3c.dom.Element;
  *  <pre>
  *     transcoder.addTranscodingHint(FromWMFTranscoder.KEY_WIDTH, Float.valueOf(width));
  *  </pre>
+ *  KEY_STREAMING : this Boolean value allows to write the SVG content while the metafile
+ *  is read, which keeps the memory used for large metafiles bounded:
+ *  <pre>
+ *     transcoder.addTranscodingHint(WMFTranscoder.KEY_STREAMING, Boolean.TRUE);
+ *  </pre>
  *
  * @version $Id$
  */
 public class WMFTranscoder extends ToSVGAbstractTranscoder {
 
+    /**
+     * Key to write the SVG content while the metafile is read, instead of
+     * building the whole SVG document first. This bounds the memory used
+     * to transcode large metafiles. It has no effect when the output is
+     * a <code>Document</code>.
+     */
+    public static final TranscodingHints.Key KEY_STREAMING
+        = new BooleanKey();
+
+    /**
+     * The number of records painted between two writes of the SVG content
+     * when streaming.
+     */
+    private static final int FLUSH_INTERVAL = 1000;
+
     /**
      * Default constructor
      */
@@ -104,6 +134,22 @@ public class WMFTranscoder extends ToSVGAbstractTranscoder {
         //
         DataInputStream is = getCompatibleInput(input);
 
+        if (hints.containsKey(KEY_STREAMING)
+                && (Boolean) hints.get(KEY_STREAMING)) {
+            Writer writer = getStreamingOutput(output);
+            if (writer != null) {
+                StreamingRecordStore store
+                    = new StreamingRecordStore(output, writer);
+                try {
+                    store.read(is);
+                    store.end();
+                } catch (IOException e){
+                    handler.fatalError(new TranscoderException(e));
+                }
+                return;
+            }
+        }
+
         //
         // Build a RecordStore from the input
         //
@@ -115,6 +161,33 @@ public class WMFTranscoder extends ToSVGAbstractTranscoder {
             return;
         }
 
+        // Build a painter for the RecordStore
+        Rectangle viewBox = new Rectangle();
+        WMFPainter painter = createPainter(currentStore, viewBox);
+
+        // Use SVGGraphics2D to generate SVG content
+        Document doc = this.createDocument(output);
+        svgGenerator = createGraphics2D(doc);
+
+        painter.paint(svgGenerator);
+
+        svgGenerator.setSVGCanvasSize(viewBox.getSize());
+
+        Element svgRoot = svgGenerator.getRoot();
+
+        setViewBox(svgRoot, viewBox);
+
+        // Now, write the SVG content to the output
+        writeSVGToOutput(svgGenerator, svgRoot, output);
+    }
+
+    /**
+     * Builds the painter for a record store holding the header and the
+     * window extent of the metafile, and computes the view box of the
+     * output.
+     */
+    private WMFPainter createPainter(WMFRecordStore currentStore,
+                                     Rectangle viewBox) {
         // determines the width and height of output image
         float wmfwidth; // width in pixels
         float wmfheight; // height in pixels
@@ -164,32 +237,141 @@ public class WMFTranscoder extends ToSVGAbstractTranscoder {
             vpW = (int)(currentStore.getWidthUnits() * sizeFactor);
             vpH = (int)(currentStore.getHeightUnits() * sizeFactor);
         }
+        viewBox.setBounds(vpX, vpY, vpW, vpH);
 
-        // Build a painter for the RecordStore
-        WMFPainter painter = new WMFPainter(currentStore, xOffset, yOffset, conv);
+        return new WMFPainter(currentStore, xOffset, yOffset, conv);
+    }
 
-        // Use SVGGraphics2D to generate SVG content
-        Document doc = this.createDocument(output);
-        svgGenerator = new SVGGraphics2D(doc);
+    private SVGGraphics2D createGraphics2D(Document doc) {
+        SVGGraphics2D g = new SVGGraphics2D(doc);
 
         /** set precision
          ** otherwise Ellipses aren't working (for example) (because of Decimal format
          * modifications ins SVGGenerator Context
          */
-        svgGenerator.getGeneratorContext().setPrecision(4);
+        g.getGeneratorContext().setPrecision(4);
+        return g;
+    }
 
-        painter.paint(svgGenerator);
+    private void setViewBox(Element svgRoot, Rectangle viewBox) {
+        svgRoot.setAttributeNS(null, SVG_VIEW_BOX_ATTRIBUTE,
+                                String.valueOf( viewBox.x ) + ' ' + viewBox.y + ' ' +
+                               viewBox.width + ' ' + viewBox.height );
+    }
+
+    /**
+     * Returns the writer the SVG content can be streamed to, or null if
+     * the output is a <code>Document</code>.
+     */
+    private Writer getStreamingOutput(TranscoderOutput output)
+        throws TranscoderException {
+        if (output.getDocument() != null)
+            return null;
 
-        svgGenerator.setSVGCanvasSize(new Dimension(vpW, vpH));
+        if (output.getXMLFilter() != null) {
+            handler.fatalError(new TranscoderException("" + ERROR_INCOMPATIBLE_OUTPUT_TYPE));
+        }
 
-        Element svgRoot = svgGenerator.getRoot();
+        OutputStream os = output.getOutputStream();
+        if (os != null) {
+            return new OutputStreamWriter(os);
+        }
 
-        svgRoot.setAttributeNS(null, SVG_VIEW_BOX_ATTRIBUTE,
-                                String.valueOf( vpX ) + ' ' + vpY + ' ' +
-                               vpW + ' ' + vpH );
+        Writer wr = output.getWriter();
+        if (wr != null) {
+            return wr;
+        }
 
-        // Now, write the SVG content to the output
-        writeSVGToOutput(svgGenerator, svgRoot, output);
+        String uri = output.getURI();
+        if (uri != null) {
+            try {
+                URLConnection urlCnx = new URL(uri).openConnection();
+                return new OutputStreamWriter(urlCnx.getOutputStream());
+            } catch (MalformedURLException e){
+                handler.fatalError(new TranscoderException(e));
+            } catch (IOException e){
+                handler.fatalError(new TranscoderException(e));
+            }
+        }
+
+        throw new TranscoderException("" + ERROR_INCOMPATIBLE_OUTPUT_TYPE);
+    }
+
+    /**
+     * A record store that paints each record as soon as it is read and
+     * streams the SVG content to a writer, so that only the GDI object
+     * table of the metafile is kept in memory.
+     * The painter can only be set up once the window extent is known:
+     * the records read before the first META_SETWINDOWEXT record are kept
+     * until then.
+     */
+    private class StreamingRecordStore extends WMFRecordStore {
+
+        private TranscoderOutput output;
+        private Writer writer;
+        private List pending = new ArrayList();
+        private WMFPainter painter;
+        private SVGStreamWriter svgWriter;
+        private int unflushed;
+
+        StreamingRecordStore(TranscoderOutput output, Writer writer) {
+            this.output = output;
+            this.writer = writer;
+        }
+
+        protected void addRecord( MetaRecord mr ) throws IOException {
+            if (painter != null) {
+                paint(mr);
+                return;
+            }
+            pending.add(mr);
+            if (mr.functionId == WMFConstants.META_SETWINDOWEXT) {
+                startPaint();
+            }
+        }
+
+        private void startPaint() throws IOException {
+            Rectangle viewBox = new Rectangle();
+            painter = createPainter(this, viewBox);
+
+            svgGenerator = createGraphics2D(createDocument(output));
+            svgGenerator.setSVGCanvasSize(viewBox.getSize());
+            Element svgRoot = svgGenerator.getDOMFactory().createElementNS
+                (SVG_NAMESPACE_URI, SVG_SVG_TAG);
+            setViewBox(svgRoot, viewBox);
+
+            boolean escaped = false;
+            if (hints.containsKey(KEY_ESCAPED)) {
+                escaped = (Boolean) hints.get(KEY_ESCAPED);
+            }
+            svgWriter = new SVGStreamWriter(svgGenerator, writer, escaped);
+            svgWriter.start(svgRoot);
+
+            painter.startPaint(svgGenerator);
+            List records = pending;
+            pending = null;
+            for (Object record : records) {
+                paint((MetaRecord) record);
+            }
+        }
+
+        private void paint(MetaRecord mr) throws IOException {
+            painter.paint(mr);
+            if (++unflushed == FLUSH_INTERVAL) {
+                svgWriter.flush();
+                unflushed = 0;
+            }
+        }
+
+        /**
+         * Writes the end of the SVG content, once the metafile is read.
+         */
+        void end() throws IOException {
+            if (painter == null) {
+                startPaint();
+            }
+            svgWriter.end();
+        }
     }
 
     /**
@@ -0,0 +1,267 @@
+/*
+
+   Licensed to the Apache Software Foundation (ASF) under one or more
+   contributor license agreements.  See the NOTICE file distributed with
+   this work for additional information regarding copyright ownership.
+   The ASF licenses this file to You under the Apache License, Version 2.0
+   (the "License"); you may not use this file except in compliance with
+   the License.  You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+ */
+package org.apache.batik.util;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * This class decodes Base64 data held in a string, such as the path
+ * of a 'data' URL.  Unlike {@link Base64DecodeStream} it reads the
+ * characters of the string itself, so the encoded data is not copied
+ * to a byte array first, and it decodes them a block at a time as the
+ * stream is read.
+ *
+ * <p>White space and characters outside of the Base64 alphabet are
+ * skipped, URL escapes ('%' followed by two hexadecimal digits) are
+ * decoded first, and the first padding character ends the data.  The
+ * string is released once all of it has been decoded or the stream is
+ * closed.</p>
+ *
+ * @version $Id$
+ */
+public class Base64StringDecodeStream extends InputStream {
+
+    /**
+     * The number of bytes decoded at a time.
+     */
+    private static final int BUFFER_SIZE = 3 * 1024;
+
+    /**
+     * The value of each Base64 character, -1 for other characters.
+     */
+    private static final byte[] DECODE = new byte[128];
+
+    static {
+        for (int i = 0; i < DECODE.length; i++)
+            DECODE[i] = -1;
+
+        int idx = 0;
+        for (char c = 'A'; c <= 'Z'; c++) {
+            DECODE[c] = (byte)idx++;
+        }
+        for (char c = 'a'; c <= 'z'; c++) {
+            DECODE[c] = (byte)idx++;
+        }
+        for (char c = '0'; c <= '9'; c++) {
+            DECODE[c] = (byte)idx++;
+        }
+        DECODE['+'] = (byte)idx++;
+        DECODE['/'] = (byte)idx++;
+    }
+
+    /**
+     * The encoded data, null once it has all been decoded.
+     */
+    protected String src;
+
+    /**
+     * The index of the next character to decode.
+     */
+    protected int pos;
+
+    /**
+     * The index after the last character to decode.
+     */
+    protected int end;
+
+    /**
+     * The bits of the characters of an incomplete group of four.
+     */
+    protected int bits;
+
+    /**
+     * The number of characters in <code>bits</code>.
+     */
+    protected int count;
+
+    /**
+     * The decoded bytes.
+     */
+    protected byte[] buffer = new byte[BUFFER_SIZE];
+
+    /**
+     * The index of the next byte to read in <code>buffer</code>.
+     */
+    protected int offset;
+
+    /**
+     * The number of bytes in <code>buffer</code>.
+     */
+    protected int length;
+
+    /**
+     * Creates a stream decoding all of <code>s</code>.
+     */
+    public Base64StringDecodeStream(String s) {
+        this(s, 0, s.length());
+    }
+
+    /**
+     * Creates a stream decoding the characters of <code>s</code> from
+     * <code>start</code> to <code>end</code> (exclusive).
+     */
+    public Base64StringDecodeStream(String s, int start, int end) {
+        this.src = s;
+        this.pos = start;
+        this.end = end;
+    }
+
+    public boolean markSupported() { return false; }
+
+    public void close() throws IOException {
+        src = null;
+        buffer = null;
+        offset = length = 0;
+    }
+
+    public int available() throws IOException {
+        return length - offset;
+    }
+
+    public int read() throws IOException {
+        if ((offset == length) && !fill())
+            return -1;
+        return buffer[offset++] & 0xFF;
+    }
+
+    public int read(byte[] out, int off, int len) throws IOException {
+        if (len == 0)
+            return 0;
+        int n = 0;
+        while (n < len) {
+            if ((offset == length) && !fill())
+                return (n == 0) ? -1 : n;
+            int l = Math.min(len - n, length - offset);
+            System.arraycopy(buffer, offset, out, off + n, l);
+            offset += l;
+            n += l;
+        }
+        return n;
+    }
+
+    public long skip(long n) throws IOException {
+        long skipped = 0;
+        while (skipped < n) {
+            if ((offset == length) && !fill())
+                break;
+            int l = (int)Math.min(n - skipped, length - offset);
+            offset += l;
+            skipped += l;
+        }
+        return skipped;
+    }
+
+    /**
+     * Decodes the next block of data into <code>buffer</code>.
+     * Returns false if there is no more data.
+     */
+    protected boolean fill() {
+        String s = src;
+        if (s == null)
+            return false;
+
+        byte[] buf = buffer;
+        int o = 0;
+        int p = pos;
+        int e = end;
+        int b = bits;
+        int n = count;
+        while ((o <= buf.length - 3) && (p < e)) {
+            if (n == 0) {
+                // Whole groups of four Base64 characters, the bulk of
+                // the data.
+                int groups = (buf.length - o) / 3;
+                int last = Math.min(e - 4, p + (groups - 1) * 4);
+                while (p <= last) {
+                    int c0 = s.charAt(p);
+                    int c1 = s.charAt(p + 1);
+                    int c2 = s.charAt(p + 2);
+                    int c3 = s.charAt(p + 3);
+                    if ((c0 | c1 | c2 | c3) >= 128)
+                        break;
+                    int v = ((DECODE[c0] << 18) | (DECODE[c1] << 12) |
+                             (DECODE[c2] << 6) | DECODE[c3]);
+                    if (v < 0)
+                        break;
+                    buf[o++] = (byte)(v >> 16);
+                    buf[o++] = (byte)(v >> 8);
+                    buf[o++] = (byte)v;
+                    p += 4;
+                }
+                if ((o > buf.length - 3) || (p >= e))
+                    break;
+            }
+
+            int c = s.charAt(p++);
+            if ((c == '%') && (p + 2 <= e)) {
+                int h = hexValue(s.charAt(p));
+                int l = hexValue(s.charAt(p + 1));
+                if ((h >= 0) && (l >= 0)) {
+                    c = (h << 4) | l;
+                    p += 2;
+                }
+            }
+            if (c == '=') {
+                // Padding: the data ends here.
+                p = e;
+                break;
+            }
+            int v = (c < 128) ? DECODE[c] : -1;
+            if (v < 0)
+                continue;
+
+            b = (b << 6) | v;
+            if (++n == 4) {
+                buf[o++] = (byte)(b >> 16);
+                buf[o++] = (byte)(b >> 8);
+                buf[o++] = (byte)b;
+                b = n = 0;
+            }
+        }
+
+        if ((p >= e) && (o <= buf.length - 2)) {
+            // The last group may have two or three characters.
+            if (n == 2) {
+                buf[o++] = (byte)(b >> 4);
+            } else if (n == 3) {
+                buf[o++] = (byte)(b >> 10);
+                buf[o++] = (byte)(b >> 2);
+            }
+            b = n = 0;
+            src = null;
+        }
+        pos = p;
+        bits = b;
+        count = n;
+        offset = 0;
+        length = o;
+        return o > 0;
+    }
+
+    /**
+     * Returns the value of a hexadecimal digit, -1 for other characters.
+     */
+    private static int hexValue(char c) {
+        if ((c >= '0') && (c <= '9')) return c - '0';
+        if ((c >= 'a') && (c <= 'f')) return c - 'a' + 10;
+        if ((c >= 'A') && (c <= 'F')) return c - 'A' + 10;
+        return -1;
+    }
+}
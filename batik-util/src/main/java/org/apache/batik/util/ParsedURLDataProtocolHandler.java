@@ -49,6 +49,7 @@ public class ParsedURLDataProtocolHandler
 
     public ParsedURLData parseURL(String urlStr) {
         DataParsedURLData ret = new DataParsedURLData();
+        String text = urlStr;
 
         int pidx=0, idx;
         int len = urlStr.length();
@@ -56,6 +57,9 @@ public class ParsedURLDataProtocolHandler
         // Pull fragment id off first...
         idx = urlStr.indexOf('#');
         ret.ref = null;
+        if (idx == len - 1)
+            // An empty fragment is dropped from the text of the URL.
+            text = null;
         if (idx != -1) {
             if (idx + 1 < len) {
                 ret.ref = urlStr.substring(idx + 1);
@@ -119,6 +123,11 @@ public class ParsedURLDataProtocolHandler
             ret.path = urlStr.substring(pidx);
         }
 
+        // When the URL is written the way toString() writes it, keep
+        // it rather than building a copy of the data each time.
+        if (DATA_PROTOCOL.equals(ret.protocol) && (ret.host != null))
+            ret.text = text;
+
         return ret;
     }
 
@@ -129,6 +138,11 @@ public class ParsedURLDataProtocolHandler
 
         String charset;
 
+        /**
+         * The text of this URL, if it is known.
+         */
+        String text;
+
         public boolean complete() {
             return path != null;
         }
@@ -143,6 +157,8 @@ public class ParsedURLDataProtocolHandler
         }
                 
         public String toString() {
+            if (text != null)
+                return text;
             String ret = getPortStr();
             if (path != null) {
                 ret += path;
@@ -172,9 +188,12 @@ public class ParsedURLDataProtocolHandler
         protected InputStream openStreamInternal
             (String userAgent, Iterator mimeTypes, Iterator encodingTypes)
             throws IOException {
-            stream = decode(path);
             if (BASE64.equals(contentEncoding)) {
-                stream = new Base64DecodeStream(stream);
+                // Decode the path itself rather than a copy of it.
+                stream = new Base64StringDecodeStream
+                    ((path == null) ? "" : path);
+            } else {
+                stream = decode(path);
             }
             return stream;
         }
@@ -18,13 +18,26 @@
  */
 package org.apache.batik.util;
 
+import java.util.ArrayList;
 import java.util.Iterator;
+import java.util.List;
 import java.util.NoSuchElementException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
  * This class represents an object which queues Runnable objects for
  * invocation in a single thread.
  *
+ * The runnables are kept in two lock free multiple producer, single
+ * consumer queues, one for preempting runnables and one for the
+ * others.  Threads scheduling runnables never block, and the queue
+ * thread drains them back to back without taking any lock; locks are
+ * only used to suspend the queue and to wait when it is empty.
+ *
  * @author <a href="mailto:stephane@hillion.org">Stephane Hillion</a>
  * @version $Id$
  */
@@ -81,18 +94,55 @@ public class RunnableQueue implements Runnable {
      * Used to indicate if the queue was resumed while
      * still running, so a 'resumed' event can be sent.
      */
-    protected boolean wasResumed;
+    protected volatile boolean wasResumed;
+
+    /**
+     * The lock used to wait for runnables, and returned by
+     * {@link #getIteratorLock()}.
+     */
+    private final Object lock = new Object();
+
+    /**
+     * Whether the queue thread is waiting on <code>lock</code> for a
+     * runnable.
+     */
+    private volatile boolean waiting;
+
+    /**
+     * The preempting runnables, run before any of <code>queue</code>.
+     */
+    private final LinkQueue preempted = new LinkQueue();
 
     /**
-     * The Runnable objects list, also used as synchronization point
-     * for pushing/poping runables.
+     * The runnables scheduled with invokeLater/invokeAndWait.
      */
-    private final DoublyLinkedList list = new DoublyLinkedList();
+    private final LinkQueue queue = new LinkQueue();
+
+    /**
+     * The pending coalesced runnables, by key.
+     */
+    private final ConcurrentMap coalesced = new ConcurrentHashMap();
+
+    /**
+     * The number of runnables waiting to be run.
+     */
+    private final AtomicInteger depth = new AtomicInteger();
+
+    /**
+     * Statistics on the runnables run, only written by the queue
+     * thread.  Latencies are in nanoseconds.
+     */
+    private volatile long invokedCount;
+    private volatile long totalLatency;
+    private volatile long maxLatency;
 
     /**
      * Count of preempt entries in queue, so preempt entries
      * can be kept properly ordered.
+     * @deprecated preempting runnables have a queue of their own and
+     *             this field is no longer used.
      */
+    @Deprecated
     protected int preemptCount;
 
     /**
@@ -157,54 +207,48 @@ public class RunnableQueue implements Runnable {
         Runnable rable;
         try {
             while (!HaltingThread.hasBeenHalted()) {
-                boolean callSuspended = false;
-                boolean callResumed   = false;
-                // Mutex for suspension work.
-                synchronized (stateLock) {
-                    if (state != RUNNING) {
-                        state = SUSPENDED;
-                        callSuspended = true;
+                if (state != RUNNING || wasResumed) {
+                    boolean callSuspended = false;
+                    boolean callResumed   = false;
+                    // Mutex for suspension work.
+                    synchronized (stateLock) {
+                        if (state != RUNNING) {
+                            state = SUSPENDED;
+                            callSuspended = true;
+                        }
                     }
-                }
-                if (callSuspended)
-                    executionSuspended();
+                    if (callSuspended)
+                        executionSuspended();
 
-                synchronized (stateLock) {
-                    while (state != RUNNING) {
-                        state = SUSPENDED;
+                    synchronized (stateLock) {
+                        while (state != RUNNING) {
+                            state = SUSPENDED;
 
-                        // notify suspendExecution in case it is
-                        // waiting til we shut down.
-                        stateLock.notifyAll();
+                            // notify suspendExecution in case it is
+                            // waiting til we shut down.
+                            stateLock.notifyAll();
 
-                        // Wait until resumeExecution called.
-                        try {
-                            stateLock.wait();
-                        } catch(InterruptedException ie) { }
-                    }
+                            // Wait until resumeExecution called.
+                            try {
+                                stateLock.wait();
+                            } catch(InterruptedException ie) { }
+                        }
 
-                    if (wasResumed) {
-                        wasResumed = false;
-                        callResumed = true;
+                        if (wasResumed) {
+                            wasResumed = false;
+                            callResumed = true;
+                        }
                     }
+
+                    if (callResumed)
+                        executionResumed();
                 }
 
-                if (callResumed)
-                    executionResumed();
-
-                // The following seriously stress tests the class
-                // for stuff happening between the two sync blocks.
-                //
-                // try {
-                //     Thread.sleep(1);
-                // } catch (InterruptedException ie) { }
-
-                synchronized (list) {
-                    if (state == SUSPENDING)
-                        continue;
-                    l = (Link)list.pop();
-                    if (preemptCount != 0) preemptCount--;
-                    if (l == null) {
+                l = poll();
+                if (l == null) {
+                    synchronized (lock) {
+                        if (state != RUNNING)
+                            continue;
                         // No item to run, see if there is an idle runnable
                         // to run instead.
                         if (idleRunnable != null &&
@@ -212,26 +256,38 @@ public class RunnableQueue implements Runnable {
                                     < System.currentTimeMillis()) {
                             rable = idleRunnable;
                         } else {
-                            // Wait for a runnable.
+                            // Wait for a runnable.  Producers only
+                            // notify when they see 'waiting' set, so
+                            // it must be set before checking the queues.
+                            waiting = true;
                             try {
-                                if (idleRunnable != null && idleRunnableWaitTime
-                                        != Long.MAX_VALUE) {
-                                    long t = idleRunnableWaitTime
-                                        - System.currentTimeMillis();
-                                    if (t > 0) {
-                                        list.wait(t);
+                                if (preempted.isEmpty() && queue.isEmpty()) {
+                                    if (idleRunnable != null && idleRunnableWaitTime
+                                            != Long.MAX_VALUE) {
+                                        long t = idleRunnableWaitTime
+                                            - System.currentTimeMillis();
+                                        if (t > 0) {
+                                            lock.wait(t);
+                                        }
+                                    } else {
+                                        lock.wait();
                                     }
-                                } else {
-                                    list.wait();
                                 }
                             } catch (InterruptedException ie) {
                                 // just loop again.
+                            } finally {
+                                waiting = false;
                             }
                             continue; // start loop over again...
                         }
-                    } else {
-                        rable = l.runnable;
                     }
+                } else {
+                    rable = l.runnable;
+                    long latency = System.nanoTime() - l.time;
+                    invokedCount++;
+                    totalLatency += latency;
+                    if (latency > maxLatency)
+                        maxLatency = latency;
                 }
 
                 try {
@@ -264,21 +320,63 @@ public class RunnableQueue implements Runnable {
                 }
             }
         } finally {
-            do {
-                // Empty the list of pending runnables and unlock them (so
-                // invokeAndWait will return).
-                // It's up to the runnables to check if the runnable actually
-                // ran, if that is important.
-                synchronized (list) {
-                    l = (Link)list.pop();
-                }
-                if (l == null) break;
-                else           l.unlock();
-            } while (true);
+            // Empty the queues of pending runnables and unlock them (so
+            // invokeAndWait will return).
+            // It's up to the runnables to check if the runnable actually
+            // ran, if that is important.
+            drain();
 
             synchronized (this) {
                 runnableQueueThread = null;
             }
+            // Catch anything scheduled while we were shutting down.
+            drain();
+        }
+    }
+
+    /**
+     * Removes the next runnable to run from the queues, or returns
+     * null if there is none.  Only called by the queue thread.
+     */
+    private Link poll() {
+        for (;;) {
+            Link l = preempted.poll();
+            if (l == null)
+                l = queue.poll();
+            if (l == null)
+                return null;
+            if (l instanceof CoalescedLink) {
+                CoalescedLink cl = (CoalescedLink)l;
+                if (!cl.take())
+                    // Replaced by a later runnable with the same key.
+                    continue;
+                coalesced.remove(cl.key, cl);
+            }
+            depth.decrementAndGet();
+            return l;
+        }
+    }
+
+    /**
+     * Unlocks all the pending runnables.
+     */
+    private void drain() {
+        Link l;
+        while ((l = poll()) != null)
+            l.unlock();
+    }
+
+    /**
+     * Adds a link to one of the queues and wakes the queue thread if
+     * it is waiting.
+     */
+    private void offer(LinkQueue q, Link l) {
+        depth.incrementAndGet();
+        q.offer(l);
+        if (waiting) {
+            synchronized (lock) {
+                lock.notify();
+            }
         }
     }
 
@@ -302,10 +400,50 @@ public class RunnableQueue implements Runnable {
             throw new IllegalStateException
                 ("RunnableQueue not started or has exited");
         }
-        synchronized (list) {
-            list.push(new Link(r));
-            list.notify();
+        offer(queue, new Link(r));
+    }
+
+    /**
+     * Schedules the given Runnable object for a later invocation if
+     * the queue is running, and returns.  Unlike checking getThread()
+     * before calling invokeLater, this never throws if the queue
+     * exits concurrently.
+     * @param r the runnable to run.
+     * @return false if the RunnableQueue was not started or has
+     *         exited, in which case <code>r</code> is not scheduled.
+     */
+    public boolean tryInvokeLater(Runnable r) {
+        if (runnableQueueThread == null)
+            return false;
+        offer(queue, new Link(r));
+        return true;
+    }
+
+    /**
+     * Schedules the given Runnable object for a later invocation, and
+     * returns.  A runnable scheduled earlier with an equal key that
+     * has not started yet is dropped, so only the last of a series
+     * of equivalent updates is run.
+     * An exception is thrown if the RunnableQueue was not started.
+     * @param r the runnable to run.
+     * @param key the key identifying equivalent runnables, or null
+     *        to schedule <code>r</code> like {@link #invokeLater(Runnable)}.
+     * @throws IllegalStateException if getThread() is null.
+     */
+    public void invokeLater(Runnable r, Object key) {
+        if (key == null) {
+            invokeLater(r);
+            return;
+        }
+        if (runnableQueueThread == null) {
+            throw new IllegalStateException
+                ("RunnableQueue not started or has exited");
         }
+        CoalescedLink l = new CoalescedLink(r, key);
+        CoalescedLink old = (CoalescedLink)coalesced.put(key, l);
+        offer(queue, l);
+        if (old != null && old.cancel())
+            depth.decrementAndGet();
     }
 
     /**
@@ -327,11 +465,8 @@ public class RunnableQueue implements Runnable {
         }
 
         LockableLink l = new LockableLink(r);
-        synchronized (list) {
-            list.push(l);
-            list.notify();
-        }
-        l.lock();           // todo: the 'other side' of list may retrieve the l before it is locked...
+        offer(queue, l);
+        l.lock();
     }
 
 
@@ -348,11 +483,7 @@ public class RunnableQueue implements Runnable {
             throw new IllegalStateException
                 ("RunnableQueue not started or has exited");
         }
-        synchronized (list) {
-            list.add(preemptCount, new Link(r));
-            preemptCount++;
-            list.notify();
-        }
+        offer(preempted, new Link(r));
     }
 
     /**
@@ -376,12 +507,8 @@ public class RunnableQueue implements Runnable {
         }
 
         LockableLink l = new LockableLink(r);
-        synchronized (list) {
-            list.add(preemptCount, l);
-            preemptCount++;
-            list.notify();
-        }
-        l.lock();               // todo: the 'other side' of list may retrieve the l before it is locked...
+        offer(preempted, l);
+        l.lock();
     }
 
     public RunnableQueueState getQueueState() {
@@ -419,11 +546,11 @@ public class RunnableQueue implements Runnable {
 
             if (state == RUNNING) {
                 state = SUSPENDING;
-                synchronized (list) {
+                synchronized (lock) {
                     // Wake up run thread if it is waiting for jobs,
                     // so we go into the suspended case (notifying
                     // run-handler etc...)
-                    list.notify();
+                    lock.notify();
                 }
             }
 
@@ -459,39 +586,48 @@ public class RunnableQueue implements Runnable {
     }
 
     /**
-     * Returns iterator lock to use to work with the iterator
-     * returned by iterator().
+     * Returns the lock the queue thread waits on when it has nothing
+     * to run.  Notifying it makes the queue check its idle runnable
+     * again.  Holding it no longer stops runnables from being
+     * scheduled or run: use {@link #getPendingRunnables()} to look at
+     * the pending runnables and {@link #tryInvokeLater(Runnable)} to
+     * schedule a runnable only if the queue is running.
      */
     public Object getIteratorLock() {
-        return list;
+        return lock;
     }
 
     /**
-     * Returns an iterator over the runnables.
+     * Returns an iterator over the runnables waiting to be run,
+     * preempting ones first.  The iterator is weakly consistent: it
+     * may return runnables that have started since it was created,
+     * and may miss runnables scheduled afterwards.  Use
+     * {@link #invokeLater(Runnable,Object)} rather than the iterator
+     * to replace pending runnables.
      */
     public Iterator iterator() {
         return new Iterator() {
-                Link head = (Link)list.getHead();
-                Link link;
-                public boolean hasNext() {
-                    if (head == null) {
-                        return false;
+                LinkQueue q = preempted;
+                Link next = advance(preempted.first());
+                Link advance(Link l) {
+                    for (;;) {
+                        while (l != null && !l.isPending())
+                            l = l.nextLink;
+                        if (l != null || q == queue)
+                            return l;
+                        q = queue;
+                        l = queue.first();
                     }
-                    if (link == null) {
-                        return true;
-                    }
-                    return link != head;
+                }
+                public boolean hasNext() {
+                    return next != null;
                 }
                 public Object next() {
-                    if (head == null || head == link) {
+                    if (next == null) {
                         throw new NoSuchElementException();
                     }
-                    if (link == null) {
-                        link = (Link)head.getNext();
-                        return head.runnable;
-                    }
-                    Object result = link.runnable;
-                    link = (Link)link.getNext();
+                    Object result = next.runnable;
+                    next = advance(next.nextLink);
                     return result;
                 }
                 public void remove() {
@@ -500,6 +636,53 @@ public class RunnableQueue implements Runnable {
             };
     }
 
+    /**
+     * Returns a snapshot of the runnables waiting to be run,
+     * preempting ones first.  Runnables scheduled while the snapshot
+     * is taken may be missing.  As only the queue thread runs
+     * runnables, when called from it every runnable of the snapshot
+     * is still pending on return.
+     */
+    public List getPendingRunnables() {
+        List result = new ArrayList(getQueueDepth());
+        Iterator i = iterator();
+        while (i.hasNext())
+            result.add(i.next());
+        return result;
+    }
+
+    /**
+     * Returns the number of runnables waiting to be run.
+     */
+    public int getQueueDepth() {
+        return Math.max(depth.get(), 0);
+    }
+
+    /**
+     * Returns the number of runnables run so far, not counting the
+     * idle runnable.
+     */
+    public long getInvokedCount() {
+        return invokedCount;
+    }
+
+    /**
+     * Returns the average time, in milliseconds, runnables waited in
+     * the queue before being run.
+     */
+    public double getAverageLatency() {
+        long n = invokedCount;
+        return (n == 0) ? 0 : totalLatency / (n * 1e6);
+    }
+
+    /**
+     * Returns the longest time, in milliseconds, a runnable waited in
+     * the queue before being run.
+     */
+    public double getMaxLatency() {
+        return maxLatency / 1e6;
+    }
+
     /**
      * Sets the RunHandler for this queue.
      */
@@ -518,10 +701,10 @@ public class RunnableQueue implements Runnable {
      * Sets a Runnable to be run whenever the queue is empty.
      */
     public void setIdleRunnable(IdleRunnable r) {
-        synchronized (list) {
+        synchronized (lock) {
             idleRunnable = r;
             idleRunnableWaitTime = 0;
-            list.notify();
+            lock.notify();
         }
     }
 
@@ -643,20 +826,40 @@ public class RunnableQueue implements Runnable {
     }
 
     /**
-     * To store a Runnable.
+     * To store a Runnable.  The queues chain links through
+     * <code>nextLink</code>; the DoublyLinkedList.Node links are no
+     * longer used.
      */
     protected static class Link extends DoublyLinkedList.Node {
 
+        /**
+         * The next link in the queue.
+         */
+        volatile Link nextLink;
+
         /**
          * The Runnable.
          */
         private final Runnable runnable;
 
+        /**
+         * The time the link was created, from System.nanoTime().
+         */
+        final long time;
+
         /**
          * Creates a new link.
          */
         public Link(Runnable r) {
             runnable = r;
+            time = (r == null) ? 0 : System.nanoTime();
+        }
+
+        /**
+         * Whether the runnable still has to be run.
+         */
+        boolean isPending() {
+            return true;
         }
 
         /**
@@ -666,6 +869,96 @@ public class RunnableQueue implements Runnable {
         public void unlock() { return; }
     }
 
+    /**
+     * To store a Runnable scheduled with a coalescing key.
+     */
+    static class CoalescedLink extends Link {
+
+        private static final AtomicIntegerFieldUpdater STATE
+            = AtomicIntegerFieldUpdater.newUpdater
+                (CoalescedLink.class, "state");
+
+        private static final int PENDING   = 0;
+        private static final int TAKEN     = 1;
+        private static final int CANCELLED = 2;
+
+        final Object key;
+
+        private volatile int state;
+
+        CoalescedLink(Runnable r, Object key) {
+            super(r);
+            this.key = key;
+        }
+
+        boolean isPending() {
+            return state == PENDING;
+        }
+
+        /**
+         * Claims the runnable for running.  Returns false if it was
+         * replaced by a later one.
+         */
+        boolean take() {
+            return STATE.compareAndSet(this, PENDING, TAKEN);
+        }
+
+        /**
+         * Drops the runnable.  Returns false if it already started.
+         */
+        boolean cancel() {
+            return STATE.compareAndSet(this, PENDING, CANCELLED);
+        }
+    }
+
+    /**
+     * A lock free, multiple producer single consumer linked queue of
+     * links (D. Vyukov's intrusive queue).  The head is a consumed
+     * link, or the initial stub, and producers append by swapping the
+     * tail.
+     */
+    static final class LinkQueue {
+
+        private volatile Link head = new Link(null);
+
+        private final AtomicReference tail = new AtomicReference(head);
+
+        /**
+         * Appends a link.  May be called by any thread.
+         */
+        void offer(Link l) {
+            Link prev = (Link)tail.getAndSet(l);
+            prev.nextLink = l;
+        }
+
+        /**
+         * Removes the first link.  Returns null if the queue is empty,
+         * or if the first link is still being appended.  Only called
+         * by the consumer.
+         */
+        Link poll() {
+            Link n = head.nextLink;
+            if (n == null)
+                return null;
+            head = n;
+            return n;
+        }
+
+        /**
+         * Returns the first link, or null.
+         */
+        Link first() {
+            return head.nextLink;
+        }
+
+        /**
+         * Returns true if no link was appended since the last poll.
+         */
+        boolean isEmpty() {
+            return tail.get() == head;
+        }
+    }
+
     /**
      * To store a Runnable with an object waiting for him to be executed.
      */
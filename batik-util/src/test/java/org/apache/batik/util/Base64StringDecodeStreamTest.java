@@ -0,0 +1,140 @@
+/*
+
+   Licensed to the Apache Software Foundation (ASF) under one or more
+   contributor license agreements.  See the NOTICE file distributed with
+   this work for additional information regarding copyright ownership.
+   The ASF licenses this file to You under the Apache License, Version 2.0
+   (the "License"); you may not use this file except in compliance with
+   the License.  You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+ */
+package org.apache.batik.util;
+
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Random;
+
+import org.apache.batik.test.AbstractTest;
+
+/**
+ * Checks that Base64StringDecodeStream decodes what Base64EncoderStream
+ * encodes, whatever the length of the data and the way the stream is
+ * read, and that it skips white space and decodes URL escapes.
+ *
+ * @version $Id$
+ */
+public class Base64StringDecodeStreamTest extends AbstractTest {
+
+    public boolean runImplBasic() throws Exception {
+        Random rand = new Random(5);
+        int[] lengths = { 0, 1, 2, 3, 4, 5, 100, 3071, 3072, 3073,
+                          3074, 6144, 10000 };
+        for (int i = 0; i < lengths.length; i++) {
+            byte[] data = new byte[lengths[i]];
+            rand.nextBytes(data);
+            String encoded = encode(data);
+            checkDecode(encoded, data, rand);
+
+            // Unpadded data.
+            int pad = encoded.indexOf('=');
+            if (pad != -1)
+                checkDecode(encoded.substring(0, pad), data, rand);
+
+            // URL escapes and white space.
+            StringBuffer sb = new StringBuffer();
+            for (int j = 0; j < encoded.length(); j++) {
+                char c = encoded.charAt(j);
+                switch (rand.nextInt(8)) {
+                case 0:
+                    // The encoded data has line breaks.
+                    sb.append((c < 16) ? "%0" : "%");
+                    sb.append(Integer.toHexString(c));
+                    break;
+                case 1:
+                    sb.append(c);
+                    sb.append("%20");
+                    break;
+                case 2:
+                    sb.append(c);
+                    sb.append('\n');
+                    break;
+                default:
+                    sb.append(c);
+                }
+            }
+            checkDecode(sb.toString(), data, rand);
+
+            // A range of a string.
+            String s = "data:," + encoded + "#ref";
+            InputStream is = new Base64StringDecodeStream
+                (s, 6, 6 + encoded.length());
+            assertSame(data, read(is, rand));
+        }
+
+        // The first padding character ends the data.
+        assertSame(new byte[] { 'G', 'I' },
+                     read(new Base64StringDecodeStream("R0k=R0lG"), rand));
+
+        InputStream is = new Base64StringDecodeStream("R0lGODdh");
+        assertEquals('G', is.read());
+        is.close();
+        assertEquals(-1, is.read());
+        return true;
+    }
+
+    /**
+     * Returns the Base64 encoding of <code>data</code>.
+     */
+    static String encode(byte[] data) throws Exception {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        OutputStream os = new Base64EncoderStream(bos);
+        os.write(data);
+        os.close();
+        return bos.toString("US-ASCII");
+    }
+
+    private void checkDecode(String encoded, byte[] data, Random rand)
+        throws Exception {
+        assertSame(data, read(new Base64StringDecodeStream(encoded), rand));
+    }
+
+    /**
+     * Reads all of a stream, a byte or a block of random length at a
+     * time.
+     */
+    private byte[] read(InputStream is, Random rand) throws Exception {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        byte[] buf = new byte[5000];
+        while (true) {
+            if (rand.nextBoolean()) {
+                int b = is.read();
+                if (b == -1)
+                    break;
+                bos.write(b);
+            } else {
+                int len = is.read(buf, 1, 1 + rand.nextInt(buf.length - 1));
+                if (len == -1)
+                    break;
+                bos.write(buf, 1, len);
+            }
+        }
+        assertEquals(-1, is.read());
+        return bos.toByteArray();
+    }
+
+    private void assertSame(byte[] expected, byte[] actual)
+        throws Exception {
+        assertEquals(expected.length, actual.length);
+        for (int i = 0; i < expected.length; i++)
+            assertEquals(expected[i], actual[i]);
+    }
+}